@@ -1,5 +1,6 @@
 package de.androidcrypto.talktoyourdesfirecard;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.Key;
@@ -47,6 +48,8 @@ public byte[] calculateDiverseKey(byte [] input) throws InvalidKeyException, NoS
 
     private byte[] buffer;
     private int bufferCount;
+    private final byte[] blockInput = new byte[BLOCK_SIZE]; // used for ByteBuffers without backing array
+    private final byte[] blockOutput = new byte[BLOCK_SIZE]; // the intermediate CBC output is not needed
 
     private byte[] k1;
     private byte[] k2;
@@ -110,41 +113,82 @@ public byte[] calculateDiverseKey(byte [] input) throws InvalidKeyException, NoS
     }
 
     public final void updateByte(byte b) {
-        updateBlock(new byte[] { b });
+        if (bufferCount == BLOCK_SIZE) {
+            processBuffer();
+        }
+        buffer[bufferCount++] = b;
     }
 
     public final void updateBlock(byte[] data) {
-        int currentOffset = 0;
+        update(data, 0, data.length);
+    }
 
-        if (data.length < BLOCK_SIZE-bufferCount) {
-            System.arraycopy(data, 0, buffer, bufferCount, data.length);
-            bufferCount += data.length;
-            return;
-        } else if (bufferCount > 0) {
-            System.arraycopy(data, 0, buffer, bufferCount, BLOCK_SIZE-bufferCount);
-            try {
-                aesCipher.update(buffer, 0, BLOCK_SIZE, buffer, 0);
-            } catch (ShortBufferException sbe) {}
-            currentOffset += BLOCK_SIZE-bufferCount;
-            bufferCount = 0;
+    /**
+     * feeds 'length' bytes of data, beginning at 'offset', into the CMAC calculation. The method can be called
+     * several times before doFinal, e.g. to stream a MAC input without concatenating the parts first.
+     * Note: the last complete block is kept in the buffer as it needs to be XORed with K1 in doFinal.
+     */
+    public final void update(byte[] data, int offset, int length) {
+        if ((offset < 0) || (length < 0) || (offset + length > data.length)) {
+            throw new IllegalArgumentException("offset or length out of range");
         }
-
-        // Transform all the full blocks in data
-        while (currentOffset+BLOCK_SIZE < data.length) {
-            try {
-                aesCipher.update(data, currentOffset, BLOCK_SIZE, buffer, 0);
-            } catch (ShortBufferException sbe) {}
-            currentOffset += BLOCK_SIZE;
+        while (length > 0) {
+            if (bufferCount == BLOCK_SIZE) {
+                processBuffer();
+            }
+            if ((bufferCount == 0) && (length > BLOCK_SIZE)) {
+                // this is not the last block, transform it directly from the input
+                try {
+                    aesCipher.update(data, offset, BLOCK_SIZE, blockOutput, 0);
+                } catch (ShortBufferException sbe) {}
+                offset += BLOCK_SIZE;
+                length -= BLOCK_SIZE;
+                continue;
+            }
+            int bytesToCopy = Math.min(length, BLOCK_SIZE - bufferCount);
+            System.arraycopy(data, offset, buffer, bufferCount, bytesToCopy);
+            bufferCount += bytesToCopy;
+            offset += bytesToCopy;
+            length -= bytesToCopy;
         }
+    }
 
-        // Save the leftover bytes to buffer
-        if (currentOffset != data.length) {
-            System.arraycopy(data, currentOffset, buffer, 0, data.length-currentOffset);
-            bufferCount = data.length-currentOffset;
+    /**
+     * feeds all remaining bytes of the ByteBuffer into the CMAC calculation, the position is set to the limit
+     */
+    public final void update(ByteBuffer data) {
+        if (data.hasArray()) {
+            update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+            return;
+        }
+        while (data.hasRemaining()) {
+            int bytesToCopy = Math.min(data.remaining(), BLOCK_SIZE);
+            data.get(blockInput, 0, bytesToCopy);
+            update(blockInput, 0, bytesToCopy);
         }
     }
 
+    private void processBuffer() {
+        try {
+            aesCipher.update(buffer, 0, BLOCK_SIZE, blockOutput, 0);
+        } catch (ShortBufferException sbe) {}
+        bufferCount = 0;
+    }
+
     public final byte[] doFinal() {
+        byte[] mac = new byte[macLength];
+        doFinal(mac, 0);
+        return mac;
+    }
+
+    /**
+     * finishes the CMAC calculation and writes the MAC to 'out', beginning at 'offset'.
+     * The instance is ready for the next calculation with the same key afterwards.
+     *
+     * @return the length of the MAC
+     */
+    public final int doFinal(byte[] out, int offset) {
         byte[] subKey = k1;
         if (bufferCount < BLOCK_SIZE) {
             // Add padding and XOR with k2 instead
@@ -167,9 +211,8 @@ public byte[] calculateDiverseKey(byte [] input) throws InvalidKeyException, NoS
         catch (BadPaddingException ibse) {}
         bufferCount = 0;
 
-        byte[] mac = new byte[macLength];
-        System.arraycopy(buffer, 0, mac, 0, macLength);
-        return  mac;
+        System.arraycopy(buffer, 0, out, offset, macLength);
+        return macLength;
     }
 
     public final byte[] calculateHash(byte[] data) {
@@ -0,0 +1,46 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.io.IOException;
+
+/**
+ * This interface decouples the DesfireEv3 protocol layer from the Android NFC stack.
+ * All commands of DesfireEv3 are sent through 'transceive', so the class can run against
+ * a real tag (see IsoDepTransport) or against the in-memory card (see SimulatedDesfireCard)
+ * on a plain JVM, e.g. for load tests or benchmarks.
+ */
+
+public interface ApduTransport {
+
+    /**
+     * sends a complete (wrapped) APDU to the PICC and returns the full response
+     * including the trailing status bytes (e.g. 0x9100)
+     *
+     * @param apdu the wrapped command APDU
+     * @return the response APDU including the 2 status bytes
+     * @throws IOException if the connection to the PICC is lost or the transceive failed
+     */
+    byte[] transceive(byte[] apdu) throws IOException;
+
+    /**
+     * @return true if the PICC is (still) in the field and commands can be sent
+     */
+    boolean isConnected();
+
+    /**
+     * @return the maximum length of a command APDU the reader can transceive, see IsoDep.getMaxTransceiveLength()
+     */
+    int getMaxTransceiveLength();
+
+    /**
+     * @return the UID of the PICC (the tag id), used as key of the FileSettingsCache, null if unknown
+     * Note: a PICC with random UID returns a new value on each activation
+     */
+    byte[] getTagId();
+
+    /**
+     * @return the Answer To Select (TL || T0 || TA || TB || TC || historical bytes) of the PICC, used for the
+     * frame size negotiation, null if unknown
+     * Note: Android's IsoDep exposes the historical bytes only but not the format byte T0 with the FSCI
+     */
+    byte[] getAts();
+}
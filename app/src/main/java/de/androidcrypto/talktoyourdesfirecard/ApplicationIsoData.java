@@ -0,0 +1,78 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.util.Arrays;
+
+/**
+ * One record of the GetDFNames (0x6D) response: the PICC returns one application per frame, coded as
+ * AID (3 bytes, LSB first) || ISO File ID (2 bytes) || ISO DF Name (0..16 bytes).
+ * Only applications that were created with an ISO File ID are listed by the PICC.
+ */
+
+public class ApplicationIsoData {
+
+    public static final int MINIMUM_RECORD_LENGTH = 5;
+    public static final int MAXIMUM_RECORD_LENGTH = 21; // AID + ISO File ID + 16 bytes DF Name
+
+    private final byte[] applicationIdentifier;
+    private final byte[] isoFileId;
+    private final byte[] dfName;
+
+    public ApplicationIsoData(byte[] applicationIdentifier, byte[] isoFileId, byte[] dfName) {
+        if ((applicationIdentifier == null) || (applicationIdentifier.length != 3)) {
+            throw new IllegalArgumentException("applicationIdentifier is not of length 3");
+        }
+        if ((isoFileId == null) || (isoFileId.length != 2)) {
+            throw new IllegalArgumentException("isoFileId is not of length 2");
+        }
+        if ((dfName == null) || (dfName.length > 16)) {
+            throw new IllegalArgumentException("dfName is NULL or longer than 16 bytes");
+        }
+        this.applicationIdentifier = applicationIdentifier.clone();
+        this.isoFileId = isoFileId.clone();
+        this.dfName = dfName.clone();
+    }
+
+    /**
+     * parses the data of one response frame (without the status bytes)
+     *
+     * @param frameData | the response frame
+     * @param offset    | the start of the record
+     * @param length    | the length of the record, range 5..21
+     */
+    public static ApplicationIsoData parse(byte[] frameData, int offset, int length) {
+        if ((frameData == null) || (offset < 0) || (offset + length > frameData.length)) {
+            throw new IllegalArgumentException("frameData is NULL or too short");
+        }
+        if ((length < MINIMUM_RECORD_LENGTH) || (length > MAXIMUM_RECORD_LENGTH)) {
+            throw new IllegalArgumentException("record length " + length + " is not in range 5..21");
+        }
+        return new ApplicationIsoData(
+                Arrays.copyOfRange(frameData, offset, offset + 3),
+                Arrays.copyOfRange(frameData, offset + 3, offset + 5),
+                Arrays.copyOfRange(frameData, offset + 5, offset + length));
+    }
+
+    public byte[] getApplicationIdentifier() {
+        return applicationIdentifier.clone();
+    }
+
+    public byte[] getIsoFileId() {
+        return isoFileId.clone();
+    }
+
+    public byte[] getDfName() {
+        return dfName.clone();
+    }
+
+    public boolean isApplicationIdentifier(byte[] aid) {
+        return Arrays.equals(applicationIdentifier, aid);
+    }
+
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("applicationIdentifier: ").append(Utils.bytesToHexNpeUpperCase(applicationIdentifier)).append("\n");
+        sb.append("isoFileId: ").append(Utils.bytesToHexNpeUpperCase(isoFileId)).append("\n");
+        sb.append("dfName: ").append(Utils.bytesToHexNpeUpperCase(dfName)).append("\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,463 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares the layout of a card (a CardSnapshot) with a target layout and lists the operations that bring the card
+ * to the target, so a re-personalization touches only what differs instead of a FormatPicc and a full setup.
+ * The target is e.g. the snapshot of a reference card, a stored snapshot (see CardSnapshotCodec) or
+ * PersonalizationLayout.testEnvironment().buildApplicationSnapshot() for the layout of SetupTestEnvironmentActivity.
+ * <p>
+ * Rules:
+ * - an application that is not part of the target gets deleted (only if isDeleteUnknownApplications)
+ * - an application of the target that is missing on the card gets created with all files
+ * - an application with another number of keys or key type gets deleted and created again, other differences
+ * of the key settings are listed in getNotes() only
+ * - a file that is not part of the target gets deleted, a missing file gets created
+ * - a file of another type or size (record size, maximum number of records, limits of a value file) gets
+ * deleted and created again
+ * - a file with other communication settings or access rights gets a ChangeFileSettings
+ * Authentications: DeleteApplication always needs the PICC master key, CreateApplication needs it when bit 2 of
+ * the PICC master key settings (free create) is clear. CreateFile and DeleteFile need the application master key
+ * when bit 2 of the application master key settings (free create/delete) is clear. apply authenticates with
+ * authenticateAesEv2First only, so an operation that needs a DES or TDES key (e.g. the PICC master key of a
+ * factory card) is not planned but listed in getNotes().
+ * Note: a value file gets created with the lower limit as value, the content of the files is not compared.
+ * Transaction MAC files are not supported and listed in getNotes(). The ISO File ID and DF Name of an application
+ * are not part of a CardSnapshot, so applications are created without them.
+ */
+
+public class CardLayoutDiff {
+
+    private static final String TAG = CardLayoutDiff.class.getName();
+    private static final byte ACCESS_FREE = (byte) 0x0E;
+    private static final byte[] RESPONSE_OK = new byte[]{(byte) 0x91, (byte) 0x00}; // same values as in DesfireEv3
+    private static final byte[] RESPONSE_PARAMETER_ERROR = new byte[]{(byte) 0x91, (byte) 0xFC};
+    private static final int NOT_PLANNED = -2; // the operation needs a key that can't be used by apply
+
+    public enum OperationType {DELETE_APPLICATION, CREATE_APPLICATION, DELETE_FILE, CREATE_FILE, CHANGE_FILE_SETTINGS}
+
+    /**
+     * supplies the AES keys for the authentications that are needed by apply
+     */
+    public interface KeyLookup {
+        byte[] getKey(byte[] applicationIdentifier, byte keyNumber);
+    }
+
+    /**
+     * one step from the card layout to the target layout
+     */
+    public static class Operation {
+        private final OperationType type;
+        private final byte[] applicationIdentifier;
+        private final byte fileNumber; // -1 for application operations
+        private final byte[] apdu; // without MAC for CREATE_APPLICATION, DELETE_FILE, CREATE_FILE and a free CHANGE_FILE_SETTINGS
+        private final byte[] fileSettings; // for CHANGE_FILE_SETTINGS: commSettings || access rights (2)
+        private final int authenticationKeyNumber; // -1 = no authentication needed
+
+        private Operation(OperationType type, byte[] applicationIdentifier, byte fileNumber, byte[] apdu, byte[] fileSettings, int authenticationKeyNumber) {
+            this.type = type;
+            this.applicationIdentifier = applicationIdentifier.clone();
+            this.fileNumber = fileNumber;
+            this.apdu = apdu;
+            this.fileSettings = fileSettings;
+            this.authenticationKeyNumber = authenticationKeyNumber;
+        }
+
+        public OperationType getType() {
+            return type;
+        }
+
+        public byte[] getApplicationIdentifier() {
+            return applicationIdentifier.clone();
+        }
+
+        public byte getFileNumber() {
+            return fileNumber;
+        }
+
+        /**
+         * @return the command without MAC, null for DELETE_APPLICATION and a CHANGE_FILE_SETTINGS with a key
+         */
+        public byte[] getApdu() {
+            return (apdu == null) ? null : apdu.clone();
+        }
+
+        /**
+         * @return the key number for the authentication before the operation, -1 if no authentication is needed
+         */
+        public int getAuthenticationKeyNumber() {
+            return authenticationKeyNumber;
+        }
+
+        @Override
+        public String toString() {
+            String s = type.name() + " AID " + Utils.bytesToHexNpeUpperCase(applicationIdentifier);
+            if (fileNumber >= 0) s += " file " + fileNumber;
+            if (fileSettings != null) s += " settings " + Utils.bytesToHexNpeUpperCase(fileSettings);
+            if (authenticationKeyNumber >= 0) s += " (key " + authenticationKeyNumber + ")";
+            return s;
+        }
+    }
+
+    private final List<Operation> operations;
+    private final List<String> notes;
+
+    private CardLayoutDiff(List<Operation> operations, List<String> notes) {
+        this.operations = Collections.unmodifiableList(operations);
+        this.notes = Collections.unmodifiableList(notes);
+    }
+
+    /**
+     * @param current                    | the snapshot of the card
+     * @param target                     | the applications of the target layout
+     * @param isDeleteUnknownApplications | true = applications that are not part of the target get deleted
+     */
+    public static CardLayoutDiff compare(CardSnapshot current, List<CardSnapshot.ApplicationSnapshot> target, boolean isDeleteUnknownApplications) {
+        if ((current == null) || (target == null)) {
+            throw new IllegalArgumentException("current or target is NULL");
+        }
+        List<Operation> deleteOperations = new ArrayList<>();
+        List<Operation> createOperations = new ArrayList<>();
+        List<Operation> fileOperations = new ArrayList<>();
+        List<String> notes = new ArrayList<>();
+        byte[] piccKeySettings = current.getPiccKeySettingsData();
+        boolean isFreeCreateApplication = isFreeCreateDelete(piccKeySettings);
+        boolean isPiccKeyAes = isAesKey(piccKeySettings);
+        for (CardSnapshot.ApplicationSnapshot application : current.getApplications()) {
+            if (isDeleteUnknownApplications && (findApplication(target, application.getApplicationIdentifier()) == null)) {
+                addDeleteApplication(deleteOperations, notes, application.getApplicationIdentifier(), isPiccKeyAes);
+            }
+        }
+        for (CardSnapshot.ApplicationSnapshot targetApplication : target) {
+            byte[] aid = targetApplication.getApplicationIdentifier();
+            byte[] targetKeySettings = targetApplication.getKeySettings();
+            if ((targetKeySettings == null) || (targetApplication.getFileIds() == null)) {
+                throw new IllegalArgumentException("the target application " + Utils.bytesToHexNpeUpperCase(aid) + " is incomplete");
+            }
+            CardSnapshot.ApplicationSnapshot application = current.getApplication(aid);
+            if ((application != null) && (application.getKeySettings() != null) && (application.getKeySettings()[1] != targetKeySettings[1])) {
+                // the number of keys and the key type can't be changed
+                if (!addDeleteApplication(deleteOperations, notes, aid, isPiccKeyAes)) continue;
+                application = null;
+            }
+            if (application == null) {
+                if ((!isFreeCreateApplication) && (!isPiccKeyAes)) {
+                    notes.add("CreateApplication " + Utils.bytesToHexNpeUpperCase(aid) + " needs the PICC master key that is not an AES key, not planned");
+                    continue;
+                }
+                createOperations.add(new Operation(OperationType.CREATE_APPLICATION, aid, (byte) -1,
+                        wrapMessage((byte) 0xCA, concatenate(aid, targetKeySettings)), null, isFreeCreateApplication ? -1 : 0));
+                int fileKeyNumber = getFileKeyNumber(targetKeySettings);
+                for (byte fileId : targetApplication.getFileIds()) {
+                    addCreateFile(fileOperations, notes, aid, targetApplication.getFileSettings(fileId), fileKeyNumber);
+                }
+                continue;
+            }
+            byte[] keySettings = application.getKeySettings();
+            if (keySettings == null) {
+                notes.add("the key settings of " + Utils.bytesToHexNpeUpperCase(aid) + " are not readable");
+                // the application master key is assumed to be required
+                keySettings = new byte[]{(byte) 0x00, targetKeySettings[1]};
+            } else if (keySettings[0] != targetKeySettings[0]) {
+                notes.add("the key settings of " + Utils.bytesToHexNpeUpperCase(aid) + " differ, they are not changed");
+            }
+            if (application.getFileIds() == null) {
+                notes.add("the file ids of " + Utils.bytesToHexNpeUpperCase(aid) + " are not readable, the files are not compared");
+                continue;
+            }
+            compareFiles(fileOperations, notes, aid, application, targetApplication, getFileKeyNumber(keySettings));
+        }
+        List<Operation> operations = new ArrayList<>(deleteOperations);
+        operations.addAll(createOperations);
+        operations.addAll(fileOperations);
+        return new CardLayoutDiff(operations, notes);
+    }
+
+    /**
+     * @param fileKeyNumber | the key number for CreateFile and DeleteFile, -1 = no authentication, NOT_PLANNED = not possible
+     */
+    private static void compareFiles(List<Operation> operations, List<String> notes, byte[] aid,
+                                     CardSnapshot.ApplicationSnapshot application, CardSnapshot.ApplicationSnapshot targetApplication,
+                                     int fileKeyNumber) {
+        List<Operation> deletes = new ArrayList<>();
+        List<Operation> creates = new ArrayList<>();
+        List<Operation> changes = new ArrayList<>();
+        for (byte fileId : application.getFileIds()) {
+            if (targetApplication.getFileSettings(fileId) == null) {
+                addDeleteFile(deletes, notes, aid, fileId, fileKeyNumber);
+            }
+        }
+        for (byte fileId : targetApplication.getFileIds()) {
+            byte[] target = targetApplication.getFileSettings(fileId).getCompleteResponse();
+            FileSettings fileSettings = application.getFileSettings(fileId);
+            byte[] actual = (fileSettings == null) ? null : fileSettings.getCompleteResponse();
+            if ((actual == null) && (contains(application.getFileIds(), fileId))) {
+                notes.add("the settings of file " + fileId + " in " + Utils.bytesToHexNpeUpperCase(aid) + " are not readable");
+                continue;
+            }
+            if ((actual == null) || (!Arrays.equals(getFileStructure(actual), getFileStructure(target)))) {
+                if ((actual != null) && (!addDeleteFile(deletes, notes, aid, fileId, fileKeyNumber))) continue;
+                addCreateFile(creates, notes, aid, targetApplication.getFileSettings(fileId), fileKeyNumber);
+                continue;
+            }
+            byte[] actualSettings = new byte[]{(byte) (actual[1] & 0x03), actual[2], actual[3]};
+            byte[] targetSettings = new byte[]{(byte) (target[1] & 0x03), target[2], target[3]};
+            if (Arrays.equals(actualSettings, targetSettings)) continue;
+            // the change is authorized by the actual Change Access Rights key
+            byte changeAccessRightsKey = (byte) (actual[2] & 0x0F);
+            if (changeAccessRightsKey == ACCESS_FREE) {
+                changes.add(new Operation(OperationType.CHANGE_FILE_SETTINGS, aid, fileId,
+                        wrapMessage((byte) 0x5F, concatenate(new byte[]{fileId}, targetSettings)), targetSettings, -1));
+            } else if (changeAccessRightsKey == (byte) 0x0F) {
+                notes.add("the settings of file " + fileId + " in " + Utils.bytesToHexNpeUpperCase(aid) + " differ but can't be changed (no access)");
+            } else {
+                changes.add(new Operation(OperationType.CHANGE_FILE_SETTINGS, aid, fileId, null, targetSettings, changeAccessRightsKey));
+            }
+        }
+        operations.addAll(deletes);
+        operations.addAll(creates);
+        operations.addAll(changes);
+    }
+
+    private static void addCreateFile(List<Operation> operations, List<String> notes, byte[] aid, FileSettings fileSettings, int fileKeyNumber) {
+        byte[] settings = fileSettings.getCompleteResponse();
+        byte fileNumber = fileSettings.getFileNumber();
+        if (fileKeyNumber == NOT_PLANNED) {
+            notes.add("CreateFile " + fileNumber + " in " + Utils.bytesToHexNpeUpperCase(aid) + " needs the application master key that is not an AES key, not planned");
+            return;
+        }
+        byte command;
+        byte[] parameters; // the parameters following file number || commSettings || access rights
+        switch (settings[0]) {
+            case 0x00:
+            case 0x01:
+                command = (settings[0] == 0x00) ? (byte) 0xCD : (byte) 0xCB;
+                parameters = Arrays.copyOfRange(settings, 4, 7); // file size
+                break;
+            case 0x02:
+                command = (byte) 0xCC;
+                // lower limit || upper limit || value (= lower limit) || limited credit enabled
+                parameters = concatenate(Arrays.copyOfRange(settings, 4, 12), Arrays.copyOfRange(settings, 4, 8));
+                parameters = concatenate(parameters, new byte[]{settings[16]});
+                break;
+            case 0x03:
+            case 0x04:
+                command = (settings[0] == 0x03) ? (byte) 0xC1 : (byte) 0xC0;
+                parameters = Arrays.copyOfRange(settings, 4, 10); // record size || maximum number of records
+                break;
+            default:
+                notes.add("file " + fileNumber + " in " + Utils.bytesToHexNpeUpperCase(aid) + " has the unsupported file type " + settings[0]);
+                return;
+        }
+        byte[] header = new byte[]{fileNumber, (byte) (settings[1] & 0x03), settings[2], settings[3]};
+        operations.add(new Operation(OperationType.CREATE_FILE, aid, fileNumber, wrapMessage(command, concatenate(header, parameters)), null, fileKeyNumber));
+    }
+
+    /**
+     * @return false if the DeleteFile needs a key that can't be used by apply, the reason is added to notes
+     */
+    private static boolean addDeleteFile(List<Operation> operations, List<String> notes, byte[] aid, byte fileNumber, int fileKeyNumber) {
+        if (fileKeyNumber == NOT_PLANNED) {
+            notes.add("DeleteFile " + fileNumber + " in " + Utils.bytesToHexNpeUpperCase(aid) + " needs the application master key that is not an AES key, not planned");
+            return false;
+        }
+        operations.add(new Operation(OperationType.DELETE_FILE, aid, fileNumber, wrapMessage((byte) 0xDF, new byte[]{fileNumber}), null, fileKeyNumber));
+        return true;
+    }
+
+    /**
+     * @param keySettings | the key settings of the application (GetKeySettings response)
+     * @return the key number for CreateFile and DeleteFile: -1 with free create/delete, 0 for an AES application
+     * master key, else NOT_PLANNED
+     */
+    private static int getFileKeyNumber(byte[] keySettings) {
+        if (isFreeCreateDelete(keySettings)) return -1;
+        return isAesKey(keySettings) ? 0 : NOT_PLANNED;
+    }
+
+    /**
+     * @return the part of the file settings that can't be changed without creating the file again
+     */
+    private static byte[] getFileStructure(byte[] settings) {
+        if (settings.length < 4) return settings;
+        switch (settings[0]) {
+            case 0x00:
+            case 0x01:
+                return concatenate(new byte[]{settings[0]}, Arrays.copyOfRange(settings, 4, Math.min(7, settings.length)));
+            case 0x02:
+                if (settings.length < 17) return settings;
+                return concatenate(new byte[]{settings[0], (byte) (settings[16] & 0x01)}, Arrays.copyOfRange(settings, 4, 12));
+            case 0x03:
+            case 0x04:
+                return concatenate(new byte[]{settings[0]}, Arrays.copyOfRange(settings, 4, Math.min(10, settings.length)));
+            default:
+                return settings;
+        }
+    }
+
+    /**
+     * DeleteApplication always needs an authentication with the PICC master key, the free create/delete bit of
+     * the PICC master key settings frees CreateApplication only
+     *
+     * @return false if the PICC master key is not an AES key, the reason is added to notes
+     */
+    private static boolean addDeleteApplication(List<Operation> operations, List<String> notes, byte[] aid, boolean isPiccKeyAes) {
+        if (!isPiccKeyAes) {
+            notes.add("DeleteApplication " + Utils.bytesToHexNpeUpperCase(aid) + " needs the PICC master key that is not an AES key, not planned");
+            return false;
+        }
+        operations.add(new Operation(OperationType.DELETE_APPLICATION, aid, (byte) -1, null, null, 0));
+        return true;
+    }
+
+    /**
+     * bit 2 of the master key settings: on PICC level CreateApplication, on application level CreateFile and
+     * DeleteFile without authentication
+     */
+    private static boolean isFreeCreateDelete(byte[] keySettings) {
+        return (keySettings != null) && ((keySettings[0] & 0x04) != 0);
+    }
+
+    /**
+     * bits 7..6 of the second byte of the GetKeySettings response: the crypto method of the keys, 10b = AES
+     */
+    private static boolean isAesKey(byte[] keySettings) {
+        return (keySettings != null) && (keySettings.length > 1) && ((keySettings[1] & 0xC0) == 0x80);
+    }
+
+    /**
+     * runs the operations on the card in the order of getOperations(). Operations without authentication are sent
+     * as plain commands, operations with a key after an authenticateAesEv2First with the key from keyLookup: a
+     * ChangeFileSettings in Full communication, all other commands in MACed communication. For the operations on
+     * PICC level (CREATE_APPLICATION and DELETE_APPLICATION) the PICC master key is requested with the AID 000000.
+     *
+     * @param desfireEv3 | a DesfireEv3 object of the tapped card
+     * @param keyLookup  | AES keys for the operations with an authentication key number, may be null if no operation needs a key
+     * @return the number of executed operations on success, on failure the errorCode and errorCodeReason of the failing command
+     */
+    public DesfireResult<Integer> apply(DesfireEv3 desfireEv3, KeyLookup keyLookup) {
+        final String methodName = "apply";
+        byte[] selectedAid = null;
+        int authenticatedKeyNumber = -1;
+        int executed = 0;
+        for (Operation operation : operations) {
+            boolean isPiccLevel = (operation.type == OperationType.CREATE_APPLICATION) || (operation.type == OperationType.DELETE_APPLICATION);
+            byte[] aid = isPiccLevel ? DesfireEv3.MASTER_APPLICATION_IDENTIFIER : operation.applicationIdentifier;
+            // a new select ends an authentication, plain commands can't be sent in authenticated state
+            if ((!Arrays.equals(aid, selectedAid)) || ((authenticatedKeyNumber >= 0) && (operation.authenticationKeyNumber < 0))) {
+                if (!desfireEv3.selectApplicationByAid(aid)) return failure(desfireEv3, operation);
+                selectedAid = aid;
+                authenticatedKeyNumber = -1;
+            }
+            if ((operation.authenticationKeyNumber >= 0) && (operation.authenticationKeyNumber != authenticatedKeyNumber)) {
+                byte[] key = (keyLookup == null) ? null : keyLookup.getKey(aid, (byte) operation.authenticationKeyNumber);
+                if (key == null) {
+                    return DesfireResult.failure(RESPONSE_PARAMETER_ERROR.clone(), "no key for " + operation);
+                }
+                // only AES keys are planned by compare
+                if (!desfireEv3.authenticateAesEv2First((byte) operation.authenticationKeyNumber, key)) return failure(desfireEv3, operation);
+                authenticatedKeyNumber = operation.authenticationKeyNumber;
+            }
+            boolean success;
+            switch (operation.type) {
+                case DELETE_APPLICATION:
+                    success = desfireEv3.deleteApplication(operation.applicationIdentifier);
+                    break;
+                case CHANGE_FILE_SETTINGS:
+                    if (operation.apdu == null) {
+                        success = desfireEv3.changeFileSettings(operation.fileNumber, getCommunicationSettings(operation.fileSettings[0]),
+                                (operation.fileSettings[1] >> 4) & 0x0F, operation.fileSettings[1] & 0x0F,
+                                (operation.fileSettings[2] >> 4) & 0x0F, operation.fileSettings[2] & 0x0F);
+                        break;
+                    }
+                    success = desfireEv3.sendPlainCommands(new byte[][]{operation.apdu}, false);
+                    break;
+                default:
+                    byte[][] apdus = new byte[][]{operation.apdu};
+                    success = (operation.authenticationKeyNumber < 0) ? desfireEv3.sendPlainCommands(apdus, false) : desfireEv3.sendMacedCommands(apdus);
+            }
+            if (!success) return failure(desfireEv3, operation);
+            executed++;
+        }
+        Log.d(TAG, methodName + " SUCCESS with " + executed + " operations");
+        return DesfireResult.success(executed, RESPONSE_OK.clone(), "SUCCESS");
+    }
+
+    private static DesfireResult<Integer> failure(DesfireEv3 desfireEv3, Operation operation) {
+        Log.e(TAG, "apply " + operation + " FAILURE: " + desfireEv3.getErrorCodeReason());
+        return DesfireResult.failure(desfireEv3.getErrorCode(), operation + ": " + desfireEv3.getErrorCodeReason());
+    }
+
+    private static DesfireEv3.CommunicationSettings getCommunicationSettings(byte commSettings) {
+        if (commSettings == (byte) 0x01) return DesfireEv3.CommunicationSettings.MACed;
+        if (commSettings == (byte) 0x03) return DesfireEv3.CommunicationSettings.Full;
+        return DesfireEv3.CommunicationSettings.Plain;
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    /**
+     * @return the differences that are not covered by the operations
+     */
+    public List<String> getNotes() {
+        return notes;
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("operations: ").append(operations.size()).append("\n");
+        for (Operation operation : operations) {
+            sb.append(operation).append("\n");
+        }
+        for (String note : notes) {
+            sb.append("note: ").append(note).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private static CardSnapshot.ApplicationSnapshot findApplication(List<CardSnapshot.ApplicationSnapshot> applications, byte[] aid) {
+        for (CardSnapshot.ApplicationSnapshot application : applications) {
+            if (application.isApplicationIdentifier(aid)) return application;
+        }
+        return null;
+    }
+
+    private static boolean contains(byte[] fileIds, byte fileId) {
+        for (byte id : fileIds) {
+            if (id == fileId) return true;
+        }
+        return false;
+    }
+
+    private static byte[] concatenate(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static byte[] wrapMessage(byte command, byte[] parameters) {
+        // same coding as DesfireEv3.wrapMessage
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write((byte) 0x90);
+        baos.write(command);
+        baos.write((byte) 0x00);
+        baos.write((byte) 0x00);
+        baos.write((byte) parameters.length);
+        baos.write(parameters, 0, parameters.length);
+        baos.write((byte) 0x00);
+        return baos.toByteArray();
+    }
+}
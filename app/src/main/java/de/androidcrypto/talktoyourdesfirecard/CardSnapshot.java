@@ -0,0 +1,234 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable picture of the PICC directory: the version data and key settings of the PICC and for each
+ * application the key settings, the version of the application master key, the file ids and the file settings.
+ * The data is kept in the coding of the PICC responses, the getters return the analyzing classes
+ * (VersionInfo, ApplicationKeySettings, FileSettings). The class is Serializable, so a snapshot can be stored
+ * and given to the next DesfireEv3.getCardSnapshot call of the same card.
+ * <p>
+ * Usage in onTagDiscovered:
+ * CardSnapshot snapshot = desfireEv3.getCardSnapshot(lastSnapshot);
+ * if (snapshot != null) Log.d(TAG, snapshot.dump());
+ */
+
+public class CardSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] tagId;
+    private final byte[] versionData; // the data of the GetVersion command, may be null
+    private final byte[] piccKeySettings;
+    private final List<ApplicationSnapshot> applications;
+    private final long timestampMillis;
+    private final long readMillis;
+    private final int numberOfReusedApplications;
+
+    public CardSnapshot(byte[] tagId, byte[] versionData, byte[] piccKeySettings, List<ApplicationSnapshot> applications,
+                        long timestampMillis, long readMillis, int numberOfReusedApplications) {
+        if (applications == null) {
+            throw new IllegalArgumentException("applications is NULL");
+        }
+        this.tagId = (tagId == null) ? null : tagId.clone();
+        this.versionData = (versionData == null) ? null : versionData.clone();
+        this.piccKeySettings = (piccKeySettings == null) ? null : piccKeySettings.clone();
+        this.applications = Collections.unmodifiableList(new ArrayList<>(applications));
+        this.timestampMillis = timestampMillis;
+        this.readMillis = readMillis;
+        this.numberOfReusedApplications = numberOfReusedApplications;
+    }
+
+    /**
+     * one application of the snapshot
+     */
+    public static class ApplicationSnapshot implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private static final int MAXIMUM_NUMBER_OF_FILES = 32; // same value as in DesfireEv3
+
+        private final byte[] applicationIdentifier;
+        private final byte[] keySettings; // 2 bytes or null if not readable
+        private final int keyVersion; // of the application master key, -1 if not readable
+        private final byte[] fileIds; // null if not readable (e.g. the file directory access needs an authentication)
+        private final byte[][] fileSettingsData; // the responses of getFileSettings, in the order of fileIds
+
+        public ApplicationSnapshot(byte[] applicationIdentifier, byte[] keySettings, int keyVersion, byte[] fileIds, FileSettings[] fileSettings) {
+            if ((applicationIdentifier == null) || (applicationIdentifier.length != 3)) {
+                throw new IllegalArgumentException("applicationIdentifier is not of length 3");
+            }
+            this.applicationIdentifier = applicationIdentifier.clone();
+            this.keySettings = (keySettings == null) ? null : keySettings.clone();
+            this.keyVersion = keyVersion;
+            this.fileIds = (fileIds == null) ? null : fileIds.clone();
+            if (fileIds == null) {
+                this.fileSettingsData = null;
+            } else {
+                // the fileSettings array of DesfireEv3 is indexed by the file number
+                this.fileSettingsData = new byte[fileIds.length][];
+                for (int i = 0; i < fileIds.length; i++) {
+                    int fileNumber = fileIds[i];
+                    if ((fileSettings != null) && (fileNumber < fileSettings.length) && (fileSettings[fileNumber] != null)) {
+                        this.fileSettingsData[i] = fileSettings[fileNumber].getCompleteResponse();
+                    }
+                }
+            }
+        }
+
+        public byte[] getApplicationIdentifier() {
+            return applicationIdentifier.clone();
+        }
+
+        /**
+         * @return the 2 bytes of the getKeySettings command or null
+         */
+        public byte[] getKeySettings() {
+            return (keySettings == null) ? null : keySettings.clone();
+        }
+
+        public ApplicationKeySettings getApplicationKeySettings() {
+            if (keySettings == null) return null;
+            return new ApplicationKeySettings(applicationIdentifier.clone(), keySettings.clone());
+        }
+
+        public int getKeyVersion() {
+            return keyVersion;
+        }
+
+        /**
+         * @return the file ids or null if they were not readable
+         */
+        public byte[] getFileIds() {
+            return (fileIds == null) ? null : fileIds.clone();
+        }
+
+        /**
+         * @return the settings of the file or null if the file does not exist or the settings were not readable
+         */
+        public FileSettings getFileSettings(byte fileNumber) {
+            if (fileIds == null) return null;
+            for (int i = 0; i < fileIds.length; i++) {
+                if ((fileIds[i] == fileNumber) && (fileSettingsData[i] != null)) {
+                    return new FileSettings(fileNumber, fileSettingsData[i].clone());
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the settings of all files indexed by the file number, like DesfireEv3.getApplicationAllFileSettings
+         */
+        public FileSettings[] getAllFileSettings() {
+            FileSettings[] fileSettings = new FileSettings[MAXIMUM_NUMBER_OF_FILES];
+            if (fileIds == null) return fileSettings;
+            for (byte fileId : fileIds) {
+                fileSettings[fileId] = getFileSettings(fileId);
+            }
+            return fileSettings;
+        }
+
+        public boolean isApplicationIdentifier(byte[] aid) {
+            return Arrays.equals(applicationIdentifier, aid);
+        }
+
+        public String dump() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("applicationIdentifier: ").append(Utils.bytesToHexNpeUpperCase(applicationIdentifier)).append("\n");
+            sb.append("keySettings: ").append(Utils.bytesToHexNpeUpperCase(keySettings)).append("\n");
+            sb.append("keyVersion: ").append(keyVersion).append("\n");
+            sb.append("fileIds: ").append(Utils.bytesToHexNpeUpperCase(fileIds)).append("\n");
+            if (fileIds != null) {
+                for (int i = 0; i < fileIds.length; i++) {
+                    sb.append("fileSettings ").append(fileIds[i]).append(": ").append(Utils.bytesToHexNpeUpperCase(fileSettingsData[i])).append("\n");
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * @return the tag id (UID) of the card, for cards with a random UID it changes on each tap
+     */
+    public byte[] getTagId() {
+        return (tagId == null) ? null : tagId.clone();
+    }
+
+    /**
+     * @return the analyzed data of the GetVersion command or null
+     */
+    public VersionInfo getVersionInfo() {
+        if (versionData == null) return null;
+        try {
+            return new VersionInfo(versionData.clone());
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public byte[] getVersionData() {
+        return (versionData == null) ? null : versionData.clone();
+    }
+
+    /**
+     * @return the 2 bytes of the getKeySettings command on PICC level or null
+     */
+    public byte[] getPiccKeySettingsData() {
+        return (piccKeySettings == null) ? null : piccKeySettings.clone();
+    }
+
+    public ApplicationKeySettings getPiccKeySettings() {
+        if (piccKeySettings == null) return null;
+        return new ApplicationKeySettings(DesfireEv3.MASTER_APPLICATION_IDENTIFIER.clone(), piccKeySettings.clone());
+    }
+
+    public List<ApplicationSnapshot> getApplications() {
+        return applications;
+    }
+
+    /**
+     * @return the application or null if it is not part of the snapshot
+     */
+    public ApplicationSnapshot getApplication(byte[] applicationIdentifier) {
+        for (ApplicationSnapshot application : applications) {
+            if (application.isApplicationIdentifier(applicationIdentifier)) return application;
+        }
+        return null;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * @return the time that was needed to read the snapshot
+     */
+    public long getReadMillis() {
+        return readMillis;
+    }
+
+    /**
+     * @return the number of applications whose file settings were taken from the previous snapshot
+     */
+    public int getNumberOfReusedApplications() {
+        return numberOfReusedApplications;
+    }
+
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("tagId: ").append(Utils.bytesToHexNpeUpperCase(tagId)).append("\n");
+        sb.append("versionData: ").append(Utils.bytesToHexNpeUpperCase(versionData)).append("\n");
+        sb.append("piccKeySettings: ").append(Utils.bytesToHexNpeUpperCase(piccKeySettings)).append("\n");
+        sb.append("applications: ").append(applications.size()).append(" (reused: ").append(numberOfReusedApplications).append(")\n");
+        sb.append("readMillis: ").append(readMillis).append("\n");
+        for (ApplicationSnapshot application : applications) {
+            sb.append(application.dump());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,146 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact binary coding of a CardSnapshot, e.g. for storing the target layout of a personalization or the
+ * layout of a card in a file or database. The PICC responses are stored as they are, so the format does not
+ * change when the analyzing classes (FileSettings, ApplicationKeySettings) are extended.
+ * <p>
+ * Format version 1, all numbers in big endian:
+ * 'C' 'S' || version (1) || tagId || versionData || piccKeySettings || timestamp (8) || readMillis (8) ||
+ * number of applications (2) || applications
+ * application: AID (3) || keySettings || keyVersion (2) || number of files (1, 0xFF = file ids not readable) || files
+ * file: file number (1) || file settings
+ * A byte array is coded as length (2, 0xFFFF = null) || data.
+ */
+
+public class CardSnapshotCodec {
+
+    private static final byte MAGIC_1 = (byte) 'C';
+    private static final byte MAGIC_2 = (byte) 'S';
+    private static final byte FORMAT_VERSION = (byte) 0x01;
+    private static final int NULL_LENGTH = 0xFFFF;
+    private static final int FILE_IDS_NOT_READABLE = 0xFF;
+
+    private CardSnapshotCodec() {
+    }
+
+    public static byte[] encode(CardSnapshot snapshot) {
+        if (snapshot == null) {
+            throw new IllegalArgumentException("snapshot is NULL");
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        try {
+            out.writeByte(MAGIC_1);
+            out.writeByte(MAGIC_2);
+            out.writeByte(FORMAT_VERSION);
+            writeBytes(out, snapshot.getTagId());
+            writeBytes(out, snapshot.getVersionData());
+            writeBytes(out, snapshot.getPiccKeySettingsData());
+            out.writeLong(snapshot.getTimestampMillis());
+            out.writeLong(snapshot.getReadMillis());
+            List<CardSnapshot.ApplicationSnapshot> applications = snapshot.getApplications();
+            out.writeShort(applications.size());
+            for (CardSnapshot.ApplicationSnapshot application : applications) {
+                out.write(application.getApplicationIdentifier());
+                writeBytes(out, application.getKeySettings());
+                out.writeShort(application.getKeyVersion());
+                byte[] fileIds = application.getFileIds();
+                if (fileIds == null) {
+                    out.writeByte(FILE_IDS_NOT_READABLE);
+                    continue;
+                }
+                out.writeByte(fileIds.length);
+                for (byte fileId : fileIds) {
+                    out.writeByte(fileId);
+                    FileSettings fileSettings = application.getFileSettings(fileId);
+                    writeBytes(out, (fileSettings == null) ? null : fileSettings.getCompleteResponse());
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // a ByteArrayOutputStream does not throw an IOException
+            throw new IllegalStateException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the data is not a valid coding
+     */
+    public static CardSnapshot decode(byte[] data) {
+        if (data == null) {
+            throw new IllegalArgumentException("data is NULL");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if ((in.readByte() != MAGIC_1) || (in.readByte() != MAGIC_2)) {
+                throw new IllegalArgumentException("data is not a CardSnapshot coding");
+            }
+            byte formatVersion = in.readByte();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IllegalArgumentException("unsupported format version " + formatVersion);
+            }
+            byte[] tagId = readBytes(in);
+            byte[] versionData = readBytes(in);
+            byte[] piccKeySettings = readBytes(in);
+            long timestampMillis = in.readLong();
+            long readMillis = in.readLong();
+            int numberOfApplications = in.readUnsignedShort();
+            List<CardSnapshot.ApplicationSnapshot> applications = new ArrayList<>();
+            for (int i = 0; i < numberOfApplications; i++) {
+                byte[] applicationIdentifier = new byte[3];
+                in.readFully(applicationIdentifier);
+                byte[] keySettings = readBytes(in);
+                int keyVersion = in.readShort();
+                int numberOfFiles = in.readUnsignedByte();
+                if (numberOfFiles == FILE_IDS_NOT_READABLE) {
+                    applications.add(new CardSnapshot.ApplicationSnapshot(applicationIdentifier, keySettings, keyVersion, null, null));
+                    continue;
+                }
+                byte[] fileIds = new byte[numberOfFiles];
+                FileSettings[] fileSettings = new FileSettings[32];
+                for (int j = 0; j < numberOfFiles; j++) {
+                    fileIds[j] = in.readByte();
+                    if ((fileIds[j] < 0) || (fileIds[j] > 31)) {
+                        throw new IllegalArgumentException("file number " + fileIds[j] + " is not in range 0..31");
+                    }
+                    byte[] fileSettingsData = readBytes(in);
+                    if (fileSettingsData != null) fileSettings[fileIds[j]] = new FileSettings(fileIds[j], fileSettingsData);
+                }
+                applications.add(new CardSnapshot.ApplicationSnapshot(applicationIdentifier, keySettings, keyVersion, fileIds, fileSettings));
+            }
+            if (in.available() > 0) {
+                throw new IllegalArgumentException("data has " + in.available() + " trailing bytes");
+            }
+            return new CardSnapshot(tagId, versionData, piccKeySettings, applications, timestampMillis, readMillis, 0);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("data is truncated", e);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+        if (data == null) {
+            out.writeShort(NULL_LENGTH);
+            return;
+        }
+        out.writeShort(data.length);
+        out.write(data);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readUnsignedShort();
+        if (length == NULL_LENGTH) return null;
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+}
@@ -12,7 +12,6 @@ import java.io.IOException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.util.Arrays;
 
 import javax.crypto.Cipher;
@@ -35,7 +34,7 @@ public class DesfireAuthenticateLegacy {
 
 
     private IsoDep isoDep;
-    private boolean printToLog = true; // print data to log
+    private boolean printToLog = true; // print data to log, on DesfireLog level DEBUG only
     private String logData = "";
 
     private byte[] selectedApplicationIdentifier;
@@ -109,16 +108,16 @@ public class DesfireAuthenticateLegacy {
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
-        log(methodName, printData("applicationIdentifier", applicationIdentifier));
+        log(methodName, "applicationIdentifier", applicationIdentifier);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         try {
             apdu = wrapMessage(SELECT_APPLICATION_COMMAND, applicationIdentifier);
-            Log.d(TAG, methodName + printData(" apdu", apdu));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + printData(" apdu", apdu));
             // sample 905a000003d0d1d200
             response = isoDep.transceive(apdu);
-            Log.d(TAG, methodName + printData(" response", response));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
@@ -151,7 +150,7 @@ public class DesfireAuthenticateLegacy {
     // DES/3DES decryption: CBC send mode and CBC receive mode
     private byte[] decrypt(byte[] key, byte[] data) {
         final String logString = "decrypt";
-        log(logString, printData("key", key) + printData(" data", data), true);
+        if (isLogEnabled()) log(logString, DesfireLog.printSecret("key", key) + printData(" data", data), true);
         byte[] modifiedKey = new byte[24];
         System.arraycopy(key, 0, modifiedKey, 16, 8);
         System.arraycopy(key, 0, modifiedKey, 8, 8);
@@ -205,14 +204,14 @@ public class DesfireAuthenticateLegacy {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         baos.write(fileNumber);
         byte[] parameter = baos.toByteArray();
-        Log.d(TAG, methodName + printData(" parameter", parameter));
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + printData(" parameter", parameter));
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         try {
             apdu = wrapMessage(GET_FILE_SETTINGS_COMMAND, parameter);
-            Log.d(TAG, methodName + printData(" apdu", apdu));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + printData(" apdu", apdu));
             response = isoDep.transceive(apdu);
-            Log.d(TAG, methodName + printData(" response", response));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
             log(methodName, "transceive failed: " + e.getMessage());
@@ -244,7 +243,7 @@ public class DesfireAuthenticateLegacy {
 
         //byte selectedFileIdByte = Byte.parseByte(selectedFileId);
         Log.d(TAG, "changeTheFileSettings for selectedFileId " + fileNumber);
-        Log.d(TAG, printData("DES session key", SessionKey));
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, DesfireLog.printSecret("DES session key", SessionKey));
 
         // CD | File No | Comms setting byte | Access rights (2 bytes) | File size (3 bytes)
         byte commSettingsByte = 0; // plain communication without any encryption
@@ -258,33 +257,33 @@ public class DesfireAuthenticateLegacy {
         bytesForCrc[0] = commSettingsByte;
         bytesForCrc[1] = accessRightsRwCar;
         bytesForCrc[2] = accessRightsRW;
-        Log.d(TAG, printData("bytesForCrc", bytesForCrc));
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("bytesForCrc", bytesForCrc));
         byte[] crc16Value = CRC16.get(bytesForCrc);
-        Log.d(TAG, printData("crc16Value", crc16Value));
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("crc16Value", crc16Value));
         // create a 8 byte long array
         byte[] bytesForDecryption = new byte[8];
         System.arraycopy(bytesForCrc, 0, bytesForDecryption, 0, 3);
         System.arraycopy(crc16Value, 0, bytesForDecryption, 3, 2);
-        Log.d(TAG, printData("bytesForDecryption", bytesForDecryption));
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("bytesForDecryption", bytesForDecryption));
         // generate 24 bytes long triple des key
         byte[] tripleDES_SESSION_KEY = getTDesKeyFromDesKey(SessionKey);
-        Log.d(TAG, printData("tripleDES Session Key", tripleDES_SESSION_KEY));
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, DesfireLog.printSecret("tripleDES Session Key", tripleDES_SESSION_KEY));
         byte[] IV_DES = new byte[8];
-        Log.d(TAG, printData("IV_DES", IV_DES));
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("IV_DES", IV_DES));
         byte[] decryptedData = TripleDES.decrypt(IV_DES, tripleDES_SESSION_KEY, bytesForDecryption);
-        Log.d(TAG, printData("decryptedData", decryptedData));
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("decryptedData", decryptedData));
         // the parameter for wrapping
         byte[] parameter = new byte[9];
         parameter[0] = fileNumber;
         System.arraycopy(decryptedData, 0, parameter, 1, 8);
-        Log.d(TAG, printData("parameter", parameter));
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("parameter", parameter));
         byte[] wrappedCommand;
         byte[] response;
         try {
             wrappedCommand = wrapMessage(CHANGE_FILE_SETTINGS_COMMAND, parameter);
-            Log.d(TAG, printData("wrappedCommand", wrappedCommand));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("wrappedCommand", wrappedCommand));
             response = isoDep.transceive(wrappedCommand);
-            Log.d(TAG, printData("response", response));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("response", response));
             System.arraycopy(response, 0, errorCode, 0, 2);
             if (checkResponse(response)) {
                 return true;
@@ -306,7 +305,6 @@ public class DesfireAuthenticateLegacy {
     public boolean changeDesKey(byte authenticationKeyNumber, byte changeKeyNumber,
                                      byte[] changeKeyNew, byte[] changeKeyOld, String changeKeyName) {
         final String methodName = "changeDesKey";
-        System.out.println("*** 1");
         log(methodName, methodName);
         // sanity checks
         if (authenticationKeyNumber < 0) {
@@ -356,26 +354,24 @@ public class DesfireAuthenticateLegacy {
             System.arraycopy(RESPONSE_FAILURE_MISSING_AUTHENTICATION, 0, errorCode, 0, 2);
             return false;
         }
-        System.out.println("*** 2");
         // important: don't use the original keys for changes as the PICC is using
         // only 56 bit of the 64 bit long (8 bytes) DES key, the remaining 8 bits are used for the
         // key version. The following method call will set the keyVersion to 0 so the 'original' may get
         // altered.
-        log(methodName, printData("new key before setKeyVersion", changeKeyNew));
+        logSecret(methodName, "new key before setKeyVersion", changeKeyNew);
         byte KEY_VERSION = 0;
         setKeyVersion(changeKeyOld, 0, changeKeyOld.length, KEY_VERSION);
         setKeyVersion(changeKeyNew, 0, changeKeyNew.length, KEY_VERSION);
-        log(methodName,printData("new key after  setKeyVersion", changeKeyNew));
+        logSecret(methodName, "new key after  setKeyVersion", changeKeyNew);
 
         byte[] plaintext = new byte[24]; // this is the final array
         int nklen = 16;
         System.arraycopy(changeKeyNew, 0, plaintext, 0, changeKeyNew.length);
-        log(methodName,printData("plaintext", plaintext));
+        logSecret(methodName, "plaintext", plaintext);
         // 8-byte DES keys accepted: internally have to be handled w/ 16 bytes
         System.arraycopy(changeKeyNew, 0, plaintext, 8, changeKeyNew.length);
         changeKeyNew = Arrays.copyOfRange(plaintext, 0, 16);
-        System.out.println("*** 3");
-        log(methodName,printData("newKey TDES", changeKeyNew));
+        logSecret(methodName, "newKey TDES", changeKeyNew);
 
         // xor the new key with the old key if a key is changed different to authentication key
         if ((changeKeyNumber & 0x0F) != keyNumberUsedForAuthentication) {
@@ -383,8 +379,7 @@ public class DesfireAuthenticateLegacy {
                 plaintext[i] ^= changeKeyOld[i % changeKeyOld.length];
             }
         }
-        log(methodName,printData("plaintext", plaintext));
-        System.out.println("*** 4");
+        logSecret(methodName, "plaintext", plaintext);
         byte[] crc;
         int addDesKeyVersionByte = (byte) 0x00;
 
@@ -396,28 +391,24 @@ public class DesfireAuthenticateLegacy {
             crc = CRC16.get(changeKeyNew);
             System.arraycopy(crc, 0, plaintext, nklen + addDesKeyVersionByte + 2, 2);
         }
-        log(methodName, printData("plaintext before encryption", plaintext));
+        logSecret(methodName, "plaintext before encryption", plaintext);
         byte[] ciphertext = null;
-        System.out.println(printData("SESSION_KEY_DES", SessionKey));
         ciphertext = decrypt(SessionKey, plaintext);
-        Log.d(methodName, printData("ciphertext after encryption", ciphertext));
-        System.out.println("*** 5");
+        if (DesfireLog.isDebugEnabled()) Log.d(methodName, printData("ciphertext after encryption", ciphertext));
         byte[] apdu = new byte[5 + 1 + ciphertext.length + 1];
         apdu[0] = (byte) 0x90;
         apdu[1] = CHANGE_KEY_COMMAND;
         apdu[4] = (byte) (1 + plaintext.length);
         apdu[5] = changeKeyNumber;
         System.arraycopy(ciphertext, 0, apdu, 6, ciphertext.length);
-        Log.d(methodName, printData("apdu", apdu));
-        System.out.println("*** 6");
+        if (DesfireLog.isDebugEnabled()) Log.d(methodName, printData("apdu", apdu));
         byte[] changeKeyDesResponse = new byte[0];
         try {
             //response = isoDep.transceive(wrapMessage(selectApplicationCommand, applicationIdentifier));
             changeKeyDesResponse = isoDep.transceive(apdu);
-            log(methodName, printData("changeKeyDesResponse", changeKeyDesResponse));
+            log(methodName, "changeKeyDesResponse", changeKeyDesResponse);
             System.arraycopy(returnStatusBytes(changeKeyDesResponse), 0, errorCode, 0, 2);
             //System.arraycopy(selectApplicationResponse, 0, response, 0, selectApplicationResponse.length);
-            System.out.println("*** 7 " + printData("changeKeyDesResponse", changeKeyDesResponse));
             if (checkResponse(changeKeyDesResponse)) {
                 return true;
             } else {
@@ -436,7 +427,6 @@ public class DesfireAuthenticateLegacy {
     public boolean changeDesKeyToAes(byte authenticationKeyNumber, byte changeKeyNumber,
                                      byte[] changeKeyNew, byte[] changeKeyOld, String changeKeyName) {
         final String methodName = "changeDesKeyToAes";
-        System.out.println("*** 1");
         log(methodName, methodName);
         // sanity checks
         if (authenticationKeyNumber < 0) {
@@ -486,26 +476,24 @@ public class DesfireAuthenticateLegacy {
             System.arraycopy(RESPONSE_FAILURE_MISSING_AUTHENTICATION, 0, errorCode, 0, 2);
             return false;
         }
-        System.out.println("*** 2");
         // important: don't use the original keys for changes as the PICC is using
         // only 56 bit of the 64 bit long (8 bytes) DES key, the remaining 8 bits are used for the
         // key version. The following method call will set the keyVersion to 0 so the 'original' may get
         // altered.
-        log(methodName, printData("new key before setKeyVersion", changeKeyNew));
+        logSecret(methodName, "new key before setKeyVersion", changeKeyNew);
         byte KEY_VERSION = 0;
         setKeyVersion(changeKeyOld, 0, changeKeyOld.length, KEY_VERSION);
         setKeyVersion(changeKeyNew, 0, changeKeyNew.length, KEY_VERSION);
-        log(methodName,printData("new key after  setKeyVersion", changeKeyNew));
+        logSecret(methodName, "new key after  setKeyVersion", changeKeyNew);
 
         byte[] plaintext = new byte[24]; // this is the final array
         int nklen = 16;
         System.arraycopy(changeKeyNew, 0, plaintext, 0, changeKeyNew.length);
-        log(methodName,printData("plaintext", plaintext));
+        logSecret(methodName, "plaintext", plaintext);
         // 8-byte DES keys accepted: internally have to be handled w/ 16 bytes
         System.arraycopy(changeKeyNew, 0, plaintext, 8, changeKeyNew.length);
         changeKeyNew = Arrays.copyOfRange(plaintext, 0, 16);
-        System.out.println("*** 3");
-        log(methodName,printData("newKey TDES", changeKeyNew));
+        logSecret(methodName, "newKey TDES", changeKeyNew);
 
         // as we are changing not only the key value but the algorithm type from DES to AES we need to change
         // the key number as well
@@ -517,8 +505,7 @@ public class DesfireAuthenticateLegacy {
                 plaintext[i] ^= changeKeyOld[i % changeKeyOld.length];
             }
         }
-        log(methodName,printData("plaintext", plaintext));
-        System.out.println("*** 4");
+        logSecret(methodName, "plaintext", plaintext);
         byte[] crc;
         int addDesKeyVersionByte = (byte) 0x00;
 
@@ -530,28 +517,24 @@ public class DesfireAuthenticateLegacy {
             crc = CRC16.get(changeKeyNew);
             System.arraycopy(crc, 0, plaintext, nklen + addDesKeyVersionByte + 2, 2);
         }
-        log(methodName, printData("plaintext before encryption", plaintext));
+        logSecret(methodName, "plaintext before encryption", plaintext);
         byte[] ciphertext = null;
-        System.out.println(printData("SESSION_KEY_DES", SessionKey));
         ciphertext = decrypt(SessionKey, plaintext);
-        Log.d(methodName, printData("ciphertext after encryption", ciphertext));
-        System.out.println("*** 5");
+        if (DesfireLog.isDebugEnabled()) Log.d(methodName, printData("ciphertext after encryption", ciphertext));
         byte[] apdu = new byte[5 + 1 + ciphertext.length + 1];
         apdu[0] = (byte) 0x90;
         apdu[1] = CHANGE_KEY_COMMAND;
         apdu[4] = (byte) (1 + plaintext.length);
         apdu[5] = changeKeyNumber;
         System.arraycopy(ciphertext, 0, apdu, 6, ciphertext.length);
-        Log.d(methodName, printData("apdu", apdu));
-        System.out.println("*** 6");
+        if (DesfireLog.isDebugEnabled()) Log.d(methodName, printData("apdu", apdu));
         byte[] changeKeyDesResponse = new byte[0];
         try {
             //response = isoDep.transceive(wrapMessage(selectApplicationCommand, applicationIdentifier));
             changeKeyDesResponse = isoDep.transceive(apdu);
-            log(methodName, printData("changeKeyDesResponse", changeKeyDesResponse));
+            log(methodName, "changeKeyDesResponse", changeKeyDesResponse);
             System.arraycopy(returnStatusBytes(changeKeyDesResponse), 0, errorCode, 0, 2);
             //System.arraycopy(selectApplicationResponse, 0, response, 0, selectApplicationResponse.length);
-            System.out.println("*** 7 " + printData("changeKeyDesResponse", changeKeyDesResponse));
             if (checkResponse(changeKeyDesResponse)) {
                 return true;
             } else {
@@ -570,7 +553,6 @@ public class DesfireAuthenticateLegacy {
     public boolean changeAesKeyToDes(byte authenticationKeyNumber, byte changeKeyNumber,
                                      byte[] changeKeyNew, byte[] changeKeyOld, String changeKeyName) {
         final String methodName = "changeAesKeyToDes";
-        System.out.println("*** 1");
         log(methodName, methodName);
         // sanity checks
         if (authenticationKeyNumber < 0) {
@@ -620,26 +602,24 @@ public class DesfireAuthenticateLegacy {
             System.arraycopy(RESPONSE_FAILURE_MISSING_AUTHENTICATION, 0, errorCode, 0, 2);
             return false;
         }
-        System.out.println("*** 2");
         // important: don't use the original keys for changes as the PICC is using
         // only 56 bit of the 64 bit long (8 bytes) DES key, the remaining 8 bits are used for the
         // key version. The following method call will set the keyVersion to 0 so the 'original' may get
         // altered.
-        log(methodName, printData("new key before setKeyVersion", changeKeyNew));
+        logSecret(methodName, "new key before setKeyVersion", changeKeyNew);
         byte KEY_VERSION = 0;
         setKeyVersion(changeKeyOld, 0, changeKeyOld.length, KEY_VERSION);
         setKeyVersion(changeKeyNew, 0, changeKeyNew.length, KEY_VERSION);
-        log(methodName,printData("new key after  setKeyVersion", changeKeyNew));
+        logSecret(methodName, "new key after  setKeyVersion", changeKeyNew);
 
         byte[] plaintext = new byte[24]; // this is the final array
         int nklen = 16;
         System.arraycopy(changeKeyNew, 0, plaintext, 0, changeKeyNew.length);
-        log(methodName,printData("plaintext", plaintext));
+        logSecret(methodName, "plaintext", plaintext);
         // 8-byte DES keys accepted: internally have to be handled w/ 16 bytes
         System.arraycopy(changeKeyNew, 0, plaintext, 8, changeKeyNew.length);
         changeKeyNew = Arrays.copyOfRange(plaintext, 0, 16);
-        System.out.println("*** 3");
-        log(methodName,printData("newKey TDES", changeKeyNew));
+        logSecret(methodName, "newKey TDES", changeKeyNew);
 
         // as we are changing not only the key value but the algorithm type from AES to DES we need to change
         // the key number as well
@@ -651,8 +631,7 @@ public class DesfireAuthenticateLegacy {
                 plaintext[i] ^= changeKeyOld[i % changeKeyOld.length];
             }
         }
-        log(methodName,printData("plaintext", plaintext));
-        System.out.println("*** 4");
+        logSecret(methodName, "plaintext", plaintext);
         byte[] crc;
         int addDesKeyVersionByte = (byte) 0x00;
 
@@ -664,28 +643,24 @@ public class DesfireAuthenticateLegacy {
             crc = CRC16.get(changeKeyNew);
             System.arraycopy(crc, 0, plaintext, nklen + addDesKeyVersionByte + 2, 2);
         }
-        log(methodName, printData("plaintext before encryption", plaintext));
+        logSecret(methodName, "plaintext before encryption", plaintext);
         byte[] ciphertext = null;
-        System.out.println(printData("SESSION_KEY_DES", SessionKey));
         ciphertext = decrypt(SessionKey, plaintext);
-        Log.d(methodName, printData("ciphertext after encryption", ciphertext));
-        System.out.println("*** 5");
+        if (DesfireLog.isDebugEnabled()) Log.d(methodName, printData("ciphertext after encryption", ciphertext));
         byte[] apdu = new byte[5 + 1 + ciphertext.length + 1];
         apdu[0] = (byte) 0x90;
         apdu[1] = CHANGE_KEY_COMMAND;
         apdu[4] = (byte) (1 + plaintext.length);
         apdu[5] = changeKeyNumber;
         System.arraycopy(ciphertext, 0, apdu, 6, ciphertext.length);
-        Log.d(methodName, printData("apdu", apdu));
-        System.out.println("*** 6");
+        if (DesfireLog.isDebugEnabled()) Log.d(methodName, printData("apdu", apdu));
         byte[] changeKeyDesResponse = new byte[0];
         try {
             //response = isoDep.transceive(wrapMessage(selectApplicationCommand, applicationIdentifier));
             changeKeyDesResponse = isoDep.transceive(apdu);
-            log(methodName, printData("changeKeyDesResponse", changeKeyDesResponse));
+            log(methodName, "changeKeyDesResponse", changeKeyDesResponse);
             System.arraycopy(returnStatusBytes(changeKeyDesResponse), 0, errorCode, 0, 2);
             //System.arraycopy(selectApplicationResponse, 0, response, 0, selectApplicationResponse.length);
-            System.out.println("*** 7 " + printData("changeKeyDesResponse", changeKeyDesResponse));
             if (checkResponse(changeKeyDesResponse)) {
                 return true;
             } else {
@@ -738,9 +713,9 @@ public class DesfireAuthenticateLegacy {
         byte[] wrappedCommand;
         try {
             wrappedCommand = wrapMessage(FORMAT_PICC_COMMAND, null);
-            Log.d(TAG, printData("wrappedCommand", wrappedCommand));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("wrappedCommand", wrappedCommand));
             response = isoDep.transceive(wrappedCommand);
-            Log.d(TAG, printData("response", response));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("response", response));
             System.arraycopy(response, 0, errorCode, 0, 2);
             if (checkResponse(response)) {
                 return true;
@@ -774,7 +749,7 @@ public class DesfireAuthenticateLegacy {
         invalidateAllAuthentificationData();
         logData = "";
         String methodName = "authenticateD40";
-        log(methodName, printData("key", key) + " keyNo: " + keyNo, true);
+        if (isLogEnabled()) log(methodName, DesfireLog.printSecret("key", key) + " keyNo: " + keyNo, true);
         errorCode = new byte[2];
         // sanity checks
         if (keyNo < 0) {
@@ -803,9 +778,9 @@ public class DesfireAuthenticateLegacy {
         byte[] response = new byte[0];
         try {
             apdu = wrapMessage(AUTHENTICATE_DES_2K3DES_COMMAND, new byte[]{keyNo}); // 0x0A
-            log(methodName, "- send auth apdu   " + printData("apdu    ", apdu));
+            if (isLogEnabled()) log(methodName, "- send auth apdu   " + printData("apdu    ", apdu));
             response = isoDep.transceive(apdu);
-            log(methodName, "- receive response " + printData("response", response));
+            if (isLogEnabled()) log(methodName, "- receive response " + printData("response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
             log(methodName, "IOException: " + e.getMessage());
@@ -816,7 +791,7 @@ public class DesfireAuthenticateLegacy {
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0xAF means more data need to get exchanged
         if (!checkResponseMoreData(responseBytes)) {
-            log(methodName, "expected to get get 0xAF as error code but found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isLogEnabled()) log(methodName, "expected to get get 0xAF as error code but found: " + printData("errorCode", responseBytes) + ", aborted");
             //System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
@@ -824,45 +799,45 @@ public class DesfireAuthenticateLegacy {
         log(methodName, "step 02 get the encrypted rndB from response data");
         
         byte[] encryptedRndB = getData(response);
-        log(methodName, printData("- encryptedRndB", encryptedRndB));
+        log(methodName, "- encryptedRndB", encryptedRndB);
 
         // remove the keyVersion bits within a DES key
         log(methodName, "step 03 setKeyVersion to 00 for DES keys");
-        log(methodName, printData("- DES key provided      ", key));
+        logSecret(methodName, "- DES key provided      ", key);
         setKeyVersion(key, 0, key.length, (byte) 0x00);
-        log(methodName, printData("- DES key w/keyVersion 0", key));
+        logSecret(methodName, "- DES key w/keyVersion 0", key);
 
         log(methodName, "step 04 get a TDES key from the DES key");
         byte[] tdesKey = getTDesKeyFromDesKey(key);
-        log(methodName, printData("- DES key  ", key));
-        log(methodName, printData("- TDES key", tdesKey));
+        logSecret(methodName, "- DES key  ", key);
+        logSecret(methodName, "- TDES key", tdesKey);
 
         // start the decryption
         byte[] iv0 = new byte[8];
-        log(methodName, "step 06 decrypt the encRndB using TripleDES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
-        log(methodName, printData("- encrypted rndB", encryptedRndB));
+        if (isLogEnabled()) log(methodName, "step 06 decrypt the encRndB using TripleDES.decrypt with key " + DesfireLog.printSecret("key", key) + printData(" iv0", iv0));
+        log(methodName, "- encrypted rndB", encryptedRndB);
         byte[] rndB = TripleDES.decrypt(iv0, tdesKey, encryptedRndB);
-        log(methodName, printData("- decrypted rndB", rndB));
+        logSecret(methodName, "- decrypted rndB", rndB);
 
         log(methodName, "step 06 rotate the decrypted rndB by 1 position/byte to the left");
-        log(methodName, printData("- rndB             ", rndB));
+        logSecret(methodName, "- rndB             ", rndB);
         byte[] rndBLeftRotated = rotateLeft(rndB);
-        log(methodName, printData("- rndB left rotated", rndBLeftRotated));
+        logSecret(methodName, "- rndB left rotated", rndBLeftRotated);
 
         // authenticate 2nd part
         log(methodName, "step 07 generate a random rndA");
         byte[] rndA = new byte[8]; // this is a DES key
         rndA = getRandomData(rndA);
-        log(methodName, printData("- rndA", rndA));
+        logSecret(methodName, "- rndA", rndA);
 
         log(methodName, "step 08 concatenate rndA || rndB left rotated");
         byte[] rndArndBLeftRotated = concatenate(rndA, rndBLeftRotated);
-        log(methodName, printData("- rndA || rndB left rotated", rndArndBLeftRotated));
+        logSecret(methodName, "- rndA || rndB left rotated", rndArndBLeftRotated);
 
         log(methodName, "step 09 copy encryptedRndB to iv1 from position " +
                 (encryptedRndB.length - iv0.length) + " to " + (encryptedRndB.length));
         byte[] iv1 = Arrays.copyOfRange(encryptedRndB, encryptedRndB.length - iv0.length, encryptedRndB.length);
-        log(methodName, printData("iv1", iv1));
+        log(methodName, "iv1", iv1);
 
         log(methodName, "step 09 copy encryptedRndB to iv1 from position ");
 
@@ -875,7 +850,7 @@ public class DesfireAuthenticateLegacy {
         byte[] cipheredBlock = new byte[8];
         // XOR w/ previous ciphered block --> decrypt
         log(methodName, "XOR w/ previous ciphered block --> decrypt");
-        log(methodName, "data before XORing " + printData("data", rndArndBLeftRotated) + printData(" cipheredBlock", cipheredBlock));
+        if (isLogEnabled()) log(methodName, "data before XORing " + DesfireLog.printSecret("data", rndArndBLeftRotated) + printData(" cipheredBlock", cipheredBlock));
 
         log(methodName, "running a 2 round loop to XOR rndArndBLeftRotated with the previous cipheredBlock and DEcrypt the block using TripleDES");
         log(methodName, "The outer loop is running for i=0 to <" + rndArndBLeftRotated.length + " in steps of 8");
@@ -886,10 +861,10 @@ public class DesfireAuthenticateLegacy {
                 rndArndBLeftRotated[i + j] ^= cipheredBlock[j];
             }
             cipheredBlock = TripleDES.decrypt(tdesKey, rndArndBLeftRotated, i, 8);
-            log(methodName, "TripleDES.decrypt " + printData("cipheredBlock", cipheredBlock));
+            if (isLogEnabled()) log(methodName, "TripleDES.decrypt " + printData("cipheredBlock", cipheredBlock));
             log(methodName, " copying cipheredBlock to ciphertext from i = " + i + " length 8");
             System.arraycopy(cipheredBlock, 0, ciphertext, i, 8);
-            log("decrypt", printData(" ciphertext", ciphertext));
+            log("decrypt", " ciphertext", ciphertext);
         }
         byte[] encryptedRndArndBLeftRotated = ciphertext.clone();
         log(methodName, "step 10 encryption magic ending   ********************");
@@ -902,13 +877,13 @@ public class DesfireAuthenticateLegacy {
             log(methodName, "manual decryption: FAILURE");
         }
 
-        log(methodName, printData("- encrypted rndA || rndB left rotated", encryptedRndArndBLeftRotated));
+        log(methodName, "- encrypted rndA || rndB left rotated", encryptedRndArndBLeftRotated);
         log(methodName, "step 11 send the encrypted data to the PICC using the 0xAF command (more data)");
         try {
             apdu = wrapMessage(MORE_DATA_COMMAND, encryptedRndArndBLeftRotated);
-            log(methodName, "- send auth apdu   " + printData("apdu    ", apdu));
+            if (isLogEnabled()) log(methodName, "- send auth apdu   " + printData("apdu    ", apdu));
             response = isoDep.transceive(apdu);
-            log(methodName, "- receive response " + printData("response", response));
+            if (isLogEnabled()) log(methodName, "- receive response " + printData("response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
             log(methodName, "IOException: " + e.getMessage());
@@ -919,7 +894,7 @@ public class DesfireAuthenticateLegacy {
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0x00 means the exchange was OK
         if (!checkResponse(responseBytes)) {
-            log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isLogEnabled()) log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             //System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
@@ -927,32 +902,32 @@ public class DesfireAuthenticateLegacy {
         log(methodName, "step 12 the response data is the encrypted rndA from the PICC");
         log(methodName, "        Note: the received (encrypted) rndA is left rotated");
         byte[] encryptedRndA = getData(response);
-        log(methodName, printData("- encrypted rndA left rotated", encryptedRndA));
+        log(methodName, "- encrypted rndA left rotated", encryptedRndA);
 
 
-        log(methodName, printData("encryptedRndA", encryptedRndA));
+        log(methodName, "encryptedRndA", encryptedRndA);
         log(methodName, "The iv is set to 8 * 0x00");
-        log(methodName, printData("iv0", iv0));
+        log(methodName, "iv0", iv0);
 
-        log(methodName, "step 13 decrypt the encrypted rndA left rotated using TripleDES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
-        log(methodName, printData("- encrypted left rotated rndA", encryptedRndB));
+        if (isLogEnabled()) log(methodName, "step 13 decrypt the encrypted rndA left rotated using TripleDES.decrypt with key " + DesfireLog.printSecret("key", key) + printData(" iv0", iv0));
+        log(methodName, "- encrypted left rotated rndA", encryptedRndB);
         byte[] decryptedRndALeftRotated = TripleDES.decrypt(iv0, tdesKey, encryptedRndA);
-        log(methodName, printData("- decrypted left rotated rndA", decryptedRndALeftRotated));
+        logSecret(methodName, "- decrypted left rotated rndA", decryptedRndALeftRotated);
 
         log(methodName, "step 14 rotate decrypted left rotated rndA to RIGHT");
         byte[] decryptedRndA = rotateRight(decryptedRndALeftRotated);
-        log(methodName, printData("- decrypted rndA", decryptedRndA));
+        logSecret(methodName, "- decrypted rndA", decryptedRndA);
 
         log(methodName, "step 15 compare self generated rndA with rndA received from PICC");
         boolean rndAEqual = Arrays.equals(rndA, decryptedRndA);
-        log(methodName, printData("- rndA generated", rndA));
-        log(methodName, printData("- rndA received ", decryptedRndA));
+        logSecret(methodName, "- rndA generated", rndA);
+        logSecret(methodName, "- rndA received ", decryptedRndA);
 
         log(methodName, "- rndA generated and received are equals: " + rndAEqual);
 
         log(methodName, "step 16 generate the DES Session key from rndA and rndB");
-        log(methodName, printData("- rndA          ", rndA));
-        log(methodName, printData("- rndB          ", rndB));
+        logSecret(methodName, "- rndA          ", rndA);
+        logSecret(methodName, "- rndB          ", rndB);
         SessionKey = getSessionKeyDes(rndA, rndB);
         log(methodName, "- This are the first 4 bytes of rndA and rndB, the DES Session key is");
         log(methodName, "- rndA first 4 bytes || rndB first 4 bytes");
@@ -1077,7 +1052,7 @@ public class DesfireAuthenticateLegacy {
                 // own vars
                 byte[] ivOwn = new byte[16]; // AES IV is 16 bytes long
                 SessionKey = generateSessionKeyAes(rndA, rndB);
-                Log.e(TAG, printData("SessionKey", SessionKey));
+                if (DesfireLog.isDebugEnabled()) Log.d(TAG, DesfireLog.printSecret("SessionKey", SessionKey));
                 //writeToUiAppend(logTextView, printData("## ivOwn ##", ivOwn));
                 //writeToUiAppend(logTextView, printData("## session key ##", skeyOwn));
                 return true;
@@ -1170,44 +1145,44 @@ public class DesfireAuthenticateLegacy {
 
         log(methodName, "******** manual decryption text start ********");
         log(methodName, "SEND mode means: XORing the ciphertext with previous ciphered block, then DEcrypt");
-        log(methodName, printData("tdesKey", tdesKey));
+        logSecret(methodName, "tdesKey", tdesKey);
 
         log(methodName, "1 starting with an empty 'cipheredBlock' of 8 bytes length = DES block length");
         byte[] cipheredBlock = new byte[8];
-        log(methodName, printData("cipheredBlock   ", cipheredBlock));
+        log(methodName, "cipheredBlock   ", cipheredBlock);
 
         log(methodName, "2 split the ciphertext into blocks of 8 bytes");
-        log(methodName, printData("ciphertext     ", ciphertext));
+        log(methodName, "ciphertext     ", ciphertext);
         byte[] ciphertextBlock1 = Arrays.copyOfRange(ciphertext, 0, 8);
-        log(methodName, printData("ciphertextBlock1", ciphertextBlock1));
+        log(methodName, "ciphertextBlock1", ciphertextBlock1);
         byte[] ciphertextBlock2 = Arrays.copyOfRange(ciphertext, 8, 16);
-        log(methodName, printData("ciphertextBlock2", ciphertextBlock2));
+        log(methodName, "ciphertextBlock2", ciphertextBlock2);
 
         log(methodName, "3 XORing ct1 with cipheredBlock");
         byte[] ct1Xored = xor(ciphertextBlock1, cipheredBlock);
-        log(methodName, printData("ct1 Xored       ", ct1Xored));
+        log(methodName, "ct1 Xored       ", ct1Xored);
 
         log(methodName, "4 decrypt ct1Xored using TripleDES.decrypt");
         byte[] ct1XoredDecrypted = de.androidcrypto.talktoyourdesfirecard.nfcjlib.TripleDES.decrypt(tdesKey, ct1Xored, 0, 8);
-        log(methodName, printData("ct1Xored decrypt", ct1XoredDecrypted));
+        logSecret(methodName, "ct1Xored decrypt", ct1XoredDecrypted);
 
         log(methodName, "5 copy ct1XoredDecrypted to cipheredBlock");
         cipheredBlock = ct1XoredDecrypted.clone();
-        log(methodName, printData("cipheredBlock   ", cipheredBlock));
+        log(methodName, "cipheredBlock   ", cipheredBlock);
 
         log(methodName, "6 XORing ct2 with cipheredBlock");
         byte[] ct2Xored = xor(ciphertextBlock2, cipheredBlock);
-        log(methodName, printData("ct2Xored        ", ct2Xored));
+        log(methodName, "ct2Xored        ", ct2Xored);
 
         log(methodName, "7 decrypt ct2Xored using TripleDES.decrypt");
         byte[] ct2XoredDecrypted = de.androidcrypto.talktoyourdesfirecard.nfcjlib.TripleDES.decrypt(tdesKey, ct2Xored, 0, 8);
-        log(methodName, printData("ct2 Xored decrypt", ct2XoredDecrypted));
+        logSecret(methodName, "ct2 Xored decrypt", ct2XoredDecrypted);
 
         log(methodName, "8 Note: for more data this would be extended but we are ready now");
 
         log(methodName, "9 concatenate ct1XoredDecrypted and ct2XoredDecrypted to plaintext");
         plaintext = concatenate(ct1XoredDecrypted, ct2XoredDecrypted);
-        log(methodName, printData("plaintext", plaintext));
+        logSecret(methodName, "plaintext", plaintext);
         log(methodName, "******** manual decryption text end **********");
         return plaintext;
     }
@@ -1228,7 +1203,7 @@ public class DesfireAuthenticateLegacy {
      */
     // source: nfcjLib
     private void setKeyVersion(byte[] a, int offset, int length, byte version) {
-        log("setKeyVersion", printData("a", a) + " offset: " + offset + " length: " + length + " version: " + version, true);
+        if (isLogEnabled()) log("setKeyVersion", DesfireLog.printSecret("a", a) + " offset: " + offset + " length: " + length + " version: " + version, true);
         //Log.d(TAG, "setKeyVersion " + printData("a", a) + " offset: " + offset + " length: " + length + " version: " + version);
         if (length == 8 || length == 16 || length == 24) {
             for (int i = offset + length - 1, j = 0; i >= offset; i--, j = (j + 1) % 8) {
@@ -1245,7 +1220,7 @@ public class DesfireAuthenticateLegacy {
      */
     public byte[] getTDesKeyFromDesKey(byte[] key) {
         String methodName = "getTDesKeyFromDesKey";
-        log(methodName, printData("key", key), true);
+        logSecret(methodName, "key", key);
         if ((key == null) || (key.length != 8)) {
             log(methodName, "Error: key is NULL or key length is not of 8 bytes length, aborted");
             return null;
@@ -1254,34 +1229,31 @@ public class DesfireAuthenticateLegacy {
         System.arraycopy(key, 0, tdesKey, 16, 8);
         System.arraycopy(key, 0, tdesKey, 8, 8);
         System.arraycopy(key, 0, tdesKey, 0, key.length);
-        log(methodName, printData("TDES key", tdesKey));
+        logSecret(methodName, "TDES key", tdesKey);
         return tdesKey;
     }
 
     private byte[] getRandomData(byte[] key) {
-        log("getRandomData", printData("key", key), true);
+        logSecret("getRandomData", "key", key);
         //Log.d(TAG, "getRandomData " + printData("var", var));
         int keyLength = key.length;
         return getRandomData(keyLength);
     }
 
     /**
-     * generates a random 8 bytes long array
+     * generates a random array, taken from the shared SecureRandomSource (and its challenge pool if enabled)
      *
-     * @return 8 bytes long byte[]
+     * @return length bytes long byte[]
      */
     private byte[] getRandomData(int length) {
         log("getRandomData", "length: " + length, true);
         //Log.d(TAG, "getRandomData " + " length: " + length);
-        byte[] value = new byte[length];
-        SecureRandom secureRandom = new SecureRandom();
-        secureRandom.nextBytes(value);
-        return value;
+        return SecureRandomSource.getRandomBytes(length);
     }
 
     // rotate the array one byte to the left
     private byte[] rotateLeft(byte[] data) {
-        log("rotateLeft", printData("data", data), true);
+        log("rotateLeft", "data", data);
         byte[] ret = new byte[data.length];
         System.arraycopy(data, 1, ret, 0, data.length - 1);
         ret[data.length - 1] = data[0];
@@ -1311,7 +1283,7 @@ public class DesfireAuthenticateLegacy {
     }
 
     private byte[] getSessionKeyDes(byte[] rndA, byte[] rndB) {
-        log("getSessionKey", printData("rndA", rndA) + printData(" rndB", rndB), true);
+        if (isLogEnabled()) log("getSessionKey", DesfireLog.printSecret("rndA", rndA) + DesfireLog.printSecret(" rndB", rndB), true);
         byte[] sessKey = new byte[8];
         System.arraycopy(rndA, 0, sessKey, 0, 4);
         System.arraycopy(rndB, 0, sessKey, 4, 4);
@@ -1406,11 +1378,11 @@ public class DesfireAuthenticateLegacy {
      * byte array if this APDU has no body.
      */
     private byte[] getData(byte[] responseAPDU) {
-        log("getData", printData("responseAPDU", responseAPDU), true);
+        log("getData", "responseAPDU", responseAPDU);
         //Log.d(TAG, "getData " + printData("responseAPDU", responseAPDU));
         byte[] data = new byte[responseAPDU.length - 2];
         System.arraycopy(responseAPDU, 0, data, 0, data.length);
-        log("getData", printData("responseData", data));
+        log("getData", "responseData", data);
         return data;
     }
 
@@ -1466,10 +1438,33 @@ public class DesfireAuthenticateLegacy {
     }
 
     private void log(String methodName, String data, boolean isMethodHeader) {
-        if (printToLog) {
-            logData += "method: " + methodName + "\n" + data + "\n";
-            Log.d(TAG, "method: " + methodName + ": " + data);
-        }
+        if (!isLogEnabled()) return;
+        logData += "method: " + methodName + "\n" + data + "\n";
+        Log.d(TAG, "method: " + methodName + ": " + data);
+    }
+
+    /**
+     * the log is written on DesfireLog level DEBUG only (the default level is INFO), call sites that build
+     * their message are guarded with 'if (isLogEnabled()) log(...)'
+     */
+    private boolean isLogEnabled() {
+        return printToLog && DesfireLog.isDebugEnabled();
+    }
+
+    /**
+     * logs a labeled byte array, the data is formatted only when the log is enabled
+     */
+    private void log(String methodName, String dataName, byte[] data) {
+        if (!isLogEnabled()) return;
+        log(methodName, printData(dataName, data));
+    }
+
+    /**
+     * logs key material or other secrets, in production mode (see DesfireLog) the data is never formatted
+     */
+    private void logSecret(String methodName, String dataName, byte[] data) {
+        if (!isLogEnabled()) return;
+        log(methodName, DesfireLog.printSecret(dataName, data));
     }
 
     private byte[] xor(byte[] dataA, byte[] dataB) {
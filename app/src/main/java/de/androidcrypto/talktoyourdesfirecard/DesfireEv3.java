@@ -18,10 +18,10 @@ import androidx.annotation.NonNull;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -98,14 +98,16 @@ public class DesfireEv3 {
     private static final String TAG = DesfireEv3.class.getName();
 
 
-    private final IsoDep isoDep;
-    private String logData;
+    private final ApduTransport transport;
+    private final TraceRecorder trace = new TraceRecorder(); // replaces the former 'String logData'
     private boolean authenticateEv2FirstSuccess = false;
     private boolean authenticateEv2NonFirstSuccess = false;
     private byte keyNumberUsedForAuthentication = -1;
     private byte[] SesAuthENCKey; // filled by authenticateAesEv2First
     private byte[] SesAuthMACKey; // filled by authenticateAesEv2First
     private int CmdCounter = 0; // filled / reset by authenticateAesEv2First
+    private SessionCrypto sessionCrypto; // initialized with the session keys, invalidated together with them
+    private final byte[] sessionVectorBuffer = new byte[32]; // SV1 / SV2 for the session key derivation, cleared after use
     private byte[] TransactionIdentifier; // reset by authenticateAesEv2First
     // note on TransactionIdentifier: LSB encoding
 
@@ -143,7 +145,7 @@ public class DesfireEv3 {
     public static final byte[] NDEF_FILE_02_ISO_NAME = Utils.hexStringToByteArray("04E1");
     public static final byte[] NDEF_FILE_02_ACCESS_RIGHTS = Utils.hexStringToByteArray("00EE"); // free access for reading and writing, an authentication is needed for all other accesses
     public static final int NDEF_FILE_02_SIZE = 256;
-    public static final int MAXIMUM_FILE_SIZE = 256; // this is fixed by me, could as long as about free memory of the tag
+    public static final int MAXIMUM_FILE_SIZE = 0xFFFFFF; // the file size is coded in 3 bytes, the real limit is the free memory of the tag
 
     /**
      * constants for commands
@@ -155,6 +157,7 @@ public class DesfireEv3 {
     private final byte MORE_DATA_COMMAND = (byte) 0xAF;
     private final byte GET_VERSION_INFO_COMMAND = (byte) 0x60;
     private final byte GET_KEY_SETTINGS_COMMAND = (byte) 0x45;
+    private final byte GET_KEY_VERSION_COMMAND = (byte) 0x64;
     private final byte CREATE_APPLICATION_COMMAND = (byte) 0xCA;
     private final byte SELECT_APPLICATION_COMMAND = (byte) 0x5A;
     private final byte SELECT_APPLICATION_ISO_COMMAND = (byte) 0xA4;
@@ -216,7 +219,9 @@ public class DesfireEv3 {
     /**
      * class internal constants and limitations
      */
-    boolean printToLog = true; // logging data in internal log string
+    static final boolean TRACE_ENABLED = true; // compile time switch, on false the log methods compile to an empty body
+    boolean printToLog = true; // logging data in internal trace, see getLogData; only recorded on DesfireLog level DEBUG
+    boolean printToLogcat = false; // echo the log data to logcat, this formats every entry immediately
     public static final byte[] MASTER_APPLICATION_IDENTIFIER = Utils.hexStringToByteArray("000000"); // AID '00 00 00'
     private final byte APPLICATION_MASTER_KEY_SETTINGS = (byte) 0x0F; // 'amks' all default values
     private final byte APPLICATION_CRYPTO_DES = 0x00; // add this to number of keys for DES
@@ -230,8 +235,11 @@ public class DesfireEv3 {
     private final byte[] IV_LABEL_ENC = new byte[]{(byte) 0xA5, (byte) 0x5A}; // use as header for AES encryption
     private final byte[] IV_LABEL_DEC = new byte[]{(byte) 0x5A, (byte) 0xA5}; // use as header for AES decryption
     //private final int MAXIMUM_MESSAGE_LENGTH = 32;//
-    private final int MAXIMUM_WRITE_MESSAGE_LENGTH = 40;
-    private final int MAXIMUM_READ_MESSAGE_LENGTH = 40;
+    private final int MAXIMUM_WRITE_MESSAGE_LENGTH = 40; // used as long as no frame size is negotiated
+    private final int MAXIMUM_READ_MESSAGE_LENGTH = 40; // used as long as no frame size is negotiated
+    private FrameSize frameSize; // filled by negotiateFrameSize
+    private final int MAXIMUM_COMMAND_DATA_LENGTH = 55; // 40 bytes data + 7 bytes header + 8 bytes MAC, used as long as no frame size is negotiated
+    private boolean writeChaining = false; // see setWriteChaining
     private static final byte MAXIMUM_NUMBER_OF_KEYS = 5; // the maximum of keys per application is 14
     private final int MAXIMUM_NUMBER_OF_FILES = 32; // as per datasheet DESFire EV3 this is valid for EV1, EV2 and EV3
     private static final int MAXIMUM_VALUES = 2147483647;
@@ -266,10 +274,13 @@ public class DesfireEv3 {
      * files
      */
 
-    private static byte[] APPLICATION_ALL_FILE_IDS; // filled by getAllFileIds and invalidated by selectApplication AND createFile
+    private byte[] APPLICATION_ALL_FILE_IDS; // filled by getAllFileIds (or the fileSettingsCache) and invalidated by selectApplication AND createFile
     private List<byte[]> isoFileIdsList = new ArrayList<>(); // filled by getApplicationsIsoData and invalidated by onTagDiscovered
     private List<byte[]> isoDfNamesList = new ArrayList<>(); // filled by getApplicationsIsoData and invalidated by onTagDiscovered
-    private static FileSettings[] APPLICATION_ALL_FILE_SETTINGS; // filled by getAllFileSettings and invalidated by selectApplication AND createFile
+    private List<ApplicationIsoData> applicationIsoData = new ArrayList<>(); // filled by getApplicationsIsoData and invalidated by onTagDiscovered
+    private FileSettings[] APPLICATION_ALL_FILE_SETTINGS; // filled by getAllFileSettings (or the fileSettingsCache) and invalidated by selectApplication AND createFile
+    private FileSettingsCache fileSettingsCache = new FileSettingsCache(); // keyed by tag id, application and fileSettingsVersionHint
+    private int fileSettingsVersionHint = 0;
     private FileSettings selectedFileSetting; // takes the fileSettings of the actual file
     private FileSettings[] fileSettingsArray = new FileSettings[MAXIMUM_NUMBER_OF_FILES]; // after an 'select application' the fileSettings of all files are read
     private boolean isApplicationSelected = false; // used by SetupLightEnvironment, filled by selectApplicationByDfName
@@ -286,12 +297,30 @@ public class DesfireEv3 {
     }
 
 
+    /**
+     * creates the class for a real tag, the frame size is negotiated at once (see negotiateFrameSize)
+     *
+     * @param isoDep of the connected tag
+     */
     public DesfireEv3(IsoDep isoDep) {
-        this.isoDep = isoDep;
+        this(isoDep == null ? null : new IsoDepTransport(isoDep));
+        if (isoDep != null) negotiateFrameSize();
+    }
+
+    /**
+     * creates the class with any ApduTransport, e.g. a SimulatedDesfireCard for running
+     * the full protocol layer on a plain JVM without a real tag. The frame size is not negotiated,
+     * call negotiateFrameSize to use larger data chunks than 40 bytes.
+     *
+     * @param transport used for all commands sent to the PICC
+     */
+    public DesfireEv3(ApduTransport transport) {
+        this.transport = transport;
         Log.i(TAG, "class is initialized");
         transactionMacReaderId = TRANSACTION_MAC_READER_ID_DEFAULT.clone();
         isoFileIdsList = new ArrayList<>(); // filled by getApplicationsIsoData and invalidated by onTagDiscovered
         isoDfNamesList = new ArrayList<>(); // filled by getApplicationsIsoData and invalidated by onTagDiscovered
+        applicationIsoData = new ArrayList<>(); // filled by getApplicationsIsoData and invalidated by onTagDiscovered
     }
 
     /**
@@ -317,12 +346,12 @@ public class DesfireEv3 {
         decryptBaosReader.write(commandCounterLsbTest, 0, commandCounterLsbTest.length);
         decryptBaosReader.write(paddingReader, 0, paddingReader.length);
         byte[] ivInputResponseReader = decryptBaosReader.toByteArray();
-        log(methodName, printData("ivInputResponseReader", ivInputResponseReader));
+        log(methodName, "ivInputResponseReader", ivInputResponseReader);
         byte[] ivResponseReader = AES.encrypt(startingIvReader, SesAuthEncKeyTest, ivInputResponseReader);
-        log(methodName, printData("ivResponseReader", ivResponseReader));
+        log(methodName, "ivResponseReader", ivResponseReader);
         DecryptedResponseTest = AES.decrypt(ivResponseReader, SesAuthEncKeyTest, EncryptedResponseDataTest);
-        log(methodName, printData("DecryptedResponse   Test", DecryptedResponseTest));
-        log(methodName, printData("DecryptedResponseExpTest", DecryptedResponseExpTest));
+        log(methodName, "DecryptedResponse   Test", DecryptedResponseTest);
+        log(methodName, "DecryptedResponseExpTest", DecryptedResponseExpTest);
         log(methodName, "decryptedData is previous TMRI (latest TransactionMAC Reader ID");
     }
 
@@ -338,7 +367,7 @@ public class DesfireEv3 {
     public boolean setTransactionMacReaderId(byte[] transactionMacReaderId) {
         String methodName = "setTransactionMacReaderId";
         log(methodName, "started");
-        log(methodName, printData("transactionMacReaderId", transactionMacReaderId));
+        log(methodName, "transactionMacReaderId", transactionMacReaderId);
         if ((transactionMacReaderId == null) || (transactionMacReaderId.length != 16)) {
             log(methodName, "transactionMacReaderId is NULL or not of length 16, aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
@@ -367,9 +396,9 @@ public class DesfireEv3 {
         String logData = "";
         final String methodName = "createApplicationAesIso";
         log(methodName, "started", true);
-        log(methodName, printData("applicationIdentifier", applicationIdentifier));
+        log(methodName, "applicationIdentifier", applicationIdentifier);
         //log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, "numberOfApplicationKeys: " + numberOfApplicationKeys);
+        if (isLogEnabled()) log(methodName, "numberOfApplicationKeys: " + numberOfApplicationKeys);
         // sanity checks
         if (!checkApplicationIdentifier(applicationIdentifier))
             return false; // logFile and errorCode are updated
@@ -405,7 +434,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
@@ -417,7 +446,7 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            if (isLogEnabled()) log(methodName, "FAILURE with " + printData("errorCode", errorCode));
             return false;
         }
     }
@@ -443,9 +472,9 @@ public class DesfireEv3 {
         String logData = "";
         final String methodName = "createApplicationAesIso";
         log(methodName, "started", true);
-        log(methodName, printData("applicationIdentifier", applicationIdentifier));
+        log(methodName, "applicationIdentifier", applicationIdentifier);
         //log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, "numberOfApplicationKeys: " + numberOfApplicationKeys);
+        if (isLogEnabled()) log(methodName, "numberOfApplicationKeys: " + numberOfApplicationKeys);
         // sanity checks
         if (!checkApplicationIdentifier(applicationIdentifier))
             return false; // logFile and errorCode are updated
@@ -481,7 +510,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
@@ -493,7 +522,7 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            if (isLogEnabled()) log(methodName, "FAILURE with " + printData("errorCode", errorCode));
             return false;
         }
     }
@@ -513,11 +542,11 @@ public class DesfireEv3 {
         String logData = "";
         final String methodName = "createApplicationAesIso";
         log(methodName, "started", true);
-        log(methodName, printData("applicationIdentifier", applicationIdentifier));
-        log(methodName, printData("isoApplicationIdentifier", isoApplicationIdentifier));
-        log(methodName, printData("applicationDfName", applicationDfName));
+        log(methodName, "applicationIdentifier", applicationIdentifier);
+        log(methodName, "isoApplicationIdentifier", isoApplicationIdentifier);
+        log(methodName, "applicationDfName", applicationDfName);
         //log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, "numberOfApplicationKeys: " + numberOfApplicationKeys);
+        if (isLogEnabled()) log(methodName, "numberOfApplicationKeys: " + numberOfApplicationKeys);
         // sanity checks
         if (!checkApplicationIdentifier(applicationIdentifier))
             return false; // logFile and errorCode are updated
@@ -561,7 +590,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -572,7 +601,7 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            if (isLogEnabled()) log(methodName, "FAILURE with " + printData("errorCode", errorCode));
             return false;
         }
     }
@@ -586,10 +615,17 @@ public class DesfireEv3 {
      */
 
     public boolean selectApplicationByAid(byte[] applicationIdentifier) {
+        return selectApplicationByAid(applicationIdentifier, true);
+    }
+
+    /**
+     * @param isLoadFileSettings | false = the file ids and file settings are not read, used by getCardSnapshot
+     */
+    private boolean selectApplicationByAid(byte[] applicationIdentifier, boolean isLoadFileSettings) {
         final String methodName = "selectApplication by AID";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
-        log(methodName, printData("applicationIdentifier", applicationIdentifier));
+        log(methodName, "applicationIdentifier", applicationIdentifier);
         errorCode = new byte[2];
         // sanity checks
         if (!checkApplicationIdentifier(applicationIdentifier))
@@ -603,7 +639,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -615,12 +651,14 @@ public class DesfireEv3 {
             invalidateAllData();
             invalidateAllNonAuthenticationData();
             selectedApplicationId = applicationIdentifier.clone();
-            APPLICATION_ALL_FILE_IDS = getAllFileIds();
-            APPLICATION_ALL_FILE_SETTINGS = getAllFileSettings();
+            // the Master Application has no files
+            if (isLoadFileSettings && (!Arrays.equals(applicationIdentifier, MASTER_APPLICATION_IDENTIFIER))) {
+                loadApplicationFileSettings();
+            }
             errorCode = RESPONSE_OK.clone();
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            if (isLogEnabled()) log(methodName, "FAILURE with " + printData("errorCode", errorCode));
             return false;
         }
     }
@@ -637,9 +675,9 @@ public class DesfireEv3 {
         String logData = "";
         final String methodName = "selectApplicationByIsoByDfName";
         log(methodName, "started", true);
-        log(methodName, printData("dfApplicationName", dfApplicationName));
+        log(methodName, "dfApplicationName", dfApplicationName);
 
-        if (isoDep == null) {
+        if (transport == null) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA tag ?), aborted";
             return false;
@@ -662,13 +700,13 @@ public class DesfireEv3 {
         byte[] apdu = baos.toByteArray();
         byte[] response = sendData(apdu);
         if (checkResponseIso(response)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             isApplicationSelected = true;
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -685,7 +723,7 @@ public class DesfireEv3 {
 
     public boolean deleteSelectedApplication() {
         final String methodName = "deleteSelectedApplication";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
         errorCode = new byte[2];
         // sanity checks
@@ -696,11 +734,12 @@ public class DesfireEv3 {
         byte[] apdu;
         byte[] response;
         try {
+            invalidateFileSettingsCache();
             apdu = wrapMessage(DELETE_APPLICATION_COMMAND, selectedApplicationId);
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -711,14 +750,85 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            if (isLogEnabled()) log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            return false;
+        }
+    }
+
+    /**
+     * deletes an application on PICC level without any further confirmation, the Master Application needs to be
+     * selected. A real PICC always requires a preceding authentication with the PICC master key (bit 2 of the PICC
+     * master key settings frees CreateApplication only), after an authenticateAesEv2First the command is sent in
+     * MACed communication. To delete an application with its application master key use deleteSelectedApplication.
+     *
+     * @param applicationIdentifier | length 3 but NOT '000000'
+     * @return true on success
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+
+    public boolean deleteApplication(byte[] applicationIdentifier) {
+        final String methodName = "deleteApplication";
+        clearLog();
+        log(methodName, "started", true);
+        log(methodName, "applicationIdentifier", applicationIdentifier);
+        errorCode = new byte[2];
+        // sanity checks
+        if (!checkApplicationIdentifier(applicationIdentifier))
+            return false; // logFile and errorCode are updated
+        if (Arrays.equals(applicationIdentifier, MASTER_APPLICATION_IDENTIFIER)) {
+            log(methodName, "the Master Application can't be deleted, aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "the Master Application can't be deleted";
+            return false;
+        }
+        if (!checkIsMasterApplication()) return false; // select Master Application first
+        if (!checkIsoDep()) return false; // logFile and errorCode are updated
+
+        boolean isMaced = isAuthenticatedEv2();
+        byte[] commandData = applicationIdentifier.clone();
+        if (isMaced) {
+            // MAC_Input (Ins || CmdCounter || TI || CmdHeader (= AID) )
+            byte[] macTruncated = truncateMAC(calculateSessionMac(DELETE_APPLICATION_COMMAND, applicationIdentifier));
+            commandData = new byte[3 + macTruncated.length];
+            System.arraycopy(applicationIdentifier, 0, commandData, 0, 3);
+            System.arraycopy(macTruncated, 0, commandData, 3, macTruncated.length);
+        }
+        byte[] response;
+        try {
+            response = sendData(wrapMessage(DELETE_APPLICATION_COMMAND, commandData));
+        } catch (IOException e) {
+            Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
         }
+        System.arraycopy(returnStatusBytes(response), 0, errorCode, 0, 2);
+        if (!checkResponse(response)) {
+            if (isLogEnabled()) log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            errorCodeReason = methodName + " FAILURE";
+            return false;
+        }
+        if (isMaced) {
+            // note: after sending data to the card the commandCounter is increased by 1
+            CmdCounter++;
+            byte[] responseMac = getData(response);
+            if ((responseMac.length != 8) || (!verifyResponseMac(responseMac, null))) {
+                if (isLogEnabled()) log(methodName, methodName + " FAILURE on the response MAC");
+                errorCode = RESPONSE_FAILURE.clone();
+                errorCodeReason = methodName + " FAILURE on the response MAC";
+                return false;
+            }
+        }
+        log(methodName, "SUCCESS");
+        errorCode = RESPONSE_OK.clone();
+        errorCodeReason = methodName + " SUCCESS";
+        return true;
     }
 
     public List<byte[]> getApplicationIdsList() {
         final String methodName = "getApplicationIdsList";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
         errorCode = new byte[2];
 
@@ -733,8 +843,8 @@ public class DesfireEv3 {
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (!checkResponse(response)) {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return null;
         }
         errorCode = RESPONSE_OK.clone();
@@ -746,7 +856,7 @@ public class DesfireEv3 {
 
     public byte[] getApplicationDfNames() {
         final String methodName = "getApplicationDfNames";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
         errorCode = new byte[2];
 
@@ -760,8 +870,8 @@ public class DesfireEv3 {
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (!checkResponse(response)) {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return null;
         }
         errorCode = RESPONSE_OK.clone();
@@ -770,88 +880,75 @@ public class DesfireEv3 {
         return applicationListBytes;
     }
 
+    /**
+     * reads the ISO data of all applications with the GetDFNames command in one pass: the PICC sends one
+     * application per frame (AID || ISO File ID || ISO DF Name), so each frame is parsed on its own and no
+     * GetApplicationIDs command or search for the AIDs in the concatenated data is needed.
+     * Note: only applications that were created with an ISO File ID are listed
+     *
+     * @return the list of applications (may be empty) or null on failure
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+
+    public List<ApplicationIsoData> getApplicationIsoDataList() {
+        final String methodName = "getApplicationIsoDataList";
+        clearLog();
+        log(methodName, "started", true);
+        errorCode = new byte[2];
+
+        // sanity checks
+        if (!checkIsMasterApplication()) return null; // select Master Application first
+        if (!checkIsoDep()) return null;
+
+        List<byte[]> frames = sendRequestFrames(GET_APPLICATION_DF_NAMES_COMMAND);
+        if (frames == null) {
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(errorCode));
+            return null;
+        }
+        List<ApplicationIsoData> applicationIsoDataList = new ArrayList<>();
+        for (int i = 0; i < frames.size(); i++) {
+            byte[] frame = frames.get(i);
+            // the last frame is empty when no application has an ISO File ID
+            if ((frame.length == 0) && (i == frames.size() - 1)) break;
+            if ((frame.length < ApplicationIsoData.MINIMUM_RECORD_LENGTH) || (frame.length > ApplicationIsoData.MAXIMUM_RECORD_LENGTH)) {
+                Log.e(TAG, methodName + " frame " + i + " has an invalid length of " + frame.length + ", aborted");
+                if (isLogEnabled()) log(methodName, "frame " + i + " has an invalid length of " + frame.length + ", aborted");
+                errorCode = RESPONSE_FAILURE.clone();
+                errorCodeReason = "invalid record length " + frame.length + " in frame " + i;
+                return null;
+            }
+            applicationIsoDataList.add(ApplicationIsoData.parse(frame, 0, frame.length));
+        }
+        errorCode = RESPONSE_OK.clone();
+        errorCodeReason = "SUCCESS";
+        return applicationIsoDataList;
+    }
+
     /**
      * tries to get the ISO File IDs and ISO DF Names from the application on the tag
      * On success retrieve the data by using the getters 'getIsoDfNamesList()' and
-     * 'getIsoFileIdsList()', they return a List<byte[]>'
+     * 'getIsoFileIdsList()', they return a List<byte[]>', or 'getApplicationIsoData()'
+     * for the list with AID, ISO File ID and DF Name of each application
      *
      * @return true on success
      */
 
     public boolean getApplicationsIsoData() {
-        byte[] dfNames = getApplicationDfNames();
-        if ((dfNames == null) || (dfNames.length < 6)) {
+        List<ApplicationIsoData> applicationIsoDataList = getApplicationIsoDataList();
+        if ((applicationIsoDataList == null) || (applicationIsoDataList.size() < 1)) {
             Log.e(TAG, "no DF names found, aborted");
             return false;
         }
-        Log.d(TAG, printData("dfNames", dfNames));
-        List<byte[]> appIdsList = getApplicationIdsList();
-        if (appIdsList.size() < 1) {
-            Log.e(TAG, "no applications found, aborted");
-            return false;
-        }
-
-        // get iso file ids and df names by parsing through list
-        int dfNamesLength = dfNames.length;
+        applicationIsoData = applicationIsoDataList;
         isoFileIdsList = new ArrayList<>();
         isoDfNamesList = new ArrayList<>();
-        int posAppId = -1;
-        int posAppIdLast = -1;
-        for (int i = 0; i < appIdsList.size(); i++) {
-            byte[] appId = appIdsList.get(i);
-            Log.d(TAG, "i: " + i + printData(" appId", appId));
-            posAppId = indexOf(dfNames, appId);
-            if (posAppId <= posAppIdLast) {
-                // this  happens if the appId is part of a former element
-                Log.e(TAG, "couldn't find the starting position, aborted");
-                return false;
-            }
-            if (posAppId > -1) {
-                Log.d(TAG, "found posAppId: " + posAppId);
-            } else {
-                Log.e(TAG, "appId not found in dfNames, aborted");
-                return false;
-            }
-            if (posAppId > 0) {
-                // skip the first id found
-                // get the data from the first element up to element - 1
-                Log.d(TAG, "get element data posAppIdLast: " + posAppIdLast + " posAppId: " + posAppId);
-                byte[] elementData = Arrays.copyOfRange(dfNames, posAppIdLast, posAppId);
-                Log.d(TAG, printData("elementData", elementData));
-                byte[] appIdTemp = Arrays.copyOfRange(elementData, 0, 3);
-                byte[] isoFileId = Arrays.copyOfRange(elementData, 3, 5);
-                byte[] dfName = Arrays.copyOfRange(elementData, 5, elementData.length);
-                isoFileIdsList.add(isoFileId);
-                isoDfNamesList.add(dfName);
-                Log.d(TAG, printData("appId", appIdTemp) + printData(" isoFileId", isoFileId) + printData(" dfName", dfName));
-            }
-            posAppIdLast = posAppId;
-            if (i == (appIdsList.size() - 1)) {
-                // grabbing the last element
-                Log.d(TAG, "grabbing the last element");
-                byte[] elementData = Arrays.copyOfRange(dfNames, posAppIdLast, dfNamesLength);
-                Log.d(TAG, printData("elementData", elementData));
-                byte[] appIdTemp = Arrays.copyOfRange(elementData, 0, 3);
-                byte[] isoFileId = Arrays.copyOfRange(elementData, 3, 5);
-                byte[] dfName = Arrays.copyOfRange(elementData, 5, elementData.length);
-                isoFileIdsList.add(isoFileId);
-                isoDfNamesList.add(dfName);
-                Log.d(TAG, printData("appId", appIdTemp) + printData(" isoFileId", isoFileId) + printData(" dfName", dfName));
-            }
-        }
-        Log.d(TAG, "isoFileIdsList size: " + isoFileIdsList.size());
-        Log.d(TAG, "isoDfNamesList size: " + isoDfNamesList.size());
-        for (int i = 0; i < isoFileIdsList.size(); i++) {
-            Log.d(TAG, "i: " + i + printData(" isoFileId", isoFileIdsList.get(i)));
-            Log.d(TAG, "i: " + i + printData(" isoDfName", isoDfNamesList.get(i)));
-        }
-        if ((isoFileIdsList.size() > 0) && (isoDfNamesList.size() > 1)) {
-            Log.d(TAG, "applicationIsoData is available, use getter");
-            return true;
-        } else {
-            Log.d(TAG, "applicationIsoData is NOT available");
-            return false;
+        for (ApplicationIsoData isoData : applicationIsoDataList) {
+            isoFileIdsList.add(isoData.getIsoFileId());
+            isoDfNamesList.add(isoData.getDfName());
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, isoData.dump());
         }
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, "applicationIsoData is available for " + applicationIsoDataList.size() + " applications, use getter");
+        return true;
     }
 
 
@@ -906,14 +1003,14 @@ public class DesfireEv3 {
 
     public boolean createAStandardFileIso(byte fileNumber, byte[] isoFileId, CommunicationSettings communicationSettings, byte[] accessRights, int fileSize, boolean preEnableSdm) {
         final String methodName = "createAStandardFileIso";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, printData("isoFileId", isoFileId));
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "fileSize: " + fileSize);
-        log(methodName, "preEnableSdm: " + preEnableSdm);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        log(methodName, "isoFileId", isoFileId);
+        if (isLogEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isLogEnabled()) log(methodName, "fileSize: " + fileSize);
+        if (isLogEnabled()) log(methodName, "preEnableSdm: " + preEnableSdm);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
@@ -957,11 +1054,12 @@ public class DesfireEv3 {
         byte[] response;
 
         try {
+            invalidateFileSettingsCache();
             apdu = wrapMessage(CREATE_STANDARD_FILE_COMMAND, commandParameter);
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -972,7 +1070,7 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            if (isLogEnabled()) log(methodName, "FAILURE with " + printData("errorCode", errorCode));
             return false;
         }
     }
@@ -993,14 +1091,14 @@ public class DesfireEv3 {
 
     private boolean createADataFile(byte fileNumber, CommunicationSettings communicationSettings, byte[] accessRights, boolean isStandardFile, int fileSize, boolean preEnableSdm) {
         final String methodName = "createADataFile";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "isStandardFile: " + isStandardFile);
-        log(methodName, "fileSize: " + fileSize);
-        log(methodName, "preEnableSdm: " + preEnableSdm);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isLogEnabled()) log(methodName, "isStandardFile: " + isStandardFile);
+        if (isLogEnabled()) log(methodName, "fileSize: " + fileSize);
+        if (isLogEnabled()) log(methodName, "preEnableSdm: " + preEnableSdm);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
@@ -1041,6 +1139,7 @@ public class DesfireEv3 {
         byte[] apdu;
         byte[] response;
         try {
+            invalidateFileSettingsCache();
             if (isStandardFile) {
                 apdu = wrapMessage(CREATE_STANDARD_FILE_COMMAND, commandParameter);
             } else {
@@ -1049,7 +1148,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -1060,7 +1159,7 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            if (isLogEnabled()) log(methodName, "FAILURE with " + printData("errorCode", errorCode));
             errorCodeReason = "FAILURE";
             return false;
         }
@@ -1068,33 +1167,33 @@ public class DesfireEv3 {
 
     public boolean createAValueFile(byte fileNumber, CommunicationSettings communicationSettings, byte[] accessRights, int minimumValue, int maximumValue, int initialValue, boolean limitedCreditOperation) {
         final String methodName = "createAValueFile";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "minimumValue: " + minimumValue);
-        log(methodName, "maximumValue: " + maximumValue);
-        log(methodName, "initialValue: " + initialValue);
-        log(methodName, "limitedCreditOperation: " + limitedCreditOperation);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isLogEnabled()) log(methodName, "minimumValue: " + minimumValue);
+        if (isLogEnabled()) log(methodName, "maximumValue: " + maximumValue);
+        if (isLogEnabled()) log(methodName, "initialValue: " + initialValue);
+        if (isLogEnabled()) log(methodName, "limitedCreditOperation: " + limitedCreditOperation);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
         if (!checkAccessRights(accessRights)) return false;
         if ((minimumValue < 0) || (minimumValue > MAXIMUM_VALUES)) {
-            log(methodName, "minimumValue is not in range 0.." + MAXIMUM_VALUES + ", aborted");
+            if (isLogEnabled()) log(methodName, "minimumValue is not in range 0.." + MAXIMUM_VALUES + ", aborted");
             System.arraycopy(RESPONSE_PARAMETER_ERROR, 0, errorCode, 0, 2);
             errorCodeReason = "minimumValue is not in range 0.." + MAXIMUM_VALUES;
             return false;
         }
         if ((maximumValue < 0) || (maximumValue > MAXIMUM_VALUES)) {
-            log(methodName, "maximumValue is not in range 0.." + MAXIMUM_VALUES + ", aborted");
+            if (isLogEnabled()) log(methodName, "maximumValue is not in range 0.." + MAXIMUM_VALUES + ", aborted");
             System.arraycopy(RESPONSE_PARAMETER_ERROR, 0, errorCode, 0, 2);
             errorCodeReason = "maximumValue is not in range 0.." + MAXIMUM_VALUES;
             return false;
         }
         if ((initialValue < 0) || (initialValue > MAXIMUM_VALUES)) {
-            log(methodName, "initialValue is not in range 0.." + MAXIMUM_VALUES + ", aborted");
+            if (isLogEnabled()) log(methodName, "initialValue is not in range 0.." + MAXIMUM_VALUES + ", aborted");
             System.arraycopy(RESPONSE_PARAMETER_ERROR, 0, errorCode, 0, 2);
             errorCodeReason = "initialValue is not in range 0.." + MAXIMUM_VALUES;
             return false;
@@ -1138,11 +1237,12 @@ public class DesfireEv3 {
         byte[] apdu;
         byte[] response;
         try {
+            invalidateFileSettingsCache();
             apdu = wrapMessage(CREATE_VALUE_FILE_COMMAND, commandParameter);
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -1153,7 +1253,7 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            if (isLogEnabled()) log(methodName, "FAILURE with " + printData("errorCode", errorCode));
             errorCodeReason = "FAILURE";
             return false;
         }
@@ -1161,38 +1261,38 @@ public class DesfireEv3 {
 
     public boolean createALinearRecordFile(byte fileNumber, CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
         final String methodName = "createALinearRecordFile";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "recordSize: " + recordSize);
-        log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isLogEnabled()) log(methodName, "recordSize: " + recordSize);
+        if (isLogEnabled()) log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
         return createARecordFile(fileNumber, communicationSettings, accessRights, recordSize, maximumNumberOfRecords, true);
     }
 
     public boolean createACyclicRecordFile(byte fileNumber, CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
         final String methodName = "createACyclicRecordFile";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "recordSize: " + recordSize);
-        log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isLogEnabled()) log(methodName, "recordSize: " + recordSize);
+        if (isLogEnabled()) log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
         return createARecordFile(fileNumber, communicationSettings, accessRights, recordSize, maximumNumberOfRecords, false);
     }
 
     private boolean createARecordFile(byte fileNumber, CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords, boolean isLinearRecordFile) {
         final String methodName = "createARecordFile";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "recordSize: " + recordSize);
-        log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
-        log(methodName, "isLinearRecordFile: " + isLinearRecordFile);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isLogEnabled()) log(methodName, "recordSize: " + recordSize);
+        if (isLogEnabled()) log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
+        if (isLogEnabled()) log(methodName, "isLinearRecordFile: " + isLinearRecordFile);
 
         errorCode = new byte[2];
         // sanity checks
@@ -1232,6 +1332,7 @@ public class DesfireEv3 {
         byte[] apdu;
         byte[] response;
         try {
+            invalidateFileSettingsCache();
             if (isLinearRecordFile) {
                 apdu = wrapMessage(CREATE_LINEAR_RECORD_FILE_COMMAND, commandParameter);
             } else {
@@ -1240,7 +1341,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -1251,36 +1352,158 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            if (isLogEnabled()) log(methodName, "FAILURE with " + printData("errorCode", errorCode));
             errorCodeReason = "FAILURE";
             return false;
         }
     }
 
+    /**
+     * sends precomputed commands in plain communication back-to-back, e.g. the create application and create file
+     * commands of a personalization that were built before the card was tapped. The method stops on the first failure.
+     * The commands are not MACed, so no authentication may be active.
+     * Note: the file ids and file settings of the selected application are not updated, select the application
+     * again after creating files
+     *
+     * @param apdus                    | complete APDUs, e.g. '90 CD 00 00 07 ... 00'
+     * @param isDuplicateErrorAccepted | a DUPLICATE_ERROR (0x91DE) counts as success, e.g. when repeating an interrupted personalization
+     * @return true on success
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+
+    public boolean sendPlainCommands(byte[][] apdus, boolean isDuplicateErrorAccepted) {
+        final String methodName = "sendPlainCommands";
+        log(methodName, "started", true);
+        errorCode = new byte[2];
+        // sanity checks
+        if ((apdus == null) || (apdus.length == 0)) {
+            log(methodName, "apdus are NULL or empty, aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "apdus are NULL or empty";
+            return false;
+        }
+        if (authenticateEv2FirstSuccess || authenticateEv2NonFirstSuccess) {
+            log(methodName, "an authentication is active, aborted");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "an authentication is active, plain commands are not allowed";
+            return false;
+        }
+        if (!checkIsoDep()) return false; // logFile and errorCode are updated
+
+        invalidateFileSettingsCache();
+        for (int i = 0; i < apdus.length; i++) {
+            byte[] response = sendData(apdus[i]);
+            if (response == null) return false; // errorCode and errorCodeReason are set by sendData
+            System.arraycopy(returnStatusBytes(response), 0, errorCode, 0, 2);
+            if ((!checkResponse(response)) && (!(isDuplicateErrorAccepted && Arrays.equals(RESPONSE_DUPLICATE_ERROR, errorCode)))) {
+                if (isLogEnabled()) log(methodName, "FAILURE on command " + i + " with " + printData("errorCode", errorCode));
+                errorCodeReason = methodName + " FAILURE on command " + i;
+                return false;
+            }
+        }
+        log(methodName, "SUCCESS");
+        errorCode = RESPONSE_OK.clone();
+        errorCodeReason = methodName + " SUCCESS";
+        return true;
+    }
+
+    /**
+     * sends precomputed commands in MACed communication after an authenticateAesEv2First, e.g. the create
+     * application and create file commands of sendPlainCommands when the key settings require an authentication
+     * with the master key. The method stops on the first failure.
+     * Note: the file ids and file settings of the selected application are not updated, select the application
+     * again after creating files. A failing command ends the authentication on the PICC, so there is no option
+     * to accept a DUPLICATE_ERROR as in sendPlainCommands.
+     *
+     * @param apdus | complete APDUs without MAC, e.g. '90 CD 00 00 07 ... 00'
+     * @return true on success
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+
+    public boolean sendMacedCommands(byte[][] apdus) {
+        final String methodName = "sendMacedCommands";
+        log(methodName, "started", true);
+        errorCode = new byte[2];
+        // sanity checks
+        if ((apdus == null) || (apdus.length == 0)) {
+            log(methodName, "apdus are NULL or empty, aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "apdus are NULL or empty";
+            return false;
+        }
+        if (!checkAuthentication()) return false; // logFile and errorCode are updated
+        if (!checkIsoDep()) return false; // logFile and errorCode are updated
+
+        invalidateFileSettingsCache();
+        for (int i = 0; i < apdus.length; i++) {
+            byte[] apdu = apdus[i];
+            if ((apdu == null) || (apdu.length < 5) || (apdu.length < 5 + (apdu[4] & 0xff))) {
+                log(methodName, "apdu " + i + " is too short, aborted");
+                errorCode = RESPONSE_PARAMETER_ERROR.clone();
+                errorCodeReason = "apdu " + i + " is too short";
+                return false;
+            }
+            byte command = apdu[1];
+            byte[] cmdHeader = Arrays.copyOfRange(apdu, 5, 5 + (apdu[4] & 0xff));
+            // MAC_Input (Ins || CmdCounter || TI || CmdHeader)
+            byte[] macTruncated = truncateMAC(calculateSessionMac(command, cmdHeader));
+            byte[] response;
+            try {
+                response = sendData(wrapMessage(command, concatenate(cmdHeader, macTruncated)));
+            } catch (IOException e) {
+                Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
+                if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
+                errorCode = RESPONSE_FAILURE.clone();
+                errorCodeReason = "IOException: transceive failed: " + e.getMessage();
+                return false;
+            }
+            if (response == null) return false; // errorCode and errorCodeReason are set by sendData
+            System.arraycopy(returnStatusBytes(response), 0, errorCode, 0, 2);
+            if (!checkResponse(response)) {
+                if (isLogEnabled()) log(methodName, "FAILURE on command " + i + " with " + printData("errorCode", errorCode));
+                errorCodeReason = methodName + " FAILURE on command " + i;
+                return false;
+            }
+            // note: after sending data to the card the commandCounter is increased by 1
+            CmdCounter++;
+            byte[] responseMac = getData(response);
+            if ((responseMac == null) || (responseMac.length != 8) || (!verifyResponseMac(responseMac, null))) {
+                if (isLogEnabled()) log(methodName, "FAILURE on the response MAC of command " + i);
+                errorCode = RESPONSE_FAILURE.clone();
+                errorCodeReason = methodName + " FAILURE on the response MAC of command " + i;
+                return false;
+            }
+        }
+        log(methodName, "SUCCESS");
+        errorCode = RESPONSE_OK.clone();
+        errorCodeReason = methodName + " SUCCESS";
+        return true;
+    }
+
     public boolean createACyclicRecordFileIso(byte fileNumber, byte[] isoFileId, CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
         final String methodName = "createACyclicRecordFileIso";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, printData("isoFileId", isoFileId));
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "recordSize: " + recordSize);
-        log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        log(methodName, "isoFileId", isoFileId);
+        if (isLogEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isLogEnabled()) log(methodName, "recordSize: " + recordSize);
+        if (isLogEnabled()) log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
         return createARecordFileIso(fileNumber, isoFileId, communicationSettings, accessRights, recordSize, maximumNumberOfRecords, false);
     }
 
     private boolean createARecordFileIso(byte fileNumber, byte[] isoFileId, CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords, boolean isLinearRecordFile) {
         final String methodName = "createARecordFileIso";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, printData("isoFileId", isoFileId));
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "recordSize: " + recordSize);
-        log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
-        log(methodName, "isLinearRecordFile: " + isLinearRecordFile);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        log(methodName, "isoFileId", isoFileId);
+        if (isLogEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isLogEnabled()) log(methodName, "recordSize: " + recordSize);
+        if (isLogEnabled()) log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
+        if (isLogEnabled()) log(methodName, "isLinearRecordFile: " + isLinearRecordFile);
 
         errorCode = new byte[2];
         // sanity checks
@@ -1321,6 +1544,7 @@ public class DesfireEv3 {
         byte[] apdu;
         byte[] response;
         try {
+            invalidateFileSettingsCache();
             if (isLinearRecordFile) {
                 apdu = wrapMessage(CREATE_LINEAR_RECORD_FILE_COMMAND, commandParameter);
             } else {
@@ -1329,7 +1553,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -1340,21 +1564,21 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            if (isLogEnabled()) log(methodName, "FAILURE with " + printData("errorCode", errorCode));
             errorCodeReason = "FAILURE";
             return false;
         }
 
 /*
 final String methodName = "createAStandardFileIso";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, printData("isoFileId", isoFileId));
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "fileSize: " + fileSize);
-        log(methodName, "preEnableSdm: " + preEnableSdm);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        log(methodName, "isoFileId", isoFileId);
+        if (isLogEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isLogEnabled()) log(methodName, "fileSize: " + fileSize);
+        if (isLogEnabled()) log(methodName, "preEnableSdm: " + preEnableSdm);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
@@ -1398,11 +1622,12 @@ final String methodName = "createAStandardFileIso";
         byte[] response;
 
         try {
+            invalidateFileSettingsCache();
             apdu = wrapMessage(CREATE_STANDARD_FILE_COMMAND, commandParameter);
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -1413,7 +1638,7 @@ final String methodName = "createAStandardFileIso";
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            if (isLogEnabled()) log(methodName, "FAILURE with " + printData("errorCode", errorCode));
             return false;
         }
  */
@@ -1520,13 +1745,13 @@ final String methodName = "createAStandardFileIso";
         final String methodName = "createATransactionMacFileFull";
         //logData = "";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, "commitReaderIdAuthKeyNumber: " + commitReaderIdAuthKeyNumber);
-        log(methodName, "changeAccessRightsKeyNumber: " + changeAccessRightsKeyNumber);
-        log(methodName, "readAccessKeyNumber: " + readAccessKeyNumber);
-        log(methodName, "enableCommitReaderId: " + enableCommitReaderId);
-        log(methodName, printData("transactionMacKey", transactionMacKey));
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        if (isLogEnabled()) log(methodName, "commitReaderIdAuthKeyNumber: " + commitReaderIdAuthKeyNumber);
+        if (isLogEnabled()) log(methodName, "changeAccessRightsKeyNumber: " + changeAccessRightsKeyNumber);
+        if (isLogEnabled()) log(methodName, "readAccessKeyNumber: " + readAccessKeyNumber);
+        if (isLogEnabled()) log(methodName, "enableCommitReaderId: " + enableCommitReaderId);
+        logSecret(methodName, "transactionMacKey", transactionMacKey);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
@@ -1581,9 +1806,9 @@ final String methodName = "createAStandardFileIso";
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
+        if (isLogEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -1591,22 +1816,22 @@ final String methodName = "createAStandardFileIso";
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptWithSessionKey(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, transactionMacKey);
-        log(methodName, printData("keyEncrypted", keyEncrypted));
+        byte[] keyEncrypted = encryptWithSessionKey(ivForCmdData, transactionMacKey);
+        log(methodName, "keyEncrypted", keyEncrypted);
         byte[] iv2 = keyEncrypted.clone();
-        log(methodName, printData("iv2", iv2));
+        log(methodName, "iv2", iv2);
 
         // Data (TMACKeyVersion || Padding)
         // taken from method header and don't forget to pad with 0x80..00
@@ -1614,15 +1839,15 @@ final String methodName = "createAStandardFileIso";
         keyVersionPadded[0] = TMACKeyVersion;
         // padding with full padding
         System.arraycopy(PADDING_FULL, 0, keyVersionPadded, 1, (PADDING_FULL.length - 1));
-        log(methodName, printData("keyVersionPadded", keyVersionPadded));
+        logSecret(methodName, "keyVersionPadded", keyVersionPadded);
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
-        log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
+        byte[] keyVersionPaddedEncrypted = encryptWithSessionKey(iv2, keyVersionPadded);
+        log(methodName, "keyVersionPaddedEncrypted", keyVersionPaddedEncrypted);
 
         // Encrypted Data (both blocks)
         byte[] encryptedData = concatenate(keyEncrypted, keyVersionPaddedEncrypted);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         startingIv = new byte[16];
@@ -1635,25 +1860,17 @@ final String methodName = "createAStandardFileIso";
         baosCmdHeader.write(tmacAccessRights, 0, tmacAccessRights.length);
         baosCmdHeader.write(TMACKeyOption);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted Data))
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(CREATE_TRANSACTION_MAC_FILE_COMMAND); // 0xCE
-        baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(cmdHeader, 0, cmdHeader.length);
-        baosMacInput.write(encryptedData, 0, encryptedData.length);
-        byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(CREATE_TRANSACTION_MAC_FILE_COMMAND, cmdHeader, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || MAC)
         // error in Features and Hints, page 84, point 30:
@@ -1668,17 +1885,18 @@ final String methodName = "createAStandardFileIso";
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] createTransactionMacFileCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("createTransactionMacFileCommand", createTransactionMacFileCommand));
+        log(methodName, "createTransactionMacFileCommand", createTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
+            invalidateFileSettingsCache();
             apdu = wrapMessage(CREATE_TRANSACTION_MAC_FILE_COMMAND, createTransactionMacFileCommand);
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -1686,25 +1904,25 @@ final String methodName = "createAStandardFileIso";
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -1739,13 +1957,13 @@ final String methodName = "createAStandardFileIso";
         final String methodName = "createATransactionMacFileFull";
         //logData = "";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, "commitReaderIdAuthKeyNumber: " + commitReaderIdAuthKeyNumber);
-        log(methodName, "changeAccessRightsKeyNumber: " + changeAccessRightsKeyNumber);
-        log(methodName, "readAccessKeyNumber: " + readAccessKeyNumber);
-        log(methodName, "enableCommitReaderId: " + enableCommitReaderId);
-        log(methodName, printData("transactionMacKey", transactionMacKey));
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        if (isLogEnabled()) log(methodName, "commitReaderIdAuthKeyNumber: " + commitReaderIdAuthKeyNumber);
+        if (isLogEnabled()) log(methodName, "changeAccessRightsKeyNumber: " + changeAccessRightsKeyNumber);
+        if (isLogEnabled()) log(methodName, "readAccessKeyNumber: " + readAccessKeyNumber);
+        if (isLogEnabled()) log(methodName, "enableCommitReaderId: " + enableCommitReaderId);
+        logSecret(methodName, "transactionMacKey", transactionMacKey);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
@@ -1803,9 +2021,9 @@ final String methodName = "createAStandardFileIso";
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
+        if (isLogEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -1813,22 +2031,22 @@ final String methodName = "createAStandardFileIso";
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptWithSessionKey(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, transactionMacKey);
-        log(methodName, printData("keyEncrypted", keyEncrypted));
+        byte[] keyEncrypted = encryptWithSessionKey(ivForCmdData, transactionMacKey);
+        log(methodName, "keyEncrypted", keyEncrypted);
         byte[] iv2 = keyEncrypted.clone();
-        log(methodName, printData("iv2", iv2));
+        log(methodName, "iv2", iv2);
 
         // Data (TMACKeyVersion || Padding)
         // taken from method header and don't forget to pad with 0x80..00
@@ -1836,15 +2054,15 @@ final String methodName = "createAStandardFileIso";
         keyVersionPadded[0] = TMACKeyVersion;
         // padding with full padding
         System.arraycopy(PADDING_FULL, 0, keyVersionPadded, 1, (PADDING_FULL.length - 1));
-        log(methodName, printData("keyVersionPadded", keyVersionPadded));
+        logSecret(methodName, "keyVersionPadded", keyVersionPadded);
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
-        log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
+        byte[] keyVersionPaddedEncrypted = encryptWithSessionKey(iv2, keyVersionPadded);
+        log(methodName, "keyVersionPaddedEncrypted", keyVersionPaddedEncrypted);
 
         // Encrypted Data (both blocks)
         byte[] encryptedData = concatenate(keyEncrypted, keyVersionPaddedEncrypted);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         startingIv = new byte[16];
@@ -1858,25 +2076,17 @@ final String methodName = "createAStandardFileIso";
         baosCmdHeader.write(tmacAccessRights, 0, tmacAccessRights.length);
         baosCmdHeader.write(TMACKeyOption);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted Data))
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(CREATE_TRANSACTION_MAC_FILE_COMMAND); // 0xCE
-        baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(cmdHeader, 0, cmdHeader.length);
-        baosMacInput.write(encryptedData, 0, encryptedData.length);
-        byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(CREATE_TRANSACTION_MAC_FILE_COMMAND, cmdHeader, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || MAC)
         // error in Features and Hints, page 84, point 30:
@@ -1891,17 +2101,18 @@ final String methodName = "createAStandardFileIso";
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] createTransactionMacFileCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("createTransactionMacFileCommand", createTransactionMacFileCommand));
+        log(methodName, "createTransactionMacFileCommand", createTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
+            invalidateFileSettingsCache();
             apdu = wrapMessage(CREATE_TRANSACTION_MAC_FILE_COMMAND, createTransactionMacFileCommand);
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -1909,25 +2120,25 @@ final String methodName = "createAStandardFileIso";
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -1960,12 +2171,12 @@ final String methodName = "createAStandardFileIso";
         //private final byte ACCESS_RIGHTS_R_W_TMAC = (byte) 0x1F; // Read Access (key 01) & Write Access (no access)
 
         final String methodName = "createATransactionMacFileFull";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("tmacAccessRights", tmacAccessRights));
-        log(methodName, printData("transactionMacKey", transactionMacKey));
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "tmacAccessRights", tmacAccessRights);
+        logSecret(methodName, "transactionMacKey", transactionMacKey);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
@@ -2006,9 +2217,9 @@ final String methodName = "createAStandardFileIso";
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
+        if (isLogEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -2016,22 +2227,22 @@ final String methodName = "createAStandardFileIso";
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptWithSessionKey(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, transactionMacKey);
-        log(methodName, printData("keyEncrypted", keyEncrypted));
+        byte[] keyEncrypted = encryptWithSessionKey(ivForCmdData, transactionMacKey);
+        log(methodName, "keyEncrypted", keyEncrypted);
         byte[] iv2 = keyEncrypted.clone();
-        log(methodName, printData("iv2", iv2));
+        log(methodName, "iv2", iv2);
 
         // Data (TMACKeyVersion || Padding)
         // taken from method header and don't forget to pad with 0x80..00
@@ -2039,15 +2250,15 @@ final String methodName = "createAStandardFileIso";
         keyVersionPadded[0] = TMACKeyVersion;
         // padding with full padding
         System.arraycopy(PADDING_FULL, 0, keyVersionPadded, 1, (PADDING_FULL.length - 1));
-        log(methodName, printData("keyVersionPadded", keyVersionPadded));
+        logSecret(methodName, "keyVersionPadded", keyVersionPadded);
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
-        log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
+        byte[] keyVersionPaddedEncrypted = encryptWithSessionKey(iv2, keyVersionPadded);
+        log(methodName, "keyVersionPaddedEncrypted", keyVersionPaddedEncrypted);
 
         // Encrypted Data (both blocks)
         byte[] encryptedData = concatenate(keyEncrypted, keyVersionPaddedEncrypted);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         startingIv = new byte[16];
@@ -2060,10 +2271,9 @@ final String methodName = "createAStandardFileIso";
         baosCmdHeader.write(tmacAccessRightsModified, 0, tmacAccessRightsModified.length);
         baosCmdHeader.write(TMACKeyOption);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted Data))
-        byte[] macInput = getMacInput(CREATE_TRANSACTION_MAC_FILE_COMMAND, cmdHeader, encryptedData);
 
         /*
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
@@ -2074,15 +2284,14 @@ final String methodName = "createAStandardFileIso";
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
         */
-        log(methodName, printData("macInput", macInput));
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(CREATE_TRANSACTION_MAC_FILE_COMMAND, cmdHeader, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || MAC)
         // error in Features and Hints, page 84, point 30:
@@ -2097,17 +2306,18 @@ final String methodName = "createAStandardFileIso";
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] createTransactionMacFileCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("createTransactionMacFileCommand", createTransactionMacFileCommand));
+        log(methodName, "createTransactionMacFileCommand", createTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
+            invalidateFileSettingsCache();
             apdu = wrapMessage(CREATE_TRANSACTION_MAC_FILE_COMMAND, createTransactionMacFileCommand);
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -2115,25 +2325,25 @@ final String methodName = "createAStandardFileIso";
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -2167,15 +2377,15 @@ final String methodName = "createAStandardFileIso";
         //private final byte ACCESS_RIGHTS_R_W_TMAC = (byte) 0x1F; // Read Access (key 01) & Write Access (no access)
 
         final String methodName = "createATransactionMacFileExtendedFull";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, "commitReaderIdAuthKeyNumber: " + commitReaderIdAuthKeyNumber);
-        log(methodName, "changeAccessRightsKeyNumber: " + changeAccessRightsKeyNumber);
-        log(methodName, "readAccessKeyNumber: " + readAccessKeyNumber);
-        log(methodName, "enableCommitReaderId" + enableCommitReaderId);
-        log(methodName, printData("transactionMacKey", transactionMacKey));
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        if (isLogEnabled()) log(methodName, "commitReaderIdAuthKeyNumber: " + commitReaderIdAuthKeyNumber);
+        if (isLogEnabled()) log(methodName, "changeAccessRightsKeyNumber: " + changeAccessRightsKeyNumber);
+        if (isLogEnabled()) log(methodName, "readAccessKeyNumber: " + readAccessKeyNumber);
+        if (isLogEnabled()) log(methodName, "enableCommitReaderId" + enableCommitReaderId);
+        logSecret(methodName, "transactionMacKey", transactionMacKey);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
@@ -2241,9 +2451,9 @@ final String methodName = "createAStandardFileIso";
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
+        if (isLogEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -2251,22 +2461,22 @@ final String methodName = "createAStandardFileIso";
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptWithSessionKey(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, transactionMacKey);
-        log(methodName, printData("keyEncrypted", keyEncrypted));
+        byte[] keyEncrypted = encryptWithSessionKey(ivForCmdData, transactionMacKey);
+        log(methodName, "keyEncrypted", keyEncrypted);
         byte[] iv2 = keyEncrypted.clone();
-        log(methodName, printData("iv2", iv2));
+        log(methodName, "iv2", iv2);
 
         // Data (TMACKeyVersion || Padding)
         // taken from method header and don't forget to pad with 0x80..00
@@ -2274,15 +2484,15 @@ final String methodName = "createAStandardFileIso";
         keyVersionPadded[0] = TMACKeyVersion;
         // padding with full padding
         System.arraycopy(PADDING_FULL, 0, keyVersionPadded, 1, (PADDING_FULL.length - 1));
-        log(methodName, printData("keyVersionPadded", keyVersionPadded));
+        logSecret(methodName, "keyVersionPadded", keyVersionPadded);
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
-        log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
+        byte[] keyVersionPaddedEncrypted = encryptWithSessionKey(iv2, keyVersionPadded);
+        log(methodName, "keyVersionPaddedEncrypted", keyVersionPaddedEncrypted);
 
         // Encrypted Data (both blocks)
         byte[] encryptedData = concatenate(keyEncrypted, keyVersionPaddedEncrypted);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         startingIv = new byte[16];
@@ -2295,10 +2505,9 @@ final String methodName = "createAStandardFileIso";
         baosCmdHeader.write(tmacAccessRights, 0, tmacAccessRights.length);
         baosCmdHeader.write(TMACKeyOption);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted Data))
-        byte[] macInput = getMacInput(CREATE_TRANSACTION_MAC_FILE_COMMAND, cmdHeader, encryptedData);
 /*
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(CREATE_TRANSACTION_MAC_FILE_COMMAND); // 0xCE
@@ -2309,15 +2518,14 @@ final String methodName = "createAStandardFileIso";
         byte[] macInput = baosMacInput.toByteArray();
 
  */
-        log(methodName, printData("macInput", macInput));
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(CREATE_TRANSACTION_MAC_FILE_COMMAND, cmdHeader, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || MAC)
         // error in Features and Hints, page 84, point 30:
@@ -2332,17 +2540,18 @@ final String methodName = "createAStandardFileIso";
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] createTransactionMacFileCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("createTransactionMacFileCommand", createTransactionMacFileCommand));
+        log(methodName, "createTransactionMacFileCommand", createTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
+            invalidateFileSettingsCache();
             apdu = wrapMessage(CREATE_TRANSACTION_MAC_FILE_COMMAND, createTransactionMacFileCommand);
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -2350,25 +2559,25 @@ final String methodName = "createAStandardFileIso";
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -2389,10 +2598,10 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "createTransactionMacFileEv2";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + printData(" TransactionMacKey", key));
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber + DesfireLog.printSecret(" TransactionMacKey", key));
         // sanity checks
         if ((!authenticateEv2FirstSuccess) & (!authenticateEv2NonFirstSuccess)) {
-            Log.d(TAG, "missing successful authentication with EV2First or EV2NonFirst, aborted");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "missing successful authentication with EV2First or EV2NonFirst, aborted");
             System.arraycopy(RESPONSE_FAILURE_MISSING_AUTHENTICATION, 0, errorCode, 0, 2);
             return false;
         }
@@ -2407,7 +2616,7 @@ final String methodName = "createAStandardFileIso";
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -2418,9 +2627,9 @@ final String methodName = "createAStandardFileIso";
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
+        if (isLogEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -2428,22 +2637,22 @@ final String methodName = "createAStandardFileIso";
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptWithSessionKey(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, key);
-        log(methodName, printData("keyEncrypted", keyEncrypted));
+        byte[] keyEncrypted = encryptWithSessionKey(ivForCmdData, key);
+        log(methodName, "keyEncrypted", keyEncrypted);
         byte[] iv2 = keyEncrypted.clone();
-        log(methodName, printData("iv2", iv2));
+        log(methodName, "iv2", iv2);
 
         // Data (TMACKeyVersion || Padding)
         // taken from method header and don't forget to pad with 0x80..00
@@ -2451,15 +2660,15 @@ final String methodName = "createAStandardFileIso";
         keyVersionPadded[0] = TMACKeyVersion;
         // padding with full padding
         System.arraycopy(PADDING_FULL, 0, keyVersionPadded, 1, (PADDING_FULL.length - 1));
-        log(methodName, printData("keyVersionPadded", keyVersionPadded));
+        logSecret(methodName, "keyVersionPadded", keyVersionPadded);
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
-        log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
+        byte[] keyVersionPaddedEncrypted = encryptWithSessionKey(iv2, keyVersionPadded);
+        log(methodName, "keyVersionPaddedEncrypted", keyVersionPaddedEncrypted);
 
         // Encrypted Data (both blocks)
         byte[] encryptedData = concatenate(keyEncrypted, keyVersionPaddedEncrypted);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         startingIv = new byte[16];
@@ -2474,25 +2683,17 @@ final String methodName = "createAStandardFileIso";
         //baosCmdHeader.write(ACCESS_RIGHTS_R_W_TMAC);
         baosCmdHeader.write(TMACKeyOption);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted Data))
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(CREATE_TRANSACTION_MAC_FILE_COMMAND); // 0xCE
-        baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(cmdHeader, 0, cmdHeader.length);
-        baosMacInput.write(encryptedData, 0, encryptedData.length);
-        byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(CREATE_TRANSACTION_MAC_FILE_COMMAND, cmdHeader, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || MAC)
         // error in Features and Hints, page 84, point 30:
@@ -2507,20 +2708,21 @@ final String methodName = "createAStandardFileIso";
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] createTransactionMacFileCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("createTransactionMacFileCommand", createTransactionMacFileCommand));
+        log(methodName, "createTransactionMacFileCommand", createTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
+            invalidateFileSettingsCache();
             apdu = wrapMessage(CREATE_TRANSACTION_MAC_FILE_COMMAND, createTransactionMacFileCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transport.transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -2528,26 +2730,26 @@ final String methodName = "createAStandardFileIso";
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // verify the MAC
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -2563,20 +2765,20 @@ final String methodName = "createAStandardFileIso";
         responseMacBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
         responseMacBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         byte[] macInput2 = responseMacBaos.toByteArray();
-        log(methodName, printData("macInput2", macInput2));
+        log(methodName, "macInput2", macInput2);
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput2);
-        log(methodName, printData("responseMACCalculated", responseMACCalculated));
+        byte[] responseMACCalculated = calculateSessionMac(macInput2);
+        log(methodName, "responseMACCalculated", responseMACCalculated);
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
-        log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
-        log(methodName, printData("responseMACTruncatedReceived  ", responseMACTruncatedReceived));
+        log(methodName, "responseMACTruncatedCalculated", responseMACTruncatedCalculated);
+        log(methodName, "responseMACTruncatedReceived  ", responseMACTruncatedReceived);
         // compare the responseMAC's
         if (Arrays.equals(responseMACTruncatedCalculated, responseMACTruncatedReceived)) {
-            Log.d(TAG, "responseMAC SUCCESS");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "responseMAC SUCCESS");
             System.arraycopy(RESPONSE_OK, 0, errorCode, 0, RESPONSE_OK.length);
             return true;
         } else {
-            Log.d(TAG, "responseMAC FAILURE");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "responseMAC FAILURE");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, RESPONSE_FAILURE.length);
             return false;
         }
@@ -2603,7 +2805,7 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "writeToStandardFileNdefContainerPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
 
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
@@ -2614,10 +2816,11 @@ final String methodName = "createAStandardFileIso";
 
     /**
      * writes an Url as NDEF Link record/message to a Standard File. If the complete NDEF message
-     * exceeds the MAXIMUM_MESSAGE_LENGTH the data are written in chunks to avoid framing
-     * The maximum NDEF message length is 256 bytes so the URL needs to be some characters smaller
-     * as there is an overhead for NDEF handling.
+     * exceeds the maximum write length the data are written in chunks to avoid framing
+     * The NDEF message needs to fit into the file (e.g. NDEF_FILE_02_SIZE) so the URL needs to be some
+     * characters smaller as there is an overhead for NDEF handling.
      * THe URL should point to a webserver that can handle SUN/SDM messages
+     * The file needs CommunicationMode.Plain, the file settings are not needed (no getAllFileSettings before).
      *
      * @param fileNumber | in range 0..31
      * @param urlToWrite
@@ -2628,8 +2831,8 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "writeToStandardFileUrlPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "urlToWrite: " + urlToWrite);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "urlToWrite: " + urlToWrite);
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
         if (!Utils.isValidUrl(urlToWrite)) {
             log(methodName, "invalid urlToWrite, aborted");
@@ -2639,21 +2842,36 @@ final String methodName = "createAStandardFileIso";
         }
         if (!checkIsoDep()) return false; // logFile and errorCode are updated
 
-        // adding NDEF wrapping
-        NdefRecord ndefRecord = NdefRecord.createUri(urlToWrite);
-        NdefMessage ndefMessage = new NdefMessage(ndefRecord);
-        byte[] ndefMessageBytesHeadless = ndefMessage.toByteArray();
-        // now we do have the NDEF message but it needs to get wrapped by '0x00 || (byte) (length of NdefMessage)
-        byte[] data = new byte[ndefMessageBytesHeadless.length + 2];
-        System.arraycopy(new byte[]{(byte) 0x00, (byte) (ndefMessageBytesHeadless.length)}, 0, data, 0, 2);
-        System.arraycopy(ndefMessageBytesHeadless, 0, data, 2, ndefMessageBytesHeadless.length);
+        byte[] data = buildNdefUrlFileContent(urlToWrite);
         if (data.length > MAXIMUM_FILE_SIZE) {
             log(methodName, "NDEF message exceeds MAXIMUM_FILE_SIZE, aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "NDEF message exceeds MAXIMUM_FILE_SIZE";
             return false;
         }
-        return writeToADataFileRawPlain(fileNumber, 0, data);
+        // the file is written in CommunicationMode.Plain without reading the file settings before
+        return writeToADataFilePlainWithoutFileSettings(fileNumber, 0, data);
+    }
+
+    /**
+     * builds the content of a NDEF file with an Url as NDEF Link record/message, the NDEF message is wrapped by
+     * the 2 bytes long length of the message (MSB first). The method does not need a card, so the content can
+     * get built in advance.
+     *
+     * @param url | a valid Url
+     * @return the file content
+     */
+
+    public static byte[] buildNdefUrlFileContent(String url) {
+        // adding NDEF wrapping
+        NdefRecord ndefRecord = NdefRecord.createUri(url);
+        NdefMessage ndefMessage = new NdefMessage(ndefRecord);
+        byte[] ndefMessageBytesHeadless = ndefMessage.toByteArray();
+        // now we do have the NDEF message but it needs to get wrapped by the 2 bytes long length of NdefMessage (MSB first)
+        byte[] data = new byte[ndefMessageBytesHeadless.length + 2];
+        System.arraycopy(new byte[]{(byte) (ndefMessageBytesHeadless.length >> 8), (byte) (ndefMessageBytesHeadless.length)}, 0, data, 0, 2);
+        System.arraycopy(ndefMessageBytesHeadless, 0, data, 2, ndefMessageBytesHeadless.length);
+        return data;
     }
 
 
@@ -2670,8 +2888,8 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "writeToADataFile";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, printData("data", data));
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        log(methodName, "data", data);
         return writeToADataFile(fileNumber, 0, data);
     }
 
@@ -2682,7 +2900,9 @@ final String methodName = "createAStandardFileIso";
      * if the comm mode is 'MACed' it runs the Mac path,
      * if the comm mode is 'Full' it runs the Full.
      * The data is written to the  beginning of the file (offset = 0)
-     * If the data length exceeds the MAXIMUM_WRITE_MESSAGE_LENGTH the data will be written in chunks.
+     * If the data length exceeds the maximum write length (40 bytes or the value from negotiateFrameSize) the data will be written in chunks.
+     * If write chaining is enabled (see setWriteChaining) all data is written with one command that continues
+     * in additional frames.
      * If the data length exceeds MAXIMUM_FILE_LENGTH the methods returns a FAILURE
      *
      * @param fileNumber | in range 0..31 AND file is a Standard or Backup file
@@ -2696,9 +2916,9 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "writeToADataFile";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offset: " + offset);
-        log(methodName, printData("data", data));
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "offset: " + offset);
+        log(methodName, "data", data);
         if (!checkFileNumber(fileNumber)) return false;
         if (!checkOffsetMinus(offset)) return false;
         if ((data == null) || (data.length < 1) || (data.length > MAXIMUM_FILE_SIZE)) {
@@ -2741,19 +2961,24 @@ final String methodName = "createAStandardFileIso";
         if ((offset + dataLength) > fileSizeInt) {
             data = Arrays.copyOf(data, (fileSizeInt - offset));
             dataLength = data.length;
-            Log.d(TAG, "data is truncated due to offset and fileSize");
-            Log.d(TAG, printData("new data", data));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "data is truncated due to offset and fileSize");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("new data", data));
         }
 
-        // The chunking is done to avoid framing as the maximum command APDU length is limited to 66
-        // bytes including all overhead and attached MAC
+        if (writeChaining) {
+            return writeToADataFileRawChained(fileNumber, offset, data, fileSettings.getCommunicationSettings());
+        }
+
+        // The chunking is done to avoid framing, the chunk length depends on the communication mode and
+        // the frame size (see negotiateFrameSize)
 
-        int numberOfWrites = dataLength / MAXIMUM_WRITE_MESSAGE_LENGTH;
-        int numberOfWritesMod = Utils.mod(dataLength, MAXIMUM_WRITE_MESSAGE_LENGTH);
+        int maximumWriteLength = getMaximumWriteLength(fileSettings.getCommunicationSettings());
+        int numberOfWrites = dataLength / maximumWriteLength;
+        int numberOfWritesMod = Utils.mod(dataLength, maximumWriteLength);
         if (numberOfWritesMod > 0) numberOfWrites++; // one extra write for the remainder
-        Log.d(TAG, "data length: " + dataLength + " numberOfWrites: " + numberOfWrites);
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, "data length: " + dataLength + " numberOfWrites: " + numberOfWrites);
         boolean completeSuccess = true;
-        int numberOfDataToWrite = MAXIMUM_WRITE_MESSAGE_LENGTH; // we are starting with a maximum length
+        int numberOfDataToWrite = maximumWriteLength; // we are starting with a maximum length
         int offsetChunk = 0;
         for (int i = 0; i < numberOfWrites; i++) {
             if (offsetChunk + numberOfDataToWrite > dataLength) {
@@ -2786,6 +3011,125 @@ final String methodName = "createAStandardFileIso";
         return true;
     }
 
+    /**
+     * writes a byte array to a Standard or Backup file with one WriteData command, beginning at offset position.
+     * The data is encrypted (Full) and MACed (MACed and Full) once for the complete payload, the command is sent
+     * in frames and continues with ADDITIONAL_FRAME (0xAF) commands (see sendCommandChained), so the CmdCounter
+     * is increased once and only one response MAC gets verified.
+     * The method does not take care of the offset so 'offset + data.length <= file size' needs to obeyed
+     * Do NOT CALL this method from outside this class but use writeToADataFile with enabled write chaining
+     *
+     * @param fileNumber            | in range 0..31 AND file is a Standard or Backup file
+     * @param offset                | offset in the file
+     * @param data                  | the complete data to write
+     * @param communicationSettings | the communication settings of the file
+     * @return true on success
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    private boolean writeToADataFileRawChained(byte fileNumber, int offset, byte[] data, byte communicationSettings) {
+        final String methodName = "writeToADataFileRawChained";
+        log(methodName, "started", true);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " communicationSettings: " + communicationSettings);
+        log(methodName, "data", data);
+        if ((data == null) || (data.length < 1)) {
+            Log.e(TAG, methodName + " data is NULL or empty, aborted");
+            log(methodName, "data is NULL or empty, aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "data is NULL or empty";
+            return false;
+        }
+        boolean isPlainMode = (communicationSettings == FILE_COMMUNICATION_SETTINGS_PLAIN);
+        if ((!isPlainMode) && (!checkAuthentication())) return false; // logFile and errorCode are updated
+        if (!checkIsoDep()) return false; // logFile and errorCode are updated
+
+        // CmdHeader (FileNo || Offset || DataLength)
+        byte[] cmdHeader = new byte[7];
+        cmdHeader[0] = fileNumber;
+        System.arraycopy(Utils.intTo3ByteArrayInversed(offset), 0, cmdHeader, 1, 3);
+        System.arraycopy(Utils.intTo3ByteArrayInversed(data.length), 0, cmdHeader, 4, 3);
+        log(methodName, "cmdHeader", cmdHeader);
+
+        byte command;
+        byte[] cmdData;
+        byte[] macTruncated = new byte[0];
+        if (isPlainMode) {
+            command = WRITE_DATA_FILE_COMMAND;
+            cmdData = data;
+        } else {
+            command = WRITE_DATA_FILE_SECURE_COMMAND;
+            if (communicationSettings == FILE_COMMUNICATION_SETTINGS_FULL) {
+                // IV for CmdData = Enc(KSesAuthENC, IV_Input), the padded data is encrypted in one CBC pass
+                cmdData = encryptCommandData(paddingWriteData(data));
+                if (cmdData == null) {
+                    Log.e(TAG, methodName + " could not encrypt the data, aborted");
+                    log(methodName, "could not encrypt the data, aborted");
+                    errorCode = RESPONSE_FAILURE.clone();
+                    errorCodeReason = "could not encrypt the data";
+                    return false;
+                }
+                log(methodName, "encryptedData", cmdData);
+            } else {
+                cmdData = data;
+            }
+            // MAC_Input (Ins || CmdCounter || TI || CmdHeader || CmdData)
+            macTruncated = truncateMAC(calculateSessionMac(command, cmdHeader, cmdData));
+            log(methodName, "macTruncated", macTruncated);
+        }
+        byte[] writeDataCommand = new byte[cmdHeader.length + cmdData.length + macTruncated.length];
+        System.arraycopy(cmdHeader, 0, writeDataCommand, 0, cmdHeader.length);
+        System.arraycopy(cmdData, 0, writeDataCommand, cmdHeader.length, cmdData.length);
+        System.arraycopy(macTruncated, 0, writeDataCommand, cmdHeader.length + cmdData.length, macTruncated.length);
+
+        byte[] response;
+        try {
+            response = sendCommandChained(command, writeDataCommand);
+        } catch (IOException e) {
+            Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "IOException: transceive failed: " + e.getMessage();
+            return false;
+        }
+        if ((response == null) || (response.length < 2)) {
+            Log.e(TAG, methodName + " transceive failed, aborted");
+            log(methodName, "transceive failed, aborted");
+            return false; // errorCode and errorCodeReason were written by sendData
+        }
+        if (isPlainMode) {
+            // note: after sending data to the card the commandCounter is increased by 1, even when working in CommMode Plain
+            CmdCounter++;
+            if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        }
+        byte[] responseBytes = returnStatusBytes(response);
+        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        if (!checkResponse(response)) {
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            return false;
+        }
+        if (isPlainMode) {
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
+            errorCodeReason = methodName + " SUCCESS";
+            return true;
+        }
+
+        // note: after sending data to the card the commandCounter is increased by 1
+        CmdCounter++;
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        byte[] responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
+        if (verifyResponseMac(responseMACTruncatedReceived, null)) {
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
+            errorCode = RESPONSE_OK.clone();
+            errorCodeReason = methodName + " SUCCESS";
+            return true;
+        } else {
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = methodName + " FAILURE";
+            return false;
+        }
+    }
+
     /**
      * writes a byte array to a Standard or Backup file, beginning at offset position
      * This works for a Data file with CommunicationMode.Plain only
@@ -2805,15 +3149,16 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "writeToADataFileRawPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
 
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
-        if ((data == null) || (data.length > 40)) {
-            Log.e(TAG, methodName + " data is NULL or length is > 40, aborted");
-            log(methodName, "data is NULL or length is > 40, aborted");
+        int maximumWriteLength = getMaximumWriteLength(FILE_COMMUNICATION_SETTINGS_PLAIN);
+        if ((data == null) || (data.length > maximumWriteLength)) {
+            Log.e(TAG, methodName + " data is NULL or length is > " + maximumWriteLength + ", aborted");
+            if (isLogEnabled()) log(methodName, "data is NULL or length is > " + maximumWriteLength + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "data is NULL or length is > 40";
+            errorCodeReason = "data is NULL or length is > " + maximumWriteLength;
             return false;
         }
         if (!checkOffsetMinus(offset)) return false;
@@ -2838,6 +3183,41 @@ final String methodName = "createAStandardFileIso";
         }
         if (!checkIsDataFileType(fileNumber)) return false;
         if (!checkIsoDep()) return false; // logFile and errorCode are updated
+        return sendWriteDataPlain(methodName, fileNumber, offset, data);
+    }
+
+    /**
+     * writes a byte array to a Standard or Backup file with CommunicationMode.Plain in chunks of the maximum
+     * write length. Different to writeToADataFileRawPlain this method does not need the file settings, the
+     * file type and the file size are checked by the PICC only.
+     *
+     * @param fileNumber | in range 0..31 AND file is a Standard or Backup file
+     * @param offset     | offset in the file
+     * @param data       | the data to write
+     * @return true on success
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    private boolean writeToADataFilePlainWithoutFileSettings(byte fileNumber, int offset, byte[] data) {
+        final String methodName = "writeToADataFilePlainWithoutFileSettings";
+        log(methodName, "started", true);
+        if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
+        if (!checkOffsetMinus(offset)) return false;
+        if (!checkIsoDep()) return false; // logFile and errorCode are updated
+        int maximumWriteLength = getMaximumWriteLength(FILE_COMMUNICATION_SETTINGS_PLAIN);
+        int position = 0;
+        while (position < data.length) {
+            int chunkLength = Math.min(maximumWriteLength, data.length - position);
+            byte[] chunk = Arrays.copyOfRange(data, position, position + chunkLength);
+            if (!sendWriteDataPlain(methodName, fileNumber, offset + position, chunk)) return false;
+            position += chunkLength;
+        }
+        return true;
+    }
+
+    /**
+     * sends one WriteData command in CommunicationMode.Plain, the data needs to fit into one frame
+     */
+    private boolean sendWriteDataPlain(String methodName, byte fileNumber, int offset, byte[] data) {
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset);
         byte[] lengthOfDataBytes = Utils.intTo3ByteArrayInversed(data.length);
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -2853,7 +3233,7 @@ final String methodName = "createAStandardFileIso";
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -2861,15 +3241,15 @@ final String methodName = "createAStandardFileIso";
 
         // note: after sending data to the card the commandCounter is increased by 1, even when working in CommMode Plain
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS");
             return true;
         } else {
-            Log.d(TAG, methodName + " FAILURE");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE");
             return false;
         }
     }
@@ -2896,14 +3276,15 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "writeToADataFileRawMac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
 
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
-        if ((data == null) || (data.length > MAXIMUM_WRITE_MESSAGE_LENGTH)) {
-            Log.e(TAG, methodName + " data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
-            log(methodName, "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
+        int maximumWriteLength = getMaximumWriteLength(FILE_COMMUNICATION_SETTINGS_MACED);
+        if ((data == null) || (data.length > maximumWriteLength)) {
+            Log.e(TAG, methodName + " data is NULL or length is > " + maximumWriteLength + ", aborted");
+            if (isLogEnabled()) log(methodName, "data is NULL or length is > " + maximumWriteLength + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH;
+            errorCodeReason = "data is NULL or length is > " + maximumWriteLength;
             return false;
         }
         if (!checkOffsetMinus(offset)) return false;
@@ -2934,28 +3315,25 @@ final String methodName = "createAStandardFileIso";
         // CmdHeader (FileNo || Offset || DataLength) Note: DataLength and NOT Data, e.g. 190000 for length = 25
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] lengthBytes = Utils.intTo3ByteArrayInversed(data.length); // LSB order
-        log(methodName, printData("offsetBytes", offsetBytes));
-        log(methodName, printData("lengthBytes", lengthBytes));
+        log(methodName, "offsetBytes", offsetBytes);
+        log(methodName, "lengthBytes", lengthBytes);
         ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
         baosCmdHeader.write(fileNumber);
         baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
         baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input
         //(Ins || CmdCounter || TI || CmdHeader || CmdData )
-        byte[] macInput = getMacInput(WRITE_DATA_FILE_SECURE_COMMAND, cmdHeader, data);
-        log(methodName, printData("macInput", macInput));
-
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(WRITE_DATA_FILE_SECURE_COMMAND, cmdHeader, data);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full WriteData Command APDU
         // Data (FileNo || Offset || DataLenght || Data)
@@ -2964,7 +3342,7 @@ final String methodName = "createAStandardFileIso";
         baosWriteDataCommand.write(data, 0, data.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response;
         byte[] apdu;
@@ -2974,7 +3352,7 @@ final String methodName = "createAStandardFileIso";
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -2982,25 +3360,25 @@ final String methodName = "createAStandardFileIso";
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         //byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -3027,14 +3405,15 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "writeToADataFileRawFull";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
-        if ((data == null) || (data.length > MAXIMUM_WRITE_MESSAGE_LENGTH)) {
-            Log.e(TAG, methodName + " data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
-            log(methodName, "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
+        int maximumWriteLength = getMaximumWriteLength(FILE_COMMUNICATION_SETTINGS_FULL);
+        if ((data == null) || (data.length > maximumWriteLength)) {
+            Log.e(TAG, methodName + " data is NULL or length is > " + maximumWriteLength + ", aborted");
+            if (isLogEnabled()) log(methodName, "data is NULL or length is > " + maximumWriteLength + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH;
+            errorCodeReason = "data is NULL or length is > " + maximumWriteLength;
             return false;
         }
         if (!checkOffsetMinus(offset)) return false;
@@ -3063,78 +3442,36 @@ final String methodName = "createAStandardFileIso";
 
         // next step is to pad the data according to padding rules in DESFire EV2/3 for AES Secure Messaging full mode
         byte[] dataPadded = paddingWriteData(data);
-        log(methodName, printData("data unpad", data));
-        log(methodName, printData("data pad  ", dataPadded));
-
-        int numberOfDataBlocks = dataPadded.length / 16;
-        log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
-        List<byte[]> dataBlockList = Utils.divideArrayToList(dataPadded, 16);
-
-        // Encrypting the Command Data
-        // IV_Input (IV_Label || TI || CmdCounter || Padding)
-        byte[] ivInput = getIvInput();
-        log(methodName, printData("ivInput", ivInput));
-
-        // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
-        byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
-
-        List<byte[]> dataBlockEncryptedList = new ArrayList<>();
-        byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
+        log(methodName, "data unpad", data);
+        log(methodName, "data pad  ", dataPadded);
 
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
-            dataBlockEncryptedList.add(dataBlockEncrypted);
-            ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
-        }
-        //        log(methodName, printData("startingIv", startingIv));
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
-        }
-
-        // Encrypted Data (complete), concatenate all byte arrays
-        ByteArrayOutputStream baosDataEncrypted = new ByteArrayOutputStream();
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            try {
-                baosDataEncrypted.write(dataBlockEncryptedList.get(i));
-            } catch (IOException e) {
-                Log.e(TAG, "IOException on concatenating encrypted dataBlocks, aborted\n" +
-                        e.getMessage());
-                errorCode = RESPONSE_FAILURE.clone();
-                errorCodeReason = "IOException: transceive failed: " + e.getMessage();
-                return false;
-            }
-        }
-        byte[] encryptedData = baosDataEncrypted.toByteArray();
-        log(methodName, printData("encryptedData", encryptedData));
+        // Encrypting the Command Data in one CBC pass
+        // IV_Input (IV_Label || TI || CmdCounter || Padding), IV for CmdData = Enc(KSesAuthENC, IV_Input)
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
+        byte[] encryptedData = encryptCommandData(dataPadded);
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // CmdHeader (FileNo || Offset || DataLength)
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] lengthBytes = Utils.intTo3ByteArrayInversed(data.length); // LSB order
-        log(methodName, printData("offset", offsetBytes));
-        log(methodName, printData("length", lengthBytes));
+        log(methodName, "offset", offsetBytes);
+        log(methodName, "length", lengthBytes);
         ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
         baosCmdHeader.write(fileNumber);
         baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
         baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
-        byte[] macInput = getMacInput(WRITE_DATA_FILE_SECURE_COMMAND, cmdHeader, encryptedData);
-
-        log(methodName, printData("macInput", macInput));
-
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(WRITE_DATA_FILE_SECURE_COMMAND, cmdHeader, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLenght || Data) is NOT correct, as well not the Data Message
@@ -3146,7 +3483,7 @@ final String methodName = "createAStandardFileIso";
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -3156,7 +3493,7 @@ final String methodName = "createAStandardFileIso";
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -3164,25 +3501,25 @@ final String methodName = "createAStandardFileIso";
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the MAC");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now verifying the MAC");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         //byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -3194,14 +3531,15 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "writeToADataFileRawFullTmac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
-        if ((data == null) || (data.length > MAXIMUM_WRITE_MESSAGE_LENGTH)) {
-            Log.e(TAG, methodName + " data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
-            log(methodName, "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
+        int maximumWriteLength = getMaximumWriteLength(FILE_COMMUNICATION_SETTINGS_FULL);
+        if ((data == null) || (data.length > maximumWriteLength)) {
+            Log.e(TAG, methodName + " data is NULL or length is > " + maximumWriteLength + ", aborted");
+            if (isLogEnabled()) log(methodName, "data is NULL or length is > " + maximumWriteLength + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH;
+            errorCodeReason = "data is NULL or length is > " + maximumWriteLength;
             return false;
         }
         if (!checkOffsetMinus(offset)) return false;
@@ -3230,89 +3568,36 @@ final String methodName = "createAStandardFileIso";
 
         // next step is to pad the data according to padding rules in DESFire EV2/3 for AES Secure Messaging full mode
         byte[] dataPadded = paddingWriteData(data);
-        log(methodName, printData("data unpad", data));
-        log(methodName, printData("data pad  ", dataPadded));
-
-        int numberOfDataBlocks = dataPadded.length / 16;
-        log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
-        List<byte[]> dataBlockList = Utils.divideArrayToList(dataPadded, 16);
-
-        // Encrypting the Command Data
-        // IV_Input (IV_Label || TI || CmdCounter || Padding)
-        byte[] ivInput = getIvInput();
-        /*
-        byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
-        ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
-        baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
-        baosIvInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosIvInput.write(padding1, 0, padding1.length);
-        byte[] ivInput = baosIvInput.toByteArray();
-         */
-        log(methodName, printData("ivInput", ivInput));
-
-        // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
-        byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        log(methodName, "data unpad", data);
+        log(methodName, "data pad  ", dataPadded);
 
-        List<byte[]> dataBlockEncryptedList = new ArrayList<>();
-        byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
-
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
-            dataBlockEncryptedList.add(dataBlockEncrypted);
-            ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
-        }
-        //        log(methodName, printData("startingIv", startingIv));
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
-        }
-
-        // Encrypted Data (complete), concatenate all byte arrays
-        ByteArrayOutputStream baosDataEncrypted = new ByteArrayOutputStream();
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            try {
-                baosDataEncrypted.write(dataBlockEncryptedList.get(i));
-            } catch (IOException e) {
-                Log.e(TAG, "IOException on concatenating encrypted dataBlocks, aborted\n" +
-                        e.getMessage());
-                errorCode = RESPONSE_FAILURE.clone();
-                errorCodeReason = "IOException: transceive failed: " + e.getMessage();
-                return false;
-            }
-        }
-        byte[] encryptedData = baosDataEncrypted.toByteArray();
-        log(methodName, printData("encryptedData", encryptedData));
+        // Encrypting the Command Data in one CBC pass
+        // IV_Input (IV_Label || TI || CmdCounter || Padding), IV for CmdData = Enc(KSesAuthENC, IV_Input)
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
+        byte[] encryptedData = encryptCommandData(dataPadded);
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // CmdHeader (FileNo || Offset || DataLength)
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] lengthBytes = Utils.intTo3ByteArrayInversed(data.length); // LSB order
-        log(methodName, printData("offset", offsetBytes));
-        log(methodName, printData("length", lengthBytes));
+        log(methodName, "offset", offsetBytes);
+        log(methodName, "length", lengthBytes);
         ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
         baosCmdHeader.write(fileNumber);
         baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
         baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
-        byte[] macInput = getMacInput(WRITE_DATA_FILE_SECURE_COMMAND, cmdHeader, encryptedData);
-        log(methodName, printData("macInput", macInput));
-
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(WRITE_DATA_FILE_SECURE_COMMAND, cmdHeader, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLenght || Data) is NOT correct, as well not the Data Message
@@ -3324,7 +3609,7 @@ final String methodName = "createAStandardFileIso";
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -3334,7 +3619,7 @@ final String methodName = "createAStandardFileIso";
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -3342,25 +3627,25 @@ final String methodName = "createAStandardFileIso";
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         //byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -3374,7 +3659,7 @@ final String methodName = "createAStandardFileIso";
      * If the comm mode is 'Plain' it runs the Plain path
      * If the comm mode is 'MACed' it runs the Mac path
      * If the comm mode is 'Full' it runs the Full path
-     * If the data length exceeds the MAXIMUM_READ_MESSAGE_LENGTH the data will be read in chunks.
+     * If the data length exceeds the maximum read length (40 bytes or the value from negotiateFrameSize) the data will be read in chunks.
      * If the data length exceeds MAXIMUM_FILE_LENGTH the methods returns a FAILURE
      *
      * @param fileNumber | in range 0..31 AND file is a Standard file
@@ -3387,7 +3672,7 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "readFromADataFile";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
 
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null;
@@ -3450,21 +3735,22 @@ final String methodName = "createAStandardFileIso";
             if (!isMacedMode) log(methodName, "CommunicationMode is Full enciphered");
         }
 
-        // The chunking is done to avoid framing as the maximum command APDU length is limited
-        // bytes including all overhead and attached MAC
+        // The chunking is done to avoid framing, the chunk length depends on the communication mode and
+        // the frame size (see negotiateFrameSize)
 
         int dataLength = length;
-        int numberOfRounds = dataLength / MAXIMUM_READ_MESSAGE_LENGTH;
-        int numberOfRoundsMod = Utils.mod(dataLength, MAXIMUM_READ_MESSAGE_LENGTH);
+        int maximumReadLength = getMaximumReadLength(fileSettings.getCommunicationSettings());
+        int numberOfRounds = dataLength / maximumReadLength;
+        int numberOfRoundsMod = Utils.mod(dataLength, maximumReadLength);
         if (numberOfRoundsMod > 0) numberOfRounds++; // one extra round for the remainder
-        Log.d(TAG, "data length: " + dataLength + " numberOfRounds: " + numberOfRounds);
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, "data length: " + dataLength + " numberOfRounds: " + numberOfRounds);
         boolean completeSuccess = true;
         int offsetChunk = offset;
-        int numberOfDataToRead = MAXIMUM_READ_MESSAGE_LENGTH; // we are starting with a maximum length
+        int numberOfDataToRead = maximumReadLength; // we are starting with a maximum length
         byte[] dataToRead = new byte[length]; // complete data
         for (int i = 0; i < numberOfRounds; i++) {
-            if (offsetChunk + numberOfDataToRead > dataLength) {
-                numberOfDataToRead = dataLength - offsetChunk;
+            if (offsetChunk + numberOfDataToRead > offset + dataLength) {
+                numberOfDataToRead = offset + dataLength - offsetChunk;
             }
             byte[] dataToReadChunk = null;
             if (isPlainMode) {
@@ -3488,14 +3774,14 @@ final String methodName = "createAStandardFileIso";
             {
                 // copy the dataToReadChunk in the complete data array
                 // in some circumstances some additional data like a CRC or MAC is appended - this needs to get stripped off
-                int realLength = (i * MAXIMUM_READ_MESSAGE_LENGTH) + dataToReadChunk.length;
+                int realLength = (i * maximumReadLength) + dataToReadChunk.length;
                 if (realLength > dataToRead.length) {
-                    dataToReadChunk = Arrays.copyOfRange(dataToReadChunk, 0, dataToRead.length - (i * MAXIMUM_READ_MESSAGE_LENGTH));
+                    dataToReadChunk = Arrays.copyOfRange(dataToReadChunk, 0, dataToRead.length - (i * maximumReadLength));
 
                 }
-                System.arraycopy(dataToReadChunk, 0, dataToRead, (i * MAXIMUM_READ_MESSAGE_LENGTH), dataToReadChunk.length);
+                System.arraycopy(dataToReadChunk, 0, dataToRead, (i * maximumReadLength), dataToReadChunk.length);
             }
-            log(methodName, Utils.printData("dataToRead", dataToRead));
+            if (isLogEnabled()) log(methodName, Utils.printData("dataToRead", dataToRead));
         }
         errorCode = RESPONSE_OK.clone();
         log(methodName, "SUCCESS");
@@ -3508,7 +3794,7 @@ final String methodName = "createAStandardFileIso";
             byte[] tmc = Arrays.copyOfRange(receivedData, 0, 4);
             byte[] tmacEnc = Arrays.copyOfRange(receivedData, 4, 12);
             int tmacInt = Utils.intFrom4ByteArrayInversed(tmc);
-            Log.d(TAG, "TMAC counter: " + tmacInt + printData(" tmacEnc", tmacEnc));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "TMAC counter: " + tmacInt + printData(" tmacEnc", tmacEnc));
             // example after a writeRecord operation
             // responseTmcv length: 12 data: 04000000c2e11a34e0513de7
             // readTMACFile length: 12 data: 04000000c2e11a34e0513de7
@@ -3572,7 +3858,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baos.write(tmcNew, 0, tmcNew.length);
         baos.write(uid, 0, uid.length);
         byte[] sv1 = baos.toByteArray();
-        Log.d(TAG, "getSesTMMACKey " + printData("sv1", sv1));
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, "getSesTMMACKey " + printData("sv1", sv1));
         return sv1;
     }
 
@@ -3596,7 +3882,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromADataFileRawPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null;
         if (!checkOffsetMinus(offset)) return null;
@@ -3641,13 +3927,13 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (!checkResponse(response)) {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return null;
         }
         errorCode = RESPONSE_OK.clone();
@@ -3676,16 +3962,17 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromADataFileRawMac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
 
         // sanity checks
         if (!checkAuthentication()) return null; // logFile and errorCode are updated
         if (!checkOffsetMinus(offset)) return null;
-        if (length > MAXIMUM_READ_MESSAGE_LENGTH) {
-            Log.e(TAG, methodName + " length is > MAXIMUM_READ_MESSAGE_LENGTH, aborted");
-            log(methodName, "length is > MAXIMUM_READ_MESSAGE_LENGTH, aborted");
+        int maximumReadLength = getMaximumReadLength(FILE_COMMUNICATION_SETTINGS_MACED);
+        if (length > maximumReadLength) {
+            Log.e(TAG, methodName + " length is > maximumReadLength (" + maximumReadLength + "), aborted");
+            if (isLogEnabled()) log(methodName, "length is > maximumReadLength (" + maximumReadLength + "), aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "length is > MAXIMUM_READ_MESSAGE_LENGTH";
+            errorCodeReason = "length is > maximumReadLength (" + maximumReadLength + ")";
             return null;
         }
         // getFileSettings for file type and length information
@@ -3726,19 +4013,16 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
         baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || CmdData )
-        byte[] macInput = getMacInput(READ_DATA_FILE_SECURE_COMMAND, cmdHeader);
-        log(methodName, printData("macInput", macInput));
-
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(READ_DATA_FILE_SECURE_COMMAND, cmdHeader);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full ReadData Command APDU
         // Data (FileNo || Offset || DataLength)
@@ -3746,7 +4030,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosReadDataCommand.write(cmdHeader, 0, cmdHeader.length);
         baosReadDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] readDataCommand = baosReadDataCommand.toByteArray();
-        log(methodName, printData("readDataCommand", readDataCommand));
+        log(methodName, "readDataCommand", readDataCommand);
 
         byte[] response;
         byte[] apdu;
@@ -3755,10 +4039,10 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(READ_STANDARD_FILE_SECURE_COMMAND, readDataCommand);
-            response = sendData(apdu);
+            response = sendDataChained(apdu); // the PICC may chain a long response with 0x91AF
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return null;
@@ -3767,32 +4051,32 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
             fullMacedData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return null;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         int macedDataLength = fullMacedData.length - 8;
-        log(methodName, "The fullMacedData is of length " + fullMacedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The macedData length is " + macedDataLength);
+        if (isLogEnabled()) log(methodName, "The fullMacedData is of length " + fullMacedData.length + " that includes 8 bytes for MAC");
+        if (isLogEnabled()) log(methodName, "The macedData length is " + macedDataLength);
         macedData = Arrays.copyOfRange(fullMacedData, 0, macedDataLength);
         responseMACTruncatedReceived = Arrays.copyOfRange(fullMacedData, macedDataLength, fullMacedData.length);
-        log(methodName, printData("macedData", macedData));
+        log(methodName, "macedData", macedData);
         byte[] readData = Arrays.copyOfRange(macedData, 0, length);
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
         if (verifyResponseMac(responseMACTruncatedReceived, macedData)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
@@ -3821,15 +4105,16 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromADataFileRawFull";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
         // sanity checks
         if (!checkAuthentication()) return null; // logFile and errorCode are updated
         if (!checkOffsetMinus(offset)) return null;
-        if (length > MAXIMUM_READ_MESSAGE_LENGTH) {
-            Log.e(TAG, methodName + " length is > MAXIMUM_READ_MESSAGE_LENGTH, aborted");
-            log(methodName, "length is > MAXIMUM_READ_MESSAGE_LENGTH, aborted");
+        int maximumReadLength = getMaximumReadLength(FILE_COMMUNICATION_SETTINGS_FULL);
+        if (length > maximumReadLength) {
+            Log.e(TAG, methodName + " length is > maximumReadLength (" + maximumReadLength + "), aborted");
+            if (isLogEnabled()) log(methodName, "length is > maximumReadLength (" + maximumReadLength + "), aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "length is > MAXIMUM_READ_MESSAGE_LENGTH";
+            errorCodeReason = "length is > maximumReadLength (" + maximumReadLength + ")";
             return null;
         }
         // getFileSettings for file type and length information
@@ -3869,26 +4154,23 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
         baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input
-        byte[] macInput = getMacInput(READ_DATA_FILE_SECURE_COMMAND, cmdHeader);
-        log(methodName, printData("macInput", macInput));
-
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(READ_DATA_FILE_SECURE_COMMAND, cmdHeader);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full ReadData Command APDU
         ByteArrayOutputStream baosReadDataCommand = new ByteArrayOutputStream();
         baosReadDataCommand.write(cmdHeader, 0, cmdHeader.length);
         baosReadDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] readDataCommand = baosReadDataCommand.toByteArray();
-        log(methodName, printData("readDataCommand", readDataCommand));
+        log(methodName, "readDataCommand", readDataCommand);
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] fullEncryptedData;
@@ -3896,10 +4178,10 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(READ_STANDARD_FILE_SECURE_COMMAND, readDataCommand);
-            response = sendData(apdu);
+            response = sendDataChained(apdu); // the PICC may chain a long response with 0x91AF
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return null;
@@ -3908,51 +4190,39 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
             fullEncryptedData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return null;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         // response length: 58 data: 8b61541d54f73901c8498c71dd45bae80578c4b1581aad439a806f37517c86ad4df8970279bbb8874ef279149aaa264c3e5eceb0e37a87699100
 
         // the fullEncryptedData is 56 bytes long, the first 48 bytes are encryptedData and the last 8 bytes are the responseMAC
         int encryptedDataLength = fullEncryptedData.length - 8;
-        log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
+        if (isLogEnabled()) log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
+        if (isLogEnabled()) log(methodName, "The encryptedData length is " + encryptedDataLength);
         encryptedData = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
         responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
-        // start decrypting the data
-        byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        byte[] padding = hexStringToByteArray("0000000000000000");
-        byte[] startingIv = new byte[16];
-        ByteArrayOutputStream decryptBaos = new ByteArrayOutputStream();
-        decryptBaos.write(IV_LABEL_DEC, 0, IV_LABEL_DEC.length); // fixed to 0x5AA5
-        decryptBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
-        decryptBaos.write(padding, 0, padding.length);
-        byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData));
+        // start decrypting the data in one CBC pass
+        byte[] decryptedData = decryptResponseData(encryptedData);
+        log(methodName, "decryptedData", decryptedData);
         byte[] readData = Arrays.copyOfRange(decryptedData, 0, length);
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
 
         if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
@@ -3976,7 +4246,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this is based on the get value on a value file on a DESFire Light card
         String logData = "";
         final String methodName = "readFromAValueFile";
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "started", true);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return -1;
@@ -3994,7 +4264,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         }
         if (!checkIsValueFileType(fileNumber)) return -1;
         if (fileSettings.getFileType() != FileSettings.VALUE_FILE_TYPE) {
-            log(methodName, "fileType to read is a " + fileSettings.getFileTypeName() + ", aborted");
+            if (isLogEnabled()) log(methodName, "fileType to read is a " + fileSettings.getFileTypeName() + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "fileType is not Value file";
             return -1;
@@ -4054,7 +4324,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromAValueFileRawPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "started", true);
         if (!checkIsoDep()) return -1;
 
@@ -4065,23 +4335,23 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return -1;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS");
             errorCodeReason = "SUCCESS";
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             errorCodeReason = "FAILURE";
             return -1;
         }
@@ -4101,27 +4371,24 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromAValueFileRawMac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
         if (!checkIsoDep()) return -1;
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader ( = File number) )
-        byte[] macInput = getMacInput(GET_VALUE_COMMAND, new byte[]{fileNumber});
-        log(methodName, printData("macInput", macInput));
-
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(GET_VALUE_COMMAND, new byte[]{fileNumber});
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = File number || MAC)
         ByteArrayOutputStream baosGetValueCommand = new ByteArrayOutputStream();
         baosGetValueCommand.write(fileNumber);
         baosGetValueCommand.write(macTruncated, 0, macTruncated.length);
         byte[] getValueCommand = baosGetValueCommand.toByteArray();
-        log(methodName, printData("getValueCommand", getValueCommand));
+        log(methodName, "getValueCommand", getValueCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -4133,7 +4400,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return -1;
@@ -4141,33 +4408,33 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received MAC");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now verifying the received MAC");
             macedData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return -1;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         int dataLength = macedData.length - 8;
-        log(methodName, "The macedData is of length " + macedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The data length is " + dataLength);
+        if (isLogEnabled()) log(methodName, "The macedData is of length " + macedData.length + " that includes 8 bytes for MAC");
+        if (isLogEnabled()) log(methodName, "The data length is " + dataLength);
         byte[] data = Arrays.copyOfRange(macedData, 0, dataLength);
         responseMACTruncatedReceived = Arrays.copyOfRange(macedData, dataLength, macedData.length);
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
 
         // verifying the received Response MAC
         if (verifyResponseMac(responseMACTruncatedReceived, data)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return byteArrayLength4InversedToInt(data);
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return -1;
@@ -4186,27 +4453,24 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromAValueFileRawFull";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
         if (!checkIsoDep()) return -1;
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader ( = File number) )
-        byte[] macInput = getMacInput(GET_VALUE_COMMAND, new byte[]{fileNumber});
-        log(methodName, printData("macInput", macInput));
-
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(GET_VALUE_COMMAND, new byte[]{fileNumber});
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = File number || MAC)
         ByteArrayOutputStream baosGetValueCommand = new ByteArrayOutputStream();
         baosGetValueCommand.write(fileNumber);
         baosGetValueCommand.write(macTruncated, 0, macTruncated.length);
         byte[] getValueCommand = baosGetValueCommand.toByteArray();
-        log(methodName, printData("getValueCommand", getValueCommand));
+        log(methodName, "getValueCommand", getValueCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -4218,7 +4482,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return -1;
@@ -4226,55 +4490,43 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
             fullEncryptedData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return -1;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
 
         // the fullEncryptedData is xx bytes long, the first xx bytes are encryptedData and the last 8 bytes are the responseMAC
         int encryptedDataLength = fullEncryptedData.length - 8;
-        log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
+        if (isLogEnabled()) log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
+        if (isLogEnabled()) log(methodName, "The encryptedData length is " + encryptedDataLength);
         encryptedData = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
         responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
-        // start decrypting the data
-        //byte[] header = new byte[]{(byte) (0x5A), (byte) (0xA5)}; // fixed to 0x5AA5
-        byte[] padding = hexStringToByteArray("0000000000000000"); // fixed 8 bytes
-        byte[] startingIv = new byte[16];
-        ByteArrayOutputStream decryptBaos = new ByteArrayOutputStream();
-        decryptBaos.write(IV_LABEL_DEC, 0, IV_LABEL_DEC.length);
-        decryptBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
-        decryptBaos.write(padding, 0, padding.length);
-        byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData)); // should be the cardUID || 9 zero bytes
+        // start decrypting the data in one CBC pass
+        byte[] decryptedData = decryptResponseData(encryptedData);
+        log(methodName, "decryptedData", decryptedData); // should be the cardUID || 9 zero bytes
         // 00000000800000000000000000000000 should be like value (4 bytes LSB) || 12 padding bytes (0x80..00)
         byte[] readData = Arrays.copyOfRange(decryptedData, 0, 4);
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
 
         // verifying the received Response MAC
         if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return byteArrayLength4InversedToInt(decryptedData);
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return -1;
@@ -4293,7 +4545,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
     public boolean changeAValueFile(byte fileNumber, int changeValue, boolean isCredit) {
         String logData = "";
         final String methodName = "changeAValueFile";
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "started", true);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
@@ -4368,9 +4620,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "changeAValueFileRawPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "changeValue: " + changeValue);
-        log(methodName, "isCredit: " + isCredit);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "changeValue: " + changeValue);
+        if (isLogEnabled()) log(methodName, "isCredit: " + isCredit);
 
         if (!checkValueMinus(changeValue)) return false;
         if (!checkIsoDep()) return false;
@@ -4391,23 +4643,23 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1, even when working in CommMode Plain
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS");
             return true;
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             errorCodeReason = "FAILURE";
             return false;
         }
@@ -4428,9 +4680,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "changeAValueFileRawMac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "changeValue: " + changeValue);
-        log(methodName, "isCredit: " + isCredit);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "changeValue: " + changeValue);
+        if (isLogEnabled()) log(methodName, "isCredit: " + isCredit);
 
         if (!checkValueMinus(changeValue)) return false;
         if (!checkAuthentication()) return false;
@@ -4449,21 +4701,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader ( = File number || changeValueLength) )
         byte[] changeValueBytes = intTo4ByteArrayInversed(changeValue);
-        byte[] macInput;
-        if (isCredit) {
-            macInput = getMacInput(CREDIT_VALUE_FILE_COMMAND, new byte[]{fileNumber}, changeValueBytes);
-        } else {
-            macInput = getMacInput(DEBIT_VALUE_FILE_COMMAND, new byte[]{fileNumber}, changeValueBytes);
-        }
-        log(methodName, printData("macInput", macInput));
+        byte valueCommand = isCredit ? CREDIT_VALUE_FILE_COMMAND : DEBIT_VALUE_FILE_COMMAND;
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(valueCommand, new byte[]{fileNumber}, changeValueBytes);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = File number || changeValue || MAC)
         ByteArrayOutputStream baosChangeValueCommand = new ByteArrayOutputStream();
@@ -4471,7 +4717,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosChangeValueCommand.write(changeValueBytes, 0, changeValueBytes.length);
         baosChangeValueCommand.write(macTruncated, 0, macTruncated.length);
         byte[] changeValueCommand = baosChangeValueCommand.toByteArray();
-        log(methodName, printData("changeValueCommand", changeValueCommand));
+        log(methodName, "changeValueCommand", changeValueCommand);
 
         byte[] response;
         byte[] apdu;
@@ -4485,7 +4731,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -4493,25 +4739,25 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -4533,9 +4779,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "changeAValueFileRawFull";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "changeValue: " + changeValue);
-        log(methodName, "isCredit: " + isCredit);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "changeValue: " + changeValue);
+        if (isLogEnabled()) log(methodName, "isCredit: " + isCredit);
 
         if (!checkValueMinus(changeValue)) return false;
         if (!checkAuthentication()) return false;
@@ -4555,46 +4801,40 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // encrypting the command data
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] ivInput = getIvInput();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptWithSessionKey(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (Value || Padding)
         // 71000000800000000000000000000000 ( 4 bytes LSB value || 12 bytes padding, starting with 0x80 00)
         byte[] value = intTo4ByteArrayInversed(changeValue);
-        log(methodName, printData("value", value));
+        log(methodName, "value", value);
         byte[] padding2 = hexStringToByteArray("800000000000000000000000"); // 12 bytes
-        log(methodName, printData("padding2", padding2));
+        log(methodName, "padding2", padding2);
         byte[] data = concatenate(value, padding2);
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
 
         // Encrypt Command Data = E(KSesAuthENC, Data)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, data);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = encryptWithSessionKey(ivForCmdData, data);
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // CmdHeader = FileNo
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
-        byte[] macInput;
-        if (isCredit) {
-            macInput = getMacInput(CREDIT_VALUE_FILE_COMMAND, new byte[]{fileNumber}, encryptedData);
-        } else {
-            macInput = getMacInput(DEBIT_VALUE_FILE_COMMAND, new byte[]{fileNumber}, encryptedData);
-        }
-        log(methodName, printData("macInput", macInput));
+        byte valueCommand = isCredit ? CREDIT_VALUE_FILE_COMMAND : DEBIT_VALUE_FILE_COMMAND;
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(valueCommand, new byte[]{fileNumber}, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in Feature and Hints page 70 point 23
         // wrong: Data (CmdHeader || MAC) and Data Messaging
@@ -4605,7 +4845,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosChangeValueCommand.write(encryptedData, 0, encryptedData.length);
         baosChangeValueCommand.write(macTruncated, 0, macTruncated.length);
         byte[] changeValueCommand = baosChangeValueCommand.toByteArray();
-        log(methodName, printData("changeCommand", changeValueCommand));
+        log(methodName, "changeCommand", changeValueCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -4616,13 +4856,13 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             } else {
                 apdu = wrapMessage(DEBIT_VALUE_FILE_COMMAND, changeValueCommand);
             }
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transport.transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -4630,25 +4870,25 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -4665,7 +4905,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
      * uses the 'Full' path. If the comm mode is 'MACed' the method ends a there is no method available
      * within this class to handle those files, sorry.
      * The data is written to the offset position of the file
-     * If the data length exceeds the MAXIMUM_WRITE_MESSAGE_LENGTH the data will be written in chunks.
+     * If the data length exceeds the maximum write length (40 bytes or the value from negotiateFrameSize) the data will be written in chunks.
      * If the data length exceeds MAXIMUM_FILE_LENGTH the methods returns a FAILURE
      * If the data length exceeds record size the data is truncated
      *
@@ -4679,9 +4919,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "writeToARecordFile";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offset: " + offset);
-        log(methodName, printData("data", data));
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "offset: " + offset);
+        log(methodName, "data", data);
         if (!checkFileNumber(fileNumber)) return false;
         if (!checkOffsetMinus(offset)) return false;
         if ((data == null) || (data.length < 1) || (data.length > MAXIMUM_FILE_SIZE)) {
@@ -4724,19 +4964,20 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         if ((offset + dataLength) > fileSizeInt) {
             data = Arrays.copyOf(data, (fileSizeInt - offset));
             dataLength = data.length;
-            Log.d(TAG, "data is truncated due to offset and fileSize");
-            Log.d(TAG, printData("new data", data));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "data is truncated due to offset and fileSize");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("new data", data));
         }
 
-        // The chunking is done to avoid framing as the maximum command APDU length is limited to 66
-        // bytes including all overhead and attached MAC
+        // The chunking is done to avoid framing, the chunk length depends on the communication mode and
+        // the frame size (see negotiateFrameSize)
 
-        int numberOfWrites = dataLength / MAXIMUM_WRITE_MESSAGE_LENGTH;
-        int numberOfWritesMod = Utils.mod(dataLength, MAXIMUM_WRITE_MESSAGE_LENGTH);
+        int maximumWriteLength = getMaximumWriteLength(fileSettings.getCommunicationSettings());
+        int numberOfWrites = dataLength / maximumWriteLength;
+        int numberOfWritesMod = Utils.mod(dataLength, maximumWriteLength);
         if (numberOfWritesMod > 0) numberOfWrites++; // one extra write for the remainder
-        Log.d(TAG, "data length: " + dataLength + " numberOfWrites: " + numberOfWrites);
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, "data length: " + dataLength + " numberOfWrites: " + numberOfWrites);
         boolean completeSuccess = true;
-        int numberOfDataToWrite = MAXIMUM_WRITE_MESSAGE_LENGTH; // we are starting with a maximum length
+        int numberOfDataToWrite = maximumWriteLength; // we are starting with a maximum length
         int offsetChunk = 0;
         for (int i = 0; i < numberOfWrites; i++) {
             if (offsetChunk + numberOfDataToWrite > dataLength) {
@@ -4773,9 +5014,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "writeToARecordFileRawPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offset: " + offset);
-        log(methodName, printData("data", data));
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "offset: " + offset);
+        log(methodName, "data", data);
 
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
@@ -4804,7 +5045,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -4812,16 +5053,16 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS");
             return true;
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             errorCodeReason = "FAILURE";
             return false;
         }
@@ -4831,36 +5072,33 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "writeToARecordFileRawMac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offset: " + offset);
-        log(methodName, printData("data", data));
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "offset: " + offset);
+        log(methodName, "data", data);
 
         // Generating the MAC for the Command APDU
         // CmdHeader (FileNo || Offset || DataLength) Note: DataLength and NOT Data, e.g. 190000 for length = 25
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] lengthBytes = Utils.intTo3ByteArrayInversed(data.length); // LSB order
-        log(methodName, printData("offsetBytes", offsetBytes));
-        log(methodName, printData("lengthBytes", lengthBytes));
+        log(methodName, "offsetBytes", offsetBytes);
+        log(methodName, "lengthBytes", lengthBytes);
         ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
         baosCmdHeader.write(fileNumber);
         baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
         baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input
         //(Ins || CmdCounter || TI || CmdHeader || CmdData )
-        byte[] macInput = getMacInput(WRITE_RECORD_FILE_SECURE_COMMAND, cmdHeader, data);
-        log(methodName, printData("macInput", macInput));
-
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(WRITE_RECORD_FILE_SECURE_COMMAND, cmdHeader, data);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full WriteData Command APDU
         // Data (FileNo || Offset || DataLength || Data)
@@ -4869,7 +5107,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosWriteDataCommand.write(data, 0, data.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response;
         byte[] apdu;
@@ -4879,7 +5117,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -4887,25 +5125,25 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         //byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -4918,8 +5156,8 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "writeToARecordFileRawFull";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, printData("dataToWrite", data));
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        log(methodName, "dataToWrite", data);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
         if (!checkOffsetMinus(offset)) return false;
@@ -4933,52 +5171,14 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // next step is to pad the data according to padding rules in DESFire EV2/3 for AES Secure Messaging full mode
         byte[] dataPadded = paddingWriteData(data);
-        log(methodName, printData("data unpad", data));
-        log(methodName, printData("data pad  ", dataPadded));
-
-        int numberOfDataBlocks = dataPadded.length / 16;
-        log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
-        List<byte[]> dataBlockList = Utils.divideArrayToList(dataPadded, 16);
-
-        // Encrypting the Command Data
-        // IV_Input (IV_Label || TI || CmdCounter || Padding)
-        byte[] ivInput = getIvInput();
-        log(methodName, printData("ivInput", ivInput));
-
-        // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
-        byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
-
-        List<byte[]> dataBlockEncryptedList = new ArrayList<>();
-        byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
-
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
-            dataBlockEncryptedList.add(dataBlockEncrypted);
-            ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
-        }
-        // log(methodName, printData("startingIv", startingIv));
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
-        }
+        log(methodName, "data unpad", data);
+        log(methodName, "data pad  ", dataPadded);
 
-        // Encrypted Data (complete), concatenate all byte arrays
-        ByteArrayOutputStream baosDataEncrypted = new ByteArrayOutputStream();
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            try {
-                baosDataEncrypted.write(dataBlockEncryptedList.get(i));
-            } catch (IOException e) {
-                Log.e(TAG, "IOException on concatenating encrypted dataBlocks, aborted\n" +
-                        e.getMessage());
-                errorCode = RESPONSE_FAILURE.clone();
-                errorCodeReason = "IOException: transceive failed: " + e.getMessage();
-                return false;
-            }
-        }
-        byte[] encryptedData = baosDataEncrypted.toByteArray();
-        log(methodName, printData("encryptedData", encryptedData));
+        // Encrypting the Command Data in one CBC pass
+        // IV_Input (IV_Label || TI || CmdCounter || Padding), IV for CmdData = Enc(KSesAuthENC, IV_Input)
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
+        byte[] encryptedData = encryptCommandData(dataPadded);
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // CmdHeader (FileNo || Offset || DataLength)
@@ -4986,25 +5186,22 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         //int offsetBytes = 0; // read from the beginning
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] dataSizeBytes = Utils.intTo3ByteArrayInversed(dataSizeInt); // LSB order
-        log(methodName, printData("dataSizeBytes", dataSizeBytes));
+        log(methodName, "dataSizeBytes", dataSizeBytes);
         ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
         baosCmdHeader.write(fileNumber);
         baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
         baosCmdHeader.write(dataSizeBytes, 0, dataSizeBytes.length);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
-        byte[] macInput = getMacInput(WRITE_RECORD_FILE_SECURE_COMMAND, cmdHeader, encryptedData);
-        log(methodName, printData("macInput", macInput));
-
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(WRITE_RECORD_FILE_SECURE_COMMAND, cmdHeader, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || Encrypted Data || MAC)
         ByteArrayOutputStream baosWriteRecordCommand = new ByteArrayOutputStream();
@@ -5012,7 +5209,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosWriteRecordCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteRecordCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeRecordCommand = baosWriteRecordCommand.toByteArray();
-        log(methodName, printData("writeRecordCommand", writeRecordCommand));
+        log(methodName, "writeRecordCommand", writeRecordCommand);
 
         byte[] response;
         byte[] apdu;
@@ -5022,7 +5219,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -5030,27 +5227,27 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -5090,9 +5287,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromARecordFile";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offsetRecord: " + offsetRecord);
-        log(methodName, "numberOfRecordsToRead: " + numberOfRecordsToRead);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "offsetRecord: " + offsetRecord);
+        if (isLogEnabled()) log(methodName, "numberOfRecordsToRead: " + numberOfRecordsToRead);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null;
         if (!checkOffsetMinus(offsetRecord)) return null;
@@ -5184,9 +5381,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromARecordFileRawPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offsetRecord: " + offsetRecord);
-        log(methodName, "numberOfRecordsToRead: " + numberOfRecordsToRead);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "offsetRecord: " + offsetRecord);
+        if (isLogEnabled()) log(methodName, "numberOfRecordsToRead: " + numberOfRecordsToRead);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null;
         if (!checkOffsetMinus(offsetRecord)) return null;
@@ -5207,20 +5404,20 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
             fullData = getData(response);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return null;
         }
-        // as we authenticated before reading the PICC is adding 8 bytes long MAC that is stripped off
-        return Arrays.copyOf(fullData, fullData.length - 8);
+        // in CommunicationMode.Plain the response holds the records only, there is no MAC and no padding
+        return fullData;
     }
 
 
@@ -5244,9 +5441,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromARecordFileRawMac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offsetRecord: " + offsetRecord);
-        log(methodName, "numberOfRecordsToRead: " + numberOfRecordsToRead);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "offsetRecord: " + offsetRecord);
+        if (isLogEnabled()) log(methodName, "numberOfRecordsToRead: " + numberOfRecordsToRead);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null;
         if (!checkOffsetMinus(offsetRecord)) return null;
@@ -5262,19 +5459,16 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCmdHeader.write(offsetRecordBytes, 0, offsetRecordBytes.length);
         baosCmdHeader.write(numberOfRecordsToReadBytes, 0, numberOfRecordsToReadBytes.length);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || CmdData )
-        byte[] macInput = getMacInput(READ_RECORD_FILE_COMMAND, cmdHeader);
-        log(methodName, printData("macInput", macInput));
-
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(READ_RECORD_FILE_COMMAND, cmdHeader);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full ReadData Command APDU
         // Data (FileNo || Offset || DataLength)
@@ -5282,7 +5476,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosReadDataCommand.write(cmdHeader, 0, cmdHeader.length);
         baosReadDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] readDataCommand = baosReadDataCommand.toByteArray();
-        log(methodName, printData("readDataCommand", readDataCommand));
+        log(methodName, "readDataCommand", readDataCommand);
 
         byte[] response;
         byte[] fullMacedData;
@@ -5292,23 +5486,23 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now check the received MAC");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now check the received MAC");
             fullMacedData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return null;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         int macedDataLength = fullMacedData.length - 8;
-        log(methodName, "The fullMacedData is of length " + fullMacedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The macedData length is " + macedDataLength);
+        if (isLogEnabled()) log(methodName, "The fullMacedData is of length " + fullMacedData.length + " that includes 8 bytes for MAC");
+        if (isLogEnabled()) log(methodName, "The macedData length is " + macedDataLength);
         macedData = Arrays.copyOfRange(fullMacedData, 0, macedDataLength);
         responseMACTruncatedReceived = Arrays.copyOfRange(fullMacedData, macedDataLength, fullMacedData.length);
-        log(methodName, printData("macedData", macedData));
+        log(methodName, "macedData", macedData);
 
         // getFileSettings for file type and length information
         FileSettings fileSettings;
@@ -5324,18 +5518,18 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         int recordSize = fileSettings.getRecordSizeInt();
         int fullLength = macedData.length;
         int fullRecords = fullLength / recordSize;
-        Log.e(TAG, "fullRecords: " + fullRecords);
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, "fullRecords: " + fullRecords);
         byte[] readData = Arrays.copyOfRange(macedData, 0, (fullRecords * recordSize)); // just return the real data
         //byte[] readData = Arrays.copyOfRange(decryptedData, 0, ((fullRecords - 1) * recordSize)); // just return the real data, -1 is for adjusting the padding
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
 
         if (verifyResponseMac(responseMACTruncatedReceived, macedData)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
@@ -5362,9 +5556,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromARecordFileRawFull";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offsetRecord: " + offsetRecord);
-        log(methodName, "numberOfRecordsToRead: " + numberOfRecordsToRead);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "offsetRecord: " + offsetRecord);
+        if (isLogEnabled()) log(methodName, "numberOfRecordsToRead: " + numberOfRecordsToRead);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null;
         if (!checkOffsetMinus(offsetRecord)) return null;
@@ -5380,19 +5574,16 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCmdHeader.write(offsetRecordBytes, 0, offsetRecordBytes.length);
         baosCmdHeader.write(numberOfRecordsToReadBytes, 0, numberOfRecordsToReadBytes.length);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader )
-        byte[] macInput = getMacInput(READ_RECORD_FILE_COMMAND, cmdHeader);
-        log(methodName, printData("macInput", macInput));
-
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(READ_RECORD_FILE_COMMAND, cmdHeader);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full ReadRecords Command APDU
         // Data (CmdHeader || MAC)
@@ -5401,7 +5592,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosReadRecordCommand.write(cmdHeader, 0, cmdHeader.length);
         baosReadRecordCommand.write(macTruncated, 0, macTruncated.length);
         byte[] readDataCommand = baosReadRecordCommand.toByteArray();
-        log(methodName, printData("readRecordCommand", readDataCommand));
+        log(methodName, "readRecordCommand", readDataCommand);
         byte[] response;
         byte[] apdu;
         byte[] fullEncryptedData;
@@ -5411,41 +5602,28 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
             fullEncryptedData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return null;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // e.g. the fullEncryptedData is 56 bytes long, the first 48 bytes are encryptedData and the last 8 bytes are the responseMAC
         int encryptedDataLength = fullEncryptedData.length - 8;
-        log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
+        if (isLogEnabled()) log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
+        if (isLogEnabled()) log(methodName, "The encryptedData length is " + encryptedDataLength);
         encryptedData = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
         responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
-        // start decrypting the data
-        byte[] header = new byte[]{(byte) (0x5A), (byte) (0xA5)}; // fixed to 0x5AA5
-        byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        byte[] padding = hexStringToByteArray("0000000000000000");
-        byte[] startingIv = new byte[16];
-        ByteArrayOutputStream decryptBaos = new ByteArrayOutputStream();
-        decryptBaos.write(header, 0, header.length);
-        decryptBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
-        decryptBaos.write(padding, 0, padding.length);
-        byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData)); // should be the cardUID || 9 zero bytes
+        // start decrypting the data in one CBC pass
+        byte[] decryptedData = decryptResponseData(encryptedData);
+        log(methodName, "decryptedData", decryptedData); // should be the cardUID || 9 zero bytes
         // the decrypted data contains the padding that needs to get removed
         // getFileSettings for file type and length information
         FileSettings fileSettings;
@@ -5459,20 +5637,24 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             return null;
         }
         int recordSize = fileSettings.getRecordSizeInt();
-        int fullLength = decryptedData.length;
-        int fullRecords = fullLength / recordSize;
-        Log.e(TAG, "fullRecords: " + fullRecords);
-        //byte[] readData = Arrays.copyOfRange(decryptedData, 0, (fullRecords * recordSize)); // just return the real data
-        byte[] readData = Arrays.copyOfRange(decryptedData, 0, ((fullRecords - 1) * recordSize)); // just return the real data, -1 is for adjusting the padding
-        log(methodName, printData("readData", readData));
+        // the decrypted data is records || padding (0x80 0x00..), the padding is always present, also when
+        // the records fill complete blocks. This works for a given number of records and for reading all records
+        byte[] readData = removePadding(decryptedData);
+        if ((readData == null) || (readData.length % recordSize != 0)) {
+            log(methodName, "the decrypted data has no valid padding, aborted");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "the decrypted data has no valid padding";
+            return null;
+        }
+        log(methodName, "readData", readData);
 
         if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
@@ -5483,7 +5665,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "clearARecordFile";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
         if (!checkAuthentication()) return false;
@@ -5507,19 +5689,16 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
         baosCmdHeader.write(fileNumber);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || CmdData )
-        byte[] macInput = getMacInput(CLEAR_RECORD_FILE_COMMAND, cmdHeader);
-        log(methodName, printData("macInput", macInput));
-
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(CLEAR_RECORD_FILE_COMMAND, cmdHeader);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full ReadData Command APDU
         // Data (FileNo || Offset || DataLength)
@@ -5527,7 +5706,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCommand.write(cmdHeader, 0, cmdHeader.length);
         baosCommand.write(macTruncated, 0, macTruncated.length);
         byte[] clearRecordFileCommand = baosCommand.toByteArray();
-        log(methodName, printData("clearRecordFileCommand", clearRecordFileCommand));
+        log(methodName, "clearRecordFileCommand", clearRecordFileCommand);
 
         byte[] response;
         byte[] fullMacedData;
@@ -5538,24 +5717,24 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the MAC");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now verifying the MAC");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         //byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -5575,14 +5754,14 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "deleteTransactionMacFile";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
         // sanity checks
 
         // as the TMAC file was created as Plain communication the authentication was done using
         // authenticateAesLegacy meaning n authenticateEv2FirstSuccess
         /*
         if ((!authenticateEv2FirstSuccess) & (!authenticateEv2NonFirstSuccess)) {
-            Log.d(TAG, "missing successful authentication with EV2First or EV2NonFirst, aborted");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "missing successful authentication with EV2First or EV2NonFirst, aborted");
             System.arraycopy(RESPONSE_FAILURE_MISSING_AUTHENTICATION, 0, errorCode, 0, 2);
             return false;
         }
@@ -5594,7 +5773,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             return false;
         }
 
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -5605,36 +5784,34 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // CmdHeader, here just the fileNumber
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader = fileNumber)
-        byte[] macInput = getMacInput(DELETE_TRANSACTION_MAC_FILE_COMMAND, new byte[]{fileNumber});
-        log(methodName, printData("macInput", macInput));
-
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(DELETE_TRANSACTION_MAC_FILE_COMMAND, new byte[]{fileNumber});
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = fileNumber || MAC)
         ByteArrayOutputStream baosDeleteTransactionMacFileCommand = new ByteArrayOutputStream();
         baosDeleteTransactionMacFileCommand.write(fileNumber);
         baosDeleteTransactionMacFileCommand.write(macTruncated, 0, macTruncated.length);
         byte[] deleteTransactionMacFileCommand = baosDeleteTransactionMacFileCommand.toByteArray();
-        log(methodName, printData("deleteTransactionMacFileCommand", deleteTransactionMacFileCommand));
+        log(methodName, "deleteTransactionMacFileCommand", deleteTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
+            invalidateFileSettingsCache();
             apdu = wrapMessage(DELETE_TRANSACTION_MAC_FILE_COMMAND, deleteTransactionMacFileCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transport.transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -5642,16 +5819,16 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
 
         // in Features and Hints is a 'short cutted' version what is done here
@@ -5659,12 +5836,12 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // verifying the received Response MAC
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -5699,7 +5876,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -5707,11 +5884,11 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS");
             return true;
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
@@ -5733,7 +5910,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -5756,15 +5933,14 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         //byte COMMIT_TRANSACTION_OPTION = (byte) 0x00; // 01 meaning TMC and TMV to be returned in the R-APDU
 
         //byte[] macInput = getMacInput(COMMIT_TRANSACTION_COMMAND, new byte[]{COMMIT_TRANSACTION_OPTION});
-        byte[] macInput = getMacInput(COMMIT_TRANSACTION_COMMAND, null);
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(COMMIT_TRANSACTION_COMMAND, null);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full WriteData Command APDU
         // Data (FileNo || Offset || DataLenght || Data)
@@ -5784,7 +5960,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             //response = sendData(writeDataCommand);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -5813,7 +5989,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "commitTransactionFull";
         log(methodName, "started", true);
-        log(methodName, "isEnabledReturnTmcv: " + isEnabledReturnTmcv);
+        if (isLogEnabled()) log(methodName, "isEnabledReturnTmcv: " + isEnabledReturnTmcv);
         // sanity checks
         if (!checkAuthentication()) return false;
         if (!checkIsoDep()) return false;
@@ -5874,24 +6050,22 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte COMMIT_TRANSACTION_OPTION = (byte) 0x00; // 01 meaning TMC and TMV to be returned in the R-APDU, 00 = no TMC and TMV is returned in the R-APDU, fixed
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
-        byte[] macInput = getMacInput(COMMIT_TRANSACTION_COMMAND, new byte[]{COMMIT_TRANSACTION_OPTION});
-        log(methodName, printData("macInput", macInput));
         // c707002c2b4e8e00
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(COMMIT_TRANSACTION_COMMAND, new byte[]{COMMIT_TRANSACTION_OPTION});
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         ByteArrayOutputStream baosCommitTransactionCommand = new ByteArrayOutputStream();
         baosCommitTransactionCommand.write(COMMIT_TRANSACTION_OPTION);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -5900,7 +6074,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -5908,17 +6082,17 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
             fullResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             errorCodeReason = "checkResponseData failed";
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // the full response depends on an enabled TransactionMAC file option:
         // TransactionMAC counter || TransactionMAC value || response MAC
@@ -5927,26 +6101,26 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         byte[] responseTmcv = new byte[0];
         int fullResponseDataLength = fullResponseData.length;
         if (fullResponseDataLength > 8) {
-            log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
+            if (isLogEnabled()) log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             responseTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("responseTmcv", responseTmcv));
+            log(methodName, "responseTmcv", responseTmcv);
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
         }
 
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -5986,16 +6160,13 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         }
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
-        byte[] macInput = getMacInput(COMMIT_TRANSACTION_COMMAND, new byte[]{commitTransactionOptionEnabledReturnTmcv});
-        log(methodName, printData("macInput", macInput));
-
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(COMMIT_TRANSACTION_COMMAND, new byte[]{commitTransactionOptionEnabledReturnTmcv});
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         // this  is working ONLY when a TMAC file is present, otherwise the CommitTransaction command  is  rejected !
@@ -6007,7 +6178,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCommitTransactionCommand.write(commitTransactionOptionEnabledReturnTmcv);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -6016,7 +6187,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -6024,16 +6195,16 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
             fullResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // the full response depends on an enabled TransactionMAC file option:
         // TransactionMAC counter || TransactionMAC value || response MAC
@@ -6042,25 +6213,25 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         int fullResponseDataLength = fullResponseData.length;
         if (fullResponseDataLength > 8) {
-            log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
+            if (isLogEnabled()) log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             transactionMacFileReturnedTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("responseTmcv", transactionMacFileReturnedTmcv));
+            log(methodName, "responseTmcv", transactionMacFileReturnedTmcv);
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
         }
 
         if (verifyResponseMac(responseMACTruncatedReceived, transactionMacFileReturnedTmcv)) { // transactionMacFileReturnedTmcv is null in case NO TransactionMAC file is present or gets the TMC || TMV data
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -6084,32 +6255,28 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         if (!checkIsoDep()) return false;
 
         // Constructing the full CommitReaderID Command APDU
-        log(methodName, printData("transactionMacReaderId", transactionMacReaderId));
+        log(methodName, "transactionMacReaderId", transactionMacReaderId);
         //byte[] READER_ID = hexStringToByteArray("28BF1982BE086FBC60A22DAEB66613EE"); // 16 bytes
         byte[] iv0Reader = new byte[16];
         //log(methodName, printData("READER_ID", READER_ID));
-        log(methodName, printData("iv0Reader", iv0Reader));
+        log(methodName, "iv0Reader", iv0Reader);
 
         // MAC_Input (Ins || CmdCounter || TI || Data (= Reader ID) )
-        byte[] macInput = getMacInput(COMMIT_READER_ID_SECURE_COMMAND, transactionMacReaderId);
-
-        log(methodName, printData("macInput", macInput));
-
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFullReader = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFullReader", macFullReader));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFullReader = calculateSessionMac(COMMIT_READER_ID_SECURE_COMMAND, transactionMacReaderId);
+        log(methodName, "macFullReader", macFullReader);
         // now truncate the MAC
         byte[] macTruncatedReader = truncateMAC(macFullReader);
-        log(methodName, printData("macTruncatedReader", macTruncatedReader));
+        log(methodName, "macTruncatedReader", macTruncatedReader);
 
         // construction of the commitTransactionData Data (Encrypted Data || MAC)
         ByteArrayOutputStream baosCommitTransactionReaderCommand = new ByteArrayOutputStream();
         baosCommitTransactionReaderCommand.write(transactionMacReaderId, 0, transactionMacReaderId.length);
         baosCommitTransactionReaderCommand.write(macTruncatedReader, 0, macTruncatedReader.length);
         byte[] commitTransactionReaderCommand = baosCommitTransactionReaderCommand.toByteArray();
-        log(methodName, printData("commitTransactionReaderCommand", commitTransactionReaderCommand));
+        log(methodName, "commitTransactionReaderCommand", commitTransactionReaderCommand);
 
 
         byte[] response;
@@ -6120,7 +6287,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -6128,55 +6295,41 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
             encryptedResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // Encrypted Response Data EKSesAuthENC(Response Data)
         // sample: A1963F1BB9FC916A8B15B2DC58002531 (16 bytes)
         // decrypt the data
         int encryptedDataLength = encryptedResponseData.length - 8; // strip off the MAC
-        log(methodName, "The encryptedResponseData is of length " + encryptedResponseData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
+        if (isLogEnabled()) log(methodName, "The encryptedResponseData is of length " + encryptedResponseData.length + " that includes 8 bytes for MAC");
+        if (isLogEnabled()) log(methodName, "The encryptedData length is " + encryptedDataLength);
         byte[] encryptedData = Arrays.copyOfRange(encryptedResponseData, 0, encryptedDataLength);
         byte[] responseMACTruncatedReceived = Arrays.copyOfRange(encryptedResponseData, encryptedDataLength, encryptedResponseData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
-        // start decrypting the data
+        // start decrypting the data in one CBC pass
         boolean isTestMode = false;
-        // IV_Input_Response = 0x5A || 0xA5 || TI || CmdCtr || 0x0000000000000000 (8 bytes padding)
-        byte[] commandCounterLsb2Reader = intTo2ByteArrayInversed(CmdCounter);
-        byte[] paddingReader = hexStringToByteArray("0000000000000000");
-        byte[] startingIvReader = new byte[16];
-        ByteArrayOutputStream decryptBaosReader = new ByteArrayOutputStream();
-        decryptBaosReader.write(IV_LABEL_DEC, 0, IV_LABEL_DEC.length); // (byte) 0x5A, (byte) 0xA5
-        decryptBaosReader.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        decryptBaosReader.write(commandCounterLsb2Reader, 0, commandCounterLsb2Reader.length);
-
-        decryptBaosReader.write(paddingReader, 0, paddingReader.length);
-        byte[] ivInputResponseReader = decryptBaosReader.toByteArray();
-        log(methodName, printData("ivInputResponseReader", ivInputResponseReader));
-        byte[] ivResponseReader = AES.encrypt(startingIvReader, SesAuthENCKey, ivInputResponseReader);
-        log(methodName, printData("ivResponseReader", ivResponseReader));
-        byte[] decryptedData = AES.decrypt(ivResponseReader, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData));
+        byte[] decryptedData = decryptResponseData(encryptedData);
+        log(methodName, "decryptedData", decryptedData);
         log(methodName, "decryptedData is previous TMRI (latest TransactionMAC Reader ID");
         // Decrypted Response Data = (TMRI) : BDD40ED9F434F9DDCBF5821299CD2119 (16 bytes)
 
         if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -6196,22 +6349,19 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // Constructing the full AbortTransaction Command APDU
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
-        byte[] macInput = getMacInput(ABORT_TRANSACTION_COMMAND, null);
-        log(methodName, printData("macInput", macInput));
-
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(ABORT_TRANSACTION_COMMAND, null);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the abort Transaction
         ByteArrayOutputStream baosAbortTransactionCommand = new ByteArrayOutputStream();
         baosAbortTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] abortTransactionCommand = baosAbortTransactionCommand.toByteArray();
-        log(methodName, printData("abortTransactionCommand", abortTransactionCommand));
+        log(methodName, "abortTransactionCommand", abortTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -6220,7 +6370,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -6228,25 +6378,25 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received MAC");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now verifying the received MAC");
             fullResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         //byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
         byte[] responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -6260,13 +6410,13 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
      * @param options
      * @return
      */
-    private byte[] getMacInput(byte command, byte[] options) {
+    byte[] getMacInput(byte command, byte[] options) {
         String methodName = "getMacInput";
         log(methodName, "started", true);
-        log(methodName, printData("options", options));
+        log(methodName, "options", options);
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        if (isLogEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(command);
         baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
@@ -6275,7 +6425,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             baosMacInput.write(options, 0, options.length);
         }
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
         return macInput;
     }
 
@@ -6288,14 +6438,14 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
      * @return
      */
 
-    private byte[] getMacInput(byte command, byte[] options, byte[] data) {
+    byte[] getMacInput(byte command, byte[] options, byte[] data) {
         String methodName = "getMacInput";
         log(methodName, "started", true);
-        log(methodName, printData("options", options));
-        log(methodName, printData("data", data));
+        log(methodName, "options", options);
+        log(methodName, "data", data);
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        if (isLogEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(command);
         baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
@@ -6307,7 +6457,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             baosMacInput.write(data, 0, data.length);
         }
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
         return macInput;
     }
 
@@ -6317,14 +6467,14 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
      * @return
      */
 
-    private byte[] getIvInput() {
+    byte[] getIvInput() {
         String methodName = "getIvInput";
         log(methodName, "started", true);
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
+        if (isLogEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -6332,7 +6482,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
         return ivInput;
     }
 
@@ -6358,23 +6508,20 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] startingIv = new byte[16];
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
-        byte[] macInput = getMacInput(COMMIT_TRANSACTION_COMMAND, new byte[]{COMMIT_TRANSACTION_OPTION});
-        log(methodName, printData("macInput", macInput));
-
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(COMMIT_TRANSACTION_COMMAND, new byte[]{COMMIT_TRANSACTION_OPTION});
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         ByteArrayOutputStream baosCommitTransactionCommand = new ByteArrayOutputStream();
         baosCommitTransactionCommand.write(COMMIT_TRANSACTION_OPTION);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -6383,7 +6530,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -6391,16 +6538,16 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
             fullResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // the full response depends on an enabled TransactionMAC file option:
         // TransactionMAC counter || TransactionMAC value || response MAC
@@ -6409,26 +6556,26 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         byte[] responseTmcv = new byte[0];
         int fullResponseDataLength = fullResponseData.length;
         if (fullResponseDataLength > 8) {
-            log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
+            if (isLogEnabled()) log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             responseTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("responseTmcv", responseTmcv));
+            log(methodName, "responseTmcv", responseTmcv);
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
         }
 
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -6457,16 +6604,13 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] startingIv = new byte[16];
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
-        byte[] macInput = getMacInput(COMMIT_TRANSACTION_COMMAND, new byte[]{COMMIT_TRANSACTION_OPTION_ENABLED});
-        log(methodName, printData("macInput", macInput));
-
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(COMMIT_TRANSACTION_COMMAND, new byte[]{COMMIT_TRANSACTION_OPTION_ENABLED});
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         // this  is working ONLY when a TMAC file is present, otherwise the CommitTransaction command  is  rejected !
@@ -6478,7 +6622,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCommitTransactionCommand.write(COMMIT_TRANSACTION_OPTION_ENABLED);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -6487,7 +6631,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -6495,16 +6639,16 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
             fullResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // the full response depends on an enabled TransactionMAC file option:
         // TransactionMAC counter || TransactionMAC value || response MAC
@@ -6513,25 +6657,25 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         int fullResponseDataLength = fullResponseData.length;
         if (fullResponseDataLength > 8) {
-            log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
+            if (isLogEnabled()) log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             transactionMacFileReturnedTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("transactionMacFileReturnedTmcv", transactionMacFileReturnedTmcv));
+            log(methodName, "transactionMacFileReturnedTmcv", transactionMacFileReturnedTmcv);
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
         }
 
         if (verifyResponseMac(responseMACTruncatedReceived, transactionMacFileReturnedTmcv)) { // transactionMacFileReturnedTmcv is null in case NO TransactionMAC file is present or gets the TMC || TMV data
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -6563,16 +6707,13 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] startingIv = new byte[16];
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
-        byte[] macInput = getMacInput(COMMIT_TRANSACTION_COMMAND, new byte[]{COMMIT_TRANSACTION_OPTION_ENABLED});
-        log(methodName, printData("macInput", macInput));
-
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(COMMIT_TRANSACTION_COMMAND, new byte[]{COMMIT_TRANSACTION_OPTION_ENABLED});
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         // this  is working ONLY when a TMAC file is present, otherwise the CommitTransaction command  is  rejected !
@@ -6584,7 +6725,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCommitTransactionCommand.write(COMMIT_TRANSACTION_OPTION_ENABLED);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -6593,7 +6734,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -6601,16 +6742,16 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
             fullResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // the full response depends on an enabled TransactionMAC file option:
         // TransactionMAC counter || TransactionMAC value || response MAC
@@ -6619,25 +6760,25 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         int fullResponseDataLength = fullResponseData.length;
         if (fullResponseDataLength > 8) {
-            log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
+            if (isLogEnabled()) log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             transactionMacFileReturnedTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("transactionMacFileReturnedTmcv", transactionMacFileReturnedTmcv));
+            log(methodName, "transactionMacFileReturnedTmcv", transactionMacFileReturnedTmcv);
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
         }
 
         if (verifyResponseMac(responseMACTruncatedReceived, transactionMacFileReturnedTmcv)) { // transactionMacFileReturnedTmcv is null in case NO TransactionMAC file is present or gets the TMC || TMV data
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -6657,11 +6798,11 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         log(methodName, "started", true);
         // sanity checks
         if ((!authenticateEv2FirstSuccess) & (!authenticateEv2NonFirstSuccess)) {
-            Log.d(TAG, "missing successful authentication with EV2First or EV2NonFirst, aborted");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "missing successful authentication with EV2First or EV2NonFirst, aborted");
             System.arraycopy(RESPONSE_FAILURE_MISSING_AUTHENTICATION, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -6673,28 +6814,25 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // we do need a ReaderId
         byte[] READER_ID = hexStringToByteArray("28BF1982BE086FBC60A22DAEB66613EE"); // 16 bytes
         byte[] iv0Reader = new byte[16];
-        log(methodName, printData("READER_ID", READER_ID));
-        log(methodName, printData("iv0Reader", iv0Reader));
+        log(methodName, "READER_ID", READER_ID);
+        log(methodName, "iv0Reader", iv0Reader);
 
         // MAC_Input (Ins || CmdCounter || TI || Data (= Reader ID) )
-        byte[] macInputReader = getMacInput(COMMIT_READER_ID_SECURE_COMMAND, READER_ID);
-        log(methodName, printData("macInputReader", macInputReader));
-
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFullReader = calculateDiverseKey(SesAuthMACKey, macInputReader);
-        log(methodName, printData("macFullReader", macFullReader));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFullReader = calculateSessionMac(COMMIT_READER_ID_SECURE_COMMAND, READER_ID);
+        log(methodName, "macFullReader", macFullReader);
         // now truncate the MAC
         byte[] macTruncatedReader = truncateMAC(macFullReader);
-        log(methodName, printData("macTruncatedReader", macTruncatedReader));
+        log(methodName, "macTruncatedReader", macTruncatedReader);
 
         // construction of the commitTransactionData Data (Encrypted Data || MAC)
         ByteArrayOutputStream baosCommitTransactionReaderCommand = new ByteArrayOutputStream();
         baosCommitTransactionReaderCommand.write(READER_ID, 0, READER_ID.length); // todo check if the READ_ID is UNENCRYPTED send ??
         baosCommitTransactionReaderCommand.write(macTruncatedReader, 0, macTruncatedReader.length);
         byte[] commitTransactionReaderCommand = baosCommitTransactionReaderCommand.toByteArray();
-        log(methodName, printData("commitTransactionReaderCommand", commitTransactionReaderCommand));
+        log(methodName, "commitTransactionReaderCommand", commitTransactionReaderCommand);
 
 
         byte[] response = new byte[0];
@@ -6702,12 +6840,12 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] encryptedResponseData;
         try {
             apdu = wrapMessage(COMMIT_READER_ID_SECURE_COMMAND, commitTransactionReaderCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transport.transceive(apdu);
+            log(methodName, "response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -6715,68 +6853,47 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
             encryptedResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // Encrypted Response Data EKSesAuthENC(Response Data)
         // sample: A1963F1BB9FC916A8B15B2DC58002531 (16 bytes)
         // decrypt the data
         int encryptedDataLength = encryptedResponseData.length - 8;
-        log(methodName, "The encryptedResponseData is of length " + encryptedResponseData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
+        if (isLogEnabled()) log(methodName, "The encryptedResponseData is of length " + encryptedResponseData.length + " that includes 8 bytes for MAC");
+        if (isLogEnabled()) log(methodName, "The encryptedData length is " + encryptedDataLength);
         byte[] encryptedData = Arrays.copyOfRange(encryptedResponseData, 0, encryptedDataLength);
         byte[] responseMACTruncatedReceivedReader = Arrays.copyOfRange(encryptedResponseData, encryptedDataLength, encryptedResponseData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
-        // start decrypting the data
-        // IV_Input_Response = 0x5A || 0xA5 || TI || CmdCtr || 0x0000000000000000 (8 bytes padding)
-        byte[] commandCounterLsb2Reader = intTo2ByteArrayInversed(CmdCounter);
-        byte[] paddingReader = hexStringToByteArray("0000000000000000");
-        byte[] startingIvReader = new byte[16];
-        ByteArrayOutputStream decryptBaosReader = new ByteArrayOutputStream();
-        decryptBaosReader.write(IV_LABEL_DEC, 0, IV_LABEL_DEC.length); // (byte) 0x5A, (byte) 0xA5
-        decryptBaosReader.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        decryptBaosReader.write(commandCounterLsb2Reader, 0, commandCounterLsb2Reader.length);
-        decryptBaosReader.write(paddingReader, 0, paddingReader.length);
-        byte[] ivInputResponseReader = decryptBaosReader.toByteArray();
-        log(methodName, printData("ivInputResponseReader", ivInputResponseReader));
-        byte[] ivResponseReader = AES.encrypt(startingIvReader, SesAuthENCKey, ivInputResponseReader);
-        log(methodName, printData("ivResponseReader", ivResponseReader));
-        byte[] decryptedData = AES.decrypt(ivResponseReader, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData));
+        // start decrypting the data in one CBC pass
+        byte[] decryptedData = decryptResponseData(encryptedData);
+        log(methodName, "decryptedData", decryptedData);
         log(methodName, "decryptedData is TMRI (TransactionMAC Reader ID");
         // Decrypted Response Data = (TMRI) : BDD40ED9F434F9DDCBF5821299CD2119 (16 bytes)
 
         // verifying the received MAC
         // MAC_Input (RC || CmdCounter || TI || Encrypted Response Data)
-        byte[] commandCounterLsb3Reader = intTo2ByteArrayInversed(CmdCounter);
-        ByteArrayOutputStream responseMacBaosReader = new ByteArrayOutputStream();
-        responseMacBaosReader.write((byte) 0x00); // response code 00 means success
-        responseMacBaosReader.write(commandCounterLsb3Reader, 0, commandCounterLsb3Reader.length);
-        responseMacBaosReader.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        responseMacBaosReader.write(encryptedData, 0, encryptedData.length);
-        byte[] macInput2Reader = responseMacBaosReader.toByteArray();
-        log(methodName, printData("macInput2Reader", macInput2Reader));
-        byte[] responseMACCalculatedReader = calculateDiverseKey(SesAuthMACKey, macInput2Reader);
-        log(methodName, printData("responseMACTruncatedReceivedReader  ", responseMACTruncatedReceivedReader));
-        log(methodName, printData("responseMACCalculatedReader", responseMACCalculatedReader));
+        byte[] responseMACCalculatedReader = calculateSessionMac((byte) 0x00, null, encryptedData); // response code 00 means success
+        log(methodName, "responseMACTruncatedReceivedReader  ", responseMACTruncatedReceivedReader);
+        log(methodName, "responseMACCalculatedReader", responseMACCalculatedReader);
         byte[] responseMACTruncatedCalculatedReader = truncateMAC(responseMACCalculatedReader);
-        log(methodName, printData("responseMACTruncatedCalculatedReader", responseMACTruncatedCalculatedReader));
+        log(methodName, "responseMACTruncatedCalculatedReader", responseMACTruncatedCalculatedReader);
         // compare the responseMAC's
         if (Arrays.equals(responseMACTruncatedCalculatedReader, responseMACTruncatedReceivedReader)) {
-            Log.d(TAG, "responseMAC SUCCESS");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "responseMAC SUCCESS");
             System.arraycopy(RESPONSE_OK, 0, errorCode, 0, RESPONSE_OK.length);
             //return true; proceed when true
         } else {
-            Log.d(TAG, "responseMAC FAILURE");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "responseMAC FAILURE");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, RESPONSE_FAILURE.length);
             return false;
         }
@@ -6789,42 +6906,35 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(COMMIT_TRANSACTION_COMMAND); // 0xC7
-        baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(COMMIT_TRANSACTION_OPTION);
-        byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        if (isLogEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(COMMIT_TRANSACTION_COMMAND, new byte[]{COMMIT_TRANSACTION_OPTION});
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         ByteArrayOutputStream baosCommitTransactionCommand = new ByteArrayOutputStream();
         baosCommitTransactionCommand.write(COMMIT_TRANSACTION_OPTION);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
 
         response = new byte[0];
         apdu = new byte[0];
         byte[] fullResponseData;
         try {
             apdu = wrapMessage(COMMIT_TRANSACTION_COMMAND, commitTransactionCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transport.transceive(apdu);
+            log(methodName, "response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -6832,16 +6942,16 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
             fullResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // the full response depends on an enabled TransactionMAC file option:
         // TransactionMAC counter || TransactionMAC value || response MAC
@@ -6850,25 +6960,25 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         byte[] responseTmcv = new byte[0];
         int fullResponseDataLength = fullResponseData.length;
         if (fullResponseDataLength > 8) {
-            log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
+            if (isLogEnabled()) log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             // should be TMC || TMV || MAC now
             // sample: TMC (TMAC Counter) : 04000000 (4 bytes, counter in LSB encoding)
             // sample: TMV (TMAC Value)   : 94A3205E41588BA9 (8 bytes)
             responseTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("responseTmcv", responseTmcv));
+            log(methodName, "responseTmcv", responseTmcv);
             // split up the data to TMC and TMV
             byte[] tmcByte = Arrays.copyOfRange(responseTmcv, 0, 4);
             byte[] tmvByte = Arrays.copyOfRange(responseTmcv, 4, 12);
             int tmcInt = byteArrayLength4InversedToInt(tmcByte);
-            log(methodName, printData("tmcByte", tmcByte));
-            log(methodName, "tmcInt: " + tmcInt);
-            log(methodName, printData("tmvByte", tmvByte));
+            log(methodName, "tmcByte", tmcByte);
+            if (isLogEnabled()) log(methodName, "tmcInt: " + tmcInt);
+            log(methodName, "tmvByte", tmvByte);
 
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
@@ -6876,26 +6986,18 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // verifying the received MAC
         // MAC_Input (RC || CmdCounter || TI || Response Data)
-        byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        ByteArrayOutputStream responseMacBaos = new ByteArrayOutputStream();
-        responseMacBaos.write((byte) 0x00); // response code 00 means success
-        responseMacBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
-        responseMacBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        responseMacBaos.write(responseTmcv, 0, responseTmcv.length);
-        byte[] macInput2 = responseMacBaos.toByteArray();
-        log(methodName, printData("macInput", macInput2));
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput2);
-        log(methodName, printData("responseMACTruncatedReceived  ", responseMACTruncatedReceived));
-        log(methodName, printData("responseMACCalculated", responseMACCalculated));
+        byte[] responseMACCalculated = calculateSessionMac((byte) 0x00, null, responseTmcv); // response code 00 means success
+        log(methodName, "responseMACTruncatedReceived  ", responseMACTruncatedReceived);
+        log(methodName, "responseMACCalculated", responseMACCalculated);
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
-        log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
+        log(methodName, "responseMACTruncatedCalculated", responseMACTruncatedCalculated);
         // compare the responseMAC's
         if (Arrays.equals(responseMACTruncatedCalculated, responseMACTruncatedReceived)) {
-            Log.d(TAG, "responseMAC SUCCESS");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "responseMAC SUCCESS");
             System.arraycopy(RESPONSE_OK, 0, errorCode, 0, RESPONSE_OK.length);
             return true;
         } else {
-            Log.d(TAG, "responseMAC FAILURE");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "responseMAC FAILURE");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, RESPONSE_FAILURE.length);
             return false;
         }
@@ -6919,7 +7021,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // status: NOT WORKING (throwing AE error ?)
 
-        logData = "";
+        clearLog();
         final String methodName = "enableTransactionTimerFull";
         //log(methodName, "fileNumber: " + fileNumber, true);
 
@@ -6932,11 +7034,11 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
  */
         // sanity checks
         if ((!authenticateEv2FirstSuccess) & (!authenticateEv2NonFirstSuccess)) {
-            Log.d(TAG, "missing successful authentication with EV2First or EV2NonFirst, aborted");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "missing successful authentication with EV2First or EV2NonFirst, aborted");
             System.arraycopy(RESPONSE_FAILURE_MISSING_AUTHENTICATION, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -6948,7 +7050,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         int transactionTimerNumberOfSeconds = 1;
         byte[] transactionTimerNumberOfSecondsBytes = intTo4ByteArrayInversed(transactionTimerNumberOfSeconds);
         //byte[] transactionTimerNumberOfSecondsBytes = intTo3ByteArrayInversed(transactionTimerNumberOfSeconds);
-        log(methodName, printData("transactionTimerNumberOfSecondsBytes", transactionTimerNumberOfSecondsBytes));
+        log(methodName, "transactionTimerNumberOfSecondsBytes", transactionTimerNumberOfSecondsBytes);
 
         // using a fixed fileNumber for Value file enciphered = 0x08
         // upper limit is 0xE8030000 = 1000
@@ -6965,14 +7067,14 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosData.write(transactionTimerEnable);
         baosData.write(transactionTimerNumberOfSecondsBytes, 0, transactionTimerNumberOfSecondsBytes.length);
         byte[] data = baosData.toByteArray();
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
 
         // Encrypting the Command Data
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        if (isLogEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -6980,45 +7082,37 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptWithSessionKey(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // fixed data
 
         // next step is to pad the data according to padding rules in DESFire EV2/3 for AES Secure Messaging full mode
         byte[] dataPadded = paddingWriteData(data);
-        log(methodName, printData("data unpad", data));
-        log(methodName, printData("data pad  ", dataPadded));
+        log(methodName, "data unpad", data);
+        log(methodName, "data pad  ", dataPadded);
 
         // padding is 12 bytes
 
         // Encrypted Data Block 1 = E(KSesAuthENC, Data Input)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, dataPadded);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = encryptWithSessionKey(ivForCmdData, dataPadded);
+        log(methodName, "encryptedData", encryptedData);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
         // CmdHeader = optionOfSetConfiguration
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(SET_CONFIGURATION_SECURE_COMMAND); // 0x5C
-        baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(optionOfSetConfiguration);
-        baosMacInput.write(encryptedData, 0, encryptedData.length);
-        byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(SET_CONFIGURATION_SECURE_COMMAND, new byte[]{optionOfSetConfiguration}, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || Encrypted Data || MAC)
         // CmdHeader = optionOfSetConfiguration
@@ -7027,7 +7121,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosSetConfigurationCommand.write(encryptedData, 0, encryptedData.length);
         baosSetConfigurationCommand.write(macTruncated, 0, macTruncated.length);
         byte[] setConfigurationCommand = baosSetConfigurationCommand.toByteArray();
-        log(methodName, printData("setConfigurationCommand", setConfigurationCommand));
+        log(methodName, "setConfigurationCommand", setConfigurationCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -7037,7 +7131,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -7045,16 +7139,16 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
 
         // verifying the received Response MAC
@@ -7063,20 +7157,20 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         responseMacBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
         responseMacBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         byte[] macInput2 = responseMacBaos.toByteArray();
-        log(methodName, printData("macInput2", macInput2));
+        log(methodName, "macInput2", macInput2);
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput2);
-        log(methodName, printData("responseMACCalculated", responseMACCalculated));
+        byte[] responseMACCalculated = calculateSessionMac(macInput2);
+        log(methodName, "responseMACCalculated", responseMACCalculated);
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
-        log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
-        log(methodName, printData("responseMACTruncatedReceived  ", responseMACTruncatedReceived));
+        log(methodName, "responseMACTruncatedCalculated", responseMACTruncatedCalculated);
+        log(methodName, "responseMACTruncatedReceived  ", responseMACTruncatedReceived);
         // compare the responseMAC's
         if (Arrays.equals(responseMACTruncatedCalculated, responseMACTruncatedReceived)) {
-            Log.d(TAG, "responseMAC SUCCESS");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "responseMAC SUCCESS");
             System.arraycopy(RESPONSE_OK, 0, errorCode, 0, RESPONSE_OK.length);
             return true;
         } else {
-            Log.d(TAG, "responseMAC FAILURE");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "responseMAC FAILURE");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, RESPONSE_FAILURE.length);
             return false;
         }
@@ -7099,7 +7193,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
 
     public boolean deleteFile(byte fileNumber) {
         final String methodName = "deleteFile";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
         errorCode = new byte[2];
         // sanity checks
@@ -7118,11 +7212,12 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         byte[] apdu;
         byte[] response;
         try {
+            invalidateFileSettingsCache();
             apdu = wrapMessage(DELETE_FILE_COMMAND, new byte[]{fileNumber});
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -7133,7 +7228,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            if (isLogEnabled()) log(methodName, "FAILURE with " + printData("errorCode", errorCode));
             return false;
         }
     }
@@ -7147,7 +7242,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
      */
     public byte[] getAllFileIds() {
         final String methodName = "getAllFileIDs";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
         errorCode = new byte[2];
         // sanity checks
@@ -7160,21 +7255,22 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
             response = sendData(apdu);
         } catch (Exception e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return null;
         }
+        if (response == null) return null; // errorCode and errorCodeReason are set by sendData
         System.arraycopy(returnStatusBytes(response), 0, errorCode, 0, 2);
         byte[] responseData = Arrays.copyOfRange(response, 0, response.length - 2);
         if (checkResponse(response)) {
-            Log.d(TAG, "response SUCCESS");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "response SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = "SUCCESS";
             APPLICATION_ALL_FILE_IDS = responseData.clone();
             return responseData;
         } else {
-            Log.d(TAG, "response FAILURE");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "response FAILURE");
             //System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, RESPONSE_FAILURE.length);
             errorCodeReason = "response FAILURE";
             return null;
@@ -7190,7 +7286,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
      */
     public FileSettings[] getAllFileSettings() {
         final String methodName = "getAllFileSettings";
-        logData = "";
+        clearLog();
         log(methodName, "started", true);
         errorCode = new byte[2];
         // sanity checks
@@ -7210,41 +7306,144 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         if (!checkIsoDep()) return null;
         int numberOfFileIds = APPLICATION_ALL_FILE_IDS.length;
         APPLICATION_ALL_FILE_SETTINGS = new FileSettings[MAXIMUM_NUMBER_OF_FILES];
-        for (int i = 0; i < numberOfFileIds; i++) {
-            byte fileId = APPLICATION_ALL_FILE_IDS[i];
-            byte[] fileSettingsByte = getFileSettings(fileId);
-            Log.d(TAG, "i: " + i + printData(" fileSettingsByte", fileSettingsByte));
-            Log.d(TAG, printData("errorCode", errorCode));
-            Log.d(TAG, "errorCodeReason: " + errorCodeReason);
-            if (fileSettingsByte != null) {
-                FileSettings fileSettings = new FileSettings(fileId, fileSettingsByte);
-                if (fileSettings != null) {
+        int numberOfFileSettingsRead = 0;
+        // the authentication state only selects the communication, a missing authentication is no error here
+        if (!isAuthenticatedEv2()) {
+            // plain communication, the commands don't depend on each other and are sent back-to-back
+            byte[][] responses = transceiveFileSettingsBatched(APPLICATION_ALL_FILE_IDS);
+            if (responses == null) return null; // errorCode and errorCodeReason are set by sendData
+            for (int i = 0; i < numberOfFileIds; i++) {
+                byte fileId = APPLICATION_ALL_FILE_IDS[i];
+                byte[] response = responses[i];
+                if (response.length >= 2) System.arraycopy(returnStatusBytes(response), 0, errorCode, 0, 2);
+                if (!checkResponse(response)) continue;
+                FileSettings fileSettings = new FileSettings(fileId, Arrays.copyOfRange(response, 0, response.length - 2));
+                APPLICATION_ALL_FILE_SETTINGS[fileId] = fileSettings;
+                checkTransactionMacFile(fileId, fileSettings);
+                numberOfFileSettingsRead++;
+            }
+        } else {
+            for (int i = 0; i < numberOfFileIds; i++) {
+                byte fileId = APPLICATION_ALL_FILE_IDS[i];
+                byte[] fileSettingsByte = getFileSettings(fileId);
+                if (DesfireLog.isDebugEnabled()) Log.d(TAG, "i: " + i + printData(" fileSettingsByte", fileSettingsByte));
+                if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("errorCode", errorCode));
+                if (DesfireLog.isDebugEnabled()) Log.d(TAG, "errorCodeReason: " + errorCodeReason);
+                if (fileSettingsByte != null) {
+                    FileSettings fileSettings = new FileSettings(fileId, fileSettingsByte);
                     APPLICATION_ALL_FILE_SETTINGS[fileId] = fileSettings;
-                    // check if this file is a TransactionMac file
-                    if (checkIsTransactionMacFileType(fileId)) {
-                        isTransactionMacFilePresent = true;
-                        transactionMacFileSettings = fileSettings;
-                        int tmacRWKey = transactionMacFileSettings.getAccessRightsRw();
-                        if (tmacRWKey != 15) isTransactionMacCommitReaderId = true;
-                    }
+                    checkTransactionMacFile(fileId, fileSettings);
+                    numberOfFileSettingsRead++;
                 }
             }
         }
+        if (numberOfFileSettingsRead == numberOfFileIds) {
+            errorCode = RESPONSE_OK.clone();
+            errorCodeReason = "SUCCESS";
+        } else {
+            // errorCode holds the status of the last failed command
+            errorCodeReason = "read the file settings of " + numberOfFileSettingsRead + " of " + numberOfFileIds + " files only";
+        }
         log(methodName, "ended");
         /* debug
-        Log.d(TAG, "allFileSettings");
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, "allFileSettings");
         for (int i = 0; i < APPLICATION_ALL_FILE_SETTINGS.length; i++) {
             FileSettings fs = APPLICATION_ALL_FILE_SETTINGS[i];
             if (fs == null) {
-                Log.d(TAG, "i: " + i + ":" + "null");
+                if (DesfireLog.isDebugEnabled()) Log.d(TAG, "i: " + i + ":" + "null");
             } else {
-                Log.d(TAG, "i: " + i + ":" + APPLICATION_ALL_FILE_SETTINGS[i].dump());
+                if (DesfireLog.isDebugEnabled()) Log.d(TAG, "i: " + i + ":" + APPLICATION_ALL_FILE_SETTINGS[i].dump());
             }
         }
          */
         return APPLICATION_ALL_FILE_SETTINGS;
     }
 
+    /**
+     * sends the GetFileSettings commands of all files in plain communication: all APDUs are built before the first
+     * transceive and the responses are parsed by the caller after the last transceive, so no logging or parsing is
+     * done between two commands. The transceives themselves still run one after another (IsoDep has no pipelining),
+     * so the round trips to the card are not reduced, the gain is the host work between them and is small.
+     * This is not usable after an authentication as each MAC depends on the previous command.
+     *
+     * @param fileIds of the selected application
+     * @return the responses (including the status bytes) in the order of the fileIds, null if a transceive failed
+     */
+    private byte[][] transceiveFileSettingsBatched(byte[] fileIds) {
+        final String methodName = "transceiveFileSettingsBatched";
+        byte[][] apdus = new byte[fileIds.length][];
+        try {
+            for (int i = 0; i < fileIds.length; i++) {
+                apdus[i] = wrapMessage(GET_FILE_SETTINGS_COMMAND, new byte[]{fileIds[i]});
+            }
+        } catch (IOException e) {
+            Log.e(TAG, methodName + " wrapMessage failed, IOException:\n" + e.getMessage());
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "IOException: " + e.getMessage();
+            return null;
+        }
+        byte[][] responses = new byte[fileIds.length][];
+        for (int i = 0; i < fileIds.length; i++) {
+            responses[i] = sendData(apdus[i]);
+            if (responses[i] == null) return null;
+        }
+        return responses;
+    }
+
+    /**
+     * sets the Transaction MAC file flags if the file is a TransactionMac file
+     */
+    private void checkTransactionMacFile(byte fileId, FileSettings fileSettings) {
+        if (checkIsTransactionMacFileType(fileId)) {
+            isTransactionMacFilePresent = true;
+            transactionMacFileSettings = fileSettings;
+            int tmacRWKey = transactionMacFileSettings.getAccessRightsRw();
+            if (tmacRWKey != 15) isTransactionMacCommitReaderId = true;
+        }
+    }
+
+    /**
+     * fills the file ids and file settings of the selected application. If the card (tag id), the application and
+     * the fileSettingsVersionHint are found in the fileSettingsCache no command is sent, otherwise the data is read
+     * with getAllFileIds and getAllFileSettings and stored in the cache.
+     * Note: the settings are cached only if the settings of all files could be read
+     */
+    private void loadApplicationFileSettings() {
+        final String methodName = "loadApplicationFileSettings";
+        byte[] tagId = transport.getTagId();
+        FileSettingsCache.Entry entry = fileSettingsCache.get(tagId, selectedApplicationId, fileSettingsVersionHint);
+        if (entry != null) {
+            log(methodName, "file settings taken from the cache");
+            APPLICATION_ALL_FILE_IDS = entry.getFileIds();
+            APPLICATION_ALL_FILE_SETTINGS = (APPLICATION_ALL_FILE_IDS.length == 0) ? null : entry.getFileSettings();
+            for (byte fileId : APPLICATION_ALL_FILE_IDS) {
+                checkTransactionMacFile(fileId, APPLICATION_ALL_FILE_SETTINGS[fileId]);
+            }
+            return;
+        }
+        APPLICATION_ALL_FILE_IDS = getAllFileIds();
+        if (APPLICATION_ALL_FILE_IDS == null) return;
+        if (APPLICATION_ALL_FILE_IDS.length == 0) {
+            APPLICATION_ALL_FILE_SETTINGS = null;
+            fileSettingsCache.put(tagId, selectedApplicationId, fileSettingsVersionHint, APPLICATION_ALL_FILE_IDS, new FileSettings[MAXIMUM_NUMBER_OF_FILES]);
+            return;
+        }
+        APPLICATION_ALL_FILE_SETTINGS = getAllFileSettings();
+        if (APPLICATION_ALL_FILE_SETTINGS == null) return;
+        for (byte fileId : APPLICATION_ALL_FILE_IDS) {
+            if (APPLICATION_ALL_FILE_SETTINGS[fileId] == null) return; // incomplete, e.g. missing authentication
+        }
+        fileSettingsCache.put(tagId, selectedApplicationId, fileSettingsVersionHint, APPLICATION_ALL_FILE_IDS, APPLICATION_ALL_FILE_SETTINGS);
+    }
+
+    /**
+     * removes the cached file settings of the selected application, called before a file gets created, deleted or
+     * changed and before the application gets deleted
+     */
+    private void invalidateFileSettingsCache() {
+        fileSettingsCache.invalidate(transport.getTagId(), selectedApplicationId);
+    }
+
     /**
      * get the file settings of a file within an application
      * Note: depending on the application master key settings this requires a preceding authentication
@@ -7259,12 +7458,12 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         String logData = "";
         final String methodName = "getFileSettings";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null;
         if (!checkIsoDep()) return null;
 
-        if (checkAuthentication()) {
+        if (isAuthenticatedEv2()) {
             log(methodName, "previous authenticateAesEv2First/NonFirst, run getFileSettingsMac");
             return getFileSettingsMac(fileNumber);
         }
@@ -7277,12 +7476,12 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         System.arraycopy(returnStatusBytes(response), 0, errorCode, 0, 2);
         byte[] responseData = Arrays.copyOfRange(response, 0, response.length - 2);
         if (checkResponse(response)) {
-            Log.d(TAG, "response SUCCESS");
-            Log.d(TAG, "return for fileNumber " + fileNumber + " : " + printData("responseData", responseData));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "response SUCCESS");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "return for fileNumber " + fileNumber + " : " + printData("responseData", responseData));
             System.arraycopy(RESPONSE_OK, 0, errorCode, 0, RESPONSE_OK.length);
             return responseData;
         } else {
-            Log.d(TAG, "response FAILURE");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "response FAILURE");
             //System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, RESPONSE_FAILURE.length);
             return null;
         }
@@ -7302,29 +7501,26 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         String logData = "";
         final String methodName = "getFileSettingsMac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null;
         // Constructing the full GetFileSettings Command APDU
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
-        byte[] macInput = getMacInput(GET_FILE_SETTINGS_COMMAND, new byte[]{fileNumber});
-        log(methodName, printData("macInput", macInput));
-
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(GET_FILE_SETTINGS_COMMAND, new byte[]{fileNumber});
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the abort Transaction
         ByteArrayOutputStream baosGetFileSettingsCommand = new ByteArrayOutputStream();
         baosGetFileSettingsCommand.write(fileNumber);
         baosGetFileSettingsCommand.write(macTruncated, 0, macTruncated.length);
         byte[] getFileSettingsCommand = baosGetFileSettingsCommand.toByteArray();
-        log(methodName, printData("getFileSettingsCommand", getFileSettingsCommand));
+        log(methodName, "getFileSettingsCommand", getFileSettingsCommand);
         //byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -7333,39 +7529,39 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received MAC");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now verifying the received MAC");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             errorCodeReason = "checkResponse data failure";
             return null;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         byte[] fullMacedData = getData(response);
         if ((fullMacedData == null) || (fullMacedData.length < 6)) {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             errorCodeReason = "data returned too small";
             return null;
         }
         int macedDataLength = fullMacedData.length - 8;
-        log(methodName, "The fullMacedData is of length " + fullMacedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The macedData length is " + macedDataLength);
+        if (isLogEnabled()) log(methodName, "The fullMacedData is of length " + fullMacedData.length + " that includes 8 bytes for MAC");
+        if (isLogEnabled()) log(methodName, "The macedData length is " + macedDataLength);
         byte[] macedData = Arrays.copyOfRange(fullMacedData, 0, macedDataLength);
         byte[] responseMACTruncatedReceived = Arrays.copyOfRange(fullMacedData, macedDataLength, fullMacedData.length);
-        log(methodName, printData("macedData", macedData));
+        log(methodName, "macedData", macedData);
         byte[] readData = Arrays.copyOfRange(macedData, 0, macedDataLength);
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
         if (verifyResponseMac(responseMACTruncatedReceived, macedData)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
@@ -7392,7 +7588,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         String logData = "";
         final String methodName = "changeFileSettings";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
         // sanity checks
         errorCode = new byte[2];
         // sanity checks
@@ -7417,13 +7613,13 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         // Generating the MAC for the Command APDU
         byte[] ivInput = getIvInput();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptWithSessionKey(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // build the command data
         byte communicationSettingsByte = (byte) 0x00;
@@ -7446,28 +7642,25 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosCommandData.write(accessRightsRwCar);
         baosCommandData.write(accessRightsRW);
         byte[] commandData = baosCommandData.toByteArray();
-        log(methodName, printData("commandData", commandData));
+        log(methodName, "commandData", commandData);
 
         // eventually some padding is necessary with 0x80..00
         byte[] commandDataPadded = paddingWriteData(commandData);
-        log(methodName, printData("commandDataPadded", commandDataPadded));
+        log(methodName, "commandDataPadded", commandDataPadded);
 
         // E(KSesAuthENC, IVc, CmdData || Padding (if necessary))
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, commandDataPadded);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = encryptWithSessionKey(ivForCmdData, commandDataPadded);
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // Cmd || CmdCounter || TI || CmdHeader = fileNumber || E(KSesAuthENC, CmdData)
-        byte[] macInput = getMacInput(CHANGE_FILE_SETTINGS_COMMAND, new byte[]{fileNumber}, encryptedData);
-        log(methodName, printData("macInput", macInput));
-
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(CHANGE_FILE_SETTINGS_COMMAND, new byte[]{fileNumber}, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in DESFire Light Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLength || Data) is NOT correct, as well not the Data Message
@@ -7479,12 +7672,13 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
+            invalidateFileSettingsCache();
             apdu = wrapMessage(CHANGE_FILE_SETTINGS_COMMAND, writeDataCommand);
 /*
 from NTAG424DNA sheet page 69:
@@ -7501,7 +7695,7 @@ PERMISSION_DENIED
             return false;
         }
         if (!checkResponse(response)) {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             byte[] responseBytes = returnStatusBytes(response);
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             errorCodeReason = methodName + " FAILURE";
@@ -7509,17 +7703,17 @@ PERMISSION_DENIED
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
 
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -7570,7 +7764,7 @@ PERMISSION_DENIED
         String logData = "";
         final String methodName = "changeFileSettings";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
         // sanity checks
         errorCode = new byte[2];
         // sanity checks
@@ -7614,7 +7808,7 @@ PERMISSION_DENIED
             errorCodeReason = "keyW is > 4 but not 14 or 15, aborted";
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA tag ?), aborted";
             return false;
@@ -7626,7 +7820,7 @@ PERMISSION_DENIED
         }
 
         if (sdmEnable) {
-            Log.d(TAG, "enabling Secure Dynamic Messaging feature on NTAG 424 DNA");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "enabling Secure Dynamic Messaging feature on NTAG 424 DNA");
             if (fileNumber != 2) {
                 errorCode = RESPONSE_PARAMETER_ERROR.clone();
                 errorCodeReason = "sdmEnable works on fileNumber 2 only, aborted";
@@ -7672,8 +7866,8 @@ fileSize: 128
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         // Generating the MAC for the Command APDU
         byte[] commandCounterLsb = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb", commandCounterLsb));
+        if (isLogEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb", commandCounterLsb);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(HEADER_MAC, 0, HEADER_MAC.length);
@@ -7681,13 +7875,13 @@ fileSize: 128
         baosIvInput.write(commandCounterLsb, 0, commandCounterLsb.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptWithSessionKey(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // build the command data
         byte communicationSettingsByte = (byte) 0x00;
@@ -7723,7 +7917,7 @@ fileSize: 128
             baosCommandData.write(SDMMACInputOffset, 0, SDMMACInputOffset.length);
         }
         byte[] commandData = baosCommandData.toByteArray();
-        log(methodName, printData("commandData", commandData));
+        log(methodName, "commandData", commandData);
 
         /*
 from: NTAG 424 DNA and NTAG 424 DNA TagTamper features and hints AN12196.pdf page 34
@@ -7746,30 +7940,22 @@ F121h = SDMAccessRights (RFU: 0xF, FileAR.SDMCtrRet = 0x1, FileAR.SDMMetaRead: 0
 
         // eventually some padding is necessary with 0x80..00
         byte[] commandDataPadded = paddingWriteData(commandData);
-        log(methodName, printData("commandDataPadded", commandDataPadded));
+        log(methodName, "commandDataPadded", commandDataPadded);
 
         // E(KSesAuthENC, IVc, CmdData || Padding (if necessary))
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, commandDataPadded);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = encryptWithSessionKey(ivForCmdData, commandDataPadded);
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // Cmd || CmdCounter || TI || CmdHeader = fileNumber || E(KSesAuthENC, CmdData)
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(CHANGE_FILE_SETTINGS_COMMAND); // 0x5F
-        baosMacInput.write(commandCounterLsb, 0, commandCounterLsb.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(fileNumber);
-        baosMacInput.write(encryptedData, 0, encryptedData.length);
-        byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(CHANGE_FILE_SETTINGS_COMMAND, new byte[]{fileNumber}, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in DESFire Light Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLength || Data) is NOT correct, as well not the Data Message
@@ -7781,12 +7967,13 @@ F121h = SDMAccessRights (RFU: 0xF, FileAR.SDMCtrRet = 0x1, FileAR.SDMMetaRead: 0
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
+            invalidateFileSettingsCache();
             apdu = wrapMessage(CHANGE_FILE_SETTINGS_COMMAND, writeDataCommand);
 /*
 from NTAG424DNA sheet page 69:
@@ -7803,7 +7990,7 @@ PERMISSION_DENIED
             return false;
         }
         if (!checkResponse(response)) {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             byte[] responseBytes = returnStatusBytes(response);
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             errorCodeReason = methodName + " FAILURE";
@@ -7811,17 +7998,17 @@ PERMISSION_DENIED
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
 
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -7842,7 +8029,7 @@ PERMISSION_DENIED
         String logData = "";
         final String methodName = "changeFileSettings";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
         // sanity checks
         errorCode = new byte[2];
         // sanity checks
@@ -7886,7 +8073,7 @@ PERMISSION_DENIED
             errorCodeReason = "keyW is > 4 but not 14 or 15, aborted";
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA / DESFire EV3 tag ?), aborted";
             return false;
@@ -7898,7 +8085,7 @@ PERMISSION_DENIED
         }
 
         if (sdmEnable) {
-            Log.d(TAG, "enabling Secure Dynamic Messaging feature on NTAG 424 DNA / DESFire EV3");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "enabling Secure Dynamic Messaging feature on NTAG 424 DNA / DESFire EV3");
             if (fileNumber != 2) {
                 errorCode = RESPONSE_PARAMETER_ERROR.clone();
                 errorCodeReason = "sdmEnable works on fileNumber 2 only, aborted";
@@ -7946,8 +8133,8 @@ fileSize: 128
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         // Generating the MAC for the Command APDU
         byte[] commandCounterLsb = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb", commandCounterLsb));
+        if (isLogEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb", commandCounterLsb);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(HEADER_MAC, 0, HEADER_MAC.length);
@@ -7955,13 +8142,13 @@ fileSize: 128
         baosIvInput.write(commandCounterLsb, 0, commandCounterLsb.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptWithSessionKey(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // build the command data
         byte communicationSettingsByte = (byte) 0x00;
@@ -7984,9 +8171,9 @@ fileSize: 128
         byte[] ENCPICCDataOffset = Utils.intTo3ByteArrayInversed(encPiccDataOffset); // e.g. 0x200000 for NTAG 424 DNA and NTAG 424 DNA TagTamper features and hints AN12196.pdf example on pages 31 + 34
         byte[] SDMMACOffset = Utils.intTo3ByteArrayInversed(sdmMacOffset);      // e.g. 0x430000
         byte[] SDMMACInputOffset = Utils.intTo3ByteArrayInversed(sdmMacInputOffset); // e.g. 0x430000
-        log(methodName, printData("ENCPICCDataOffset", ENCPICCDataOffset));
-        log(methodName, printData("SDMMACOffset     ", SDMMACOffset));
-        log(methodName, printData("SDMMACInputOffset", SDMMACInputOffset));
+        log(methodName, "ENCPICCDataOffset", ENCPICCDataOffset);
+        log(methodName, "SDMMACOffset     ", SDMMACOffset);
+        log(methodName, "SDMMACInputOffset", SDMMACInputOffset);
         /*
         values using server data: https://sdm.nfcdeveloper.com/tag
         ENCPICCDataOffset length: 3 data: 2a0000 (42d)
@@ -8007,7 +8194,7 @@ fileSize: 128
             baosCommandData.write(SDMMACInputOffset, 0, SDMMACInputOffset.length);
         }
         byte[] commandData = baosCommandData.toByteArray();
-        log(methodName, printData("commandData", commandData));
+        log(methodName, "commandData", commandData);
 
         // this is the working command for encrypted PICC data
         //                                    4000e0c1 f121 2a0000500000500000
@@ -8025,68 +8212,26 @@ fileSize: 128
         // https://sdm.nfcdeveloper.com/tag?picc_data=1D963945833B280C8E0CE5D3F86127E0&enc=AFAE6C123CC478734FED103FD6851AA8&cmac=FCAC93426335D213
 
 
-        log(methodName, printData("commandData", commandData));
+        log(methodName, "commandData", commandData);
 
         // eventually some padding is necessary with 0x80..00
         byte[] commandDataPadded = paddingWriteData(commandData);
-        log(methodName, printData("commandDataPadded", commandDataPadded));
+        log(methodName, "commandDataPadded", commandDataPadded);
 
-        byte[] encryptedData;
-        // if commandDataPadded is longer than 16 bytes we need to encrypt in chunks
-        if (commandDataPadded.length > 16) {
-            Log.d(TAG, "The commandDataPadded length is > 16, encrypt in chunks");
-            int numberOfDataBlocks = commandDataPadded.length / 16;
-            log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
-            List<byte[]> dataBlockList = Utils.divideArrayToList(commandDataPadded, 16);
-            List<byte[]> dataBlockEncryptedList = new ArrayList<>();
-            byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
-            for (int i = 0; i < numberOfDataBlocks; i++) {
-                byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
-                dataBlockEncryptedList.add(dataBlockEncrypted);
-                ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
-            }
-            for (int i = 0; i < numberOfDataBlocks; i++) {
-                log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
-            }
-            // Encrypted Data (complete), concatenate all byte arrays
-            ByteArrayOutputStream baosDataEncrypted = new ByteArrayOutputStream();
-            for (int i = 0; i < numberOfDataBlocks; i++) {
-                try {
-                    baosDataEncrypted.write(dataBlockEncryptedList.get(i));
-                } catch (IOException e) {
-                    Log.e(TAG, "IOException on concatenating encrypted dataBlocks, aborted\n" +
-                            e.getMessage());
-                    errorCode = RESPONSE_FAILURE.clone();
-                    errorCodeReason = "IOException: transceive failed: " + e.getMessage();
-                    return false;
-                }
-            }
-            encryptedData = baosDataEncrypted.toByteArray();
-        } else {
-            Log.d(TAG, "The commandDataPadded length is = 16, encrypt in one run");
-            // E(KSesAuthENC, IVc, CmdData || Padding (if necessary))
-            encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, commandDataPadded);
-        }
-        log(methodName, printData("encryptedData", encryptedData));
+        // E(KSesAuthENC, IVc, CmdData || Padding (if necessary)) in one CBC pass
+        byte[] encryptedData = encryptWithSessionKey(ivForCmdData, commandDataPadded);
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // Cmd || CmdCounter || TI || CmdHeader = fileNumber || E(KSesAuthENC, CmdData)
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(CHANGE_FILE_SETTINGS_COMMAND); // 0x5F
-        baosMacInput.write(commandCounterLsb, 0, commandCounterLsb.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(fileNumber);
-        baosMacInput.write(encryptedData, 0, encryptedData.length);
-        byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(CHANGE_FILE_SETTINGS_COMMAND, new byte[]{fileNumber}, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in DESFire Light Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLength || Data) is NOT correct, as well not the Data Message
@@ -8098,7 +8243,7 @@ fileSize: 128
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -8107,6 +8252,7 @@ fileSize: 128
         // tapLinx working:    5F         02 9F332C58ABA6992E87F89F09337990E315506EAF45E4A72E81C1DB30D728D7CE     E081D3EB02A213A3 (42 bytes)
         byte[] responseMACTruncatedReceived;
         try {
+            invalidateFileSettingsCache();
             apdu = wrapMessage(CHANGE_FILE_SETTINGS_COMMAND, writeDataCommand);
             response = sendData(apdu);
         } catch (IOException e) {
@@ -8115,7 +8261,7 @@ fileSize: 128
             return false;
         }
         if (!checkResponse(response)) {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             byte[] responseBytes = returnStatusBytes(response);
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             errorCodeReason = methodName + " FAILURE";
@@ -8123,17 +8269,17 @@ fileSize: 128
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
 
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -8156,7 +8302,7 @@ fileSize: 128
         String logData = "";
         final String methodName = "changeFileSettings with commandData";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber);
         // sanity checks
         errorCode = new byte[2];
         // sanity checks
@@ -8165,7 +8311,7 @@ fileSize: 128
             errorCodeReason = "commandData is NULL or of insufficient length, aborted";
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA / DESFire EV3 tag ?), aborted";
             return false;
@@ -8214,8 +8360,8 @@ fileSize: 128
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         // Generating the MAC for the Command APDU
         byte[] commandCounterLsb = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb", commandCounterLsb));
+        if (isLogEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb", commandCounterLsb);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(HEADER_MAC, 0, HEADER_MAC.length);
@@ -8223,77 +8369,35 @@ fileSize: 128
         baosIvInput.write(commandCounterLsb, 0, commandCounterLsb.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptWithSessionKey(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // take the the command data as parameter
-        log(methodName, printData("commandData", commandData));
+        log(methodName, "commandData", commandData);
 
         // eventually some padding is necessary with 0x80..00
         byte[] commandDataPadded = paddingWriteData(commandData);
-        log(methodName, printData("commandDataPadded", commandDataPadded));
+        log(methodName, "commandDataPadded", commandDataPadded);
 
-        byte[] encryptedData;
-        // if commandDataPadded is longer than 16 bytes we need to encrypt in chunks
-        if (commandDataPadded.length > 16) {
-            Log.d(TAG, "The commandDataPadded length is > 16, encrypt in chunks");
-            int numberOfDataBlocks = commandDataPadded.length / 16;
-            log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
-            List<byte[]> dataBlockList = Utils.divideArrayToList(commandDataPadded, 16);
-            List<byte[]> dataBlockEncryptedList = new ArrayList<>();
-            byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
-            for (int i = 0; i < numberOfDataBlocks; i++) {
-                byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
-                dataBlockEncryptedList.add(dataBlockEncrypted);
-                ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
-            }
-            for (int i = 0; i < numberOfDataBlocks; i++) {
-                log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
-            }
-            // Encrypted Data (complete), concatenate all byte arrays
-            ByteArrayOutputStream baosDataEncrypted = new ByteArrayOutputStream();
-            for (int i = 0; i < numberOfDataBlocks; i++) {
-                try {
-                    baosDataEncrypted.write(dataBlockEncryptedList.get(i));
-                } catch (IOException e) {
-                    Log.e(TAG, "IOException on concatenating encrypted dataBlocks, aborted\n" +
-                            e.getMessage());
-                    errorCode = RESPONSE_FAILURE.clone();
-                    errorCodeReason = "IOException: transceive failed: " + e.getMessage();
-                    return false;
-                }
-            }
-            encryptedData = baosDataEncrypted.toByteArray();
-        } else {
-            Log.d(TAG, "The commandDataPadded length is = 16, encrypt in one run");
-            // E(KSesAuthENC, IVc, CmdData || Padding (if necessary))
-            encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, commandDataPadded);
-        }
-        log(methodName, printData("encryptedData", encryptedData));
+        // E(KSesAuthENC, IVc, CmdData || Padding (if necessary)) in one CBC pass
+        byte[] encryptedData = encryptWithSessionKey(ivForCmdData, commandDataPadded);
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // Cmd || CmdCounter || TI || CmdHeader = fileNumber || E(KSesAuthENC, CmdData)
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(CHANGE_FILE_SETTINGS_COMMAND); // 0x5F
-        baosMacInput.write(commandCounterLsb, 0, commandCounterLsb.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(fileNumber);
-        baosMacInput.write(encryptedData, 0, encryptedData.length);
-        byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(CHANGE_FILE_SETTINGS_COMMAND, new byte[]{fileNumber}, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in DESFire Light Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLength || Data) is NOT correct, as well not the Data Message
@@ -8305,7 +8409,7 @@ fileSize: 128
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -8314,6 +8418,7 @@ fileSize: 128
         // tapLinx working:    5F         02 9F332C58ABA6992E87F89F09337990E315506EAF45E4A72E81C1DB30D728D7CE     E081D3EB02A213A3 (42 bytes)
         byte[] responseMACTruncatedReceived;
         try {
+            invalidateFileSettingsCache();
             apdu = wrapMessage(CHANGE_FILE_SETTINGS_COMMAND, writeDataCommand);
             response = sendData(apdu);
         } catch (IOException e) {
@@ -8322,7 +8427,7 @@ fileSize: 128
             return false;
         }
         if (!checkResponse(response)) {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             byte[] responseBytes = returnStatusBytes(response);
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             errorCodeReason = methodName + " FAILURE";
@@ -8330,15 +8435,15 @@ fileSize: 128
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -8354,31 +8459,26 @@ fileSize: 128
      * @return true if MAC equals the calculated MAC
      */
 
-    private boolean verifyResponseMac(byte[] responseMAC, byte[] responseData) {
+    boolean verifyResponseMac(byte[] responseMAC, byte[] responseData) {
         final String methodName = "verifyResponseMac";
-        byte[] commandCounterLsb = intTo2ByteArrayInversed(CmdCounter);
-        ByteArrayOutputStream responseMacBaos = new ByteArrayOutputStream();
-        responseMacBaos.write((byte) 0x00); // response code 00 means success
-        responseMacBaos.write(commandCounterLsb, 0, commandCounterLsb.length);
-        responseMacBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        if (responseData != null) {
-            responseMacBaos.write(responseData, 0, responseData.length);
-        }
-        byte[] macInput = responseMacBaos.toByteArray();
-        log(methodName, printData("macInput", macInput));
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("responseMACTruncatedReceived  ", responseMAC));
-        log(methodName, printData("responseMACCalculated", responseMACCalculated));
-        byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
-        log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
+        // MAC_Input (RC || CmdCounter || TI || Response Data) is streamed into the CMAC
+        log(methodName, "responseMACTruncatedReceived  ", responseMAC);
+        boolean macMatches;
+        if (sessionCrypto != null) {
+            macMatches = sessionCrypto.verifyTruncatedCmac(responseMAC, (byte) 0x00, CmdCounter, TransactionIdentifier, responseData);
+        } else {
+            byte[] responseMACCalculated = calculateSessionMac((byte) 0x00, null, responseData);
+            log(methodName, "responseMACCalculated", responseMACCalculated);
+            macMatches = Arrays.equals(truncateMAC(responseMACCalculated), responseMAC);
+        }
         // compare the responseMAC's
-        if (Arrays.equals(responseMACTruncatedCalculated, responseMAC)) {
-            Log.d(TAG, "responseMAC SUCCESS");
+        if (macMatches) {
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "responseMAC SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = "SUCCESS";
             return true;
         } else {
-            Log.d(TAG, "responseMAC FAILURE");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "responseMAC FAILURE");
             errorCode = RESPONSE_FAILURE;
             errorCodeReason = "responseMAC FAILURE";
             return false;
@@ -8388,29 +8488,24 @@ fileSize: 128
     // response code is usually 0x00 but if "unneccessary authentication" it is 0x90
     private boolean verifyResponseMac(byte[] responseMAC, byte[] responseData, byte responseCode) {
         final String methodName = "verifyResponseMac";
-        byte[] commandCounterLsb = intTo2ByteArrayInversed(CmdCounter);
-        ByteArrayOutputStream responseMacBaos = new ByteArrayOutputStream();
-        responseMacBaos.write(responseCode); // response code 00 means success
-        responseMacBaos.write(commandCounterLsb, 0, commandCounterLsb.length);
-        responseMacBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        if (responseData != null) {
-            responseMacBaos.write(responseData, 0, responseData.length);
-        }
-        byte[] macInput = responseMacBaos.toByteArray();
-        log(methodName, printData("macInput", macInput));
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("responseMACTruncatedReceived  ", responseMAC));
-        log(methodName, printData("responseMACCalculated", responseMACCalculated));
-        byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
-        log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
+        // MAC_Input (RC || CmdCounter || TI || Response Data) is streamed into the CMAC
+        log(methodName, "responseMACTruncatedReceived  ", responseMAC);
+        boolean macMatches;
+        if (sessionCrypto != null) {
+            macMatches = sessionCrypto.verifyTruncatedCmac(responseMAC, responseCode, CmdCounter, TransactionIdentifier, responseData);
+        } else {
+            byte[] responseMACCalculated = calculateSessionMac(responseCode, null, responseData);
+            log(methodName, "responseMACCalculated", responseMACCalculated);
+            macMatches = Arrays.equals(truncateMAC(responseMACCalculated), responseMAC);
+        }
         // compare the responseMAC's
-        if (Arrays.equals(responseMACTruncatedCalculated, responseMAC)) {
-            Log.d(TAG, "responseMAC SUCCESS");
+        if (macMatches) {
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "responseMAC SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = "SUCCESS";
             return true;
         } else {
-            Log.d(TAG, "responseMAC FAILURE");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "responseMAC FAILURE");
             errorCode = RESPONSE_FAILURE;
             errorCodeReason = "responseMAC FAILURE";
             return false;
@@ -8418,9 +8513,9 @@ fileSize: 128
     }
 
 
-    private byte[] truncateMAC(byte[] fullMAC) {
+    byte[] truncateMAC(byte[] fullMAC) {
         final String methodName = "truncateMAC";
-        log(methodName, printData("fullMAC", fullMAC), true);
+        log(methodName, "fullMAC", fullMAC, true);
         if ((fullMAC == null) || (fullMAC.length < 2)) {
             log(methodName, "fullMAC is NULL or of wrong length, aborted");
             return null;
@@ -8432,10 +8527,45 @@ fileSize: 128
             truncatedMAC[truncatedMACPos] = fullMAC[i];
             truncatedMACPos++;
         }
-        log(methodName, printData("truncatedMAC", truncatedMAC));
+        log(methodName, "truncatedMAC", truncatedMAC);
         return truncatedMAC;
     }
 
+    /**
+     * derives the key of the tapped card for the selected application (AN10922), the diversification input is
+     * UID || AID || System Identifier. The key can be used for authenticateAesEv2First and changeApplicationKeyFull.
+     * Note: on a card with Random ID the UID of the tag is not the UID of the card, read the UID with getCardUidFull
+     * after an authentication and use KeyDiversification.deriveKey(uid, aid) instead
+     *
+     * @param keyDiversification | holds the master key and the System Identifier
+     * @return the diversified key or null on failure
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+
+    public byte[] deriveApplicationKey(KeyDiversification keyDiversification) {
+        final String methodName = "deriveApplicationKey";
+        log(methodName, "started", true);
+        if (keyDiversification == null) {
+            log(methodName, "keyDiversification is NULL, aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "keyDiversification is NULL";
+            return null;
+        }
+        if (!checkApplicationIdentifier(selectedApplicationId)) return null; // logFile and errorCode are updated
+        if (!checkIsoDep()) return null; // logFile and errorCode are updated
+        byte[] uid = transport.getTagId();
+        if (uid == null) {
+            log(methodName, "the tag id is not available, aborted");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "the tag id is not available";
+            return null;
+        }
+        byte[] key = keyDiversification.deriveKey(uid, selectedApplicationId);
+        errorCode = RESPONSE_OK.clone();
+        errorCodeReason = methodName + " SUCCESS";
+        return key;
+    }
+
     /**
      * section for authentication
      */
@@ -8467,10 +8597,11 @@ fileSize: 128
         // see example in Mifare DESFire Light Features and Hints AN12343.pdf pages 33 ff
         // and MIFARE DESFire Light contactless application IC MF2DLHX0.pdf pages 52 ff
         boolean debug = false; // if true each single step is print out for debugging purposes
-        logData = "";
+        clearLog();
         invalidateAllData();
         final String methodName = "authenticateAesEv2First";
-        log(methodName, printData("key", key) + " keyNumber: " + keyNumber, true);
+        if (isLogEnabled()) log(methodName, "keyNumber: " + keyNumber, true);
+        logSecret(methodName, "key", key);
         errorCode = new byte[2];
         // sanity checks
         if (!checkKeyNumber(keyNumber)) return false;
@@ -8490,14 +8621,14 @@ fileSize: 128
             byte[] parameter = new byte[2];
             parameter[0] = keyNumber;
             parameter[1] = (byte) 0x00; // is already 0x00
-            if (debug) log(methodName, printData("parameter", parameter));
+            if (debug) log(methodName, "parameter", parameter);
             apdu = wrapMessage(AUTHENTICATE_AES_EV2_FIRST_COMMAND, parameter);
             if (debug) log(methodName, "get enc rndB " + printData("apdu", apdu));
             response = sendData(apdu);
             if (debug) log(methodName, "get enc rndB " + printData("response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -8506,48 +8637,48 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0xAF means more data need to get exchanged
         if (!checkResponseMoreData(responseBytes)) {
-            log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isLogEnabled()) log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             return false;
         }
         // now we know that we can work with the response, 16 bytes long
         // R-APDU (Part 1) (E(Kx, RndB)) || SW1 || SW2
         byte[] rndB_enc = getData(response);
-        if (debug) log(methodName, printData("encryptedRndB", rndB_enc));
+        if (debug) log(methodName, "encryptedRndB", rndB_enc);
 
         // start the decryption
         //byte[] iv0 = new byte[8];
         byte[] iv0 = new byte[16];
         if (debug) log(methodName, "step 02 iv0 is 16 zero bytes " + printData("iv0", iv0));
         if (debug)
-            log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
+            log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key " + DesfireLog.printSecret("key", key) + printData(" iv0", iv0));
         byte[] rndB = AES.decrypt(iv0, key, rndB_enc);
-        if (debug) log(methodName, printData("rndB", rndB));
+        if (debug) logSecret(methodName, "rndB", rndB);
 
         if (debug) log(methodName, "step 04 rotate rndB to LEFT");
         byte[] rndB_leftRotated = rotateLeft(rndB);
-        if (debug) log(methodName, printData("rndB_leftRotated", rndB_leftRotated));
+        if (debug) logSecret(methodName, "rndB_leftRotated", rndB_leftRotated);
 
         // authenticate 2nd part
         if (debug) log(methodName, "step 05 generate a random rndA");
         byte[] rndA = new byte[16]; // this is an AES key
         rndA = getRandomData(rndA);
-        if (debug) log(methodName, printData("rndA", rndA));
+        if (debug) logSecret(methodName, "rndA", rndA);
 
         if (debug) log(methodName, "step 06 concatenate rndA | rndB_leftRotated");
         byte[] rndArndB_leftRotated = concatenate(rndA, rndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated", rndArndB_leftRotated));
+        if (debug) logSecret(methodName, "rndArndB_leftRotated", rndArndB_leftRotated);
 
         // IV is now encrypted RndB received from the tag
         if (debug) log(methodName, "step 07 iv1 is 16 zero bytes");
         byte[] iv1 = new byte[16];
-        if (debug) log(methodName, printData("iv1", iv1));
+        if (debug) log(methodName, "iv1", iv1);
 
         // Encrypt RndAB_rot
         if (debug)
             log(methodName, "step 08 encrypt rndArndB_leftRotated using AES.encrypt and iv1");
         byte[] rndArndB_leftRotated_enc = AES.encrypt(iv1, key, rndArndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated_enc", rndArndB_leftRotated_enc));
+        if (debug) log(methodName, "rndArndB_leftRotated_enc", rndArndB_leftRotated_enc);
 
         // send encrypted data to PICC
         if (debug) log(methodName, "step 09 send the encrypted data to the PICC");
@@ -8559,7 +8690,7 @@ fileSize: 128
                 log(methodName, "send rndArndB_leftRotated_enc " + printData("response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -8568,7 +8699,7 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0x00 means the exchange was OK
         if (!checkResponse(responseBytes)) {
-            log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isLogEnabled()) log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             return false;
         }
@@ -8576,17 +8707,17 @@ fileSize: 128
         // R-APDU (Part 2) E(Kx, TI || RndA' || PDcap2 || PCDcap2) || Response Code
         if (debug) log(methodName, "step 10 received encrypted data from PICC");
         byte[] data_enc = getData(response);
-        if (debug) log(methodName, printData("data_enc", data_enc));
+        if (debug) log(methodName, "data_enc", data_enc);
 
         //IV is now reset to zero bytes
         if (debug) log(methodName, "step 11 iv2 is 16 zero bytes");
         byte[] iv2 = new byte[16];
-        if (debug) log(methodName, printData("iv2", iv2));
+        if (debug) log(methodName, "iv2", iv2);
 
         // Decrypt encrypted data
         if (debug) log(methodName, "step 12 decrypt data_enc with iv2 and key");
         byte[] data = AES.decrypt(iv2, key, data_enc);
-        if (debug) log(methodName, printData("data", data));
+        if (debug) log(methodName, "data", data);
         // data is 32 bytes long, e.g. a1487b61f69cef65a09742b481152325a7cb8fc6000000000000000000000000
         /**
          * structure of data
@@ -8608,29 +8739,34 @@ fileSize: 128
         System.arraycopy(data, 20, pDcap2, 0, 6);
         System.arraycopy(data, 26, pCDcap2, 0, 6);
         if (debug) log(methodName, "step 13 full data needs to get split up in 4 values");
-        if (debug) log(methodName, printData("data", data));
-        if (debug) log(methodName, printData("ti", ti));
-        if (debug) log(methodName, printData("rndA_leftRotated", rndA_leftRotated));
-        if (debug) log(methodName, printData("pDcap2", pDcap2));
-        if (debug) log(methodName, printData("pCDcap2", pCDcap2));
+        if (debug) log(methodName, "data", data);
+        if (debug) log(methodName, "ti", ti);
+        if (debug) logSecret(methodName, "rndA_leftRotated", rndA_leftRotated);
+        if (debug) log(methodName, "pDcap2", pDcap2);
+        if (debug) log(methodName, "pCDcap2", pCDcap2);
 
         // PCD compares send and received RndA
         if (debug) log(methodName, "step 14 rotate rndA_leftRotated to RIGHT");
         byte[] rndA_received = rotateRight(rndA_leftRotated);
-        if (debug) log(methodName, printData("rndA_received ", rndA_received));
+        if (debug) logSecret(methodName, "rndA_received ", rndA_received);
         boolean rndAEqual = Arrays.equals(rndA, rndA_received);
         //log(methodName, printData("rndA received ", rndA_received));
-        if (debug) log(methodName, printData("rndA          ", rndA));
+        if (debug) logSecret(methodName, "rndA          ", rndA);
         if (debug) log(methodName, "rndA and rndA received are equal: " + rndAEqual);
-        if (debug) log(methodName, printData("rndB          ", rndB));
+        if (debug) logSecret(methodName, "rndB          ", rndB);
 
         if (debug) log(methodName, "**** auth result ****");
-        if (rndAEqual) {
+        boolean success = rndAEqual && deriveSessionKeys(rndA, rndB, key);
+        if (rndAEqual && !success) {
+            log(methodName, "the session keys could not be derived, aborted");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "the session keys could not be derived";
+        }
+        if (success) {
             log(methodName, "*** AUTHENTICATED ***");
-            SesAuthENCKey = getSesAuthEncKey(rndA, rndB, key);
-            SesAuthMACKey = getSesAuthMacKey(rndA, rndB, key);
-            if (debug) log(methodName, printData("SesAuthENCKey ", SesAuthENCKey));
-            if (debug) log(methodName, printData("SesAuthMACKey ", SesAuthMACKey));
+            initializeSessionCrypto();
+            if (debug) logSecret(methodName, "SesAuthENCKey ", SesAuthENCKey);
+            if (debug) logSecret(methodName, "SesAuthMACKey ", SesAuthMACKey);
             CmdCounter = 0;
             TransactionIdentifier = ti.clone();
             authenticateEv2FirstSuccess = true;
@@ -8642,7 +8778,7 @@ fileSize: 128
             invalidateAllAesLegacyData();
         }
         if (debug) log(methodName, "*********************");
-        return rndAEqual;
+        return success;
     }
 
     // no check on key number
@@ -8661,10 +8797,11 @@ fileSize: 128
         // see example in Mifare DESFire Light Features and Hints AN12343.pdf pages 33 ff
         // and MIFARE DESFire Light contactless application IC MF2DLHX0.pdf pages 52 ff
         boolean debug = false; // if true each single step is print out for debugging purposes
-        logData = "";
+        clearLog();
         invalidateAllData();
         final String methodName = "authenticateAesEv2FirstProximity";
-        log(methodName, printData("key", key) + " keyNumber: " + keyNumber, true);
+        if (isLogEnabled()) log(methodName, "keyNumber: " + keyNumber, true);
+        logSecret(methodName, "key", key);
         errorCode = new byte[2];
         // sanity checks
         //if (!checkKeyNumber(keyNumber)) return false;
@@ -8684,14 +8821,14 @@ fileSize: 128
             byte[] parameter = new byte[2];
             parameter[0] = keyNumber;
             parameter[1] = (byte) 0x00; // is already 0x00
-            if (debug) log(methodName, printData("parameter", parameter));
+            if (debug) log(methodName, "parameter", parameter);
             apdu = wrapMessage(AUTHENTICATE_AES_EV2_FIRST_COMMAND, parameter);
             if (debug) log(methodName, "get enc rndB " + printData("apdu", apdu));
             response = sendData(apdu);
             if (debug) log(methodName, "get enc rndB " + printData("response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -8700,48 +8837,48 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0xAF means more data need to get exchanged
         if (!checkResponseMoreData(responseBytes)) {
-            log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isLogEnabled()) log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             return false;
         }
         // now we know that we can work with the response, 16 bytes long
         // R-APDU (Part 1) (E(Kx, RndB)) || SW1 || SW2
         byte[] rndB_enc = getData(response);
-        if (debug) log(methodName, printData("encryptedRndB", rndB_enc));
+        if (debug) log(methodName, "encryptedRndB", rndB_enc);
 
         // start the decryption
         //byte[] iv0 = new byte[8];
         byte[] iv0 = new byte[16];
         if (debug) log(methodName, "step 02 iv0 is 16 zero bytes " + printData("iv0", iv0));
         if (debug)
-            log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
+            log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key " + DesfireLog.printSecret("key", key) + printData(" iv0", iv0));
         byte[] rndB = AES.decrypt(iv0, key, rndB_enc);
-        if (debug) log(methodName, printData("rndB", rndB));
+        if (debug) logSecret(methodName, "rndB", rndB);
 
         if (debug) log(methodName, "step 04 rotate rndB to LEFT");
         byte[] rndB_leftRotated = rotateLeft(rndB);
-        if (debug) log(methodName, printData("rndB_leftRotated", rndB_leftRotated));
+        if (debug) logSecret(methodName, "rndB_leftRotated", rndB_leftRotated);
 
         // authenticate 2nd part
         if (debug) log(methodName, "step 05 generate a random rndA");
         byte[] rndA = new byte[16]; // this is an AES key
         rndA = getRandomData(rndA);
-        if (debug) log(methodName, printData("rndA", rndA));
+        if (debug) logSecret(methodName, "rndA", rndA);
 
         if (debug) log(methodName, "step 06 concatenate rndA | rndB_leftRotated");
         byte[] rndArndB_leftRotated = concatenate(rndA, rndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated", rndArndB_leftRotated));
+        if (debug) logSecret(methodName, "rndArndB_leftRotated", rndArndB_leftRotated);
 
         // IV is now encrypted RndB received from the tag
         if (debug) log(methodName, "step 07 iv1 is 16 zero bytes");
         byte[] iv1 = new byte[16];
-        if (debug) log(methodName, printData("iv1", iv1));
+        if (debug) log(methodName, "iv1", iv1);
 
         // Encrypt RndAB_rot
         if (debug)
             log(methodName, "step 08 encrypt rndArndB_leftRotated using AES.encrypt and iv1");
         byte[] rndArndB_leftRotated_enc = AES.encrypt(iv1, key, rndArndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated_enc", rndArndB_leftRotated_enc));
+        if (debug) log(methodName, "rndArndB_leftRotated_enc", rndArndB_leftRotated_enc);
 
         // send encrypted data to PICC
         if (debug) log(methodName, "step 09 send the encrypted data to the PICC");
@@ -8753,7 +8890,7 @@ fileSize: 128
                 log(methodName, "send rndArndB_leftRotated_enc " + printData("response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -8762,7 +8899,7 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0x00 means the exchange was OK
         if (!checkResponse(responseBytes)) {
-            log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isLogEnabled()) log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             return false;
         }
@@ -8770,17 +8907,17 @@ fileSize: 128
         // R-APDU (Part 2) E(Kx, TI || RndA' || PDcap2 || PCDcap2) || Response Code
         if (debug) log(methodName, "step 10 received encrypted data from PICC");
         byte[] data_enc = getData(response);
-        if (debug) log(methodName, printData("data_enc", data_enc));
+        if (debug) log(methodName, "data_enc", data_enc);
 
         //IV is now reset to zero bytes
         if (debug) log(methodName, "step 11 iv2 is 16 zero bytes");
         byte[] iv2 = new byte[16];
-        if (debug) log(methodName, printData("iv2", iv2));
+        if (debug) log(methodName, "iv2", iv2);
 
         // Decrypt encrypted data
         if (debug) log(methodName, "step 12 decrypt data_enc with iv2 and key");
         byte[] data = AES.decrypt(iv2, key, data_enc);
-        if (debug) log(methodName, printData("data", data));
+        if (debug) log(methodName, "data", data);
         // data is 32 bytes long, e.g. a1487b61f69cef65a09742b481152325a7cb8fc6000000000000000000000000
         /**
          * structure of data
@@ -8802,29 +8939,34 @@ fileSize: 128
         System.arraycopy(data, 20, pDcap2, 0, 6);
         System.arraycopy(data, 26, pCDcap2, 0, 6);
         if (debug) log(methodName, "step 13 full data needs to get split up in 4 values");
-        if (debug) log(methodName, printData("data", data));
-        if (debug) log(methodName, printData("ti", ti));
-        if (debug) log(methodName, printData("rndA_leftRotated", rndA_leftRotated));
-        if (debug) log(methodName, printData("pDcap2", pDcap2));
-        if (debug) log(methodName, printData("pCDcap2", pCDcap2));
+        if (debug) log(methodName, "data", data);
+        if (debug) log(methodName, "ti", ti);
+        if (debug) logSecret(methodName, "rndA_leftRotated", rndA_leftRotated);
+        if (debug) log(methodName, "pDcap2", pDcap2);
+        if (debug) log(methodName, "pCDcap2", pCDcap2);
 
         // PCD compares send and received RndA
         if (debug) log(methodName, "step 14 rotate rndA_leftRotated to RIGHT");
         byte[] rndA_received = rotateRight(rndA_leftRotated);
-        if (debug) log(methodName, printData("rndA_received ", rndA_received));
+        if (debug) logSecret(methodName, "rndA_received ", rndA_received);
         boolean rndAEqual = Arrays.equals(rndA, rndA_received);
         //log(methodName, printData("rndA received ", rndA_received));
-        if (debug) log(methodName, printData("rndA          ", rndA));
+        if (debug) logSecret(methodName, "rndA          ", rndA);
         if (debug) log(methodName, "rndA and rndA received are equal: " + rndAEqual);
-        if (debug) log(methodName, printData("rndB          ", rndB));
+        if (debug) logSecret(methodName, "rndB          ", rndB);
 
         if (debug) log(methodName, "**** auth result ****");
-        if (rndAEqual) {
+        boolean success = rndAEqual && deriveSessionKeys(rndA, rndB, key);
+        if (rndAEqual && !success) {
+            log(methodName, "the session keys could not be derived, aborted");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "the session keys could not be derived";
+        }
+        if (success) {
             log(methodName, "*** AUTHENTICATED ***");
-            SesAuthENCKey = getSesAuthEncKey(rndA, rndB, key);
-            SesAuthMACKey = getSesAuthMacKey(rndA, rndB, key);
-            if (debug) log(methodName, printData("SesAuthENCKey ", SesAuthENCKey));
-            if (debug) log(methodName, printData("SesAuthMACKey ", SesAuthMACKey));
+            initializeSessionCrypto();
+            if (debug) logSecret(methodName, "SesAuthENCKey ", SesAuthENCKey);
+            if (debug) logSecret(methodName, "SesAuthMACKey ", SesAuthMACKey);
             CmdCounter = 0;
             TransactionIdentifier = ti.clone();
             authenticateEv2FirstSuccess = true;
@@ -8836,7 +8978,7 @@ fileSize: 128
             invalidateAllAesLegacyData();
         }
         if (debug) log(methodName, "*********************");
-        return rndAEqual;
+        return success;
     }
 
     /**
@@ -8873,10 +9015,11 @@ fileSize: 128
          */
 
         boolean debug = false; // if true each single step is print out for debugging purposes
-        logData = "";
+        clearLog();
         invalidateAllDataNonFirst();
         final String methodName = "authenticateAesEv2NonFirst";
-        log(methodName, printData("key", key) + " keyNo: " + keyNumber, true);
+        if (isLogEnabled()) log(methodName, "keyNo: " + keyNumber, true);
+        logSecret(methodName, "key", key);
         errorCode = new byte[2];
         // sanity checks
         if (!authenticateEv2FirstSuccess) {
@@ -8902,14 +9045,14 @@ fileSize: 128
              */
             byte[] parameter = new byte[1];
             parameter[0] = keyNumber;
-            if (debug) log(methodName, printData("parameter", parameter));
+            if (debug) log(methodName, "parameter", parameter);
             apdu = wrapMessage(AUTHENTICATE_AES_EV2_NON_FIRST_COMMAND, parameter);
             if (debug) log(methodName, "get enc rndB " + printData("apdu", apdu));
             response = sendData(apdu);
             if (debug) log(methodName, "get enc rndB " + printData("response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -8918,47 +9061,47 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0xAF means more data need to get exchanged
         if (!checkResponseMoreData(responseBytes)) {
-            log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isLogEnabled()) log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             return false;
         }
         // now we know that we can work with the response, 16 bytes long
         // R-APDU (Part 1) (E(Kx, RndB)) || SW1 || SW2
         byte[] rndB_enc = getData(response);
-        if (debug) log(methodName, printData("encryptedRndB", rndB_enc));
+        if (debug) log(methodName, "encryptedRndB", rndB_enc);
 
         // start the decryption
         //byte[] iv0 = new byte[8];
         byte[] iv0 = new byte[16];
         if (debug) log(methodName, "step 02 iv0 is 16 zero bytes " + printData("iv0", iv0));
         if (debug)
-            log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
+            log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key " + DesfireLog.printSecret("key", key) + printData(" iv0", iv0));
         byte[] rndB = AES.decrypt(iv0, key, rndB_enc);
-        if (debug) log(methodName, printData("rndB", rndB));
+        if (debug) logSecret(methodName, "rndB", rndB);
 
         if (debug) log(methodName, "step 04 rotate rndB to LEFT");
         byte[] rndB_leftRotated = rotateLeft(rndB);
-        if (debug) log(methodName, printData("rndB_leftRotated", rndB_leftRotated));
+        if (debug) logSecret(methodName, "rndB_leftRotated", rndB_leftRotated);
 
         // authenticate 2nd part
         if (debug) log(methodName, "step 05 generate a random rndA");
         byte[] rndA = new byte[16]; // this is an AES key
         rndA = getRandomData(rndA);
-        if (debug) log(methodName, printData("rndA", rndA));
+        if (debug) logSecret(methodName, "rndA", rndA);
 
         if (debug) log(methodName, "step 06 concatenate rndA | rndB_leftRotated");
         byte[] rndArndB_leftRotated = concatenate(rndA, rndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated", rndArndB_leftRotated));
+        if (debug) logSecret(methodName, "rndArndB_leftRotated", rndArndB_leftRotated);
 
         // IV is now encrypted RndB received from the tag
         if (debug) log(methodName, "step 07 iv1 is 16 zero bytes");
         byte[] iv1 = new byte[16];
-        if (debug) log(methodName, printData("iv1", iv1));
+        if (debug) log(methodName, "iv1", iv1);
 
         // Encrypt RndAB_rot
         if (debug)
             log(methodName, "step 08 encrypt rndArndB_leftRotated using AES.encrypt and iv1");
         byte[] rndArndB_leftRotated_enc = AES.encrypt(iv1, key, rndArndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated_enc", rndArndB_leftRotated_enc));
+        if (debug) log(methodName, "rndArndB_leftRotated_enc", rndArndB_leftRotated_enc);
 
         // send encrypted data to PICC
         if (debug) log(methodName, "step 09 send the encrypted data to the PICC");
@@ -8970,7 +9113,7 @@ fileSize: 128
                 log(methodName, "send rndArndB_leftRotated_enc " + printData("response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -8979,7 +9122,7 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0x00 means the exchange was OK
         if (!checkResponse(responseBytes)) {
-            log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isLogEnabled()) log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             //System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
@@ -8987,17 +9130,17 @@ fileSize: 128
         // R-APDU (Part 2) E(Kx, RndA' || Response Code
         if (debug) log(methodName, "step 10 received encrypted data from PICC");
         byte[] data_enc = getData(response);
-        if (debug) log(methodName, printData("data_enc", data_enc));
+        if (debug) log(methodName, "data_enc", data_enc);
 
         //IV is now reset to zero bytes
         if (debug) log(methodName, "step 11 iv2 is 16 zero bytes");
         byte[] iv2 = new byte[16];
-        if (debug) log(methodName, printData("iv2", iv2));
+        if (debug) log(methodName, "iv2", iv2);
 
         // Decrypt encrypted data
         if (debug) log(methodName, "step 12 decrypt data_enc with iv2 and key");
         byte[] data = AES.decrypt(iv2, key, data_enc);
-        if (debug) log(methodName, printData("data", data));
+        if (debug) log(methodName, "data", data);
         // data is 32 bytes long, e.g. a1487b61f69cef65a09742b481152325a7cb8fc6000000000000000000000000
         /**
          * structure of data
@@ -9009,25 +9152,30 @@ fileSize: 128
         // split data not necessary, data is rndA_leftRotated
         byte[] rndA_leftRotated = data.clone();
         if (debug) log(methodName, "step 13 full data is rndA_leftRotated only");
-        if (debug) log(methodName, printData("rndA_leftRotated", rndA_leftRotated));
+        if (debug) logSecret(methodName, "rndA_leftRotated", rndA_leftRotated);
 
         // PCD compares send and received RndA
         if (debug) log(methodName, "step 14 rotate rndA_leftRotated to RIGHT");
         byte[] rndA_received = rotateRight(rndA_leftRotated);
-        if (debug) log(methodName, printData("rndA_received ", rndA_received));
+        if (debug) logSecret(methodName, "rndA_received ", rndA_received);
         boolean rndAEqual = Arrays.equals(rndA, rndA_received);
 
         //log(methodName, printData("rndA received ", rndA_received));
-        if (debug) log(methodName, printData("rndA          ", rndA));
+        if (debug) logSecret(methodName, "rndA          ", rndA);
         if (debug) log(methodName, "rndA and rndA received are equal: " + rndAEqual);
-        if (debug) log(methodName, printData("rndB          ", rndB));
+        if (debug) logSecret(methodName, "rndB          ", rndB);
         if (debug) log(methodName, "**** auth result ****");
-        if (rndAEqual) {
+        boolean success = rndAEqual && deriveSessionKeys(rndA, rndB, key);
+        if (rndAEqual && !success) {
+            log(methodName, "the session keys could not be derived, aborted");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "the session keys could not be derived";
+        }
+        if (success) {
             log(methodName, "*** AUTHENTICATED ***");
-            SesAuthENCKey = getSesAuthEncKey(rndA, rndB, key);
-            SesAuthMACKey = getSesAuthMacKey(rndA, rndB, key);
-            if (debug) log(methodName, printData("SesAuthENCKey ", SesAuthENCKey));
-            if (debug) log(methodName, printData("SesAuthMACKey ", SesAuthMACKey));
+            initializeSessionCrypto();
+            if (debug) logSecret(methodName, "SesAuthENCKey ", SesAuthENCKey);
+            if (debug) logSecret(methodName, "SesAuthMACKey ", SesAuthMACKey);
             //CmdCounter = 0; // is not resetted in EV2NonFirst
             //TransactionIdentifier = ti.clone(); // is not resetted in EV2NonFirst
             authenticateEv2NonFirstSuccess = true;
@@ -9039,7 +9187,7 @@ fileSize: 128
             invalidateAllAesLegacyData();
         }
         if (debug) log(methodName, "*********************");
-        return rndAEqual;
+        return success;
     }
 
     /**
@@ -9058,11 +9206,11 @@ fileSize: 128
 
     public boolean authenticateAesLegacy(byte keyNumber, byte[] key) {
         boolean debug = false;
-        logData = "";
+        clearLog();
         invalidateAllData();
         invalidateAllAesLegacyData();
         String methodName = "authenticateAesLegacy";
-        log(methodName, "keyNumber: " + keyNumber + printData(" key", key), true);
+        if (isLogEnabled()) log(methodName, "keyNumber: " + keyNumber + DesfireLog.printSecret(" key", key), true);
         errorCode = new byte[2];
         // sanity checks
         if (!checkKeyNumber(keyNumber)) return false;
@@ -9079,7 +9227,7 @@ fileSize: 128
             if (debug) log(methodName, "get enc rndB " + printData("response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -9088,49 +9236,49 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0xAF means more data need to get exchanged
         if (!checkResponseMoreData(responseBytes)) {
-            log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isLogEnabled()) log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
         // now we know that we can work with the response
         byte[] rndB_enc = getData(response);
-        if (debug) log(methodName, printData("encryptedRndB", rndB_enc));
+        if (debug) log(methodName, "encryptedRndB", rndB_enc);
 
         // start the decryption
         //byte[] iv0 = new byte[8];
         byte[] iv0 = new byte[16];
         if (debug) log(methodName, "step 02 initial iv0 is 16 zero bytes " + printData("iv0", iv0));
         if (debug)
-            log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
+            log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key " + DesfireLog.printSecret("key", key) + printData(" iv0", iv0));
         byte[] rndB = AES.decrypt(iv0, key, rndB_enc);
         byte[] rndBSession = rndB.clone();
-        if (debug) log(methodName, printData("rndB", rndB));
+        if (debug) logSecret(methodName, "rndB", rndB);
 
         if (debug) log(methodName, "step 04 rotate rndB to LEFT");
         byte[] rndB_leftRotated = rotateLeft(rndB);
-        if (debug) log(methodName, printData("rndB_leftRotated", rndB_leftRotated));
+        if (debug) logSecret(methodName, "rndB_leftRotated", rndB_leftRotated);
 
         // authenticate 2nd part
         if (debug) log(methodName, "step 05 generate a random rndA");
         byte[] rndA = new byte[16]; // this is an AES key
         rndA = getRandomData(rndA);
-        if (debug) log(methodName, printData("rndA", rndA));
+        if (debug) logSecret(methodName, "rndA", rndA);
         byte[] rndASession = rndA.clone();
 
         if (debug) log(methodName, "step 06 concatenate rndA | rndB_leftRotated");
         byte[] rndArndB_leftRotated = concatenate(rndA, rndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated", rndArndB_leftRotated));
+        if (debug) logSecret(methodName, "rndArndB_leftRotated", rndArndB_leftRotated);
 
         // IV is now encrypted RndB received from the tag
         if (debug) log(methodName, "step 07 iv1 is encryptedRndB received from the tag");
         byte[] iv1 = rndB_enc.clone();
-        if (debug) log(methodName, printData("iv1", iv1));
+        if (debug) log(methodName, "iv1", iv1);
 
         // Encrypt RndAB_rot
         if (debug)
             log(methodName, "step 08 encrypt rndArndB_leftRotated using AES.encrypt and iv1");
         byte[] rndArndB_leftRotated_enc = AES.encrypt(iv1, key, rndArndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated_enc", rndArndB_leftRotated_enc));
+        if (debug) log(methodName, "rndArndB_leftRotated_enc", rndArndB_leftRotated_enc);
 
         // send encrypted data to PICC
         if (debug) log(methodName, "step 09 send the encrypted data to the PICC");
@@ -9142,7 +9290,7 @@ fileSize: 128
                 log(methodName, "send rndArndB_leftRotated_enc " + printData("response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -9151,14 +9299,14 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0x00 means the exchange was OK
         if (!checkResponse(responseBytes)) {
-            log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isLogEnabled()) log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             //System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
         // now we know that we can work with the response
         if (debug) log(methodName, "step 10 received encrypted rndA LEFT rotated from PICC");
         byte[] rndA_leftRotated_enc = getData(response);
-        if (debug) log(methodName, printData("rndA_leftRotated_enc", rndA_leftRotated_enc));
+        if (debug) log(methodName, "rndA_leftRotated_enc", rndA_leftRotated_enc);
 
         //IV is now the last 16 bytes of RndAB_rot_enc
         if (debug)
@@ -9166,23 +9314,23 @@ fileSize: 128
         int rndArndB_leftRotated_encLength = rndArndB_leftRotated_enc.length;
         byte[] iv2 = Arrays.copyOfRange(rndArndB_leftRotated_enc,
                 rndArndB_leftRotated_encLength - 16, rndArndB_leftRotated_encLength);
-        if (debug) log(methodName, printData("iv2", iv2));
+        if (debug) log(methodName, "iv2", iv2);
 
         // Decrypt encrypted RndA_rot
         if (debug) log(methodName, "step 12 decrypt rndA_leftRotated_enc with iv2 and key");
         byte[] rndA_leftRotated = AES.decrypt(iv2, key, rndA_leftRotated_enc);
-        if (debug) log(methodName, printData("rndA_leftRotated", rndA_leftRotated));
+        if (debug) logSecret(methodName, "rndA_leftRotated", rndA_leftRotated);
 
         if (debug) log(methodName, "step 13 rotate rndA_leftRotated to RIGHT");
         byte[] rndA_received = rotateRight(rndA_leftRotated);
-        if (debug) log(methodName, printData("rndA_received", rndA_received));
+        if (debug) logSecret(methodName, "rndA_received", rndA_received);
 
         boolean rndAEqual = Arrays.equals(rndA, rndA_received);
 
-        if (debug) log(methodName, printData("rndA received ", rndA_received));
-        if (debug) log(methodName, printData("rndA          ", rndA));
+        if (debug) logSecret(methodName, "rndA received ", rndA_received);
+        if (debug) logSecret(methodName, "rndA          ", rndA);
         if (debug) log(methodName, "rndA and rndA received are equal: " + rndAEqual);
-        if (debug) log(methodName, printData("rndB          ", rndB));
+        if (debug) logSecret(methodName, "rndB          ", rndB);
         log(methodName, "**** auth result ****");
         if (rndAEqual) {
             log(methodName, "*** AUTHENTICATED ***");
@@ -9198,135 +9346,71 @@ fileSize: 128
     }
 
     /**
-     * calculate the SessionAuthEncryptionKey after a successful authenticateAesEv2First
-     * It uses the AesMac class for CMAC
-     * The code is tested with example values in Mifare DESFire Light Features and Hints AN12343.pdf
-     * on pages 33..35
-     *
-     * @param rndA              is the random generated 16 bytes long key A from reader
-     * @param rndB              is the random generated 16 bytes long key B from PICC
-     * @param authenticationKey is the 16 bytes long AES key used for authentication
-     * @return the 16 bytes long (AES) encryption key
-     */
-
-    private byte[] getSesAuthEncKey(byte[] rndA, byte[] rndB, byte[] authenticationKey) {
-        // see
-        // see MIFARE DESFire Light contactless application IC pdf, page 28
-        boolean debug = false; // if true each single step is print out for debugging purposes
-        final String methodName = "getSesAuthEncKey";
-        log(methodName, printData("rndA", rndA) + printData(" rndB", rndB) + printData(" authenticationKey", authenticationKey));
-        // sanity checks
-        if ((rndA == null) || (rndA.length != 16)) {
-            log(methodName, "rndA is NULL or wrong length, aborted");
-            return null;
-        }
-        if ((rndB == null) || (rndB.length != 16)) {
-            log(methodName, "rndB is NULL or wrong length, aborted");
-            return null;
-        }
-        if ((authenticationKey == null) || (authenticationKey.length != 16)) {
-            log(methodName, "authenticationKey is NULL or wrong length, aborted");
-            return null;
-        }
-        // see Mifare DESFire Light Features and Hints AN12343.pdf page 35
-        byte[] cmacInput = new byte[32];
-        byte[] labelEnc = new byte[]{(byte) (0xA5), (byte) (0x5A)}; // fixed to 0xA55A
-        byte[] counter = new byte[]{(byte) (0x00), (byte) (0x01)}; // fixed to 0x0001
-        byte[] length = new byte[]{(byte) (0x00), (byte) (0x80)}; // fixed to 0x0080
-
-        System.arraycopy(labelEnc, 0, cmacInput, 0, 2);
-        System.arraycopy(counter, 0, cmacInput, 2, 2);
-        System.arraycopy(length, 0, cmacInput, 4, 2);
-        System.arraycopy(rndA, 0, cmacInput, 6, 2);
-
-        byte[] rndA02to07 = new byte[6];
-        byte[] rndB00to05 = new byte[6];
-        rndA02to07 = Arrays.copyOfRange(rndA, 2, 8);
-        if (debug) log(methodName, printData("rndA     ", rndA));
-        if (debug) log(methodName, printData("rndA02to07", rndA02to07));
-        rndB00to05 = Arrays.copyOfRange(rndB, 0, 6);
-        if (debug) log(methodName, printData("rndB     ", rndB));
-        if (debug) log(methodName, printData("rndB00to05", rndB00to05));
-        byte[] xored = xor(rndA02to07, rndB00to05);
-        if (debug) log(methodName, printData("xored     ", xored));
-        System.arraycopy(xored, 0, cmacInput, 8, 6);
-        System.arraycopy(rndB, 6, cmacInput, 14, 10);
-        System.arraycopy(rndA, 8, cmacInput, 24, 8);
-
-        if (debug) log(methodName, printData("rndA     ", rndA));
-        if (debug) log(methodName, printData("rndB     ", rndB));
-        if (debug) log(methodName, printData("cmacInput", cmacInput));
-        byte[] iv = new byte[16];
-        if (debug) log(methodName, printData("iv       ", iv));
-        byte[] cmac = calculateDiverseKey(authenticationKey, cmacInput);
-        if (debug) log(methodName, printData("cmacOut ", cmac));
-        return cmac;
-    }
-
-    /**
-     * calculate the SessionAuthMacKey after a successful authenticateAesEv2First
-     * It uses the AesMac class for CMAC
+     * derives the SesAuthENCKey and SesAuthMACKey after a successful authenticateAesEv2First,
+     * authenticateAesEv2FirstProximity or authenticateAesEv2NonFirst.
+     * The session vectors SV1 (encryption) and SV2 (MAC) differ in the label only:
+     * SV = label (0xA55A or 0x5AA5) || counter (0x0001) || length (0x0080) || RndA[15..14] ||
+     * (RndA[13..8] XOR RndB[15..10]) || RndB[9..0] || RndA[7..0]
+     * so the vector is built once in sessionVectorBuffer and both keys are calculated with one keyed CMAC instance.
      * The code is tested with example values in Mifare DESFire Light Features and Hints AN12343.pdf
      * on pages 33..35
      *
      * @param rndA              is the random generated 16 bytes long key A from reader
      * @param rndB              is the random generated 16 bytes long key B from PICC
      * @param authenticationKey is the 16 bytes long AES key used for authentication
-     * @return the 16 bytes long MAC key
+     * @return true on success, the session keys are NULL on failure
      */
 
-    private byte[] getSesAuthMacKey(byte[] rndA, byte[] rndB, byte[] authenticationKey) {
-        // see
-        // see MIFARE DESFire Light contactless application IC pdf, page 28
-        boolean debug = false; // if true each single step is print out for debugging purposes
-        final String methodName = "getSesAuthMacKey";
-        log(methodName, printData("rndA", rndA) + printData(" rndB", rndB) + printData(" authenticationKey", authenticationKey));
+    private boolean deriveSessionKeys(byte[] rndA, byte[] rndB, byte[] authenticationKey) {
+        final String methodName = "deriveSessionKeys";
+        SesAuthENCKey = null;
+        SesAuthMACKey = null;
         // sanity checks
         if ((rndA == null) || (rndA.length != 16)) {
             log(methodName, "rndA is NULL or wrong length, aborted");
-            return null;
+            return false;
         }
         if ((rndB == null) || (rndB.length != 16)) {
             log(methodName, "rndB is NULL or wrong length, aborted");
-            return null;
+            return false;
         }
         if ((authenticationKey == null) || (authenticationKey.length != 16)) {
             log(methodName, "authenticationKey is NULL or wrong length, aborted");
-            return null;
+            return false;
         }
-        // see Mifare DESFire Light Features and Hints AN12343.pdf page 35
-        byte[] cmacInput = new byte[32];
-        byte[] labelEnc = new byte[]{(byte) (0x5A), (byte) (0xA5)}; // fixed to 0x5AA5
-        byte[] counter = new byte[]{(byte) (0x00), (byte) (0x01)}; // fixed to 0x0001
-        byte[] length = new byte[]{(byte) (0x00), (byte) (0x80)}; // fixed to 0x0080
-
-        System.arraycopy(labelEnc, 0, cmacInput, 0, 2);
-        System.arraycopy(counter, 0, cmacInput, 2, 2);
-        System.arraycopy(length, 0, cmacInput, 4, 2);
-        System.arraycopy(rndA, 0, cmacInput, 6, 2);
-
-        byte[] rndA02to07 = new byte[6];
-        byte[] rndB00to05 = new byte[6];
-        rndA02to07 = Arrays.copyOfRange(rndA, 2, 8);
-        if (debug) log(methodName, printData("rndA     ", rndA));
-        if (debug) log(methodName, printData("rndA02to07", rndA02to07));
-        rndB00to05 = Arrays.copyOfRange(rndB, 0, 6);
-        if (debug) log(methodName, printData("rndB     ", rndB));
-        if (debug) log(methodName, printData("rndB00to05", rndB00to05));
-        byte[] xored = xor(rndA02to07, rndB00to05);
-        if (debug) log(methodName, printData("xored     ", xored));
-        System.arraycopy(xored, 0, cmacInput, 8, 6);
-        System.arraycopy(rndB, 6, cmacInput, 14, 10);
-        System.arraycopy(rndA, 8, cmacInput, 24, 8);
-
-        if (debug) log(methodName, printData("rndA     ", rndA));
-        if (debug) log(methodName, printData("rndB     ", rndB));
-        if (debug) log(methodName, printData("cmacInput", cmacInput));
-        byte[] iv = new byte[16];
-        if (debug) log(methodName, printData("iv       ", iv));
-        byte[] cmac = calculateDiverseKey(authenticationKey, cmacInput);
-        if (debug) log(methodName, printData("cmacOut ", cmac));
-        return cmac;
+        // see Mifare DESFire Light Features and Hints AN12343.pdf page 35
+        byte[] sv = sessionVectorBuffer;
+        sv[2] = (byte) 0x00; // counter fixed to 0x0001
+        sv[3] = (byte) 0x01;
+        sv[4] = (byte) 0x00; // length fixed to 0x0080
+        sv[5] = (byte) 0x80;
+        System.arraycopy(rndA, 0, sv, 6, 2);
+        for (int i = 0; i < 6; i++) {
+            sv[8 + i] = (byte) (rndA[2 + i] ^ rndB[i]);
+        }
+        System.arraycopy(rndB, 6, sv, 14, 10);
+        System.arraycopy(rndA, 8, sv, 24, 8);
+        try {
+            AesCmac cmac = new AesCmac();
+            cmac.init(new SecretKeySpec(authenticationKey, "AES"));
+            sv[0] = (byte) 0xA5; // label for the encryption key 0xA55A
+            sv[1] = (byte) 0x5A;
+            cmac.updateBlock(sv);
+            SesAuthENCKey = cmac.doFinal();
+            sv[0] = (byte) 0x5A; // label for the MAC key 0x5AA5
+            sv[1] = (byte) 0xA5;
+            cmac.updateBlock(sv);
+            SesAuthMACKey = cmac.doFinal();
+        } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException | InvalidKeyException e) {
+            Log.e(TAG, methodName + " Exception: " + e.getMessage());
+            SesAuthENCKey = null;
+            SesAuthMACKey = null;
+            return false;
+        } finally {
+            // the session vector contains parts of the random numbers
+            Arrays.fill(sv, (byte) 0);
+        }
+        return true;
     }
 
     private byte[] getSesSDMFileReadENCKey(byte[] sdmFileReadKey, byte[] uid, byte[] sdmReadCounter) {
@@ -9334,7 +9418,9 @@ fileSize: 128
         // see NTAG 424 DNA NT4H2421Gx.pdf page 41
         boolean debug = false; // if true each single step is print out for debugging purposes
         final String methodName = "getSesSDMFileReadENCKey";
-        log(methodName, printData("sdmFileReadKey", sdmFileReadKey) + printData(" uid", uid) + printData(" sdmReadCounter", sdmReadCounter), true);
+        logSecret(methodName, "sdmFileReadKey", sdmFileReadKey, true);
+        log(methodName, "uid", uid);
+        log(methodName, "sdmReadCounter", sdmReadCounter);
         // sanity checks
         if ((sdmFileReadKey == null) || (sdmFileReadKey.length != 16)) {
             log(methodName, "sdmFileReadKey is NULL or wrong length, aborted");
@@ -9359,36 +9445,33 @@ fileSize: 128
         System.arraycopy(uid, 0, cmacInput, 6, 7);
         System.arraycopy(sdmReadCounter, 0, cmacInput, 13, 3);
         // todo this method is working only when UID and readCtr are present, if not the byte array is filled up with 00 to 16 bytes
-        if (debug) log(methodName, printData("cmacInput", cmacInput));
+        if (debug) log(methodName, "cmacInput", cmacInput);
         byte[] cmac = calculateDiverseKey(sdmFileReadKey, cmacInput);
-        if (debug) log(methodName, printData("cmacOutput", cmac));
+        if (debug) log(methodName, "cmacOutput", cmac);
         return cmac;
     }
 
     private byte[] getRandomData(byte[] key) {
-        log("getRandomData", printData("key", key), true);
+        logSecret("getRandomData", "key", key, true);
         //Log.d(TAG, "getRandomData " + printData("var", var));
         int keyLength = key.length;
         return getRandomData(keyLength);
     }
 
     /**
-     * generates a random 8 bytes long array
+     * generates a random array, taken from the shared SecureRandomSource (and its challenge pool if enabled)
      *
-     * @return 8 bytes long byte[]
+     * @return length bytes long byte[]
      */
     private byte[] getRandomData(int length) {
-        log("getRandomData", "length: " + length, true);
+        if (isLogEnabled()) log("getRandomData", "length: " + length, true);
         //Log.d(TAG, "getRandomData " + " length: " + length);
-        byte[] value = new byte[length];
-        SecureRandom secureRandom = new SecureRandom();
-        secureRandom.nextBytes(value);
-        return value;
+        return SecureRandomSource.getRandomBytes(length);
     }
 
     // rotate the array one byte to the left
     private byte[] rotateLeft(byte[] data) {
-        log("rotateLeft", printData("data", data), true);
+        log("rotateLeft", "data", data, true);
         byte[] ret = new byte[data.length];
         System.arraycopy(data, 1, ret, 0, data.length - 1);
         ret[data.length - 1] = data[0];
@@ -9418,7 +9501,8 @@ fileSize: 128
     }
 
     private byte[] xor(byte[] dataA, byte[] dataB) {
-        log("xor", printData("dataA", dataA) + printData(" dataB", dataB), true);
+        log("xor", "dataA", dataA, true);
+        log("xor", "dataB", dataB);
         if ((dataA == null) || (dataB == null)) {
             Log.e(TAG, "xor - dataA or dataB is NULL, aborted");
             return null;
@@ -9436,8 +9520,8 @@ fileSize: 128
         return dataA;
     }
 
-    private byte[] calculateDiverseKey(byte[] masterKey, byte[] input) {
-        Log.d(TAG, "calculateDiverseKey" + printData(" masterKey", masterKey) + printData(" input", input));
+    byte[] calculateDiverseKey(byte[] masterKey, byte[] input) {
+        if (DesfireLog.isVerboseEnabled()) Log.v(TAG, "calculateDiverseKey" + DesfireLog.printSecret(" masterKey", masterKey) + printData(" input", input));
         AesCmac mac = null;
         try {
             mac = new AesCmac();
@@ -9453,6 +9537,178 @@ fileSize: 128
         return mac.doFinal();
     }
 
+    /**
+     * the session crypto context holds the initialized ciphers and the keyed CMAC for SesAuthENCKey and
+     * SesAuthMACKey, it is created once after a successful authentication and reused for all commands
+     */
+
+    private void initializeSessionCrypto() {
+        try {
+            sessionCrypto = new SessionCrypto(SesAuthENCKey, SesAuthMACKey);
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Exception on initializeSessionCrypto: " + e.getMessage());
+            sessionCrypto = null;
+        }
+    }
+
+    private byte[] encryptWithSessionKey(byte[] iv, byte[] data) {
+        if (sessionCrypto == null) return AES.encrypt(iv, SesAuthENCKey, data);
+        return sessionCrypto.encrypt(iv, data);
+    }
+
+    private byte[] decryptWithSessionKey(byte[] iv, byte[] data) {
+        if (sessionCrypto == null) return AES.decrypt(iv, SesAuthENCKey, data);
+        return sessionCrypto.decrypt(iv, data);
+    }
+
+    /**
+     * encrypts the padded command data in communication mode Full in one CBC pass over all blocks
+     * E(KSesAuthENC, IVc, CmdData || Padding) with IVc = Enc(KSesAuthENC, IV_Input (0xA55A || TI || CmdCounter || Padding))
+     *
+     * @param dataPadded multiple of 16 bytes
+     * @return the encrypted data or null on failure
+     */
+    byte[] encryptCommandData(byte[] dataPadded) {
+        byte[] ivForCmdData = encryptWithSessionKey(new byte[16], getIvInput());
+        if (ivForCmdData == null) return null;
+        return encryptWithSessionKey(ivForCmdData, dataPadded);
+    }
+
+    /**
+     * decrypts the response data in communication mode Full in one CBC pass over all blocks
+     * with IVr = Enc(KSesAuthENC, IV_Input_Response (0x5AA5 || TI || CmdCounter || Padding)).
+     * Note: the CmdCounter needs to be increased before as the response belongs to the incremented counter
+     *
+     * @param encryptedData multiple of 16 bytes
+     * @return the decrypted data including the padding or null on failure
+     */
+    byte[] decryptResponseData(byte[] encryptedData) {
+        byte[] ivInputResponse = new byte[16];
+        System.arraycopy(IV_LABEL_DEC, 0, ivInputResponse, 0, 2);
+        System.arraycopy(TransactionIdentifier, 0, ivInputResponse, 2, 4);
+        ivInputResponse[6] = (byte) CmdCounter;
+        ivInputResponse[7] = (byte) (CmdCounter >> 8);
+        byte[] ivResponse = encryptWithSessionKey(new byte[16], ivInputResponse);
+        if (ivResponse == null) return null;
+        return decryptWithSessionKey(ivResponse, encryptedData);
+    }
+
+    byte[] calculateSessionMac(byte[] input) {
+        if (sessionCrypto == null) return calculateDiverseKey(SesAuthMACKey, input);
+        return sessionCrypto.cmac(input);
+    }
+
+    /**
+     * calculates the full CMAC over MAC_Input (Ins || CmdCounter || TI || CmdHeader || CmdData) with the
+     * SesAuthMACKey, the parts are streamed into the CMAC without building the MAC input array
+     */
+
+    byte[] calculateSessionMac(byte command, byte[] cmdHeader) {
+        return calculateSessionMac(command, cmdHeader, null);
+    }
+
+    byte[] calculateSessionMac(byte command, byte[] cmdHeader, byte[] cmdData) {
+        if (sessionCrypto == null) return calculateSessionMac(getMacInput(command, cmdHeader, cmdData));
+        return sessionCrypto.cmac(command, CmdCounter, TransactionIdentifier, cmdHeader, cmdData);
+    }
+
+    /**
+     * removes the padding of decrypted response data in CommunicationMode.Full (ISO/IEC 9797-1 padding method 2:
+     * 0x80 followed by 0..15 bytes of 0x00). Used by readFromARecordFile where the data length is not known
+     * in advance when all records are read.
+     *
+     * @param decryptedData | the data including the padding, see decryptResponseData
+     * @return the data without padding or null if there is no valid padding
+     */
+    private static byte[] removePadding(byte[] decryptedData) {
+        if (decryptedData == null) return null;
+        int index = decryptedData.length - 1;
+        while ((index >= 0) && (decryptedData.length - index <= 16) && (decryptedData[index] == (byte) 0x00)) {
+            index--;
+        }
+        if ((index < 0) || (decryptedData.length - index > 16) || (decryptedData[index] != (byte) 0x80)) return null;
+        return Arrays.copyOf(decryptedData, index);
+    }
+
+    /**
+     * section for frame size
+     */
+
+    /**
+     * calculates the largest data chunks for reading and writing Data and Record files from the frame size
+     * of the PICC (FSCI in the ATS), the maximum transceive length of the reader and the overhead of each
+     * communication mode. Without negotiation the data is read and written in chunks of 40 bytes.
+     * The ATS is taken from the transport (see ApduTransport.getAts), a real tag connected with IsoDep
+     * gets the frame size of a DESFire EV1 (64 bytes) as IsoDep does not expose the FSCI.
+     *
+     * @return the negotiated FrameSize or null if there is no transport
+     */
+    public FrameSize negotiateFrameSize() {
+        if (transport == null) return negotiateFrameSize(null);
+        return negotiateFrameSize(transport.getAts());
+    }
+
+    /**
+     * see negotiateFrameSize(), the ATS is given by the caller
+     *
+     * @param ats the Answer To Select of the PICC, if null the frame size of a DESFire EV1 (64 bytes) is used
+     * @return the negotiated FrameSize or null if there is no transport
+     */
+    public FrameSize negotiateFrameSize(byte[] ats) {
+        final String methodName = "negotiateFrameSize";
+        log(methodName, "ats", ats, true);
+        if (transport == null) {
+            Log.e(TAG, methodName + " transport is NULL, aborted");
+            log(methodName, "transport is NULL, aborted");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "transport is NULL";
+            return null;
+        }
+        frameSize = FrameSize.fromAts(ats, transport.getMaxTransceiveLength());
+        log(methodName, frameSize.toString());
+        if (isLogEnabled()) log(methodName, "maximum write length Plain: " + getMaximumWriteLength(FILE_COMMUNICATION_SETTINGS_PLAIN) +
+                " MACed: " + getMaximumWriteLength(FILE_COMMUNICATION_SETTINGS_MACED) +
+                " Full: " + getMaximumWriteLength(FILE_COMMUNICATION_SETTINGS_FULL));
+        if (isLogEnabled()) log(methodName, "maximum read length Plain: " + getMaximumReadLength(FILE_COMMUNICATION_SETTINGS_PLAIN) +
+                " MACed: " + getMaximumReadLength(FILE_COMMUNICATION_SETTINGS_MACED) +
+                " Full: " + getMaximumReadLength(FILE_COMMUNICATION_SETTINGS_FULL));
+        return frameSize;
+    }
+
+    int getMaximumWriteLength(byte communicationSettings) {
+        if (frameSize == null) return MAXIMUM_WRITE_MESSAGE_LENGTH;
+        return frameSize.getMaximumWriteDataLength(communicationSettings);
+    }
+
+    int getMaximumReadLength(byte communicationSettings) {
+        if (frameSize == null) return MAXIMUM_READ_MESSAGE_LENGTH;
+        return frameSize.getMaximumReadDataLength(communicationSettings);
+    }
+
+    /**
+     * the number of command data bytes (without the wrapping) in one frame, used for command chaining
+     */
+    private int getMaximumCommandDataLength() {
+        if (frameSize == null) return MAXIMUM_COMMAND_DATA_LENGTH;
+        return frameSize.getMaximumCommandDataLength();
+    }
+
+    /**
+     * If enabled writeToADataFile writes the data with one WriteData command that continues in additional
+     * frames (0xAF) instead of one complete command per chunk. The data gets encrypted and MACed only once and
+     * there is only one response MAC, so large writes need less cryptographic operations and round trips.
+     * The frame length is taken from negotiateFrameSize (55 bytes of command data without negotiation).
+     *
+     * @param writeChaining true to enable, the default is false (one command per chunk)
+     */
+    public void setWriteChaining(boolean writeChaining) {
+        this.writeChaining = writeChaining;
+    }
+
+    public boolean isWriteChaining() {
+        return writeChaining;
+    }
+
     /**
      * section for keys
      */
@@ -9466,10 +9722,10 @@ fileSize: 128
         String logData = "";
         final String methodName = "changeApplicationKeyFull";
         log(methodName, "started", true);
-        log(methodName, "keyNumber: " + keyNumber);
-        log(methodName, "keyVersion: " + keyVersion);
-        log(methodName, printData("keyNew", keyNew));
-        log(methodName, printData("keyOld", keyOld));
+        if (isLogEnabled()) log(methodName, "keyNumber: " + keyNumber);
+        if (isLogEnabled()) log(methodName, "keyVersion: " + keyVersion);
+        logSecret(methodName, "keyNew", keyNew);
+        logSecret(methodName, "keyOld", keyOld);
         // sanity checks
         if (!checkAuthentication()) return false;
         if (!checkKeyNumber(keyNumber)) return false;
@@ -9477,17 +9733,14 @@ fileSize: 128
         if (!checkKey(keyOld)) return false;
         if (!checkIsoDep()) return false;
 
-
-        final byte KEY_VERSION = (byte) 0x00; // fixed
-
         // Encrypting the Command Data
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] ivInput = getIvInput();
         /*
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        if (isLogEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -9495,13 +9748,13 @@ fileSize: 128
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();*/
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptWithSessionKey(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New KeyValue || New KeyVersion || CRC32 of New KeyValue || Padding)
         // 0123456789012345678901234567890100A0A608688000000000000000000000
@@ -9521,13 +9774,13 @@ fileSize: 128
             for (int i = 0; i < keyOld.length; i++) {
                 keyNewXor[i] ^= keyOld[i % keyOld.length];
             }
-            log(methodName, printData("keyNewXor", keyNewXor));
+            logSecret(methodName, "keyNewXor", keyNewXor);
             byte[] crc32 = CRC32.get(keyNew);
-            log(methodName, printData("crc32 of keyNew", crc32));
+            log(methodName, "crc32 of keyNew", crc32);
             byte[] padding = hexStringToByteArray("8000000000000000000000");
             ByteArrayOutputStream baosData = new ByteArrayOutputStream();
             baosData.write(keyNewXor, 0, keyNewXor.length);
-            baosData.write(KEY_VERSION);
+            baosData.write(keyVersion);
             baosData.write(crc32, 0, crc32.length);
             baosData.write(padding, 0, padding.length);
             data = baosData.toByteArray();
@@ -9536,20 +9789,19 @@ fileSize: 128
             byte[] padding = hexStringToByteArray("800000000000000000000000000000");
             ByteArrayOutputStream baosData = new ByteArrayOutputStream();
             baosData.write(keyNew, 0, keyNew.length);
-            baosData.write(KEY_VERSION);
+            baosData.write(keyVersion);
             baosData.write(padding, 0, padding.length);
             data = baosData.toByteArray();
         }
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
 
         // Encrypt the Command Data = E(KSesAuthENC, Data)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, data);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = encryptWithSessionKey(ivForCmdData, data);
+        log(methodName, "encryptedData", encryptedData);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader = keyNumber || Encrypted CmdData )
         // C40000BC354CD50180D40DB52D5D8CA136249A0A14154DBA1BE0D67C408AB24CF0F3D3B4FE333C6A
         // C4 0000 BC354CD5 01 80D40DB52D5D8CA136249A0A14154DBA1BE0D67C408AB24CF0F3D3B4FE333C6A
-        byte[] macInput = getMacInput(CHANGE_KEY_SECURE_COMMAND, new byte[]{keyNumber}, encryptedData);
         /*
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(CHANGE_KEY_SECURE_COMMAND); // 0xC4
@@ -9558,15 +9810,14 @@ fileSize: 128
         baosMacInput.write(keyNumber);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();*/
-        log(methodName, printData("macInput", macInput));
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(CHANGE_KEY_SECURE_COMMAND, new byte[]{keyNumber}, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = keyNumber || Encrypted Data || MAC)
         ByteArrayOutputStream baosChangeKeyCommand = new ByteArrayOutputStream();
@@ -9574,20 +9825,20 @@ fileSize: 128
         baosChangeKeyCommand.write(encryptedData, 0, encryptedData.length);
         baosChangeKeyCommand.write(macTruncated, 0, macTruncated.length);
         byte[] changeKeyCommand = baosChangeKeyCommand.toByteArray();
-        log(methodName, printData("changeKeyCommand", changeKeyCommand));
+        log(methodName, "changeKeyCommand", changeKeyCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(CHANGE_KEY_SECURE_COMMAND, changeKeyCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transport.transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -9595,16 +9846,16 @@ fileSize: 128
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
 
         // in case 2 (auth key number == key number to change) there is NO received MAC so 0x9100 tells us - everything was OK
@@ -9615,12 +9866,12 @@ fileSize: 128
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
 
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -9636,10 +9887,10 @@ fileSize: 128
         String logData = "";
         final String methodName = "changeApplicationKeyFull";
         log(methodName, "started", true);
-        log(methodName, "keyNumber: " + keyNumber);
-        log(methodName, "keyVersion: " + keyVersion);
-        log(methodName, printData("keyNew", keyNew));
-        log(methodName, printData("keyOld", keyOld));
+        if (isLogEnabled()) log(methodName, "keyNumber: " + keyNumber);
+        if (isLogEnabled()) log(methodName, "keyVersion: " + keyVersion);
+        logSecret(methodName, "keyNew", keyNew);
+        logSecret(methodName, "keyOld", keyOld);
         // sanity checks
         if (!checkAuthentication()) return false;
         //if (!checkKeyNumber(keyNumber)) return false;
@@ -9656,8 +9907,8 @@ fileSize: 128
         byte[] ivInput = getIvInput();
         /*
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        if (isLogEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -9665,13 +9916,13 @@ fileSize: 128
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();*/
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptWithSessionKey(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New KeyValue || New KeyVersion || CRC32 of New KeyValue || Padding)
         // 0123456789012345678901234567890100A0A608688000000000000000000000
@@ -9691,9 +9942,9 @@ fileSize: 128
             for (int i = 0; i < keyOld.length; i++) {
                 keyNewXor[i] ^= keyOld[i % keyOld.length];
             }
-            log(methodName, printData("keyNewXor", keyNewXor));
+            logSecret(methodName, "keyNewXor", keyNewXor);
             byte[] crc32 = CRC32.get(keyNew);
-            log(methodName, printData("crc32 of keyNew", crc32));
+            log(methodName, "crc32 of keyNew", crc32);
             byte[] padding = hexStringToByteArray("8000000000000000000000");
             ByteArrayOutputStream baosData = new ByteArrayOutputStream();
             baosData.write(keyNewXor, 0, keyNewXor.length);
@@ -9710,16 +9961,15 @@ fileSize: 128
             baosData.write(padding, 0, padding.length);
             data = baosData.toByteArray();
         }
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
 
         // Encrypt the Command Data = E(KSesAuthENC, Data)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, data);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = encryptWithSessionKey(ivForCmdData, data);
+        log(methodName, "encryptedData", encryptedData);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader = keyNumber || Encrypted CmdData )
         // C40000BC354CD50180D40DB52D5D8CA136249A0A14154DBA1BE0D67C408AB24CF0F3D3B4FE333C6A
         // C4 0000 BC354CD5 01 80D40DB52D5D8CA136249A0A14154DBA1BE0D67C408AB24CF0F3D3B4FE333C6A
-        byte[] macInput = getMacInput(CHANGE_KEY_SECURE_COMMAND, new byte[]{keyNumber}, encryptedData);
         /*
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(CHANGE_KEY_SECURE_COMMAND); // 0xC4
@@ -9728,15 +9978,14 @@ fileSize: 128
         baosMacInput.write(keyNumber);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();*/
-        log(methodName, printData("macInput", macInput));
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(CHANGE_KEY_SECURE_COMMAND, new byte[]{keyNumber}, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = keyNumber || Encrypted Data || MAC)
         ByteArrayOutputStream baosChangeKeyCommand = new ByteArrayOutputStream();
@@ -9744,20 +9993,20 @@ fileSize: 128
         baosChangeKeyCommand.write(encryptedData, 0, encryptedData.length);
         baosChangeKeyCommand.write(macTruncated, 0, macTruncated.length);
         byte[] changeKeyCommand = baosChangeKeyCommand.toByteArray();
-        log(methodName, printData("changeKeyCommand", changeKeyCommand));
+        log(methodName, "changeKeyCommand", changeKeyCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(CHANGE_KEY_SECURE_COMMAND, changeKeyCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transport.transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -9765,16 +10014,16 @@ fileSize: 128
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
 
         // in case 2 (auth key number == key number to change) there is NO received MAC so 0x9100 tells us - everything was OK
@@ -9785,12 +10034,12 @@ fileSize: 128
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
 
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -9806,10 +10055,10 @@ fileSize: 128
         String logData = "";
         final String methodName = "changeApplicationKeyToDesFull";
         log(methodName, "started", true);
-        log(methodName, "keyNumber: " + keyNumber);
-        log(methodName, "keyVersion: " + keyVersion);
-        log(methodName, printData("keyNew", keyNew));
-        log(methodName, printData("keyOld", keyOld));
+        if (isLogEnabled()) log(methodName, "keyNumber: " + keyNumber);
+        if (isLogEnabled()) log(methodName, "keyVersion: " + keyVersion);
+        logSecret(methodName, "keyNew", keyNew);
+        logSecret(methodName, "keyOld", keyOld);
         // sanity checks
         if (!checkAuthentication()) return false;
         if (!checkKeyNumber(keyNumber)) return false;
@@ -9823,13 +10072,13 @@ fileSize: 128
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] ivInput = getIvInput();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = encryptWithSessionKey(startingIv, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New KeyValue || New KeyVersion || CRC32 of New KeyValue || Padding)
         // 0123456789012345678901234567890100A0A608688000000000000000000000
@@ -9849,9 +10098,9 @@ fileSize: 128
             for (int i = 0; i < keyOld.length; i++) {
                 keyNewXor[i] ^= keyOld[i % keyOld.length];
             }
-            log(methodName, printData("keyNewXor", keyNewXor));
+            logSecret(methodName, "keyNewXor", keyNewXor);
             byte[] crc32 = CRC32.get(keyNew);
-            log(methodName, printData("crc32 of keyNew", crc32));
+            log(methodName, "crc32 of keyNew", crc32);
             byte[] padding = hexStringToByteArray("8000000000000000000000");
             ByteArrayOutputStream baosData = new ByteArrayOutputStream();
             baosData.write(keyNewXor, 0, keyNewXor.length);
@@ -9868,25 +10117,22 @@ fileSize: 128
             baosData.write(padding, 0, padding.length);
             data = baosData.toByteArray();
         }
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
 
         // Encrypt the Command Data = E(KSesAuthENC, Data)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, data);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = encryptWithSessionKey(ivForCmdData, data);
+        log(methodName, "encryptedData", encryptedData);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader = keyNumber || Encrypted CmdData )
         // C40000BC354CD50180D40DB52D5D8CA136249A0A14154DBA1BE0D67C408AB24CF0F3D3B4FE333C6A
         // C4 0000 BC354CD5 01 80D40DB52D5D8CA136249A0A14154DBA1BE0D67C408AB24CF0F3D3B4FE333C6A
-        byte[] macInput = getMacInput(CHANGE_KEY_SECURE_COMMAND, new byte[]{keyNumber}, encryptedData);
-        log(methodName, printData("macInput", macInput));
-
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(CHANGE_KEY_SECURE_COMMAND, new byte[]{keyNumber}, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = keyNumber || Encrypted Data || MAC)
         ByteArrayOutputStream baosChangeKeyCommand = new ByteArrayOutputStream();
@@ -9894,20 +10140,20 @@ fileSize: 128
         baosChangeKeyCommand.write(encryptedData, 0, encryptedData.length);
         baosChangeKeyCommand.write(macTruncated, 0, macTruncated.length);
         byte[] changeKeyCommand = baosChangeKeyCommand.toByteArray();
-        log(methodName, printData("changeKeyCommand", changeKeyCommand));
+        log(methodName, "changeKeyCommand", changeKeyCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(CHANGE_KEY_SECURE_COMMAND, changeKeyCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transport.transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -9915,16 +10161,16 @@ fileSize: 128
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
 
         // in case 2 (auth key number == key number to change) there is NO received MAC so 0x9100 tells us - everything was OK
@@ -9935,12 +10181,12 @@ fileSize: 128
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
 
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -9965,23 +10211,23 @@ fileSize: 128
         byte[] apdu;
         try {
             apdu = wrapMessage(PREPARE_PROXIMITY_CHECK_COMMAND, null);
-            Log.d(TAG, printData("apdu", apdu));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("apdu", apdu));
             response = sendData(apdu);
-            Log.d(TAG, printData("response", response));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("response", response));
             System.arraycopy(response, 0, errorCode, 0, 2);
             // unauthenticated response: response IS NOT 9100 but 010320009190
             /*
             if (checkResponse(response)) {
-                Log.d(TAG, stepString + " SUCCESS");
+                if (DesfireLog.isDebugEnabled()) Log.d(TAG, stepString + " SUCCESS");
                 return true;
             } else {
-                Log.d(TAG, stepString + " FAILURE");
+                if (DesfireLog.isDebugEnabled()) Log.d(TAG, stepString + " FAILURE");
                 return false;
             }
              */
         } catch (IOException e) {
-            Log.d(TAG, stepString + " FAILURE, Exception: " + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, stepString + " FAILURE, Exception: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -9997,10 +10243,10 @@ fileSize: 128
                 byte[] response;
                 try {
                     apdu = wrapMessage(PREPARE_PROXIMITY_CHECK_COMMAND, null);
-                    Log.d(TAG, printData(" apdu", apdu));
-                    response = isoDep.transceive(apdu);
+                    if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData(" apdu", apdu));
+                    response = transport.transceive(apdu);
                     writeToUiAppend(output, printData("response", response));
-                    Log.d(TAG, printData(" response", response));
+                    if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData(" response", response));
                 } catch (IOException e) {
                     writeToUiAppend(output, "IOException: " + e.getMessage());
                     writeToUiAppendBorderColor(errorCode, errorCodeLayout, "IOException", COLOR_RED);
@@ -10055,10 +10301,10 @@ fileSize: 128
                 byte[] challenge1 = Utils.hexStringToByteArray("08F6DE23025C46DAE7");
                 try {
                     apdu = wrapMessage(RUN_PROXIMITY_CHECK_COMMAND, challenge1);
-                    Log.d(TAG, printData(" apdu", apdu));
-                    response = isoDep.transceive(apdu);
+                    if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData(" apdu", apdu));
+                    response = transport.transceive(apdu);
                     writeToUiAppend(output, printData("response", response));
-                    Log.d(TAG, printData(" response", response));
+                    if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData(" response", response));
                     // 910c
                 } catch (IOException e) {
                     writeToUiAppend(output, "IOException: " + e.getMessage());
@@ -10086,12 +10332,79 @@ fileSize: 128
             bytes = sendRequest(GET_VERSION_INFO_COMMAND);
             return new VersionInfo(bytes);
         } catch (Exception e) {
-            log("getVersionInformation", "IOException: " + e.getMessage());
+            if (isLogEnabled()) log("getVersionInformation", "IOException: " + e.getMessage());
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
         }
         return null;
     }
 
+    /**
+     * reads the PICC directory in one pass: the version data and key settings of the PICC, then for each
+     * application the key version of the application master key, the key settings, the file ids and the file
+     * settings (the file settings are read in batches, see getAllFileSettings, or taken from the fileSettingsCache).
+     * If a previous snapshot of the same card is given, the file ids and file settings of an application are taken
+     * from it when the key version and the key settings of the application are unchanged, so an unchanged
+     * application costs the select, getKeyVersion and getKeySettings commands only.
+     * Note: changes of the file structure that do not change the key version or the key settings (e.g. a file
+     * created or deleted or changed file settings by another reader) are NOT detected when a previous snapshot is
+     * given, the outdated file ids and file settings are returned. Raise the key version when changing a personalized
+     * application, or give no previous snapshot to read all applications.
+     * Note: the snapshot is read without authentication, after the command the last application is selected
+     *
+     * @param previousSnapshot | may be null
+     * @return the snapshot or null on failure
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+
+    public CardSnapshot getCardSnapshot(CardSnapshot previousSnapshot) {
+        final String methodName = "getCardSnapshot";
+        log(methodName, "started", true);
+        // sanity checks
+        if (!checkIsoDep()) return null;
+
+        long startMillis = System.currentTimeMillis();
+        if (!selectApplicationByAid(MASTER_APPLICATION_IDENTIFIER)) {
+            Log.e(TAG, methodName + " could not select the Master Application, aborted");
+            return null;
+        }
+        byte[] response = sendRequest(GET_VERSION_INFO_COMMAND);
+        byte[] versionData = checkResponse(response) ? getData(response) : null;
+        byte[] piccKeySettings = getKeySettings();
+        List<byte[]> applicationIds = getApplicationIdsList();
+        if (applicationIds == null) {
+            Log.e(TAG, methodName + " could not read the application ids, aborted");
+            return null;
+        }
+        byte[] tagId = transport.getTagId();
+        boolean isSameCard = (previousSnapshot != null) && (tagId != null) && Arrays.equals(previousSnapshot.getTagId(), tagId);
+        List<CardSnapshot.ApplicationSnapshot> applications = new ArrayList<>();
+        int numberOfReusedApplications = 0;
+        for (byte[] applicationId : applicationIds) {
+            if (!selectApplicationByAid(applicationId, false)) {
+                Log.e(TAG, methodName + " could not select the application " + Utils.bytesToHexNpeUpperCase(applicationId) + ", aborted");
+                return null;
+            }
+            int keyVersion = getKeyVersion((byte) 0);
+            byte[] keySettings = getKeySettings();
+            CardSnapshot.ApplicationSnapshot previousApplication = isSameCard ? previousSnapshot.getApplication(applicationId) : null;
+            if ((previousApplication != null) && (keyVersion >= 0) && (keyVersion == previousApplication.getKeyVersion())
+                    && (keySettings != null) && Arrays.equals(keySettings, previousApplication.getKeySettings())
+                    && (previousApplication.getFileIds() != null)) {
+                if (isLogEnabled()) log(methodName, "application " + Utils.bytesToHexNpeUpperCase(applicationId) + " is unchanged");
+                applications.add(previousApplication);
+                numberOfReusedApplications++;
+                continue;
+            }
+            loadApplicationFileSettings();
+            applications.add(new CardSnapshot.ApplicationSnapshot(applicationId, keySettings, keyVersion, APPLICATION_ALL_FILE_IDS, APPLICATION_ALL_FILE_SETTINGS));
+        }
+        long readMillis = System.currentTimeMillis() - startMillis;
+        if (isLogEnabled()) log(methodName, "SUCCESS with " + applications.size() + " applications in " + readMillis + " ms");
+        errorCode = RESPONSE_OK.clone();
+        errorCodeReason = "SUCCESS";
+        return new CardSnapshot(tagId, versionData, piccKeySettings, applications, startMillis, readMillis, numberOfReusedApplications);
+    }
+
     /**
      * checks that the tapped tag is of type DESFire EV1
      * As some commands do work on a DESFire EV1 tag only we need to check for that tag type
@@ -10102,7 +10415,7 @@ fileSize: 128
         // todo work on this, hardware version may be wrong !
         VersionInfo versionInfo = getVersionInformation();
         if (versionInfo == null) return false;
-        Log.d(TAG, versionInfo.dump());
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, versionInfo.dump());
         int hardwareType = versionInfo.getHardwareType(); // 1 = DESFire, 4 = NTAG family 4xx
         int hardwareVersion = versionInfo.getHardwareVersionMajor(); // 51 = DESFire EV3, 48 = NTAG 424 DNA
         return ((hardwareType == 1) && (hardwareVersion == 01));
@@ -10118,7 +10431,7 @@ fileSize: 128
         // todo work on this, hardware version may be wrong !
         VersionInfo versionInfo = getVersionInformation();
         if (versionInfo == null) return false;
-        Log.d(TAG, versionInfo.dump());
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, versionInfo.dump());
         int hardwareType = versionInfo.getHardwareType(); // 1 = DESFire, 4 = NTAG family 4xx
         int hardwareVersion = versionInfo.getHardwareVersionMajor(); // 51 = DESFire EV3, 48 = NTAG 424 DNA
         return ((hardwareType == 1) && (hardwareVersion == 18));
@@ -10134,7 +10447,7 @@ fileSize: 128
     public boolean checkForDESFireEv3() {
         VersionInfo versionInfo = getVersionInformation();
         if (versionInfo == null) return false;
-        Log.d(TAG, versionInfo.dump());
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, versionInfo.dump());
         int hardwareType = versionInfo.getHardwareType(); // 1 = DESFire, 4 = NTAG family 4xx
         int hardwareVersion = versionInfo.getHardwareVersionMajor(); // 51 = DESFire EV3, 48 = NTAG 424 DNA
         return ((hardwareType == 1) && (hardwareVersion == 51));
@@ -10147,7 +10460,7 @@ fileSize: 128
     public boolean checkForDESFireLight() {
         VersionInfo versionInfo = getVersionInformation();
         if (versionInfo == null) return false;
-        Log.d(TAG, versionInfo.dump());
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, versionInfo.dump());
         int hardwareType = versionInfo.getHardwareType(); // 1 = DESFire, 4 = NTAG family 4xx, 8 = DESFire Light
         int hardwareVersion = versionInfo.getHardwareVersionMajor(); // 51 = DESFire EV3, 48 = NTAG 424 DNA
         return ((hardwareType == 8) && (hardwareVersion == 48));
@@ -10161,7 +10474,7 @@ fileSize: 128
     UID, even if the Random ID is used.
      */
     public byte[] getCardUidFull() {
-        logData = "";
+        clearLog();
         final String methodName = "getCardUidFull";
         log(methodName, methodName);
 
@@ -10170,16 +10483,13 @@ fileSize: 128
 
         // Constructing the full GetCardUID Command APDU
         // Data = MAC over command = MACKSesAuthMACKey(Ins || CmdCtr || TI)
-        byte[] macInput = getMacInput(GET_CARD_UID_COMMAND, null);
-        log(methodName, printData("macInput", macInput));
-
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(GET_CARD_UID_COMMAND, null);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Cmd.GetCardUID C-APDU (Part 1)
         //(Cmd || Ins || P1 || P2 || Lc || Data || Le)
@@ -10188,7 +10498,7 @@ fileSize: 128
         ByteArrayOutputStream baosCommand = new ByteArrayOutputStream();
         baosCommand.write(macTruncated, 0, macTruncated.length);
         byte[] command = baosCommand.toByteArray();
-        log(methodName, printData("command", command));
+        log(methodName, "command", command);
 
         byte[] response;
         byte[] apdu;
@@ -10199,7 +10509,7 @@ fileSize: 128
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return null;
@@ -10207,52 +10517,40 @@ fileSize: 128
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return null;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // the fullEncryptedData is 56 bytes long, the first 48 bytes are encryptedData and the last 8 bytes are the responseMAC
         byte[] fullEncryptedData = getData(response);
         int encryptedDataLength = fullEncryptedData.length - 8;
-        log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
+        if (isLogEnabled()) log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
+        if (isLogEnabled()) log(methodName, "The encryptedData length is " + encryptedDataLength);
         byte[] encryptedData = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
         responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
-        // start decrypting the data
-        byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        byte[] padding = hexStringToByteArray("0000000000000000");
-        byte[] startingIv = new byte[16];
-        ByteArrayOutputStream decryptBaos = new ByteArrayOutputStream();
-        decryptBaos.write(IV_LABEL_DEC, 0, IV_LABEL_DEC.length); // fixed to 0x5AA5
-        decryptBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
-        decryptBaos.write(padding, 0, padding.length);
-        byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData));
+        // start decrypting the data in one CBC pass
+        byte[] decryptedData = decryptResponseData(encryptedData);
+        log(methodName, "decryptedData", decryptedData);
         final int UIDLength = 7;
         byte[] readData = Arrays.copyOfRange(decryptedData, 0, UIDLength);
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
 
         if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
@@ -10260,13 +10558,13 @@ fileSize: 128
     }
 
     public boolean formatPicc() {
-        logData = "";
+        clearLog();
         final String methodName = "formatPicc";
         log(methodName, methodName);
 
         if (!checkIsoDep()) return false;
         /*
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             log(methodName, "no or lost connection to the card, aborted");
             Log.e(TAG, methodName + " no or lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
@@ -10294,10 +10592,11 @@ fileSize: 128
         byte[] response = new byte[0];
         byte[] wrappedCommand;
         try {
+            fileSettingsCache.invalidateCard(transport.getTagId());
             wrappedCommand = wrapMessage(FORMAT_PICC_COMMAND, null);
-            Log.d(TAG, printData("wrappedCommand", wrappedCommand));
-            response = isoDep.transceive(wrappedCommand);
-            Log.d(TAG, printData("response", response));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("wrappedCommand", wrappedCommand));
+            response = transport.transceive(wrappedCommand);
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("response", response));
             System.arraycopy(response, 0, errorCode, 0, 2);
             if (checkResponse(response)) {
                 return true;
@@ -10305,7 +10604,7 @@ fileSize: 128
                 return false;
             }
         } catch (IOException e) {
-            log(methodName, "IOException: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -10347,9 +10646,9 @@ fileSize: 128
 
         // todo fill with life, see protocol page 5 and D40 page 36
         // returns 2 bytes: key settings || max number of keys
-        logData = "";
+        clearLog();
         final String methodName = "getKeySettings";
-        log(methodName, methodName + " started");
+        if (isLogEnabled()) log(methodName, methodName + " started");
 
         // sanity checks
         if (!checkIsoDep()) return null;
@@ -10364,7 +10663,7 @@ fileSize: 128
             apdu = wrapMessage(GET_KEY_SETTINGS_COMMAND, null);
             response = sendData(apdu);
         } catch (IOException e) {
-            log(methodName, "IOException: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return null;
@@ -10397,22 +10696,19 @@ fileSize: 128
         // Constructing the full GetKeySettings Command APDU
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
-        byte[] macInput = getMacInput(GET_KEY_SETTINGS_COMMAND, null);
-        log(methodName, printData("macInput", macInput));
-
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(GET_KEY_SETTINGS_COMMAND, null);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the abort Transaction
         ByteArrayOutputStream baosGetKeySettingsCommand = new ByteArrayOutputStream();
         baosGetKeySettingsCommand.write(macTruncated, 0, macTruncated.length);
         byte[] getKeySettingsCommand = baosGetKeySettingsCommand.toByteArray();
-        log(methodName, printData("getKeySettingsCommand", getKeySettingsCommand));
+        log(methodName, "getKeySettingsCommand", getKeySettingsCommand);
         //byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -10421,45 +10717,102 @@ fileSize: 128
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received MAC");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now verifying the received MAC");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             errorCodeReason = "checkResponse data failure";
             return null;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         byte[] fullMacedData = getData(response);
         if ((fullMacedData == null) || (fullMacedData.length < 6)) {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             errorCodeReason = "data returned too small";
             return null;
         }
         int macedDataLength = fullMacedData.length - 8;
-        log(methodName, "The fullMacedData is of length " + fullMacedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The macedData length is " + macedDataLength);
+        if (isLogEnabled()) log(methodName, "The fullMacedData is of length " + fullMacedData.length + " that includes 8 bytes for MAC");
+        if (isLogEnabled()) log(methodName, "The macedData length is " + macedDataLength);
         byte[] macedData = Arrays.copyOfRange(fullMacedData, 0, macedDataLength);
         byte[] responseMACTruncatedReceived = Arrays.copyOfRange(fullMacedData, macedDataLength, fullMacedData.length);
-        log(methodName, printData("macedData", macedData));
+        log(methodName, "macedData", macedData);
         byte[] readData = Arrays.copyOfRange(macedData, 0, macedDataLength);
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
         if (verifyResponseMac(responseMACTruncatedReceived, macedData)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
         }
     }
 
+    /**
+     * get the version of an application key of the selected application. If a preceding authentication was
+     * done the command is sent in MACed communication
+     *
+     * @param keyNumber | in range 0..13
+     * @return the key version (0..255) or -1 on failure
+     */
+
+    public int getKeyVersion(byte keyNumber) {
+        final String methodName = "getKeyVersion";
+        log(methodName, "started", true);
+        if (isLogEnabled()) log(methodName, "keyNumber: " + keyNumber);
+        errorCode = new byte[2];
+        // sanity checks
+        if (!checkKeyNumber(keyNumber)) return -1;
+        if (!checkIsoDep()) return -1;
+
+        boolean isMaced = isAuthenticatedEv2();
+        byte[] getKeyVersionCommand;
+        if (isMaced) {
+            // MAC_Input (Ins || CmdCounter || TI || CmdHeader (= keyNumber) )
+            byte[] macTruncated = truncateMAC(calculateSessionMac(GET_KEY_VERSION_COMMAND, new byte[]{keyNumber}));
+            log(methodName, "macTruncated", macTruncated);
+            getKeyVersionCommand = new byte[1 + macTruncated.length];
+            getKeyVersionCommand[0] = keyNumber;
+            System.arraycopy(macTruncated, 0, getKeyVersionCommand, 1, macTruncated.length);
+        } else {
+            getKeyVersionCommand = new byte[]{keyNumber};
+        }
+        byte[] response = sendRequest(GET_KEY_VERSION_COMMAND, getKeyVersionCommand);
+        System.arraycopy(returnStatusBytes(response), 0, errorCode, 0, 2);
+        if (!checkResponse(response)) {
+            if (isLogEnabled()) log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            errorCodeReason = "checkResponse data failure";
+            return -1;
+        }
+        byte[] responseData = getData(response);
+        if (isMaced) {
+            // note: after sending data to the card the commandCounter is increased by 1
+            CmdCounter++;
+            if ((responseData.length != 9) || (!verifyResponseMac(Arrays.copyOfRange(responseData, 1, 9), Arrays.copyOfRange(responseData, 0, 1)))) {
+                if (isLogEnabled()) log(methodName, methodName + " FAILURE on the response MAC");
+                errorCode = RESPONSE_FAILURE.clone();
+                errorCodeReason = methodName + " FAILURE on the response MAC";
+                return -1;
+            }
+        } else if (responseData.length != 1) {
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = methodName + " FAILURE, unexpected response length";
+            return -1;
+        }
+        if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
+        errorCode = RESPONSE_OK.clone();
+        errorCodeReason = methodName + " SUCCESS";
+        return responseData[0] & 0xff;
+    }
+
     /*
     Mifare DESFire Light MF2DLHX0.pdf pages 117 ff:
     The asymmetric originality signature is based on ECC and only requires a public key for the verification, which is done
@@ -10483,9 +10836,9 @@ fileSize: 128
 
         // Mifare DESFire Light MF2DLHX0.pdf pages 117 ff
         // returns 2 bytes: key settings || max number of keys
-        logData = "";
+        clearLog();
         final String methodName = "readSignature";
-        log(methodName, methodName + " started");
+        if (isLogEnabled()) log(methodName, methodName + " started");
 
         // sanity checks
         if (!checkIsoDep()) return null;
@@ -10500,7 +10853,7 @@ fileSize: 128
             apdu = wrapMessage(READ_SIGNATURE_COMMAND, new byte[]{(byte) 0x00});
             response = sendData(apdu);
         } catch (IOException e) {
-            log(methodName, "IOException: " + e.getMessage());
+            if (isLogEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return null;
@@ -10521,9 +10874,9 @@ fileSize: 128
     }
 
     public byte[] readSignatureFull() {
-        logData = "";
+        clearLog();
         final String methodName = "readSignatureFull";
-        log(methodName, methodName + " started");
+        if (isLogEnabled()) log(methodName, methodName + " started");
 
         if (!checkAuthentication()) return null;
         if (!checkIsoDep()) return null;
@@ -10531,27 +10884,24 @@ fileSize: 128
         // encrypting the command data
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] ivInput = getIvInput();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader ( = File number) )
         byte TargetingNXPOriginalitySignature = (byte) 0x00;
-        byte[] macInput = getMacInput(READ_SIGNATURE_COMMAND, new byte[]{TargetingNXPOriginalitySignature});
-        log(methodName, printData("macInput", macInput));
-
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(READ_SIGNATURE_COMMAND, new byte[]{TargetingNXPOriginalitySignature});
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = File number || MAC)
         ByteArrayOutputStream baosCommand = new ByteArrayOutputStream();
         baosCommand.write(TargetingNXPOriginalitySignature);
         baosCommand.write(macTruncated, 0, macTruncated.length);
         byte[] command = baosCommand.toByteArray();
-        log(methodName, printData("command", command));
+        log(methodName, "command", command);
 
         byte[] response;
         byte[] apdu;
@@ -10561,7 +10911,7 @@ fileSize: 128
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return null;
@@ -10570,59 +10920,47 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         byte responseCode = (byte) 0x00;
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
         } else {
             // check for 0x9190
             if (checkResponseUnauthenticated(response)) {
                 log(methodName, "we received the status code 0x9190 meaning that the command is run unnecessary in Full mode, proceed");
                 responseCode = (byte) 0x90;
             } else {
-                Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-                Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+                if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+                if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
                 return null;
             }
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // the fullEncryptedData is 72 bytes long, the first 56 bytes are encryptedData || padding 8 bytes || the last 8 bytes are the responseMAC
         byte[] fullEncryptedData = getData(response);
         int encryptedDataLength = fullEncryptedData.length - 8;
-        log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
+        if (isLogEnabled()) log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
+        if (isLogEnabled()) log(methodName, "The encryptedData length is " + encryptedDataLength);
         byte[] encryptedDataD = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
         responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedDataD", encryptedDataD));
+        log(methodName, "encryptedDataD", encryptedDataD);
 
-        // start decrypting the data
-        byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        byte[] padding = hexStringToByteArray("0000000000000000");
-        byte[] startingIvD = new byte[16];
-        ByteArrayOutputStream decryptBaos = new ByteArrayOutputStream();
-        decryptBaos.write(IV_LABEL_DEC, 0, IV_LABEL_DEC.length); // fixed to 0x5AA5
-        decryptBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
-        decryptBaos.write(padding, 0, padding.length);
-        byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIvD, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedDataD);
-        log(methodName, printData("decryptedData", decryptedData));
+        // start decrypting the data in one CBC pass
+        byte[] decryptedData = decryptResponseData(encryptedDataD);
+        log(methodName, "decryptedData", decryptedData);
         final int SignatureLength = 56;
         byte[] readData = Arrays.copyOfRange(decryptedData, 0, SignatureLength);
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
         // we need to use the responseCode option/parameter as if "unnecessary authentication" response
         // from PICC (0x9190) the verification of the response MAC fails on regular method
         if (verifyResponseMac(responseMACTruncatedReceived, encryptedDataD, responseCode)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
@@ -10694,24 +11032,59 @@ fileSize: 128
             return returnData;
         } catch (IOException e) {
             Log.e(TAG, "transceive failed, IOException:\n" + e.getMessage());
-            log("sendRequest", "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log("sendRequest", "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return RESPONSE_FAILURE.clone();
         }
     }
 
+    /**
+     * works like sendRequest but keeps the frames apart, for responses that code one record per frame (e.g.
+     * GetDFNames). The status bytes are not part of the frames.
+     *
+     * @return the data of each frame or null on failure, errorCode and errorCodeReason are set
+     */
+    private List<byte[]> sendRequestFrames(byte command) {
+        List<byte[]> frames = new ArrayList<>();
+        try {
+            byte[] recvBuffer = sendData(wrapMessage(command, null));
+            while (true) {
+                if ((recvBuffer == null) || (recvBuffer.length < 2) || (recvBuffer[recvBuffer.length - 2] != (byte) 0x91)) {
+                    errorCode = RESPONSE_FAILURE.clone();
+                    if (recvBuffer != null) errorCodeReason = "invalid response";
+                    return null;
+                }
+                byte status = recvBuffer[recvBuffer.length - 1];
+                if ((status != (byte) 0x00) && (status != (byte) 0xAF)) {
+                    errorCode = returnStatusBytes(recvBuffer);
+                    errorCodeReason = "FAILURE with status code: " + Integer.toHexString(status & 0xFF);
+                    return null;
+                }
+                frames.add(Arrays.copyOf(recvBuffer, recvBuffer.length - 2));
+                if (status == (byte) 0x00) return frames;
+                recvBuffer = sendData(wrapMessage(MORE_DATA_COMMAND, null));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "transceive failed, IOException:\n" + e.getMessage());
+            if (isLogEnabled()) log("sendRequestFrames", "transceive failed: " + e.getMessage(), false);
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "IOException: transceive failed: " + e.getMessage();
+            return null;
+        }
+    }
+
     private byte[] sendData(byte[] apdu) {
         String methodName = "sendData";
-        if (isoDep == null) {
+        if (transport == null) {
             Log.e(TAG, methodName + " isoDep is NULL");
             log(methodName, "isoDep is NULL, aborted");
             return null;
         }
-        log(methodName, printData("send apdu -->", apdu));
+        log(methodName, "send apdu -->", apdu);
         byte[] recvBuffer;
         try {
-            recvBuffer = isoDep.transceive(apdu);
+            recvBuffer = transport.transceive(apdu);
         } catch (TagLostException e) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "TagLostException: " + e.getMessage();
@@ -10725,10 +11098,53 @@ fileSize: 128
             e.printStackTrace();
             return null;
         }
-        log(methodName, printData("received  <--", recvBuffer));
+        log(methodName, "received  <--", recvBuffer);
         return recvBuffer;
     }
 
+    /**
+     * sends the apdu and collects all response frames: as long as the PICC responds with 0x91AF the next
+     * frame is requested with an ADDITIONAL_FRAME command. The data of all frames is concatenated and the
+     * status bytes of the last frame are appended. Returns null if a transceive fails (see sendData).
+     */
+    private byte[] sendDataChained(byte[] apdu) throws IOException {
+        byte[] response = sendData(apdu);
+        if (!isAdditionalFrameResponse(response)) return response;
+        ByteArrayOutputStream baosResponse = new ByteArrayOutputStream();
+        while (isAdditionalFrameResponse(response)) {
+            baosResponse.write(response, 0, response.length - 2);
+            response = sendData(wrapMessage(MORE_DATA_COMMAND, null));
+            if ((response == null) || (response.length < 2)) return null;
+        }
+        baosResponse.write(response, 0, response.length);
+        return baosResponse.toByteArray();
+    }
+
+    /**
+     * sends a command whose data may be longer than one frame: the first frame carries the command code, the
+     * following frames are sent with ADDITIONAL_FRAME commands as long as the PICC responds with 0x91AF.
+     * Returns the response to the last frame, the first response that is not 0x91AF (an error) or null if a
+     * transceive fails (see sendData).
+     */
+    private byte[] sendCommandChained(byte command, byte[] commandData) throws IOException {
+        int maximumFrameDataLength = getMaximumCommandDataLength();
+        int frameDataLength = Math.min(commandData.length, maximumFrameDataLength);
+        byte[] response = sendData(wrapMessage(command, Arrays.copyOf(commandData, frameDataLength)));
+        int position = frameDataLength;
+        while (position < commandData.length) {
+            if (!isAdditionalFrameResponse(response)) return response;
+            frameDataLength = Math.min(commandData.length - position, maximumFrameDataLength);
+            response = sendData(wrapMessage(MORE_DATA_COMMAND, Arrays.copyOfRange(commandData, position, position + frameDataLength)));
+            position += frameDataLength;
+        }
+        return response;
+    }
+
+    private boolean isAdditionalFrameResponse(byte[] response) {
+        return (response != null) && (response.length >= 2)
+                && (response[response.length - 2] == (byte) 0x91) && (response[response.length - 1] == (byte) 0xAF);
+    }
+
     private byte[] wrapMessage(byte command, byte[] parameters) throws IOException {
         ByteArrayOutputStream stream = new ByteArrayOutputStream();
         stream.write((byte) 0x90);
@@ -10744,6 +11160,8 @@ fileSize: 128
     }
 
     private byte[] returnStatusBytes(byte[] data) {
+        // sendData returns null when the transceive failed, e.g. on a TagLostException
+        if ((data == null) || (data.length < 2)) return RESPONSE_FAILURE.clone();
         return Arrays.copyOfRange(data, (data.length - 2), data.length);
     }
 
@@ -10755,14 +11173,14 @@ fileSize: 128
      * byte array if this APDU has no body.
      */
     private byte[] getData(byte[] responseAPDU) {
-        log("getData", printData("responseAPDU", responseAPDU), true);
+        log("getData", "responseAPDU", responseAPDU, true);
         if ((responseAPDU == null) || (responseAPDU.length < 2)) {
             Log.e(TAG, "responseApdu is NULL or length is < 2, aborted");
             return null;
         }
         byte[] data = new byte[responseAPDU.length - 2];
         System.arraycopy(responseAPDU, 0, data, 0, data.length);
-        log("getData", printData("responseData", data));
+        log("getData", "responseData", data);
         return data;
     }
 
@@ -10906,12 +11324,12 @@ fileSize: 128
             fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
             int fileSize = fileSettings.getFileSizeInt(); // if the file is not existing we get an NPE
         } catch (NullPointerException e) {
-            Log.d(TAG, "fileNumber " + fileNumber + " is not existing");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "fileNumber " + fileNumber + " is not existing");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "fileNumber " + fileNumber + " is not existing";
             return false;
         }
-        Log.d(TAG, "fileNumber " + fileNumber + " is existing");
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, "fileNumber " + fileNumber + " is existing");
         return true;
     }
 
@@ -10920,7 +11338,7 @@ fileSize: 128
         if (fileSettings.getFileType() == FileSettings.STANDARD_FILE_TYPE) {
             return true;
         } else {
-            Log.d(TAG, "fileType is not a Standard file type");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "fileType is not a Standard file type");
             return false;
         }
     }
@@ -10930,7 +11348,7 @@ fileSize: 128
         if (fileSettings.getFileType() == FileSettings.BACKUP_FILE_TYPE) {
             return true;
         } else {
-            Log.d(TAG, "fileType is not a Backup file type");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "fileType is not a Backup file type");
             return false;
         }
     }
@@ -10940,7 +11358,7 @@ fileSize: 128
         if (fileSettings.getFileType() == FileSettings.VALUE_FILE_TYPE) {
             return true;
         } else {
-            Log.d(TAG, "fileType is not a Value file type");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "fileType is not a Value file type");
             return false;
         }
     }
@@ -10950,7 +11368,7 @@ fileSize: 128
         if (fileSettings.getFileType() == FileSettings.LINEAR_RECORD_FILE_TYPE) {
             return true;
         } else {
-            Log.d(TAG, "fileType is not a Linear Record file type");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "fileType is not a Linear Record file type");
             return false;
         }
     }
@@ -10960,7 +11378,7 @@ fileSize: 128
         if (fileSettings.getFileType() == FileSettings.CYCLIC_RECORD_FILE_TYPE) {
             return true;
         } else {
-            Log.d(TAG, "fileType is not a Cyclic Record file type");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "fileType is not a Cyclic Record file type");
             return false;
         }
     }
@@ -10970,7 +11388,7 @@ fileSize: 128
         if (fileSettings.getFileType() == FileSettings.TRANSACTION_MAC_FILE_TYPE) {
             return true;
         } else {
-            Log.d(TAG, "fileType is not a Transaction MAC file type");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, "fileType is not a Transaction MAC file type");
             return false;
         }
     }
@@ -11067,10 +11485,10 @@ fileSize: 128
         }
         if ((fileSettings.getFileType() == FileSettings.STANDARD_FILE_TYPE) ||
                 (fileSettings.getFileType() == FileSettings.BACKUP_FILE_TYPE)) {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
+            if (isLogEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
             return true;
         } else {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
+            if (isLogEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "fileType is not a Standard or Backup file";
             return false;
@@ -11090,10 +11508,10 @@ fileSize: 128
             return false;
         }
         if (fileSettings.getFileType() == FileSettings.VALUE_FILE_TYPE) {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
+            if (isLogEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
             return true;
         } else {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
+            if (isLogEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "fileType is not a Value file";
             return false;
@@ -11114,10 +11532,10 @@ fileSize: 128
         }
         if ((fileSettings.getFileType() == FileSettings.LINEAR_RECORD_FILE_TYPE) ||
                 (fileSettings.getFileType() == FileSettings.CYCLIC_RECORD_FILE_TYPE)) {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
+            if (isLogEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
             return true;
         } else {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
+            if (isLogEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "fileType is not a Linear or Cyclic Record file";
             return false;
@@ -11130,7 +11548,7 @@ fileSize: 128
         FileSettings fileSettings;
         try {
             fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
-            log(methodName, "fileNumber is a " + fileSettings.getFileTypeName());
+            if (isLogEnabled()) log(methodName, "fileNumber is a " + fileSettings.getFileTypeName());
             if (fileSettings.getFileType() == FileSettings.TRANSACTION_MAC_FILE_TYPE) {
                 log(methodName, "Transaction MAC file detected");
                 return true;
@@ -11146,6 +11564,14 @@ fileSize: 128
         }
     }
 
+    /**
+     * @return true after a successful authenticateAesEv2First or authenticateAesEv2NonFirst, different to
+     * checkAuthentication this does not log a failure nor change the errorCode (use it for branching)
+     */
+    private boolean isAuthenticatedEv2() {
+        return authenticateEv2FirstSuccess || authenticateEv2NonFirstSuccess;
+    }
+
     private boolean checkAuthentication() {
         if ((!authenticateEv2FirstSuccess) & (!authenticateEv2NonFirstSuccess)) {
             log("checkAuthentication", "missing authentication with authenticateEV2First or authenticateEV2NonFirst, aborted");
@@ -11158,7 +11584,7 @@ fileSize: 128
     }
 
     private boolean checkIsoDep() {
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if ((transport == null) || (!transport.isConnected())) {
             log("checkIsoDep", "lost connection to the card, aborted");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "lost connection to the card";
@@ -11221,8 +11647,8 @@ fileSize: 128
         System.arraycopy(PADDING_FULL, 0, fullPaddedData, unpaddedDataLength, paddingBytesLength);
         // this is maybe too long, trunc to multiple of 16 bytes
         int mult16 = fullPaddedData.length / 16;
-        Log.d(TAG, "fullPaddedData.length: " + fullPaddedData.length);
-        Log.d(TAG, "mult16               : " + mult16);
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, "fullPaddedData.length: " + fullPaddedData.length);
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, "mult16               : " + mult16);
         return Arrays.copyOfRange(fullPaddedData, 0, (mult16 * 16));
     }
 
@@ -11280,6 +11706,7 @@ fileSize: 128
         keyNumberUsedForAuthentication = -1;
         SesAuthENCKey = null; // filled by authenticateAesEv2First
         SesAuthMACKey = null; // filled by authenticateAesEv2First
+        sessionCrypto = null;
         CmdCounter = 0; // filled / resetted by authenticateAesEv2First
         TransactionIdentifier = null; // resetted by authenticateAesEv2First
     }
@@ -11290,6 +11717,7 @@ fileSize: 128
         keyNumberUsedForAuthentication = -1;
         SesAuthENCKey = null; // filled by authenticateAesEv2First
         SesAuthMACKey = null; // filled by authenticateAesEv2First
+        sessionCrypto = null;
         //CmdCounter = 0; // filled / resetted by authenticateAesEv2First
         //TransactionIdentifier = null; // resetted by authenticateAesEv2First
     }
@@ -11304,16 +11732,57 @@ fileSize: 128
      * section for logging
      */
 
+    /**
+     * the trace is recorded on DesfireLog level DEBUG only (the default level is INFO). Call sites that build
+     * their message (concatenation, printData) are guarded with 'if (isLogEnabled()) log(...)', so a disabled
+     * trace builds no strings at all.
+     */
+    private boolean isLogEnabled() {
+        return TRACE_ENABLED && printToLog && DesfireLog.isDebugEnabled();
+    }
+
+    /**
+     * starts the trace of a new command, with a disabled trace the events of the last traced command are kept
+     */
+    private void clearLog() {
+        if (isLogEnabled()) trace.clear();
+    }
+
     private void log(String methodName, String data) {
         log(methodName, data, false);
     }
 
     private void log(String methodName, String data, boolean isMethodHeader) {
-        if (printToLog) {
-            logData += "method: " + methodName + "\n" + data + "\n";
-            //logData += "\n" + methodName + ":\n" + data + "\n\n";
-            Log.d(TAG, "method: " + methodName + ": " + data);
-        }
+        if (!isLogEnabled()) return;
+        trace.record(methodName, data);
+        if (printToLogcat) Log.d(TAG, "method: " + methodName + ": " + data);
+    }
+
+    /**
+     * logs a labeled byte array, the trace keeps a copy of the data that gets formatted when the trace is read
+     * with getLogData (or when printToLogcat is set)
+     */
+    private void log(String methodName, String label, byte[] data) {
+        log(methodName, label, data, false);
+    }
+
+    private void log(String methodName, String label, byte[] data, boolean isMethodHeader) {
+        if (!isLogEnabled()) return;
+        trace.record(methodName, label, data);
+        if (printToLogcat) Log.d(TAG, "method: " + methodName + ": " + TraceRecorder.formatData(label, data));
+    }
+
+    /**
+     * logs key material or other secrets, in production mode (see DesfireLog) the data is never formatted
+     */
+    private void logSecret(String methodName, String label, byte[] data) {
+        logSecret(methodName, label, data, false);
+    }
+
+    private void logSecret(String methodName, String label, byte[] data, boolean isMethodHeader) {
+        if (!isLogEnabled()) return;
+        trace.recordSecret(methodName, label, data);
+        if (printToLogcat) Log.d(TAG, "method: " + methodName + ": " + DesfireLog.printSecret(label, data));
     }
 
     /**
@@ -11329,14 +11798,35 @@ fileSize: 128
         return errorCodeReason;
     }
 
+    /**
+     * returns the trace of the last command(s), the text is formatted on this call
+     */
     public String getLogData() {
-        return logData;
+        return trace.format();
     }
 
     public boolean isApplicationSelected() {
         return isApplicationSelected;
     }
 
+    /**
+     * @return the AID of the selected application or null
+     */
+    public byte[] getSelectedApplicationId() {
+        return (selectedApplicationId == null) ? null : selectedApplicationId.clone();
+    }
+
+    /**
+     * @return the tag id (UID) of the card or null
+     */
+    public byte[] getTagId() {
+        return (transport == null) ? null : transport.getTagId();
+    }
+
+    public FrameSize getFrameSize() {
+        return frameSize;
+    }
+
     public byte getKeyNumberUsedForAuthentication() {
         return keyNumberUsedForAuthentication;
     }
@@ -11361,14 +11851,45 @@ fileSize: 128
         return keyNumberUsedForLegacyAuthentication;
     }
 
-    public static byte[] getApplicationAllFileIds() {
+    public byte[] getApplicationAllFileIds() {
         return APPLICATION_ALL_FILE_IDS;
     }
 
-    public static FileSettings[] getApplicationAllFileSettings() {
+    public FileSettings[] getApplicationAllFileSettings() {
         return APPLICATION_ALL_FILE_SETTINGS;
     }
 
+    /**
+     * @return true if the card is (still) in the field, e.g. to distinguish a tag loss from a failed command
+     */
+    public boolean isConnected() {
+        return (transport != null) && transport.isConnected();
+    }
+
+    public FileSettingsCache getFileSettingsCache() {
+        return fileSettingsCache;
+    }
+
+    /**
+     * the activities create a new DesfireEv3 object on each tap, share one cache between these objects to skip
+     * the reading of the file settings on a repeated selection of the same application on the same card
+     */
+    public void setFileSettingsCache(FileSettingsCache fileSettingsCache) {
+        if (fileSettingsCache != null) this.fileSettingsCache = fileSettingsCache;
+    }
+
+    public int getFileSettingsVersionHint() {
+        return fileSettingsVersionHint;
+    }
+
+    /**
+     * the version hint is part of the cache key, raise the value when the file structure was changed by another
+     * reader or app, the following selectApplicationByAid reads the file settings from the card
+     */
+    public void setFileSettingsVersionHint(int fileSettingsVersionHint) {
+        this.fileSettingsVersionHint = fileSettingsVersionHint;
+    }
+
     public List<byte[]> getIsoFileIdsList() {
         return isoFileIdsList;
     }
@@ -11377,6 +11898,10 @@ fileSize: 128
         return isoDfNamesList;
     }
 
+    public List<ApplicationIsoData> getApplicationIsoData() {
+        return applicationIsoData;
+    }
+
     public boolean isTransactionMacFilePresent() {
         return isTransactionMacFilePresent;
     }
@@ -11418,7 +11943,7 @@ fileSize: 128
         String logData = "";
         final String methodName = "readFromAStandardFile";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
 
         // sanity checks
         if (!checkAuthentication()) return null; // logFile and errorCode are updated
@@ -11459,9 +11984,9 @@ fileSize: 128
         /*
         if ((fileSettings.getFileType() == FileSettings.STANDARD_FILE_TYPE) ||
                 (fileSettings.getFileType() == FileSettings.BACKUP_FILE_TYPE)) {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
+            if (isLogEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
         } else {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
+            if (isLogEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return null;
         }
@@ -11492,7 +12017,7 @@ fileSize: 128
         int numberOfRounds = dataLength / MAXIMUM_READ_MESSAGE_LENGTH;
         int numberOfRoundsMod = Utils.mod(dataLength, MAXIMUM_READ_MESSAGE_LENGTH);
         if (numberOfRoundsMod > 0) numberOfRounds++; // one extra round for the remainder
-        Log.d(TAG, "data length: " + dataLength + " numberOfRounds: " + numberOfRounds);
+        if (DesfireLog.isDebugEnabled()) Log.d(TAG, "data length: " + dataLength + " numberOfRounds: " + numberOfRounds);
         boolean completeSuccess = true;
         int offsetChunk = offset;
         int numberOfDataToRead = MAXIMUM_READ_MESSAGE_LENGTH; // we are starting with a maximum length
@@ -11519,7 +12044,7 @@ fileSize: 128
                 // copy the dataToReadChunk in the complete data array
                 System.arraycopy(dataToReadChunk, 0, dataToRead, (i * MAXIMUM_READ_MESSAGE_LENGTH), dataToReadChunk.length);
             }
-            log(methodName, Utils.printData("dataToRead", dataToRead));
+            if (isLogEnabled()) log(methodName, Utils.printData("dataToRead", dataToRead));
         }
         errorCode = RESPONSE_OK.clone();
         log(methodName, "SUCCESS");
@@ -11557,7 +12082,7 @@ fileSize: 128
         String logData = "";
         final String methodName = "readFromStandardFileRawPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null; // logFile and errorCode are updated
         if (!checkOffsetMinus(offset)) return null;
@@ -11609,8 +12134,8 @@ fileSize: 128
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (!checkResponse(response)) {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return null;
         }
         errorCode = RESPONSE_OK.clone();
@@ -11640,7 +12165,7 @@ fileSize: 128
         String logData = "";
         final String methodName = "readFromStandardFileRawFull";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
         // sanity checks
         if (!checkAuthentication()) return null; // logFile and errorCode are updated
         if (!checkOffsetMinus(offset)) return null;
@@ -11687,9 +12212,9 @@ fileSize: 128
         /*
         if ((fileSettings.getFileType() == FileSettings.STANDARD_FILE_TYPE) ||
                 (fileSettings.getFileType() == FileSettings.BACKUP_FILE_TYPE)) {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
+            if (isLogEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
         } else {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
+            if (isLogEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return null;
         }
@@ -11704,34 +12229,27 @@ fileSize: 128
         baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
         baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(READ_STANDARD_FILE_SECURE_COMMAND); // 0xAD
-        baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(cmdHeader, 0, cmdHeader.length);
-        byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        if (isLogEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(READ_STANDARD_FILE_SECURE_COMMAND, cmdHeader);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full ReadData Command APDU
         ByteArrayOutputStream baosReadDataCommand = new ByteArrayOutputStream();
         baosReadDataCommand.write(cmdHeader, 0, cmdHeader.length);
         baosReadDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] readDataCommand = baosReadDataCommand.toByteArray();
-        log(methodName, printData("readDataCommand", readDataCommand));
+        log(methodName, "readDataCommand", readDataCommand);
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] fullEncryptedData;
@@ -11742,7 +12260,7 @@ fileSize: 128
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return null;
@@ -11751,52 +12269,40 @@ fileSize: 128
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
             fullEncryptedData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return null;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         // response length: 58 data: 8b61541d54f73901c8498c71dd45bae80578c4b1581aad439a806f37517c86ad4df8970279bbb8874ef279149aaa264c3e5eceb0e37a87699100
 
         // the fullEncryptedData is 56 bytes long, the first 48 bytes are encryptedData and the last 8 bytes are the responseMAC
         int encryptedDataLength = fullEncryptedData.length - 8;
-        log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
+        if (isLogEnabled()) log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
+        if (isLogEnabled()) log(methodName, "The encryptedData length is " + encryptedDataLength);
         encryptedData = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
         responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
-        // start decrypting the data
-        byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        byte[] padding = hexStringToByteArray("0000000000000000");
-        byte[] startingIv = new byte[16];
-        ByteArrayOutputStream decryptBaos = new ByteArrayOutputStream();
-        decryptBaos.write(IV_LABEL_DEC, 0, IV_LABEL_DEC.length); // fixed to 0x5AA5
-        decryptBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
-        decryptBaos.write(padding, 0, padding.length);
-        byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData));
+        // start decrypting the data in one CBC pass
+        byte[] decryptedData = decryptResponseData(encryptedData);
+        log(methodName, "decryptedData", decryptedData);
         byte[] readData = Arrays.copyOfRange(decryptedData, 0, length);
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
 
 
         if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
@@ -11810,7 +12316,7 @@ fileSize: 128
         //int offsetA = 0;
         final String methodName = "writeToStandardFileRawFull EV2";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + Utils.printData(" data", dataToWrite) + " offset: " + offsetInt);
+        if (isLogEnabled()) log(methodName, "fileNumber: " + fileNumber + Utils.printData(" data", dataToWrite) + " offset: " + offsetInt);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
         if ((dataToWrite == null) || (dataToWrite.length > 40)) {
@@ -11858,7 +12364,7 @@ fileSize: 128
         // Answer: I'm trimming the data to selectedFileSize
         byte[] dataToWriteCorrectLength;
         if (dataToWrite.length > selectedFileSize) {
-            log(methodName, "trimming dataToWrite to length of selected fileNumber: " + selectedFileSize);
+            if (isLogEnabled()) log(methodName, "trimming dataToWrite to length of selected fileNumber: " + selectedFileSize);
             dataToWriteCorrectLength = Arrays.copyOfRange(dataToWrite, 0, selectedFileSize);
         } else {
             dataToWriteCorrectLength = dataToWrite.clone();
@@ -11866,69 +12372,14 @@ fileSize: 128
 
         // next step is to pad the data according to padding rules in DESFire EV2/3 for AES Secure Messaging fullMode
         byte[] dataPadded = paddingWriteData(dataToWriteCorrectLength);
-        log(methodName, printData("data unpad", dataToWriteCorrectLength));
-        log(methodName, printData("data pad  ", dataPadded));
-
-        int numberOfDataBlocks = dataPadded.length / 16;
-        log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
-        List<byte[]> dataBlockList = Utils.divideArrayToList(dataPadded, 16);
-
-        // Encrypting the Command Data
-        // IV_Input (IV_Label || TI || CmdCounter || Padding)
-        // MAC_Input
-        byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        byte[] header = new byte[]{(byte) (0xA5), (byte) (0x5A)}; // fixed to 0xA55A
-        byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
-        ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
-        //baosIvInput.write(header, 0, header.length);
-        baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
-        baosIvInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosIvInput.write(padding1, 0, padding1.length);
-        byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
-
-        // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
-        byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
-
-        List<byte[]> dataBlockEncryptedList = new ArrayList<>();
-        byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
-
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
-            dataBlockEncryptedList.add(dataBlockEncrypted);
-            ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
-        }
+        log(methodName, "data unpad", dataToWriteCorrectLength);
+        log(methodName, "data pad  ", dataPadded);
 
-        //byte[] dataBlock2Encrypted = AES.encrypt(startingIv, SesAuthENCKey, dataBlock2); // todo is this correct ? or startingIv ?
-//        log(methodName, printData("startingIv", startingIv));
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
-        }
-        //log(methodName, printData("dataBlock1Encrypted", dataBlock1Encrypted));
-        //log(methodName, printData("dataBlock2Encrypted", dataBlock2Encrypted));
-
-        // Encrypted Data (complete), concatenate all byte arrays
-
-        ByteArrayOutputStream baosDataEncrypted = new ByteArrayOutputStream();
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            try {
-                baosDataEncrypted.write(dataBlockEncryptedList.get(i));
-            } catch (IOException e) {
-                Log.e(TAG, "IOException on concatenating encrypted dataBlocks, aborted\n" +
-                        e.getMessage());
-                errorCode = RESPONSE_FAILURE.clone();
-                errorCodeReason = "IOException: transceive failed: " + e.getMessage();
-                return false;
-            }
-        }
-        byte[] encryptedData = baosDataEncrypted.toByteArray();
-        log(methodName, printData("encryptedData", encryptedData));
+        // Encrypting the Command Data in one CBC pass
+        // IV_Input (IV_Label || TI || CmdCounter || Padding), IV for CmdData = Enc(KSesAuthENC, IV_Input)
+        logSecret(methodName, "SesAuthENCKey", SesAuthENCKey);
+        byte[] encryptedData = encryptCommandData(dataPadded);
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // CmdHeader (FileNo || Offset || DataLength)
@@ -11937,31 +12388,23 @@ fileSize: 128
         //byte[] offset = Utils.intTo3ByteArrayInversed(offsetBytes); // LSB order
         byte[] offset = Utils.intTo3ByteArrayInversed(offsetInt); // LSB order
         byte[] length = Utils.intTo3ByteArrayInversed(fileSize); // LSB order
-        log(methodName, printData("length", length));
+        log(methodName, "length", length);
         ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
         baosCmdHeader.write(fileNumber);
         baosCmdHeader.write(offset, 0, 3);
         baosCmdHeader.write(length, 0, 3);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(WRITE_STANDARD_FILE_SECURE_COMMAND); // 0x8D
-        baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosMacInput.write(cmdHeader, 0, cmdHeader.length);
-        baosMacInput.write(encryptedData, 0, encryptedData.length);
-        byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        logSecret(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateSessionMac(WRITE_STANDARD_FILE_SECURE_COMMAND, cmdHeader, encryptedData);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLenght || Data) is NOT correct, as well not the Data Message
@@ -11973,20 +12416,20 @@ fileSize: 128
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(WRITE_STANDARD_FILE_SECURE_COMMAND, writeDataCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transport.transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isLogEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -11994,25 +12437,25 @@ fileSize: 128
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            if (DesfireLog.isDebugEnabled()) Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isLogEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isLogEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isLogEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
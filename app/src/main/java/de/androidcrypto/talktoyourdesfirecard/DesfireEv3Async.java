@@ -0,0 +1,128 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An asynchronous facade for DesfireEv3. All commands run on one dedicated thread per card, so they are sent
+ * in the order they were submitted and the calling thread (e.g. the UI thread in onTagDiscovered) never waits
+ * for the card. Each method returns a CompletableFuture with a DesfireResult that holds the value and the
+ * errorCode / errorCodeReason of the command.
+ * <p>
+ * A pipeline continues only on success, e.g.:
+ * async.selectApplicationByAid(aid)
+ * .thenCompose(r -> r.isSuccess() ? async.authenticateAesEv2First(keyNumber, key) : CompletableFuture.completedFuture(r))
+ * .thenCompose(r -> r.isSuccess() ? async.readFromADataFile(fileNumber, 0, 32) : CompletableFuture.completedFuture(r.asFailure()))
+ * .thenAccept(r -> runOnUiThread(() -> show(r)));
+ * <p>
+ * Note: CompletableFuture is available on Android 7 (API 24) and later. Don't call methods of the wrapped
+ * DesfireEv3 object directly while commands are pending.
+ */
+
+@RequiresApi(api = Build.VERSION_CODES.N)
+public class DesfireEv3Async implements Closeable {
+
+    private static final byte[] RESPONSE_OK = new byte[]{(byte) 0x91, (byte) 0x00};
+
+    private final DesfireEv3 desfireEv3;
+    private final ExecutorService executor;
+
+    public DesfireEv3Async(DesfireEv3 desfireEv3) {
+        this.desfireEv3 = desfireEv3;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DesfireEv3Async");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * runs any work on the DesfireEv3 object in the order of the commands. The result is a failure when the
+     * task returns null or Boolean.FALSE, an exception of the task completes the future exceptionally.
+     */
+    public <T> CompletableFuture<DesfireResult<T>> submit(DesfireTask<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            T value;
+            try {
+                value = task.run(desfireEv3);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+            if ((value == null) || Boolean.FALSE.equals(value)) {
+                return DesfireResult.failure(desfireEv3.getErrorCode(), desfireEv3.getErrorCodeReason());
+            }
+            return DesfireResult.success(value, desfireEv3.getErrorCode(), desfireEv3.getErrorCodeReason());
+        }, executor);
+    }
+
+    public CompletableFuture<DesfireResult<Boolean>> selectApplicationByAid(byte[] applicationIdentifier) {
+        return submit(desfire -> desfire.selectApplicationByAid(applicationIdentifier));
+    }
+
+    public CompletableFuture<DesfireResult<Boolean>> authenticateAesEv2First(byte keyNumber, byte[] key) {
+        return submit(desfire -> desfire.authenticateAesEv2First(keyNumber, key));
+    }
+
+    public CompletableFuture<DesfireResult<Boolean>> authenticateAesEv2NonFirst(byte keyNumber, byte[] key) {
+        return submit(desfire -> desfire.authenticateAesEv2NonFirst(keyNumber, key));
+    }
+
+    public CompletableFuture<DesfireResult<byte[]>> readFromADataFile(byte fileNumber, int offset, int length) {
+        return submit(desfire -> desfire.readFromADataFile(fileNumber, offset, length));
+    }
+
+    public CompletableFuture<DesfireResult<Boolean>> writeToADataFile(byte fileNumber, int offset, byte[] data) {
+        return submit(desfire -> desfire.writeToADataFile(fileNumber, offset, data));
+    }
+
+    /**
+     * readFromAValueFile returns -1 on failure, but -1 is a valid value as well, so the errorCode decides
+     */
+    public CompletableFuture<DesfireResult<Integer>> readFromAValueFile(byte fileNumber) {
+        return submit(desfire -> {
+            int value = desfire.readFromAValueFile(fileNumber);
+            if ((value == -1) && (!Arrays.equals(RESPONSE_OK, desfire.getErrorCode()))) return null;
+            return value;
+        });
+    }
+
+    public CompletableFuture<DesfireResult<Boolean>> changeAValueFile(byte fileNumber, int changeValue, boolean isCredit) {
+        return submit(desfire -> desfire.changeAValueFile(fileNumber, changeValue, isCredit));
+    }
+
+    public CompletableFuture<DesfireResult<byte[]>> readFromARecordFile(byte fileNumber, int offsetRecord, int numberOfRecordsToRead) {
+        return submit(desfire -> desfire.readFromARecordFile(fileNumber, offsetRecord, numberOfRecordsToRead));
+    }
+
+    public CompletableFuture<DesfireResult<Boolean>> writeToARecordFile(byte fileNumber, int offset, byte[] data) {
+        return submit(desfire -> desfire.writeToARecordFile(fileNumber, offset, data));
+    }
+
+    public CompletableFuture<DesfireResult<Boolean>> commitTransactionFull(boolean isEnabledReturnTmcv) {
+        return submit(desfire -> desfire.commitTransactionFull(isEnabledReturnTmcv));
+    }
+
+    public CompletableFuture<DesfireResult<Boolean>> abortATransaction() {
+        return submit(DesfireEv3::abortATransaction);
+    }
+
+    public DesfireEv3 getDesfireEv3() {
+        return desfireEv3;
+    }
+
+    /**
+     * the commands already submitted are completed, new commands are rejected
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,134 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This class reads the content of a Standard or Backup file as an InputStream. The data is read chunk by
+ * chunk with DesfireEv3.readFromADataFile, the chunk length is the maximum read length of the communication
+ * mode of the file (40 bytes or the value from negotiateFrameSize). Only one chunk is held in memory, so the
+ * memory usage does not depend on the file size.
+ * <p>
+ * The file settings need to be available (see DesfireEv3.getAllFileSettings) and, depending on the access
+ * rights and the communication mode, the authentication needs to be done before the stream is read.
+ * A failure of the read command is thrown as IOException with the errorCode and errorCodeReason of DesfireEv3.
+ * <p>
+ * The class is not thread safe, don't run other commands on the DesfireEv3 object while the stream is open.
+ */
+
+public class DesfireFileInputStream extends InputStream {
+
+    private final DesfireEv3 desfireEv3;
+    private final byte fileNumber;
+    private final int endPosition; // offset + length
+    private int position; // the position in the file of the next chunk to read
+    private final byte[] buffer;
+    private int bufferPosition = 0;
+    private int bufferLength = 0;
+    private boolean closed = false;
+
+    /**
+     * streams the complete content of the file
+     *
+     * @param desfireEv3 with a selected application and available file settings
+     * @param fileNumber | in range 0..31 AND file is a Standard or Backup file
+     * @throws IOException if the file settings are not available or the file is not a Data file
+     */
+    public DesfireFileInputStream(DesfireEv3 desfireEv3, byte fileNumber) throws IOException {
+        this(desfireEv3, fileNumber, 0, -1);
+    }
+
+    /**
+     * streams a part of the file content
+     *
+     * @param desfireEv3 with a selected application and available file settings
+     * @param fileNumber | in range 0..31 AND file is a Standard or Backup file
+     * @param offset     | position in the file to start reading
+     * @param length     | number of bytes to read, -1 reads until the end of the file
+     * @throws IOException if the file settings are not available, the file is not a Data file or
+     *                     offset and length are not within the file size
+     */
+    public DesfireFileInputStream(DesfireEv3 desfireEv3, byte fileNumber, int offset, int length) throws IOException {
+        this.desfireEv3 = desfireEv3;
+        this.fileNumber = fileNumber;
+        FileSettings fileSettings = DesfireFileOutputStream.getDataFileSettings(desfireEv3, fileNumber);
+        int fileSize = fileSettings.getFileSizeInt();
+        if (length == -1) length = fileSize - offset;
+        if ((offset < 0) || (length < 0) || (offset + length > fileSize)) {
+            throw new IOException("offset " + offset + " and length " + length + " are not within the file size " + fileSize);
+        }
+        this.position = offset;
+        this.endPosition = offset + length;
+        this.buffer = new byte[desfireEv3.getMaximumReadLength(fileSettings.getCommunicationSettings())];
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillBuffer()) return -1;
+        return buffer[bufferPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if ((off < 0) || (len < 0) || (len > b.length - off)) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) return 0;
+        int numberOfBytesRead = 0;
+        while (numberOfBytesRead < len) {
+            if (!fillBuffer()) break;
+            int numberOfBytesToCopy = Math.min(len - numberOfBytesRead, bufferLength - bufferPosition);
+            System.arraycopy(buffer, bufferPosition, b, off + numberOfBytesRead, numberOfBytesToCopy);
+            bufferPosition += numberOfBytesToCopy;
+            numberOfBytesRead += numberOfBytesToCopy;
+        }
+        return (numberOfBytesRead == 0) ? -1 : numberOfBytesRead;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (closed) throw new IOException("stream is closed");
+        if (n <= 0) return 0;
+        long skipped = Math.min(n, bufferLength - bufferPosition);
+        bufferPosition += (int) skipped;
+        // the chunks after the buffered data are not read at all
+        long skippedInFile = Math.min(n - skipped, endPosition - position);
+        position += (int) skippedInFile;
+        return skipped + skippedInFile;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed) throw new IOException("stream is closed");
+        return bufferLength - bufferPosition;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        bufferPosition = 0;
+        bufferLength = 0;
+    }
+
+    /**
+     * reads the next chunk from the file if the buffer is empty
+     *
+     * @return false if the end of the stream is reached
+     */
+    private boolean fillBuffer() throws IOException {
+        if (closed) throw new IOException("stream is closed");
+        if (bufferPosition < bufferLength) return true;
+        if (position >= endPosition) return false;
+        int numberOfDataToRead = Math.min(buffer.length, endPosition - position);
+        byte[] chunk = desfireEv3.readFromADataFile(fileNumber, position, numberOfDataToRead);
+        if ((chunk == null) || (chunk.length != numberOfDataToRead)) {
+            throw new IOException("could not read file " + fileNumber + " at offset " + position + ", errorCode: " +
+                    Utils.bytesToHexNpeUpperCase(desfireEv3.getErrorCode()) + " reason: " + desfireEv3.getErrorCodeReason());
+        }
+        System.arraycopy(chunk, 0, buffer, 0, chunk.length);
+        bufferPosition = 0;
+        bufferLength = chunk.length;
+        position += chunk.length;
+        return true;
+    }
+}
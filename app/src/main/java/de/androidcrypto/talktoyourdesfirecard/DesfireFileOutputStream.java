@@ -0,0 +1,137 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class writes the content of a Standard or Backup file as an OutputStream. The data is collected in a
+ * buffer and written with DesfireEv3.writeToADataFile when the buffer is full, on flush() and on close().
+ * The buffer length is the maximum write length of the communication mode of the file (40 bytes or the value
+ * from negotiateFrameSize), with enabled write chaining (DesfireEv3.setWriteChaining) one command writes
+ * CHAINED_BUFFER_LENGTH bytes. The memory usage does not depend on the file size.
+ * <p>
+ * Writing beyond the end of the file throws an IOException, nothing is truncated. A failure of the write command
+ * is thrown as IOException with the errorCode and errorCodeReason of DesfireEv3.
+ * Note: on a Backup file the data needs to be committed with a CommitTransaction after closing the stream.
+ * <p>
+ * The class is not thread safe, don't run other commands on the DesfireEv3 object while the stream is open.
+ */
+
+public class DesfireFileOutputStream extends OutputStream {
+
+    public static final int CHAINED_BUFFER_LENGTH = 1024;
+
+    private final DesfireEv3 desfireEv3;
+    private final byte fileNumber;
+    private final int fileSize;
+    private int position; // the position in the file of the buffered data
+    private final byte[] buffer;
+    private int bufferLength = 0;
+    private boolean closed = false;
+
+    /**
+     * writes to the file beginning at offset 0
+     *
+     * @param desfireEv3 with a selected application and available file settings
+     * @param fileNumber | in range 0..31 AND file is a Standard or Backup file
+     * @throws IOException if the file settings are not available or the file is not a Data file
+     */
+    public DesfireFileOutputStream(DesfireEv3 desfireEv3, byte fileNumber) throws IOException {
+        this(desfireEv3, fileNumber, 0);
+    }
+
+    /**
+     * @param desfireEv3 with a selected application and available file settings
+     * @param fileNumber | in range 0..31 AND file is a Standard or Backup file
+     * @param offset     | position in the file to start writing
+     * @throws IOException if the file settings are not available, the file is not a Data file or the
+     *                     offset is not within the file size
+     */
+    public DesfireFileOutputStream(DesfireEv3 desfireEv3, byte fileNumber, int offset) throws IOException {
+        this.desfireEv3 = desfireEv3;
+        this.fileNumber = fileNumber;
+        FileSettings fileSettings = getDataFileSettings(desfireEv3, fileNumber);
+        this.fileSize = fileSettings.getFileSizeInt();
+        if ((offset < 0) || (offset > fileSize)) {
+            throw new IOException("offset " + offset + " is not within the file size " + fileSize);
+        }
+        this.position = offset;
+        int bufferLength = desfireEv3.getMaximumWriteLength(fileSettings.getCommunicationSettings());
+        if (desfireEv3.isWriteChaining()) bufferLength = Math.max(bufferLength, CHAINED_BUFFER_LENGTH);
+        this.buffer = new byte[Math.min(bufferLength, Math.max(1, fileSize - offset))];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkRemaining(1);
+        if (bufferLength == buffer.length) writeBuffer();
+        buffer[bufferLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if ((off < 0) || (len < 0) || (len > b.length - off)) {
+            throw new IndexOutOfBoundsException();
+        }
+        checkRemaining(len);
+        while (len > 0) {
+            if (bufferLength == buffer.length) writeBuffer();
+            int numberOfBytesToCopy = Math.min(len, buffer.length - bufferLength);
+            System.arraycopy(b, off, buffer, bufferLength, numberOfBytesToCopy);
+            bufferLength += numberOfBytesToCopy;
+            off += numberOfBytesToCopy;
+            len -= numberOfBytesToCopy;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (closed) throw new IOException("stream is closed");
+        writeBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            writeBuffer();
+        } finally {
+            closed = true;
+        }
+    }
+
+    private void checkRemaining(int length) throws IOException {
+        if (closed) throw new IOException("stream is closed");
+        if (position + bufferLength + length > fileSize) {
+            throw new IOException("writing " + length + " bytes at offset " + (position + bufferLength) +
+                    " exceeds the file size " + fileSize);
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        if (bufferLength == 0) return;
+        byte[] chunk = new byte[bufferLength];
+        System.arraycopy(buffer, 0, chunk, 0, bufferLength);
+        if (!desfireEv3.writeToADataFile(fileNumber, position, chunk)) {
+            throw new IOException("could not write file " + fileNumber + " at offset " + position + ", errorCode: " +
+                    Utils.bytesToHexNpeUpperCase(desfireEv3.getErrorCode()) + " reason: " + desfireEv3.getErrorCodeReason());
+        }
+        position += bufferLength;
+        bufferLength = 0;
+    }
+
+    /**
+     * returns the settings of a Standard or Backup file from the file settings of the selected application
+     */
+    static FileSettings getDataFileSettings(DesfireEv3 desfireEv3, byte fileNumber) throws IOException {
+        FileSettings[] allFileSettings = desfireEv3.getApplicationAllFileSettings();
+        if ((fileNumber < 0) || (allFileSettings == null) || (fileNumber >= allFileSettings.length) || (allFileSettings[fileNumber] == null)) {
+            throw new IOException("the file settings of file " + fileNumber + " are not available");
+        }
+        FileSettings fileSettings = allFileSettings[fileNumber];
+        if ((fileSettings.getFileType() != FileSettings.STANDARD_FILE_TYPE) && (fileSettings.getFileType() != FileSettings.BACKUP_FILE_TYPE)) {
+            throw new IOException("file " + fileNumber + " is not a Standard or Backup file");
+        }
+        return fileSettings;
+    }
+}
@@ -0,0 +1,82 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import android.util.Log;
+
+/**
+ * The logging facade for the DESFire classes (DesfireEv3, DesfireAuthenticateLegacy, nfcjlib.AES and
+ * nfcjlib.TripleDES). The level check runs before any message is built, so a disabled level costs a
+ * single field read and no hex formatting:
+ * <pre>
+ * if (DesfireLog.isDebugEnabled()) Log.d(TAG, printData("response", response));
+ * </pre>
+ * Key material and other secrets are formatted with printSecret. In production mode printSecret never
+ * formats the secret, it shows the length only.
+ * <p>
+ * The levels use the values of android.util.Log. The default is INFO, so neither the DesfireEv3 trace (DEBUG)
+ * nor the per block logging of the crypto classes (VERBOSE) costs anything out of the box.
+ */
+
+public final class DesfireLog {
+
+    public static final int VERBOSE = Log.VERBOSE;
+    public static final int DEBUG = Log.DEBUG;
+    public static final int INFO = Log.INFO;
+    public static final int WARN = Log.WARN;
+    public static final int ERROR = Log.ERROR;
+    public static final int NONE = Log.ERROR + 1;
+
+    private static final String REDACTED = "<redacted>";
+
+    private static volatile int level = INFO;
+    private static volatile boolean productionMode = false;
+
+    private DesfireLog() {
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    /**
+     * @param newLevel one of VERBOSE, DEBUG, INFO, WARN, ERROR or NONE
+     */
+    public static void setLevel(int newLevel) {
+        level = newLevel;
+    }
+
+    public static boolean isProductionMode() {
+        return productionMode;
+    }
+
+    /**
+     * in production mode secrets are never formatted and the level is raised to at least INFO
+     */
+    public static void setProductionMode(boolean enabled) {
+        productionMode = enabled;
+        if (enabled && (level < INFO)) {
+            level = INFO;
+        }
+    }
+
+    public static boolean isLoggable(int checkLevel) {
+        return checkLevel >= level;
+    }
+
+    public static boolean isVerboseEnabled() {
+        return VERBOSE >= level;
+    }
+
+    public static boolean isDebugEnabled() {
+        return DEBUG >= level;
+    }
+
+    /**
+     * formats a secret (e.g. a key) like Utils.printData, in production mode the data is replaced by '<redacted>'
+     */
+    public static String printSecret(String dataName, byte[] data) {
+        if (productionMode && (data != null)) {
+            return dataName + " length: " + data.length + " data: " + REDACTED;
+        }
+        return Utils.printData(dataName, data);
+    }
+}
@@ -0,0 +1,172 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class reads the records of a Linear or Cyclic Record file one by one, starting with the oldest record.
+ * The records are read in chunks of some records with DesfireEv3.readFromARecordFile, each chunk is one
+ * ReadRecords command whose response is decrypted and MAC verified before the first record of the chunk is
+ * returned. The PICC calculates the response MAC over the complete response of a command, so a chunk is the
+ * smallest unit that can be verified. Only one chunk is held in memory and the records after the last
+ * returned record are not read at all when the reading ends early.
+ * <p>
+ * The file settings need to be available (see DesfireEv3.getAllFileSettings) and, depending on the access
+ * rights and the communication mode, the authentication needs to be done before the cursor is created.
+ * A failure of a command is thrown as IOException with the errorCode and errorCodeReason of DesfireEv3.
+ * <p>
+ * The record offsets of the ReadRecords command count from the newest record, so the class is not thread
+ * safe: don't run other commands (especially WriteRecord and CommitTransaction) on the DesfireEv3 object
+ * while the cursor is open.
+ * <p>
+ * Usage:
+ * DesfireRecordFileCursor cursor = new DesfireRecordFileCursor(desfireEv3, fileNumber);
+ * byte[] record;
+ * while ((record = cursor.next()) != null) { ... }
+ * cursor.close();
+ */
+
+public class DesfireRecordFileCursor implements Closeable {
+
+    private final DesfireEv3 desfireEv3;
+    private final byte fileNumber;
+    private final int recordSize;
+    private final int numberOfRecordsExisting;
+    private final int numberOfRecords; // the number of records the cursor returns, the newest records of the file
+    private final int numberOfRecordsPerCommand;
+    private int position = 0; // the number of records read from the PICC
+    private byte[] chunk;
+    private int chunkPosition = 0; // the record in the chunk that is returned next
+    private int chunkLength = 0; // the number of records in the chunk
+    private boolean closed = false;
+
+    /**
+     * reads all existing records of the file
+     *
+     * @param desfireEv3 with a selected application and available file settings
+     * @param fileNumber | in range 0..31 AND file is a Linear or Cyclic Record file
+     * @throws IOException if the file settings are not available or the file is not a Record file
+     */
+    public DesfireRecordFileCursor(DesfireEv3 desfireEv3, byte fileNumber) throws IOException {
+        this(desfireEv3, getRecordFileSettings(desfireEv3, fileNumber), -1, 0);
+    }
+
+    /**
+     * reads the newest records of the file
+     *
+     * @param desfireEv3                with a selected application and available file settings
+     * @param fileSettings              | the current settings of a Record file, see getRecordFileSettings
+     * @param numberOfNewestRecords     | number of the newest records to read, -1 reads all existing records
+     * @param numberOfRecordsPerCommand | number of records read with one command, 0 uses the maximum read
+     *                                  length of the communication mode of the file
+     * @throws IOException if the file is not a Record file or numberOfNewestRecords is larger than the
+     *                     number of existing records
+     */
+    public DesfireRecordFileCursor(DesfireEv3 desfireEv3, FileSettings fileSettings, int numberOfNewestRecords, int numberOfRecordsPerCommand) throws IOException {
+        checkRecordFileType(fileSettings);
+        this.desfireEv3 = desfireEv3;
+        this.fileNumber = fileSettings.getFileNumber();
+        this.recordSize = fileSettings.getRecordSizeInt();
+        this.numberOfRecordsExisting = fileSettings.getRecordsExistingInt();
+        if (numberOfNewestRecords == -1) numberOfNewestRecords = numberOfRecordsExisting;
+        if ((numberOfNewestRecords < 0) || (numberOfNewestRecords > numberOfRecordsExisting)) {
+            throw new IOException("numberOfNewestRecords " + numberOfNewestRecords + " is not within the existing records " + numberOfRecordsExisting);
+        }
+        if (numberOfRecordsPerCommand < 0) {
+            throw new IOException("numberOfRecordsPerCommand " + numberOfRecordsPerCommand + " is negative");
+        }
+        if (numberOfRecordsPerCommand == 0) {
+            numberOfRecordsPerCommand = Math.max(1, desfireEv3.getMaximumReadLength(fileSettings.getCommunicationSettings()) / recordSize);
+        }
+        this.numberOfRecords = numberOfNewestRecords;
+        this.numberOfRecordsPerCommand = numberOfRecordsPerCommand;
+    }
+
+    /**
+     * reads the current settings of a Record file from the PICC, the number of existing records in the
+     * file settings of DesfireEv3 is the value from the time the application was selected
+     *
+     * @throws IOException if the file settings could not be read or the file is not a Record file
+     */
+    public static FileSettings getRecordFileSettings(DesfireEv3 desfireEv3, byte fileNumber) throws IOException {
+        byte[] fileSettingsResponse = desfireEv3.getFileSettings(fileNumber);
+        if (fileSettingsResponse == null) {
+            throw new IOException("could not read the file settings of file " + fileNumber + ", errorCode: " +
+                    Utils.bytesToHexNpeUpperCase(desfireEv3.getErrorCode()) + " reason: " + desfireEv3.getErrorCodeReason());
+        }
+        FileSettings fileSettings = new FileSettings(fileNumber, fileSettingsResponse);
+        checkRecordFileType(fileSettings);
+        return fileSettings;
+    }
+
+    private static void checkRecordFileType(FileSettings fileSettings) throws IOException {
+        if ((fileSettings.getFileType() != FileSettings.LINEAR_RECORD_FILE_TYPE) && (fileSettings.getFileType() != FileSettings.CYCLIC_RECORD_FILE_TYPE)) {
+            throw new IOException("file " + fileSettings.getFileNumber() + " is not a Linear or Cyclic Record file");
+        }
+    }
+
+    public boolean hasNext() {
+        return (!closed) && ((chunkPosition < chunkLength) || (position < numberOfRecords));
+    }
+
+    /**
+     * @return the next record, oldest first, or null if all records are returned
+     */
+    public byte[] next() throws IOException {
+        if (!fillChunk()) return null;
+        int from = chunkPosition * recordSize;
+        chunkPosition++;
+        return Arrays.copyOfRange(chunk, from, from + recordSize);
+    }
+
+    /**
+     * @return the number of records the cursor returns
+     */
+    public int getNumberOfRecords() {
+        return numberOfRecords;
+    }
+
+    /**
+     * @return the number of existing records in the file when the cursor was created
+     */
+    public int getNumberOfRecordsExisting() {
+        return numberOfRecordsExisting;
+    }
+
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        chunk = null;
+        chunkPosition = 0;
+        chunkLength = 0;
+    }
+
+    /**
+     * reads the next chunk of records if all records of the chunk are returned
+     *
+     * @return false if all records are returned
+     */
+    private boolean fillChunk() throws IOException {
+        if (closed) throw new IOException("cursor is closed");
+        if (chunkPosition < chunkLength) return true;
+        if (position >= numberOfRecords) return false;
+        int numberOfRecordsToRead = Math.min(numberOfRecordsPerCommand, numberOfRecords - position);
+        // the offset of the ReadRecords command addresses the newest record of the chunk, 0 is the newest record of the file
+        int offsetRecord = numberOfRecords - position - numberOfRecordsToRead;
+        byte[] data = desfireEv3.readFromARecordFile(fileNumber, offsetRecord, numberOfRecordsToRead);
+        if ((data == null) || (data.length != numberOfRecordsToRead * recordSize)) {
+            throw new IOException("could not read " + numberOfRecordsToRead + " records of file " + fileNumber + " at offset " + offsetRecord + ", errorCode: " +
+                    Utils.bytesToHexNpeUpperCase(desfireEv3.getErrorCode()) + " reason: " + desfireEv3.getErrorCodeReason());
+        }
+        chunk = data;
+        chunkPosition = 0;
+        chunkLength = numberOfRecordsToRead;
+        position += numberOfRecordsToRead;
+        return true;
+    }
+}
@@ -0,0 +1,67 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+/**
+ * The outcome of a DesfireEv3 command: the value on success, the errorCode and errorCodeReason in any case.
+ * The errorCode and errorCodeReason are taken directly after the command, so they can't be overwritten by the
+ * next command as it happens with DesfireEv3.getErrorCode().
+ */
+
+public class DesfireResult<T> {
+
+    private final boolean isSuccess;
+    private final T value;
+    private final byte[] errorCode;
+    private final String errorCodeReason;
+
+    private DesfireResult(boolean isSuccess, T value, byte[] errorCode, String errorCodeReason) {
+        this.isSuccess = isSuccess;
+        this.value = value;
+        this.errorCode = (errorCode == null) ? null : errorCode.clone();
+        this.errorCodeReason = errorCodeReason;
+    }
+
+    public static <T> DesfireResult<T> success(T value, byte[] errorCode, String errorCodeReason) {
+        return new DesfireResult<>(true, value, errorCode, errorCodeReason);
+    }
+
+    public static <T> DesfireResult<T> failure(byte[] errorCode, String errorCodeReason) {
+        return new DesfireResult<>(false, null, errorCode, errorCodeReason);
+    }
+
+    /**
+     * hands a failure to the next step of a pipeline with another value type
+     *
+     * @throws IllegalStateException if the result is a success
+     */
+    public <U> DesfireResult<U> asFailure() {
+        if (isSuccess) {
+            throw new IllegalStateException("the result is a success");
+        }
+        return new DesfireResult<>(false, null, errorCode, errorCodeReason);
+    }
+
+    public boolean isSuccess() {
+        return isSuccess;
+    }
+
+    /**
+     * @return the value, null on failure
+     */
+    public T getValue() {
+        return value;
+    }
+
+    public byte[] getErrorCode() {
+        return (errorCode == null) ? null : errorCode.clone();
+    }
+
+    public String getErrorCodeReason() {
+        return errorCodeReason;
+    }
+
+    @Override
+    public String toString() {
+        return "DesfireResult " + (isSuccess ? "SUCCESS" : "FAILURE") + " errorCode: " +
+                Utils.bytesToHexNpeUpperCase(errorCode) + " reason: " + errorCodeReason;
+    }
+}
@@ -0,0 +1,384 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A declarative batch of DesfireEv3 commands, e.g. for the personalization of a card. The script is built and
+ * validated off-card with the Builder (parameter ranges, a selected application before any file command, an
+ * authentication before a key change, no select while a transaction is open), all parameters are copied and
+ * the resume data for each step is precomputed. A DesfireScriptRunner executes the steps in one loop.
+ * <p>
+ * Checkpoints: a step is a checkpoint when no write, writeRecord, credit or debit is waiting for a commit. After
+ * a tag loss the runner continues at the last checkpoint and first restores the selected application and the
+ * authentication. A key change of the authenticated key ends the authentication on the card, build() rejects
+ * any file command after it until the script authenticates (with the new key) or selects an application again,
+ * so neither the run nor a resume executes these commands unauthenticated. The new key version of a key change has to differ from the
+ * old one, as the runner detects an interrupted but done key change by the key version.
+ */
+
+public class DesfireScript {
+
+    public enum StepType {
+        SELECT_APPLICATION, CREATE_APPLICATION, AUTHENTICATE, CHANGE_APPLICATION_KEY, CREATE_FILE,
+        WRITE_DATA, WRITE_RECORD, CREDIT, DEBIT, COMMIT
+    }
+
+    interface Command {
+        boolean execute(DesfireEv3 desfireEv3);
+    }
+
+    /**
+     * one validated step of the script
+     */
+    public static class Step {
+        private final StepType type;
+        private final String description;
+        private final Command command;
+        private final byte keyNumber; // AUTHENTICATE and CHANGE_APPLICATION_KEY only
+        private final int keyVersion; // CHANGE_APPLICATION_KEY only, -1 otherwise
+
+        private Step(StepType type, String description, Command command, byte keyNumber) {
+            this(type, description, command, keyNumber, -1);
+        }
+
+        private Step(StepType type, String description, Command command, byte keyNumber, int keyVersion) {
+            this.type = type;
+            this.description = description;
+            this.command = command;
+            this.keyNumber = keyNumber;
+            this.keyVersion = keyVersion;
+        }
+
+        boolean execute(DesfireEv3 desfireEv3) {
+            return command.execute(desfireEv3);
+        }
+
+        public StepType getType() {
+            return type;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * the step is repeated after a tag loss only if the card discards the effect of an uncommitted step
+         */
+        boolean isTransactional() {
+            return (type == StepType.WRITE_DATA) || (type == StepType.WRITE_RECORD) || (type == StepType.CREDIT) || (type == StepType.DEBIT);
+        }
+
+        /**
+         * an interrupted create step may have been done by the card, on the repetition a DUPLICATE_ERROR is a success
+         */
+        boolean isCreate() {
+            return (type == StepType.CREATE_APPLICATION) || (type == StepType.CREATE_FILE);
+        }
+
+        /**
+         * an interrupted key change can't be repeated (the old key is wrong after the change), the runner reads
+         * the key version to find out if the card did the change
+         */
+        boolean isKeyChange() {
+            return type == StepType.CHANGE_APPLICATION_KEY;
+        }
+
+        byte getKeyNumber() {
+            return keyNumber;
+        }
+
+        int getKeyVersion() {
+            return keyVersion;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    private final List<Step> steps;
+    private final boolean[] isCheckpoint; // index 0..steps.size()
+    private final Step[] resumeSelect; // the select step to run before resuming at the index, can be null
+    private final Step[] resumeAuthenticate; // the authentication to run before resuming at the index, can be null
+
+    private DesfireScript(List<Step> steps, boolean[] isCheckpoint, Step[] resumeSelect, Step[] resumeAuthenticate) {
+        this.steps = Collections.unmodifiableList(steps);
+        this.isCheckpoint = isCheckpoint;
+        this.resumeSelect = resumeSelect;
+        this.resumeAuthenticate = resumeAuthenticate;
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    public int size() {
+        return steps.size();
+    }
+
+    boolean isCheckpoint(int index) {
+        return isCheckpoint[index];
+    }
+
+    Step getResumeSelect(int index) {
+        return resumeSelect[index];
+    }
+
+    Step getResumeAuthenticate(int index) {
+        return resumeAuthenticate[index];
+    }
+
+    /**
+     * builds a script, each method validates its parameters and throws an IllegalArgumentException on a wrong
+     * value, build() validates the order of the steps and throws an IllegalStateException on a wrong order
+     */
+    public static class Builder {
+        private final List<Step> steps = new ArrayList<>();
+
+        public Builder selectApplication(byte[] applicationIdentifier) {
+            checkApplicationIdentifier(applicationIdentifier);
+            final byte[] aid = applicationIdentifier.clone();
+            return add(new Step(StepType.SELECT_APPLICATION, "select application " + Utils.bytesToHexNpeUpperCase(aid),
+                    desfire -> desfire.selectApplicationByAid(aid), (byte) 0));
+        }
+
+        public Builder createApplicationAes(byte[] applicationIdentifier, int numberOfApplicationKeys) {
+            checkApplicationIdentifier(applicationIdentifier);
+            if ((numberOfApplicationKeys < 1) || (numberOfApplicationKeys > 14)) {
+                throw new IllegalArgumentException("numberOfApplicationKeys is not in range 1..14");
+            }
+            final byte[] aid = applicationIdentifier.clone();
+            return add(new Step(StepType.CREATE_APPLICATION, "create application " + Utils.bytesToHexNpeUpperCase(aid),
+                    desfire -> desfire.createApplicationAes(aid, numberOfApplicationKeys), (byte) 0));
+        }
+
+        public Builder authenticateAesEv2First(byte keyNumber, byte[] key) {
+            checkKeyNumber(keyNumber);
+            checkKey(key);
+            final byte[] keyCopy = key.clone();
+            return add(new Step(StepType.AUTHENTICATE, "authenticate with key number " + keyNumber,
+                    desfire -> desfire.authenticateAesEv2First(keyNumber, keyCopy), keyNumber));
+        }
+
+        public Builder changeApplicationKey(byte keyNumber, byte keyVersion, byte[] keyNew, byte[] keyOld) {
+            checkKeyNumber(keyNumber);
+            checkKey(keyNew);
+            checkKey(keyOld);
+            final byte[] keyNewCopy = keyNew.clone();
+            final byte[] keyOldCopy = keyOld.clone();
+            return add(new Step(StepType.CHANGE_APPLICATION_KEY, "change application key number " + keyNumber,
+                    desfire -> desfire.changeApplicationKeyFull(keyNumber, keyVersion, keyNewCopy, keyOldCopy), keyNumber, keyVersion & 0xff));
+        }
+
+        public Builder createStandardFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int fileSize) {
+            checkFile(fileNumber, communicationSettings, accessRights);
+            checkSize(fileSize, "fileSize");
+            final byte[] accessRightsCopy = accessRights.clone();
+            return add(createFileStep("create Standard file " + fileNumber,
+                    desfire -> desfire.createAStandardFile(fileNumber, communicationSettings, accessRightsCopy, fileSize, false)));
+        }
+
+        public Builder createBackupFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int fileSize) {
+            checkFile(fileNumber, communicationSettings, accessRights);
+            checkSize(fileSize, "fileSize");
+            final byte[] accessRightsCopy = accessRights.clone();
+            return add(createFileStep("create Backup file " + fileNumber,
+                    desfire -> desfire.createABackupFile(fileNumber, communicationSettings, accessRightsCopy, fileSize)));
+        }
+
+        public Builder createValueFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int minimumValue, int maximumValue, int initialValue) {
+            checkFile(fileNumber, communicationSettings, accessRights);
+            if ((minimumValue > maximumValue) || (initialValue < minimumValue) || (initialValue > maximumValue)) {
+                throw new IllegalArgumentException("the initialValue is not in range minimumValue..maximumValue");
+            }
+            final byte[] accessRightsCopy = accessRights.clone();
+            return add(createFileStep("create Value file " + fileNumber,
+                    desfire -> desfire.createAValueFile(fileNumber, communicationSettings, accessRightsCopy, minimumValue, maximumValue, initialValue, false)));
+        }
+
+        public Builder createLinearRecordFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
+            checkFile(fileNumber, communicationSettings, accessRights);
+            checkSize(recordSize, "recordSize");
+            checkSize(maximumNumberOfRecords, "maximumNumberOfRecords");
+            final byte[] accessRightsCopy = accessRights.clone();
+            return add(createFileStep("create Linear record file " + fileNumber,
+                    desfire -> desfire.createALinearRecordFile(fileNumber, communicationSettings, accessRightsCopy, recordSize, maximumNumberOfRecords)));
+        }
+
+        public Builder createCyclicRecordFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
+            checkFile(fileNumber, communicationSettings, accessRights);
+            checkSize(recordSize, "recordSize");
+            if (maximumNumberOfRecords < 2) {
+                throw new IllegalArgumentException("a Cyclic record file needs at least 2 records");
+            }
+            final byte[] accessRightsCopy = accessRights.clone();
+            return add(createFileStep("create Cyclic record file " + fileNumber,
+                    desfire -> desfire.createACyclicRecordFile(fileNumber, communicationSettings, accessRightsCopy, recordSize, maximumNumberOfRecords)));
+        }
+
+        public Builder writeData(byte fileNumber, int offset, byte[] data) {
+            checkFileNumber(fileNumber);
+            checkData(offset, data);
+            final byte[] dataCopy = data.clone();
+            return add(new Step(StepType.WRITE_DATA, "write " + dataCopy.length + " bytes to file " + fileNumber,
+                    desfire -> desfire.writeToADataFile(fileNumber, offset, dataCopy), (byte) 0));
+        }
+
+        public Builder writeRecord(byte fileNumber, int offset, byte[] data) {
+            checkFileNumber(fileNumber);
+            checkData(offset, data);
+            final byte[] dataCopy = data.clone();
+            return add(new Step(StepType.WRITE_RECORD, "write a record to file " + fileNumber,
+                    desfire -> desfire.writeToARecordFile(fileNumber, offset, dataCopy), (byte) 0));
+        }
+
+        public Builder credit(byte fileNumber, int value) {
+            checkFileNumber(fileNumber);
+            checkSize(value, "value");
+            return add(new Step(StepType.CREDIT, "credit " + value + " to file " + fileNumber,
+                    desfire -> desfire.changeAValueFile(fileNumber, value, true), (byte) 0));
+        }
+
+        public Builder debit(byte fileNumber, int value) {
+            checkFileNumber(fileNumber);
+            checkSize(value, "value");
+            return add(new Step(StepType.DEBIT, "debit " + value + " from file " + fileNumber,
+                    desfire -> desfire.changeAValueFile(fileNumber, value, false), (byte) 0));
+        }
+
+        public Builder commit() {
+            return add(new Step(StepType.COMMIT, "commit the transaction",
+                    desfire -> desfire.commitTransactionFull(false), (byte) 0));
+        }
+
+        /**
+         * validates the order of the steps and precomputes the checkpoints and the resume data
+         *
+         * @throws IllegalStateException if the script is empty or a step is not allowed at its position
+         */
+        public DesfireScript build() {
+            if (steps.isEmpty()) {
+                throw new IllegalStateException("the script has no steps");
+            }
+            int numberOfSteps = steps.size();
+            boolean[] isCheckpoint = new boolean[numberOfSteps + 1];
+            Step[] resumeSelect = new Step[numberOfSteps + 1];
+            Step[] resumeAuthenticate = new Step[numberOfSteps + 1];
+            isCheckpoint[0] = true;
+            Step select = null;
+            Step authenticate = null;
+            boolean isAuthenticationEnded = false; // by a key change of the authenticated key
+            boolean isTransactionPending = false;
+            for (int i = 0; i < numberOfSteps; i++) {
+                Step step = steps.get(i);
+                switch (step.type) {
+                    case SELECT_APPLICATION:
+                        if (isTransactionPending) {
+                            throw new IllegalStateException("step " + i + ": commit the changes before selecting an application");
+                        }
+                        select = step;
+                        authenticate = null;
+                        isAuthenticationEnded = false;
+                        break;
+                    case CREATE_APPLICATION:
+                        break;
+                    case AUTHENTICATE:
+                        checkSelected(select, i);
+                        authenticate = step;
+                        isAuthenticationEnded = false;
+                        break;
+                    case CHANGE_APPLICATION_KEY:
+                        checkSelected(select, i);
+                        if (authenticate == null) {
+                            throw new IllegalStateException("step " + i + ": a key change needs a preceding authentication");
+                        }
+                        if (step.keyNumber == authenticate.keyNumber) {
+                            // the card ends the authentication, the following steps need an authentication with the new key
+                            authenticate = null;
+                            isAuthenticationEnded = true;
+                        }
+                        break;
+                    default:
+                        checkSelected(select, i);
+                        if (isAuthenticationEnded) {
+                            throw new IllegalStateException("step " + i + ": the key change ended the authentication, authenticate with the new key first");
+                        }
+                        break;
+                }
+                if (step.isTransactional()) isTransactionPending = true;
+                if (step.type == StepType.COMMIT) isTransactionPending = false;
+                isCheckpoint[i + 1] = !isTransactionPending;
+                resumeSelect[i + 1] = select;
+                resumeAuthenticate[i + 1] = authenticate;
+            }
+            return new DesfireScript(new ArrayList<>(steps), isCheckpoint, resumeSelect, resumeAuthenticate);
+        }
+
+        private Builder add(Step step) {
+            steps.add(step);
+            return this;
+        }
+
+        private static Step createFileStep(String description, Command command) {
+            return new Step(StepType.CREATE_FILE, description, command, (byte) 0);
+        }
+
+        private static void checkSelected(Step select, int index) {
+            if (select == null) {
+                throw new IllegalStateException("step " + index + ": select an application first");
+            }
+        }
+
+        private static void checkApplicationIdentifier(byte[] applicationIdentifier) {
+            if ((applicationIdentifier == null) || (applicationIdentifier.length != 3)) {
+                throw new IllegalArgumentException("applicationIdentifier is not of length 3");
+            }
+        }
+
+        private static void checkKeyNumber(byte keyNumber) {
+            if ((keyNumber < 0) || (keyNumber > 13)) {
+                throw new IllegalArgumentException("keyNumber is not in range 0..13");
+            }
+        }
+
+        private static void checkKey(byte[] key) {
+            if ((key == null) || (key.length != 16)) {
+                throw new IllegalArgumentException("key is not of length 16");
+            }
+        }
+
+        private static void checkFileNumber(byte fileNumber) {
+            if ((fileNumber < 0) || (fileNumber > 31)) {
+                throw new IllegalArgumentException("fileNumber is not in range 0..31");
+            }
+        }
+
+        private static void checkFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights) {
+            checkFileNumber(fileNumber);
+            if (communicationSettings == null) {
+                throw new IllegalArgumentException("communicationSettings are NULL");
+            }
+            if ((accessRights == null) || (accessRights.length != 2)) {
+                throw new IllegalArgumentException("accessRights are not of length 2");
+            }
+        }
+
+        private static void checkSize(int size, String name) {
+            if (size < 1) {
+                throw new IllegalArgumentException(name + " needs to be at least 1");
+            }
+        }
+
+        private static void checkData(int offset, byte[] data) {
+            if (offset < 0) {
+                throw new IllegalArgumentException("offset is negative");
+            }
+            if ((data == null) || (data.length == 0)) {
+                throw new IllegalArgumentException("data is NULL or empty");
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.util.Arrays;
+
+/**
+ * Executes a DesfireScript against a DesfireEv3 object in one loop, there are no UI updates or other work between
+ * two steps. The runner stops on the first failing step. On a tag loss the runner keeps the last checkpoint, a
+ * new call of run() with the DesfireEv3 object of the next tap continues the script at this checkpoint.
+ * <p>
+ * Note: when the tag is lost after the card executed a commit but before the response was received the commit
+ * can't be detected, the steps since the previous checkpoint are executed again. An interrupted key change is
+ * detected by the new key version.
+ * The class is not thread safe.
+ */
+
+public class DesfireScriptRunner {
+
+    private static final byte[] RESPONSE_OK = new byte[]{(byte) 0x91, (byte) 0x00};
+
+    private final DesfireScript script;
+    private int checkpoint = 0; // the index of the first step of the next run
+    private int interruptedStepIndex = -1; // the step that was running when the tag got lost
+
+    public DesfireScriptRunner(DesfireScript script) {
+        this.script = script;
+    }
+
+    /**
+     * the outcome of a run
+     */
+    public static class Result {
+        private final boolean isSuccess;
+        private final boolean isTagLost;
+        private final int failedStepIndex;
+        private final DesfireScript.Step failedStep;
+        private final int numberOfExecutedSteps;
+        private final byte[] errorCode;
+        private final String errorCodeReason;
+
+        private Result(boolean isSuccess, boolean isTagLost, int failedStepIndex, DesfireScript.Step failedStep,
+                       int numberOfExecutedSteps, byte[] errorCode, String errorCodeReason) {
+            this.isSuccess = isSuccess;
+            this.isTagLost = isTagLost;
+            this.failedStepIndex = failedStepIndex;
+            this.failedStep = failedStep;
+            this.numberOfExecutedSteps = numberOfExecutedSteps;
+            this.errorCode = errorCode;
+            this.errorCodeReason = errorCodeReason;
+        }
+
+        /**
+         * @return true if all steps of the script are done
+         */
+        public boolean isSuccess() {
+            return isSuccess;
+        }
+
+        /**
+         * @return true if the run stopped because the card left the field, run the script again on the next tap
+         */
+        public boolean isTagLost() {
+            return isTagLost;
+        }
+
+        /**
+         * @return the index of the failed step, -1 on success or if restoring the checkpoint failed
+         */
+        public int getFailedStepIndex() {
+            return failedStepIndex;
+        }
+
+        public DesfireScript.Step getFailedStep() {
+            return failedStep;
+        }
+
+        /**
+         * @return the number of steps executed in this run, without the steps to restore the checkpoint
+         */
+        public int getNumberOfExecutedSteps() {
+            return numberOfExecutedSteps;
+        }
+
+        public byte[] getErrorCode() {
+            return errorCode;
+        }
+
+        public String getErrorCodeReason() {
+            return errorCodeReason;
+        }
+
+        @Override
+        public String toString() {
+            if (isSuccess) return "script SUCCESS, executed steps: " + numberOfExecutedSteps;
+            return "script FAILURE at step " + failedStepIndex + " (" + failedStep + ")" + (isTagLost ? " TAG LOST" : "") +
+                    " errorCode: " + Utils.bytesToHexNpeUpperCase(errorCode) + " reason: " + errorCodeReason;
+        }
+    }
+
+    /**
+     * runs the script from the last checkpoint to the end
+     *
+     * @param desfireEv3 connected to the card
+     * @return the result, on a tag loss call run() again with the DesfireEv3 object of the next tap
+     */
+    public Result run(DesfireEv3 desfireEv3) {
+        int index = checkpoint;
+        if (index >= script.size()) {
+            return new Result(true, false, -1, null, 0, RESPONSE_OK.clone(), "script is done");
+        }
+        // restore the selected application and the authentication of the checkpoint
+        if (index > 0) {
+            DesfireScript.Step select = script.getResumeSelect(index);
+            if ((select != null) && (!select.execute(desfireEv3))) {
+                return failure(desfireEv3, -1, null, 0);
+            }
+            DesfireScript.Step interrupted = script.getSteps().get(index);
+            if ((index == interruptedStepIndex) && interrupted.isKeyChange() &&
+                    (desfireEv3.getKeyVersion(interrupted.getKeyNumber()) == interrupted.getKeyVersion())) {
+                // the card changed the key before the tag got lost, the step is done
+                index++;
+                checkpoint = index;
+                if (index >= script.size()) {
+                    interruptedStepIndex = -1;
+                    return new Result(true, false, -1, null, 0, RESPONSE_OK.clone(), "script is done");
+                }
+            }
+            DesfireScript.Step authenticate = script.getResumeAuthenticate(index);
+            if ((authenticate != null) && (!authenticate.execute(desfireEv3))) {
+                return failure(desfireEv3, -1, null, 0);
+            }
+        }
+        int numberOfExecutedSteps = 0;
+        for (; index < script.size(); index++) {
+            DesfireScript.Step step = script.getSteps().get(index);
+            boolean success = step.execute(desfireEv3);
+            if ((!success) && step.isCreate() && (index <= interruptedStepIndex) &&
+                    Arrays.equals(DesfireEv3.RESPONSE_DUPLICATE_ERROR, desfireEv3.getErrorCode())) {
+                // the create was done by the card before the tag got lost
+                success = true;
+            }
+            if (!success) {
+                return failure(desfireEv3, index, step, numberOfExecutedSteps);
+            }
+            numberOfExecutedSteps++;
+            if (script.isCheckpoint(index + 1)) checkpoint = index + 1;
+        }
+        checkpoint = script.size();
+        interruptedStepIndex = -1;
+        return new Result(true, false, -1, null, numberOfExecutedSteps, desfireEv3.getErrorCode(), desfireEv3.getErrorCodeReason());
+    }
+
+    private Result failure(DesfireEv3 desfireEv3, int index, DesfireScript.Step step, int numberOfExecutedSteps) {
+        boolean isTagLost = !desfireEv3.isConnected();
+        if (isTagLost) interruptedStepIndex = Math.max(interruptedStepIndex, index);
+        return new Result(false, isTagLost, index, step, numberOfExecutedSteps, desfireEv3.getErrorCode(), desfireEv3.getErrorCodeReason());
+    }
+
+    /**
+     * @return the index of the step the next run starts with
+     */
+    public int getCheckpoint() {
+        return checkpoint;
+    }
+
+    public boolean isDone() {
+        return checkpoint >= script.size();
+    }
+
+    /**
+     * the next run starts with the first step
+     */
+    public void reset() {
+        checkpoint = 0;
+        interruptedStepIndex = -1;
+    }
+
+    public DesfireScript getScript() {
+        return script;
+    }
+}
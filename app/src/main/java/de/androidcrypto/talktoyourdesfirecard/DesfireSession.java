@@ -0,0 +1,166 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * One isolated protocol session of a DesfireSessionManager: a reader (ApduTransport) with its own DesfireEv3
+ * object, so the session keys, the command counter, the transaction identifier and the selected application
+ * are never shared with another reader.
+ * <p>
+ * The tasks of a session run one after the other on the executor of the manager (a DesfireEv3 object is not
+ * thread safe), tasks of different sessions run in parallel. A session occupies at most one executor thread.
+ */
+
+public class DesfireSession {
+
+    private final String name;
+    private final DesfireEv3 desfireEv3;
+    private final SessionMetrics metrics = new SessionMetrics();
+    private final Executor executor;
+    private final ArrayDeque<FutureTask<?>> pendingTasks = new ArrayDeque<>();
+    private FutureTask<?> activeTask;
+    private boolean isClosed = false;
+
+    DesfireSession(String name, ApduTransport transport, Executor executor, FileSettingsCache fileSettingsCache) {
+        this.name = name;
+        this.executor = executor;
+        this.desfireEv3 = new DesfireEv3(new MeteredTransport(transport, metrics));
+        this.desfireEv3.setFileSettingsCache(fileSettingsCache);
+    }
+
+    /**
+     * queues a task, the task runs after all tasks submitted before on this session. The DesfireEv3 methods
+     * report a failure with false or null, so a task returning false, null or a failed DesfireResult is counted
+     * as failed task in the metrics, as well as a task throwing an exception.
+     *
+     * @return the Future with the result of the task, an exception of the task is thrown by Future.get()
+     * as ExecutionException
+     * @throws IllegalStateException if the session is closed
+     */
+    public <T> Future<T> submit(final DesfireTask<T> task) {
+        FutureTask<T> futureTask = new FutureTask<>(() -> {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                T result = task.run(desfireEv3);
+                failed = isFailure(result);
+                return result;
+            } finally {
+                metrics.recordTask(System.nanoTime() - start, failed);
+            }
+        });
+        synchronized (this) {
+            if (isClosed) {
+                throw new IllegalStateException("session " + name + " is closed");
+            }
+            pendingTasks.add(futureTask);
+            if (activeTask == null) scheduleNext();
+        }
+        return futureTask;
+    }
+
+    private static boolean isFailure(Object result) {
+        if (result == null) return true;
+        if (result instanceof Boolean) return !((Boolean) result);
+        if (result instanceof DesfireResult) return !((DesfireResult<?>) result).isSuccess();
+        return false;
+    }
+
+    private synchronized void scheduleNext() {
+        activeTask = pendingTasks.poll();
+        if (activeTask == null) return;
+        final FutureTask<?> task = activeTask;
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the manager is shut down, the pending tasks will never run
+            task.cancel(false);
+            activeTask = null;
+            cancelPendingTasks();
+        }
+    }
+
+    private void cancelPendingTasks() {
+        FutureTask<?> task;
+        while ((task = pendingTasks.poll()) != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * no more tasks are accepted, the queued tasks that did not start are cancelled (their Future.get() throws a
+     * CancellationException), a running task is completed
+     */
+    public synchronized void close() {
+        isClosed = true;
+        cancelPendingTasks();
+    }
+
+    public synchronized boolean isClosed() {
+        return isClosed;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public SessionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * counts the APDUs, the bytes and the time spent in the transport of a session
+     */
+    private static class MeteredTransport implements ApduTransport {
+        private final ApduTransport transport;
+        private final SessionMetrics metrics;
+
+        MeteredTransport(ApduTransport transport, SessionMetrics metrics) {
+            this.transport = transport;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public byte[] transceive(byte[] apdu) throws IOException {
+            long start = System.nanoTime();
+            byte[] response = null;
+            try {
+                response = transport.transceive(apdu);
+                return response;
+            } finally {
+                metrics.recordTransceive(apdu.length, response, System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public boolean isConnected() {
+            return transport.isConnected();
+        }
+
+        @Override
+        public int getMaxTransceiveLength() {
+            return transport.getMaxTransceiveLength();
+        }
+
+        @Override
+        public byte[] getTagId() {
+            return transport.getTagId();
+        }
+
+        @Override
+        public byte[] getAts() {
+            return transport.getAts();
+        }
+    }
+}
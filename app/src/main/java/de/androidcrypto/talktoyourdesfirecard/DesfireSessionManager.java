@@ -0,0 +1,118 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class serves several readers from one process, e.g. a gateway with some PC/SC readers. Each reader gets
+ * its own DesfireSession with an own DesfireEv3 object, so no session state is shared between the readers.
+ * The tasks of all sessions run on one executor with a fixed number of threads; as a session has at most one
+ * task in the queue of the executor the queue is bounded by the number of sessions.
+ * <p>
+ * The sessions share one (thread safe) FileSettingsCache, the entries are keyed by the tag id.
+ * Usage:
+ * DesfireSessionManager manager = new DesfireSessionManager(4);
+ * DesfireSession session = manager.openSession("reader 1", transport);
+ * Future<byte[]> result = session.submit(desfireEv3 -> desfireEv3.readFromADataFile(fileNumber, 0, 32));
+ */
+
+public class DesfireSessionManager implements Closeable {
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, DesfireSession> sessions = new LinkedHashMap<>();
+    private final FileSettingsCache fileSettingsCache = new FileSettingsCache();
+
+    /**
+     * @param numberOfThreads the maximum number of sessions running in parallel, usually the number of readers
+     */
+    public DesfireSessionManager(int numberOfThreads) {
+        if (numberOfThreads < 1) {
+            throw new IllegalArgumentException("numberOfThreads needs to be at least 1");
+        }
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "DesfireSession-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * opens a session for a reader
+     *
+     * @param name      | unique name of the session, e.g. the reader name
+     * @param transport | the transport to the card in the reader
+     * @throws IllegalArgumentException if a session with this name is open
+     * @throws IllegalStateException    if the manager is closed
+     */
+    public synchronized DesfireSession openSession(String name, ApduTransport transport) {
+        if (executor.isShutdown()) {
+            throw new IllegalStateException("the session manager is closed");
+        }
+        if ((name == null) || (transport == null)) {
+            throw new IllegalArgumentException("name and transport are required");
+        }
+        if (sessions.containsKey(name)) {
+            throw new IllegalArgumentException("a session with the name " + name + " is open");
+        }
+        DesfireSession session = new DesfireSession(name, transport, executor, fileSettingsCache);
+        sessions.put(name, session);
+        return session;
+    }
+
+    /**
+     * @return the open session or null
+     */
+    public synchronized DesfireSession getSession(String name) {
+        return sessions.get(name);
+    }
+
+    /**
+     * @return the open sessions in the order they were opened
+     */
+    public synchronized List<DesfireSession> getSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    /**
+     * closes a session, e.g. when the reader is detached, see DesfireSession.close()
+     */
+    public synchronized void closeSession(String name) {
+        DesfireSession session = sessions.remove(name);
+        if (session != null) session.close();
+    }
+
+    public FileSettingsCache getFileSettingsCache() {
+        return fileSettingsCache;
+    }
+
+    /**
+     * closes all sessions and stops the executor, running tasks are completed
+     */
+    @Override
+    public synchronized void close() {
+        for (DesfireSession session : sessions.values()) {
+            session.close();
+        }
+        sessions.clear();
+        executor.shutdown();
+    }
+
+    /**
+     * waits for the running tasks after close()
+     *
+     * @return true if all tasks are done
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,11 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+/**
+ * A unit of work done with a DesfireEv3 object, e.g. select, authenticate and read a file. It is run by
+ * DesfireSession (see DesfireSessionManager) and by DesfireEv3Async, always on the thread that owns the
+ * DesfireEv3 object.
+ */
+
+public interface DesfireTask<T> {
+    T run(DesfireEv3 desfireEv3) throws Exception;
+}
@@ -20,6 +20,11 @@ import java.util.Arrays;
  *
  * I cannot test the analyzed data with a real tag and I'm suspicious with the analyzed values for
  * all of the offset and length values following the SDM Access Rights, so please do not rely on these values !
+ *
+ * The response is not copied and not analyzed in the constructor. The getters used by the read and write
+ * pre-checks (file type, communication settings, access rights, file and record sizes) decode their value
+ * directly from the response bytes. All other getters (and dump) run the complete analysis once on first
+ * access, call materialize() to run it explicitly.
  */
 
 public class FileSettings {
@@ -84,6 +89,7 @@ public class FileSettings {
     private int completeResponseLength; // the complete data length
     private boolean isUnexpectedResponseLength = false;
     private String unexpectedResponseLengthPositionName = "";
+    private volatile boolean isMaterialized = false; // true after analyze() was run
 
     public static final int STANDARD_FILE_TYPE = 0;
     public static final int BACKUP_FILE_TYPE = 1;
@@ -113,7 +119,24 @@ public class FileSettings {
             isUnexpectedResponseLength = true;
             return;
         }
-        analyze();
+        fileType = completeResponse[0];
+    }
+
+    /**
+     * runs the complete analysis of the response (including the SDM and Transaction MAC file data), this is
+     * done only once
+     *
+     * @return this object with all fields filled
+     */
+    public FileSettings materialize() {
+        if (isMaterialized) return this;
+        synchronized (this) {
+            if (!isMaterialized) {
+                if (completeResponseLength >= 6) analyze();
+                isMaterialized = true;
+            }
+        }
+        return this;
     }
 
     private void analyze() {
@@ -529,6 +552,7 @@ public class FileSettings {
     }
 
     public String dump() {
+        materialize();
         StringBuilder sb = new StringBuilder();
         sb.append("fileNumber: ").append(byteToHex(fileNumber)).append("\n");
         sb.append("fileType: ").append(fileType).append(" (").append(fileTypeName).append(")").append("\n");
@@ -661,6 +685,42 @@ public class FileSettings {
         }
     }
 
+    /**
+     * section for the lazy decoding directly from the response bytes
+     */
+
+    private boolean isDecodable() {
+        return completeResponseLength >= 6;
+    }
+
+    private boolean isRecordFile() {
+        return (fileType == (byte) 0x03) || (fileType == (byte) 0x04);
+    }
+
+    /**
+     * the communication settings as in analyze(): on a Transaction MAC file and on a SDM enriched Standard or
+     * Backup file (fileOption > 3) bit 0 and 1 of the fileOption are mapped to 0x00, 0x01 or 0x03
+     */
+    private byte decodeCommunicationSettings() {
+        byte fileOption = completeResponse[1];
+        boolean isBitMapped = (fileType == (byte) 0x05) ||
+                (((fileType == (byte) 0x00) || (fileType == (byte) 0x01)) && (fileOption > 3));
+        if (!isBitMapped) return fileOption;
+        if (!testBit(fileOption, 0)) return (byte) 0x00;
+        if (!testBit(fileOption, 1)) return (byte) 0x01;
+        return (byte) 0x03;
+    }
+
+    // reads a 3 bytes long LSB encoded value, missing bytes at the end of the response are 0x00
+    private int decode3ByteInversed(int position) {
+        int value = 0;
+        for (int i = 2; i >= 0; i--) {
+            value <<= 8;
+            if (position + i < completeResponseLength) value |= completeResponse[position + i] & 0xff;
+        }
+        return value;
+    }
+
     /**
      * section for getter
      */
@@ -673,155 +733,211 @@ public class FileSettings {
         return (int) fileNumber;
     }
 
+    /**
+     * @return a copy of the response of the getFileSettings command, null if there was no response
+     */
+    public byte[] getCompleteResponse() {
+        return (completeResponse == null) ? null : completeResponse.clone();
+    }
+
     public byte getFileType() {
         return fileType;
     }
 
     public String getFileTypeName() {
-        return fileTypeName;
+        if (!isDecodable()) return null;
+        return getFileTypeName(fileType);
     }
 
     public byte getCommunicationSettings() {
-        return communicationSettings;
+        if (!isDecodable()) return 0;
+        return decodeCommunicationSettings();
     }
 
     public String getCommunicationSettingsName() {
-        return communicationSettingsName;
+        if (!isDecodable()) return null;
+        switch (decodeCommunicationSettings()) {
+            case (byte) 0x00: return COMMUNICATION_SETTING_NAME_PLAIN;
+            case (byte) 0x01: return COMMUNICATION_SETTING_NAME_MACED;
+            case (byte) 0x03: return COMMUNICATION_SETTING_NAME_ENCRYPTED;
+            default: return null;
+        }
     }
 
     public DesfireEv3.CommunicationSettings getDesfireEv3CommunicationSettings() {
-        return desfireEv3CommunicationSettings;
+        if ((!isDecodable()) || (fileType == (byte) 0x05)) return null;
+        switch (decodeCommunicationSettings()) {
+            case (byte) 0x00: return DesfireEv3.CommunicationSettings.Plain;
+            case (byte) 0x01: return DesfireEv3.CommunicationSettings.MACed;
+            case (byte) 0x03: return DesfireEv3.CommunicationSettings.Full;
+            default: return null;
+        }
     }
 
     public int getAccessRightsRw() {
-        return accessRightsRw;
+        if (!isDecodable()) return 0;
+        return (completeResponse[2] >> 4) & 0x0f;
     }
 
     public int getAccessRightsCar() {
-        return accessRightsCar;
+        if (!isDecodable()) return 0;
+        return completeResponse[2] & 0x0f;
     }
 
     public int getAccessRightsR() {
-        return accessRightsR;
+        if (!isDecodable()) return 0;
+        return (completeResponse[3] >> 4) & 0x0f;
     }
 
     public int getAccessRightsW() {
-        return accessRightsW;
+        if (!isDecodable()) return 0;
+        return completeResponse[3] & 0x0f;
     }
 
     public byte[] getFileSize() {
+        materialize();
         return fileSize;
     }
 
     public int getFileSizeInt() {
-        return fileSizeInt;
+        if (!isDecodable()) return 0;
+        if (fileType == (byte) 0x05) return 12; // fixed size of a Transaction MAC file
+        if ((fileType == (byte) 0x00) || (fileType == (byte) 0x01)) return decode3ByteInversed(4);
+        return 0;
     }
 
     public int getRecordSizeInt() {
-        return recordSizeInt;
+        if ((!isDecodable()) || (!isRecordFile())) return 0;
+        return decode3ByteInversed(4);
     }
 
     public int getRecordsMaxInt() {
-        return recordsMaxInt;
+        if ((!isDecodable()) || (!isRecordFile())) return 0;
+        return decode3ByteInversed(7);
     }
 
     public int getRecordsExistingInt() {
-        return recordsExistingInt;
+        if ((!isDecodable()) || (!isRecordFile())) return 0;
+        return decode3ByteInversed(10);
     }
 
     public byte getTmkFileOption() {
+        materialize();
         return tmkFileOption;
     }
 
     public boolean isExcludeUnauthenticatedOperationsFromTMI() {
+        materialize();
         return isExcludeUnauthenticatedOperationsFromTMI;
     }
 
     public boolean isEnabledTmcLimitConfiguration() {
+        materialize();
         return isEnabledTmcLimitConfiguration;
     }
 
     public boolean isEnabledCommitReaderIdFeature() {
+        materialize();
         return isEnabledCommitReaderIdFeature;
     }
 
     public boolean isAppTransactionMACKeyTypeAes() {
+        materialize();
         return isAppTransactionMACKeyTypeAes;
     }
 
     public int getTmcLimitInt() {
+        materialize();
         return tmcLimitInt;
     }
 
     public boolean isNonStandardFileOption() {
+        materialize();
         return isNonStandardFileOption;
     }
 
     public boolean isSdmEnabled() {
+        materialize();
         return isSdmEnabled;
     }
 
     public boolean isSdmOptionsBit0_Encode() {
+        materialize();
         return isSdmOptionsBit0_Encode;
     }
 
     public boolean isSdmOptionsBit4_SDMENCFileData() {
+        materialize();
         return isSdmOptionsBit4_SDMENCFileData;
     }
 
     public boolean isSdmOptionsBit5_SDMReadCtrLimit() {
+        materialize();
         return isSdmOptionsBit5_SDMReadCtrLimit;
     }
 
     public boolean isSdmOptionsBit6_SDMReadCtr() {
+        materialize();
         return isSdmOptionsBit6_SDMReadCtr;
     }
 
     public boolean isSdmOptionsBit7_UID() {
+        materialize();
         return isSdmOptionsBit7_UID;
     }
 
     public byte getSDM_MetaReadAccessRight() {
+        materialize();
         return SDM_MetaReadAccessRight;
     }
 
     public byte getSDM_FileReadAccessRight() {
+        materialize();
         return SDM_FileReadAccessRight;
     }
 
     public byte getSDM_CtrRetAccessRight() {
+        materialize();
         return SDM_CtrRetAccessRight;
     }
 
     public byte[] getSDM_UIDOffset() {
+        materialize();
         return SDM_UIDOffset;
     }
 
     public byte[] getSDM_ReadCtrOffset() {
+        materialize();
         return SDM_ReadCtrOffset;
     }
 
     public byte[] getSDM_PICCDataOffset() {
+        materialize();
         return SDM_PICCDataOffset;
     }
 
     public byte[] getSDM_MACInputOffset() {
+        materialize();
         return SDM_MACInputOffset;
     }
 
     public byte[] getSDM_ENCOffset() {
+        materialize();
         return SDM_ENCOffset;
     }
 
     public byte[] getSDM_ENCLength() {
+        materialize();
         return SDM_ENCLength;
     }
 
     public byte[] getSDM_MACOffset() {
+        materialize();
         return SDM_MACOffset;
     }
 
     public byte[] getSDM_ReadCtrLimit() {
+        materialize();
         return SDM_ReadCtrLimit;
     }
 }
@@ -0,0 +1,144 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the file ids and file settings of an application, replacing the former static arrays in
+ * DesfireEv3. An entry is identified by the UID of the card (the tag id), the application identifier and a
+ * settings version hint, so the settings of one card are never used for another card or application.
+ * When the cache is full the least recently used entry gets removed.
+ * <p>
+ * DesfireEv3 invalidates the entry of the selected application before it creates, deletes or changes a file and
+ * invalidates all entries of the card before a FormatPicc. Changes done by another reader are not recognized,
+ * in this case raise the version hint (DesfireEv3.setFileSettingsVersionHint) or call invalidate.
+ * Note: a card with a random UID gets a new tag id on each tap, so the cache gives no hits on these cards.
+ * <p>
+ * The class is thread safe, one instance can be shared by several DesfireEv3 objects (e.g. one per tap).
+ */
+
+public class FileSettingsCache {
+
+    public static final int DEFAULT_CAPACITY = 16;
+
+    private final int capacity;
+    private final LinkedHashMap<String, Entry> entries;
+    private long hits = 0;
+    private long misses = 0;
+
+    public FileSettingsCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public FileSettingsCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity needs to be at least 1");
+        }
+        this.capacity = capacity;
+        // access order = true: the iteration order is from the least to the most recently used entry
+        // inside the anonymous map "Entry" resolves to Map.Entry, so the own class needs the qualified name
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FileSettingsCache.Entry> eldest) {
+                return size() > FileSettingsCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * an immutable set of the file ids and the file settings (indexed by the file number) of one application
+     */
+    public static class Entry {
+        private final byte[] fileIds;
+        private final FileSettings[] fileSettings;
+
+        private Entry(byte[] fileIds, FileSettings[] fileSettings) {
+            this.fileIds = fileIds.clone();
+            this.fileSettings = fileSettings.clone();
+        }
+
+        public byte[] getFileIds() {
+            return fileIds.clone();
+        }
+
+        public FileSettings[] getFileSettings() {
+            return fileSettings.clone();
+        }
+    }
+
+    /**
+     * @param uid           of the card, can be null
+     * @param aid           of the application
+     * @param versionHint   the settings version hint
+     * @return the cached file ids and settings or null if there is no entry (or uid or aid are null)
+     */
+    public synchronized Entry get(byte[] uid, byte[] aid, int versionHint) {
+        if ((uid == null) || (aid == null)) return null;
+        Entry entry = entries.get(getKey(uid, aid, versionHint));
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * stores the file ids and settings of an application, nothing is stored if one parameter is null
+     *
+     * @param fileIds      of the application
+     * @param fileSettings of the application, indexed by the file number
+     */
+    public synchronized void put(byte[] uid, byte[] aid, int versionHint, byte[] fileIds, FileSettings[] fileSettings) {
+        if ((uid == null) || (aid == null) || (fileIds == null) || (fileSettings == null)) return;
+        entries.put(getKey(uid, aid, versionHint), new Entry(fileIds, fileSettings));
+    }
+
+    /**
+     * removes the entries of an application on a card, regardless of the version hint
+     */
+    public synchronized void invalidate(byte[] uid, byte[] aid) {
+        if ((uid == null) || (aid == null)) return;
+        removeByPrefix(Utils.bytesToHexNpe(uid) + ":" + Utils.bytesToHexNpe(aid) + ":");
+    }
+
+    /**
+     * removes the entries of all applications on a card
+     */
+    public synchronized void invalidateCard(byte[] uid) {
+        if (uid == null) return;
+        removeByPrefix(Utils.bytesToHexNpe(uid) + ":");
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private void removeByPrefix(String prefix) {
+        Iterator<String> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(prefix)) iterator.remove();
+        }
+    }
+
+    private static String getKey(byte[] uid, byte[] aid, int versionHint) {
+        return Utils.bytesToHexNpe(uid) + ":" + Utils.bytesToHexNpe(aid) + ":" + versionHint;
+    }
+}
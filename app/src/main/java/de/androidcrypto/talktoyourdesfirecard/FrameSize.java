@@ -0,0 +1,136 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+/**
+ * This class calculates the largest data chunk that can be sent (or received) with one ReadData or
+ * WriteData command (Data and Record files) without exceeding a frame. The limits are taken from
+ * - the frame size of the card (FSC), coded as FSCI in the format byte T0 of the ATS (ISO/IEC 14443-4),
+ * - the maximum transceive length of the reader (IsoDep.getMaxTransceiveLength()),
+ * - the overhead of the wrapped APDU, the command header and the communication mode (MAC, padding).
+ * <p>
+ * Examples: a DESFire EV1 announces FSCI 5 (64 bytes), a DESFire EV2 or EV3 announces FSCI 8 (256 bytes).
+ * Without a negotiation DesfireEv3 uses the former fixed chunk length of 40 bytes.
+ */
+
+public class FrameSize {
+
+    private static final int[] FSC_FROM_FSCI = {16, 24, 32, 40, 48, 64, 96, 128, 256};
+    public static final int FSCI_DEFAULT_WITHOUT_T0 = 2; // ISO/IEC 14443-4: FSCI = 2 (32 bytes) if T0 is missing
+    public static final int FSCI_DESFIRE_EV1 = 5; // used when the ATS is unknown, the smallest frame size of the DESFire family
+    private static final int ISO_DEP_FRAME_OVERHEAD = 3; // PCB and 2 bytes CRC_A
+    private static final int MAXIMUM_FSD = 256; // the frame size of the reader
+    private static final int WRAPPED_APDU_OVERHEAD = 6; // CLA INS P1 P2 Lc ... Le
+    private static final int MAXIMUM_LC = 255; // short APDU
+    private static final int STATUS_WORD_LENGTH = 2;
+    private static final int DATA_COMMAND_HEADER_LENGTH = 7; // fileNumber || offset (3 bytes) || length (3 bytes)
+    private static final int MAC_LENGTH = 8;
+    private static final int AES_BLOCK_SIZE = 16;
+
+    private static final byte COMMUNICATION_SETTINGS_PLAIN = (byte) 0x00;
+    private static final byte COMMUNICATION_SETTINGS_MACED = (byte) 0x01;
+
+    private final int fsci;
+    private final int readerMaxTransceiveLength;
+    private final int maximumCommandDataLength;
+    private final int maximumResponseDataLength;
+
+    /**
+     * @param fsci                      the Frame Size for proximity Card Integer (0..8, higher values are treated as 8)
+     * @param readerMaxTransceiveLength the maximum APDU length of the reader, e.g. IsoDep.getMaxTransceiveLength()
+     */
+    public FrameSize(int fsci, int readerMaxTransceiveLength) {
+        this.fsci = fsci;
+        this.readerMaxTransceiveLength = readerMaxTransceiveLength;
+        int maximumCommandApduLength = Math.min(readerMaxTransceiveLength, getFsc(fsci) - ISO_DEP_FRAME_OVERHEAD);
+        maximumCommandDataLength = Math.max(0, Math.min(maximumCommandApduLength - WRAPPED_APDU_OVERHEAD, MAXIMUM_LC));
+        int maximumResponseApduLength = Math.min(readerMaxTransceiveLength, MAXIMUM_FSD - ISO_DEP_FRAME_OVERHEAD);
+        maximumResponseDataLength = Math.max(0, maximumResponseApduLength - STATUS_WORD_LENGTH);
+    }
+
+    /**
+     * @param ats                       the Answer To Select (starting with the length byte TL), can be null
+     * @param readerMaxTransceiveLength the maximum APDU length of the reader
+     * @return the frame size, on a missing ATS the FSCI of a DESFire EV1 is used
+     */
+    public static FrameSize fromAts(byte[] ats, int readerMaxTransceiveLength) {
+        return new FrameSize(getFsciFromAts(ats), readerMaxTransceiveLength);
+    }
+
+    /**
+     * reads the FSCI from the format byte T0 of the ATS
+     *
+     * @param ats TL || T0 || TA || TB || TC || historical bytes
+     * @return the FSCI
+     */
+    public static int getFsciFromAts(byte[] ats) {
+        if ((ats == null) || (ats.length < 1)) return FSCI_DESFIRE_EV1;
+        if ((ats.length < 2) || ((ats[0] & 0xFF) < 2)) return FSCI_DEFAULT_WITHOUT_T0;
+        return ats[1] & 0x0F;
+    }
+
+    /**
+     * @param fsci the Frame Size for proximity Card Integer
+     * @return the Frame Size for proximity Card (FSC) in bytes, FSCI values > 8 are RFU and get 256 bytes
+     */
+    public static int getFsc(int fsci) {
+        if (fsci < 0) return FSC_FROM_FSCI[0];
+        if (fsci >= FSC_FROM_FSCI.length) return FSC_FROM_FSCI[FSC_FROM_FSCI.length - 1];
+        return FSC_FROM_FSCI[fsci];
+    }
+
+    /**
+     * the largest number of data bytes for one WriteData or WriteRecord command
+     *
+     * @param communicationSettings 0x00 = Plain, 0x01 = MACed, 0x03 = Full enciphered
+     */
+    public int getMaximumWriteDataLength(byte communicationSettings) {
+        return getMaximumPayload(maximumCommandDataLength - DATA_COMMAND_HEADER_LENGTH, communicationSettings);
+    }
+
+    /**
+     * the largest number of data bytes for one ReadData or ReadRecords command that fits into one response frame
+     *
+     * @param communicationSettings 0x00 = Plain, 0x01 = MACed, 0x03 = Full enciphered
+     */
+    public int getMaximumReadDataLength(byte communicationSettings) {
+        return getMaximumPayload(maximumResponseDataLength, communicationSettings);
+    }
+
+    private static int getMaximumPayload(int available, byte communicationSettings) {
+        int payload;
+        if (communicationSettings == COMMUNICATION_SETTINGS_PLAIN) {
+            payload = available;
+        } else if (communicationSettings == COMMUNICATION_SETTINGS_MACED) {
+            payload = available - MAC_LENGTH;
+        } else {
+            // Full: the data is always padded (at least 1 byte) to a multiple of 16 bytes
+            payload = ((available - MAC_LENGTH) / AES_BLOCK_SIZE) * AES_BLOCK_SIZE - 1;
+        }
+        return Math.max(1, payload);
+    }
+
+    public int getFsci() {
+        return fsci;
+    }
+
+    public int getFsc() {
+        return getFsc(fsci);
+    }
+
+    public int getReaderMaxTransceiveLength() {
+        return readerMaxTransceiveLength;
+    }
+
+    public int getMaximumCommandDataLength() {
+        return maximumCommandDataLength;
+    }
+
+    public int getMaximumResponseDataLength() {
+        return maximumResponseDataLength;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameSize FSCI: " + fsci + " FSC: " + getFsc() + " readerMaxTransceiveLength: " + readerMaxTransceiveLength +
+                " maximumCommandDataLength: " + maximumCommandDataLength + " maximumResponseDataLength: " + maximumResponseDataLength;
+    }
+}
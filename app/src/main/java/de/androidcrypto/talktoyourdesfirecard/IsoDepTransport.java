@@ -0,0 +1,55 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import android.nfc.Tag;
+import android.nfc.tech.IsoDep;
+
+import java.io.IOException;
+
+/**
+ * The default ApduTransport that forwards all APDUs to a real tag using Android's IsoDep class.
+ * A TagLostException is an IOException and is handed to the caller unchanged.
+ */
+
+public class IsoDepTransport implements ApduTransport {
+
+    private final IsoDep isoDep;
+
+    public IsoDepTransport(IsoDep isoDep) {
+        this.isoDep = isoDep;
+    }
+
+    @Override
+    public byte[] transceive(byte[] apdu) throws IOException {
+        return isoDep.transceive(apdu);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return isoDep.isConnected();
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return isoDep.getMaxTransceiveLength();
+    }
+
+    @Override
+    public byte[] getTagId() {
+        Tag tag = isoDep.getTag();
+        if (tag == null) return null;
+        return tag.getId();
+    }
+
+    /**
+     * IsoDep does not expose the format byte T0, so the frame size falls back to a DESFire EV1
+     * (64 bytes, see FrameSize.fromAts)
+     */
+    @Override
+    public byte[] getAts() {
+        return null;
+    }
+
+    public IsoDep getIsoDep() {
+        return isoDep;
+    }
+}
@@ -0,0 +1,299 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import android.util.Log;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Key diversification as described in NXP's AN10922 'Symmetric key diversifications', sections 2.2 (AES-128) and
+ * 2.3 (2-key Triple DES). A card key is derived from a master key and the diversification input
+ * M = UID || AID || System Identifier, so every card gets its own keys and a compromised card does not reveal the
+ * keys of other cards.
+ * <p>
+ * The master key is set up once: the block cipher is initialized (key schedule) and the CMAC subkeys K1 and K2
+ * are calculated in the constructor, deriving a key needs 2 block encryptions (AES) or 4 block encryptions (2TDEA)
+ * only. deriveKeys derives the keys for a list of inputs in parallel, each thread uses an own cipher with the
+ * cached subkeys.
+ * Usage:
+ * KeyDiversification keyDiversification = new KeyDiversification(masterKey, KeyDiversification.KeyType.AES, systemIdentifier);
+ * desfireEv3.selectApplicationByAid(aid);
+ * byte[] cardKey = desfireEv3.deriveApplicationKey(keyDiversification);
+ * desfireEv3.authenticateAesEv2First(keyNumber, cardKey);
+ */
+
+public class KeyDiversification {
+
+    private static final String TAG = KeyDiversification.class.getName();
+
+    public enum KeyType {
+        AES, // AES-128, derived with AES-CMAC
+        TDES_2KEY // 2-key Triple DES (16 bytes), derived with TDEA-CMAC
+    }
+
+    private static final byte AES_DIVERSIFICATION_CONSTANT = (byte) 0x01;
+    private static final byte TDES_DIVERSIFICATION_CONSTANT_1 = (byte) 0x21;
+    private static final byte TDES_DIVERSIFICATION_CONSTANT_2 = (byte) 0x22;
+    private static final byte AES_RB = (byte) 0x87; // the constant for the subkey generation with 128 bit blocks
+    private static final byte TDES_RB = (byte) 0x1B; // the constant for the subkey generation with 64 bit blocks
+    public static final int MAXIMUM_AES_INPUT_LENGTH = 31;
+    public static final int MAXIMUM_TDES_INPUT_LENGTH = 15;
+
+    private final KeyType keyType;
+    private final SecretKeySpec keySpec;
+    private final String transformation;
+    private final int blockSize;
+    private final byte[] systemIdentifier;
+    private final byte[] k1;
+    private final byte[] k2;
+    private final Cipher cipher; // guarded by this
+
+    /**
+     * @param masterKey        | 16 bytes, AES or 2-key Triple DES key
+     * @param keyType          | the type of the master key and of the derived keys
+     * @param systemIdentifier | the system identifier part of the diversification input, e.g. the name of the
+     *                         | system as bytes; may be empty
+     * @throws GeneralSecurityException if the cipher could not get initialized
+     */
+    public KeyDiversification(byte[] masterKey, KeyType keyType, byte[] systemIdentifier) throws GeneralSecurityException {
+        if ((masterKey == null) || (masterKey.length != 16)) {
+            throw new IllegalArgumentException("masterKey is NULL or not of length 16");
+        }
+        if (keyType == null) {
+            throw new IllegalArgumentException("keyType is NULL");
+        }
+        this.keyType = keyType;
+        this.systemIdentifier = (systemIdentifier == null) ? new byte[0] : systemIdentifier.clone();
+        byte rb;
+        if (keyType == KeyType.AES) {
+            keySpec = new SecretKeySpec(masterKey, "AES");
+            transformation = "AES/ECB/NoPadding";
+            blockSize = 16;
+            rb = AES_RB;
+        } else {
+            // a 2-key Triple DES key K1 || K2 is used as K1 || K2 || K1
+            byte[] tdesKey = new byte[24];
+            System.arraycopy(masterKey, 0, tdesKey, 0, 16);
+            System.arraycopy(masterKey, 0, tdesKey, 16, 8);
+            keySpec = new SecretKeySpec(tdesKey, "DESede");
+            transformation = "DESede/ECB/NoPadding";
+            blockSize = 8;
+            rb = TDES_RB;
+        }
+        cipher = Cipher.getInstance(transformation);
+        cipher.init(Cipher.ENCRYPT_MODE, keySpec);
+        // the subkeys are derived from L = E(K, 0)
+        byte[] l = cipher.doFinal(new byte[blockSize]);
+        k1 = doubleSubKey(l, rb);
+        k2 = doubleSubKey(k1, rb);
+    }
+
+    /**
+     * builds the diversification input M = UID || AID || System Identifier
+     *
+     * @param uid                   | the UID of the card, usually 7 bytes
+     * @param applicationIdentifier | 3 bytes, in the byte order used for selectApplicationByAid; may be null
+     * @param systemIdentifier      | may be null
+     */
+    public static byte[] buildDiversificationInput(byte[] uid, byte[] applicationIdentifier, byte[] systemIdentifier) {
+        if (uid == null) {
+            throw new IllegalArgumentException("uid is NULL");
+        }
+        int aidLength = (applicationIdentifier == null) ? 0 : applicationIdentifier.length;
+        int systemIdentifierLength = (systemIdentifier == null) ? 0 : systemIdentifier.length;
+        byte[] input = new byte[uid.length + aidLength + systemIdentifierLength];
+        System.arraycopy(uid, 0, input, 0, uid.length);
+        if (aidLength > 0) System.arraycopy(applicationIdentifier, 0, input, uid.length, aidLength);
+        if (systemIdentifierLength > 0) System.arraycopy(systemIdentifier, 0, input, uid.length + aidLength, systemIdentifierLength);
+        return input;
+    }
+
+    /**
+     * derives the key of a card for an application with the system identifier of this object
+     *
+     * @param uid                   | the UID of the card
+     * @param applicationIdentifier | 3 bytes; may be null for card level keys
+     * @return the 16 bytes long diversified key
+     */
+    public byte[] deriveKey(byte[] uid, byte[] applicationIdentifier) {
+        return deriveKey(buildDiversificationInput(uid, applicationIdentifier, systemIdentifier));
+    }
+
+    /**
+     * derives a key from the diversification input M
+     *
+     * @param diversificationInput | 1..31 bytes for AES, 1..15 bytes for 2-key Triple DES
+     * @return the 16 bytes long diversified key
+     */
+    public synchronized byte[] deriveKey(byte[] diversificationInput) {
+        checkDiversificationInput(diversificationInput);
+        try {
+            return deriveKey(cipher, diversificationInput);
+        } catch (GeneralSecurityException e) {
+            // the cipher is initialized in the constructor, this should never happen
+            Log.e(TAG, "Exception on deriveKey: " + e.getMessage());
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * derives the keys for a list of diversification inputs, e.g. for the UIDs of a batch of cards. The list is
+     * split into one part per thread, each thread uses an own cipher.
+     *
+     * @param diversificationInputs | see deriveKey(byte[])
+     * @param numberOfThreads       | 1 = the keys are derived in the calling thread
+     * @return the keys in the order of the inputs
+     * @throws GeneralSecurityException if a cipher could not get initialized
+     * @throws InterruptedException     if the calling thread is interrupted while waiting for the results
+     */
+    public byte[][] deriveKeys(List<byte[]> diversificationInputs, int numberOfThreads) throws GeneralSecurityException, InterruptedException {
+        if (diversificationInputs == null) {
+            throw new IllegalArgumentException("diversificationInputs is NULL");
+        }
+        if (numberOfThreads < 1) {
+            throw new IllegalArgumentException("numberOfThreads needs to be at least 1");
+        }
+        for (byte[] diversificationInput : diversificationInputs) {
+            checkDiversificationInput(diversificationInput);
+        }
+        final byte[][] keys = new byte[diversificationInputs.size()][];
+        int numberOfParts = Math.min(numberOfThreads, keys.length);
+        if (numberOfParts <= 1) {
+            deriveKeys(diversificationInputs, keys, 0, keys.length);
+            return keys;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfParts);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int part = 0; part < numberOfParts; part++) {
+                final int from = (int) ((long) keys.length * part / numberOfParts);
+                final int to = (int) ((long) keys.length * (part + 1) / numberOfParts);
+                futures.add(executor.submit(() -> {
+                    deriveKeys(diversificationInputs, keys, from, to);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof GeneralSecurityException) {
+                        throw (GeneralSecurityException) e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return keys;
+    }
+
+    private void deriveKeys(List<byte[]> diversificationInputs, byte[][] keys, int from, int to) throws GeneralSecurityException {
+        Cipher partCipher = Cipher.getInstance(transformation);
+        partCipher.init(Cipher.ENCRYPT_MODE, keySpec);
+        for (int i = from; i < to; i++) {
+            keys[i] = deriveKey(partCipher, diversificationInputs.get(i));
+        }
+    }
+
+    private byte[] deriveKey(Cipher blockCipher, byte[] diversificationInput) throws GeneralSecurityException {
+        if (keyType == KeyType.AES) {
+            return cmac(blockCipher, AES_DIVERSIFICATION_CONSTANT, diversificationInput);
+        }
+        byte[] key = new byte[16];
+        System.arraycopy(cmac(blockCipher, TDES_DIVERSIFICATION_CONSTANT_1, diversificationInput), 0, key, 0, 8);
+        System.arraycopy(cmac(blockCipher, TDES_DIVERSIFICATION_CONSTANT_2, diversificationInput), 0, key, 8, 8);
+        return key;
+    }
+
+    /**
+     * the CMAC of D = constant || M || padding with the cached subkeys. Other than in a plain CMAC the input is
+     * always padded to 2 blocks, K2 is used if padding was added, K1 otherwise (AN10922).
+     */
+    private byte[] cmac(Cipher blockCipher, byte constant, byte[] diversificationInput) throws GeneralSecurityException {
+        byte[] d = new byte[2 * blockSize];
+        d[0] = constant;
+        System.arraycopy(diversificationInput, 0, d, 1, diversificationInput.length);
+        byte[] subKey = k1;
+        if (diversificationInput.length + 1 < d.length) {
+            d[diversificationInput.length + 1] = (byte) 0x80;
+            subKey = k2;
+        }
+        for (int i = 0; i < blockSize; i++) {
+            d[blockSize + i] ^= subKey[i];
+        }
+        // CBC with a zero IV over the 2 blocks, the MAC is the last cipher block
+        byte[] x = blockCipher.doFinal(d, 0, blockSize);
+        for (int i = 0; i < blockSize; i++) {
+            x[i] ^= d[blockSize + i];
+        }
+        return blockCipher.doFinal(x);
+    }
+
+    private void checkDiversificationInput(byte[] diversificationInput) {
+        int maximumLength = (keyType == KeyType.AES) ? MAXIMUM_AES_INPUT_LENGTH : MAXIMUM_TDES_INPUT_LENGTH;
+        if ((diversificationInput == null) || (diversificationInput.length < 1) || (diversificationInput.length > maximumLength)) {
+            throw new IllegalArgumentException("diversificationInput is NULL or not of length 1.." + maximumLength);
+        }
+    }
+
+    private static byte[] doubleSubKey(byte[] k, byte rb) {
+        byte[] ret = new byte[k.length];
+        for (int i = 0; i < k.length; i++) {
+            ret[i] = (byte) (k[i] << 1);
+            if ((i + 1 < k.length) && ((k[i + 1] & 0x80) != 0)) {
+                ret[i] |= 0x01;
+            }
+        }
+        if ((k[0] & 0x80) != 0) {
+            ret[ret.length - 1] ^= rb;
+        }
+        return ret;
+    }
+
+    public KeyType getKeyType() {
+        return keyType;
+    }
+
+    public byte[] getSystemIdentifier() {
+        return systemIdentifier.clone();
+    }
+
+    /**
+     * a KeyProvider for the PersonalizationPipeline: the AID and system identifier part of the diversification
+     * input is prepared in the background stage, the UID is added in the tap window
+     *
+     * @param keyDiversifications   | one AES KeyDiversification (master key) per application key number
+     * @param applicationIdentifier | the AID of the personalized application
+     */
+    public static PersonalizationPipeline.KeyProvider createKeyProvider(final KeyDiversification[] keyDiversifications, final byte[] applicationIdentifier) {
+        if ((keyDiversifications == null) || (keyDiversifications.length == 0)) {
+            throw new IllegalArgumentException("keyDiversifications is NULL or empty");
+        }
+        for (KeyDiversification keyDiversification : keyDiversifications) {
+            if ((keyDiversification == null) || (keyDiversification.keyType != KeyType.AES)) {
+                throw new IllegalArgumentException("the application keys need AES master keys");
+            }
+        }
+        return new PersonalizationPipeline.KeyProvider() {
+            @Override
+            public byte[] prepare(byte keyNumber, long serialNumber) {
+                return buildDiversificationInput(new byte[0], applicationIdentifier, keyDiversifications[keyNumber].systemIdentifier);
+            }
+
+            @Override
+            public byte[] deriveKey(byte keyNumber, byte[] preparedInput, byte[] uid) {
+                return keyDiversifications[keyNumber].deriveKey(buildDiversificationInput(uid, preparedInput, null));
+            }
+        };
+    }
+}
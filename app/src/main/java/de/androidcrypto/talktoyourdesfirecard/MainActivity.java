@@ -222,6 +222,9 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        // this app prints the DesfireEv3 trace (getLogData), the trace is recorded on level DEBUG only
+        DesfireLog.setLevel(DesfireLog.DEBUG);
+
         Toolbar myToolbar = (Toolbar) findViewById(R.id.main_toolbar);
         setSupportActionBar(myToolbar);
 
@@ -320,6 +323,8 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         getWindow().setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_STATE_ALWAYS_HIDDEN);
 
         mNfcAdapter = NfcAdapter.getDefaultAdapter(this);
+        // seed the random generator for the authentication challenges before the first tag is tapped
+        SecureRandomSource.warmUp();
 
 
         /**
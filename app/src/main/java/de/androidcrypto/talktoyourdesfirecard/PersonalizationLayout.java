@@ -0,0 +1,388 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The card independent part of a personalization: the application, the files and the keys that are written to
+ * every card of a production run. The create commands are coded here in the same way as in
+ * DesfireEv3.createApplicationAes, createADataFile, createAValueFile and createARecordFile, so they can get built
+ * once before any card is tapped.
+ * <p>
+ * testEnvironment() returns the layout of SetupTestEnvironmentActivity (AID A1A2A3, 5 AES keys, 15 files).
+ */
+
+public class PersonalizationLayout {
+
+    private static final byte CREATE_APPLICATION_COMMAND = (byte) 0xCA;
+    private static final byte CREATE_STANDARD_FILE_COMMAND = (byte) 0xCD;
+    private static final byte CREATE_BACKUP_FILE_COMMAND = (byte) 0xCB;
+    private static final byte CREATE_VALUE_FILE_COMMAND = (byte) 0xCC;
+    private static final byte CREATE_LINEAR_RECORD_FILE_COMMAND = (byte) 0xC1;
+    private static final byte CREATE_CYCLIC_RECORD_FILE_COMMAND = (byte) 0xC0;
+    private static final byte APPLICATION_MASTER_KEY_SETTINGS = (byte) 0x0F; // 'amks' all default values
+
+    private final byte[] applicationIdentifier;
+    private final int numberOfApplicationKeys;
+    private final List<FileDefinition> files;
+    private final byte ndefFileNumber; // -1 = no NDEF file
+    private final NdefFileContent ndefFileContent;
+    private final byte keyVersion;
+
+    private PersonalizationLayout(Builder builder) {
+        this.applicationIdentifier = builder.applicationIdentifier;
+        this.numberOfApplicationKeys = builder.numberOfApplicationKeys;
+        this.files = Collections.unmodifiableList(new ArrayList<>(builder.files));
+        this.ndefFileNumber = builder.ndefFileNumber;
+        this.ndefFileContent = builder.ndefFileContent;
+        this.keyVersion = builder.keyVersion;
+    }
+
+    /**
+     * the layout of SetupTestEnvironmentActivity: a Standard, Backup, Value, Linear Record and Cyclic Record file
+     * in the communication modes Plain, MACed and Full each
+     */
+    public static PersonalizationLayout testEnvironment() {
+        byte[] accessRights = Constants.FILE_ACCESS_RIGHTS_DEFAULT;
+        Builder builder = new Builder(Constants.APPLICATION_IDENTIFIER_AES, Constants.APPLICATION_NUMBER_OF_KEYS_DEFAULT);
+        builder.standardFile(Constants.STANDARD_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, accessRights, 256)
+                .standardFile(Constants.STANDARD_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, accessRights, 256)
+                .standardFile(Constants.STANDARD_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, accessRights, 256)
+                .backupFile(Constants.BACKUP_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, accessRights, 32)
+                .backupFile(Constants.BACKUP_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, accessRights, 32)
+                .backupFile(Constants.BACKUP_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, accessRights, 32)
+                .valueFile(Constants.VALUE_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, accessRights, 0, 10000, 0)
+                .valueFile(Constants.VALUE_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, accessRights, 0, 10000, 0)
+                .valueFile(Constants.VALUE_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, accessRights, 0, 10000, 0)
+                .linearRecordFile(Constants.LINEAR_RECORD_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, accessRights, 32, 3)
+                .linearRecordFile(Constants.LINEAR_RECORD_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, accessRights, 32, 3)
+                .linearRecordFile(Constants.LINEAR_RECORD_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, accessRights, 32, 3)
+                .cyclicRecordFile(Constants.CYCLIC_RECORD_FILE_PLAIN_NUMBER, DesfireEv3.CommunicationSettings.Plain, accessRights, 32, 4)
+                .cyclicRecordFile(Constants.CYCLIC_RECORD_FILE_MACED_NUMBER, DesfireEv3.CommunicationSettings.MACed, accessRights, 32, 4)
+                .cyclicRecordFile(Constants.CYCLIC_RECORD_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, accessRights, 32, 4);
+        return builder.build();
+    }
+
+    /**
+     * builds the content of the NDEF file for a card, runs in the background stage of the PersonalizationPipeline
+     */
+    public interface NdefFileContent {
+        byte[] build(long serialNumber);
+    }
+
+    /**
+     * one file of the layout with its precomputed create command
+     */
+    public static class FileDefinition {
+        private final byte fileNumber;
+        private final byte[] createApdu;
+
+        private FileDefinition(byte fileNumber, byte command, byte[] commandParameter) {
+            this.fileNumber = fileNumber;
+            this.createApdu = wrapMessage(command, commandParameter);
+        }
+
+        public byte getFileNumber() {
+            return fileNumber;
+        }
+
+        /**
+         * @return the key number for writing to the file: the Read & Write key, or the Write key if the Read & Write
+         * access is not granted to a key, -1 on free access
+         */
+        public int getWriteKeyNumber() {
+            // the access rights are at position 7 and 8 of the create command: RW key || CAR key, R key || W key
+            int readWriteKeyNumber = (createApdu[7] >> 4) & 0x0F;
+            int writeKeyNumber = createApdu[8] & 0x0F;
+            if ((readWriteKeyNumber == 0x0E) || (writeKeyNumber == 0x0E)) return -1;
+            if (readWriteKeyNumber < 0x0E) return readWriteKeyNumber;
+            if (writeKeyNumber < 0x0E) return writeKeyNumber;
+            return -1;
+        }
+
+        public byte[] getCreateApdu() {
+            return createApdu.clone();
+        }
+
+        /**
+         * @return the response of the getFileSettings command for the new file
+         */
+        byte[] getFileSettingsResponse() {
+            // createApdu: 90 || command || 00 00 || Lc || file number || commSettings || access rights (2) || parameters || 00
+            int parametersLength = createApdu[4] - 4;
+            byte fileType;
+            switch (createApdu[1]) {
+                case CREATE_STANDARD_FILE_COMMAND:
+                    fileType = (byte) 0x00;
+                    break;
+                case CREATE_BACKUP_FILE_COMMAND:
+                    fileType = (byte) 0x01;
+                    break;
+                case CREATE_VALUE_FILE_COMMAND:
+                    fileType = (byte) 0x02;
+                    break;
+                case CREATE_LINEAR_RECORD_FILE_COMMAND:
+                    fileType = (byte) 0x03;
+                    break;
+                default:
+                    fileType = (byte) 0x04;
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            baos.write(fileType);
+            baos.write(createApdu, 6, 3); // commSettings || access rights
+            if (fileType == (byte) 0x02) {
+                // lower limit || upper limit || limited credit value || limited credit enabled
+                baos.write(createApdu, 9, 8);
+                baos.write(new byte[4], 0, 4);
+                baos.write(createApdu[21]);
+            } else {
+                baos.write(createApdu, 9, parametersLength);
+                // the current number of records
+                if (fileType >= (byte) 0x03) baos.write(new byte[3], 0, 3);
+            }
+            return baos.toByteArray();
+        }
+    }
+
+    public static class Builder {
+        private final byte[] applicationIdentifier;
+        private final int numberOfApplicationKeys;
+        private final List<FileDefinition> files = new ArrayList<>();
+        private byte ndefFileNumber = -1;
+        private NdefFileContent ndefFileContent;
+        private byte keyVersion = (byte) 0x01;
+
+        /**
+         * @param applicationIdentifier   | length 3 but NOT '000000'
+         * @param numberOfApplicationKeys | range 1..14, the keys are AES keys
+         */
+        public Builder(byte[] applicationIdentifier, int numberOfApplicationKeys) {
+            if ((applicationIdentifier == null) || (applicationIdentifier.length != 3)) {
+                throw new IllegalArgumentException("applicationIdentifier is not of length 3");
+            }
+            if ((numberOfApplicationKeys < 1) || (numberOfApplicationKeys > 14)) {
+                throw new IllegalArgumentException("numberOfApplicationKeys is not in range 1..14");
+            }
+            this.applicationIdentifier = applicationIdentifier.clone();
+            this.numberOfApplicationKeys = numberOfApplicationKeys;
+        }
+
+        public Builder standardFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int fileSize) {
+            return dataFile(CREATE_STANDARD_FILE_COMMAND, fileNumber, communicationSettings, accessRights, fileSize);
+        }
+
+        public Builder backupFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int fileSize) {
+            return dataFile(CREATE_BACKUP_FILE_COMMAND, fileNumber, communicationSettings, accessRights, fileSize);
+        }
+
+        public Builder valueFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int minimumValue, int maximumValue, int initialValue) {
+            if ((minimumValue < 0) || (minimumValue >= maximumValue) || (initialValue < minimumValue) || (initialValue > maximumValue)) {
+                throw new IllegalArgumentException("the values need minimumValue <= initialValue <= maximumValue and minimumValue < maximumValue");
+            }
+            ByteArrayOutputStream baos = fileHeader(fileNumber, communicationSettings, accessRights);
+            baos.write(Utils.intTo4ByteArrayInversed(minimumValue), 0, 4);
+            baos.write(Utils.intTo4ByteArrayInversed(maximumValue), 0, 4);
+            baos.write(Utils.intTo4ByteArrayInversed(initialValue), 0, 4);
+            baos.write((byte) 0x00); // limited credit operation disabled
+            return add(new FileDefinition(fileNumber, CREATE_VALUE_FILE_COMMAND, baos.toByteArray()));
+        }
+
+        public Builder linearRecordFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
+            return recordFile(CREATE_LINEAR_RECORD_FILE_COMMAND, fileNumber, communicationSettings, accessRights, recordSize, maximumNumberOfRecords);
+        }
+
+        public Builder cyclicRecordFile(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
+            return recordFile(CREATE_CYCLIC_RECORD_FILE_COMMAND, fileNumber, communicationSettings, accessRights, recordSize, maximumNumberOfRecords);
+        }
+
+        /**
+         * each card gets an Url record with its serial number in the (Standard) file, e.g. 'https://example.com/card?id=' + serial
+         *
+         * @param fileNumber | a Standard file of the layout
+         * @param urlPrefix  | the serial number is appended
+         */
+        public Builder ndefUrl(byte fileNumber, String urlPrefix) {
+            if ((urlPrefix == null) || (!Utils.isValidUrl(urlPrefix))) {
+                throw new IllegalArgumentException("urlPrefix is not a valid Url");
+            }
+            return ndefFile(fileNumber, serialNumber -> DesfireEv3.buildNdefUrlFileContent(urlPrefix + serialNumber));
+        }
+
+        /**
+         * each card gets the NDEF file content built for its serial number, e.g. a Text record
+         *
+         * @param fileNumber      | a Standard file of the layout
+         * @param ndefFileContent | builds the complete file content including the 2 bytes length of the NDEF message
+         */
+        public Builder ndefFile(byte fileNumber, NdefFileContent ndefFileContent) {
+            if (ndefFileContent == null) {
+                throw new IllegalArgumentException("ndefFileContent is NULL");
+            }
+            this.ndefFileNumber = fileNumber;
+            this.ndefFileContent = ndefFileContent;
+            return this;
+        }
+
+        /**
+         * @param keyVersion | the version of the personalized application keys, default 0x01
+         */
+        public Builder keyVersion(byte keyVersion) {
+            this.keyVersion = keyVersion;
+            return this;
+        }
+
+        public PersonalizationLayout build() {
+            if (ndefFileNumber >= 0) {
+                boolean isFound = false;
+                for (FileDefinition file : files) {
+                    if ((file.fileNumber == ndefFileNumber) && (file.createApdu[1] == CREATE_STANDARD_FILE_COMMAND)) isFound = true;
+                }
+                if (!isFound) {
+                    throw new IllegalStateException("the NDEF file " + ndefFileNumber + " is not a Standard file of the layout");
+                }
+            }
+            return new PersonalizationLayout(this);
+        }
+
+        private Builder dataFile(byte command, byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int fileSize) {
+            if ((fileSize < 1) || (fileSize > DesfireEv3.MAXIMUM_FILE_SIZE)) {
+                throw new IllegalArgumentException("fileSize is not in range 1..MAXIMUM_FILE_SIZE");
+            }
+            ByteArrayOutputStream baos = fileHeader(fileNumber, communicationSettings, accessRights);
+            baos.write(Utils.intTo3ByteArrayInversed(fileSize), 0, 3);
+            return add(new FileDefinition(fileNumber, command, baos.toByteArray()));
+        }
+
+        private Builder recordFile(byte command, byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
+            if ((recordSize < 1) || (maximumNumberOfRecords < 1)) {
+                throw new IllegalArgumentException("recordSize and maximumNumberOfRecords need to be at least 1");
+            }
+            ByteArrayOutputStream baos = fileHeader(fileNumber, communicationSettings, accessRights);
+            baos.write(Utils.intTo3ByteArrayInversed(recordSize), 0, 3);
+            baos.write(Utils.intTo3ByteArrayInversed(maximumNumberOfRecords), 0, 3);
+            return add(new FileDefinition(fileNumber, command, baos.toByteArray()));
+        }
+
+        private Builder add(FileDefinition file) {
+            for (FileDefinition existing : files) {
+                if (existing.fileNumber == file.fileNumber) {
+                    throw new IllegalArgumentException("the fileNumber " + file.fileNumber + " is used twice");
+                }
+            }
+            files.add(file);
+            return this;
+        }
+
+        private static ByteArrayOutputStream fileHeader(byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights) {
+            if ((fileNumber < 0) || (fileNumber > 31)) {
+                throw new IllegalArgumentException("fileNumber is not in range 0..31");
+            }
+            if ((accessRights == null) || (accessRights.length != 2)) {
+                throw new IllegalArgumentException("accessRights is not of length 2");
+            }
+            if (communicationSettings == null) {
+                throw new IllegalArgumentException("communicationSettings is NULL");
+            }
+            byte commSettings = (byte) 0x00; // Plain
+            if (communicationSettings == DesfireEv3.CommunicationSettings.MACed) commSettings = (byte) 0x01;
+            if (communicationSettings == DesfireEv3.CommunicationSettings.Full) commSettings = (byte) 0x03;
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            baos.write(fileNumber);
+            baos.write(commSettings);
+            baos.write(accessRights, 0, accessRights.length);
+            return baos;
+        }
+    }
+
+    /**
+     * @return the create application command, to be sent in the Master Application
+     */
+    public byte[] buildCreateApplicationApdu() {
+        byte[] commandParameter = new byte[5];
+        System.arraycopy(applicationIdentifier, 0, commandParameter, 0, 3);
+        commandParameter[3] = APPLICATION_MASTER_KEY_SETTINGS;
+        commandParameter[4] = (byte) (numberOfApplicationKeys | 0x80); // AES keys
+        return wrapMessage(CREATE_APPLICATION_COMMAND, commandParameter);
+    }
+
+    /**
+     * @return the create file commands in the order of the layout, to be sent in the selected application
+     */
+    public byte[][] buildCreateFileApdus() {
+        byte[][] apdus = new byte[files.size()][];
+        for (int i = 0; i < files.size(); i++) {
+            apdus[i] = files.get(i).getCreateApdu();
+        }
+        return apdus;
+    }
+
+    /**
+     * @return the content of the NDEF file for a card or null if the layout has no NDEF file
+     */
+    public byte[] buildNdefFileContent(long serialNumber) {
+        if (ndefFileContent == null) return null;
+        return ndefFileContent.build(serialNumber);
+    }
+
+    /**
+     * @return the application as it is expected after the personalization, the target for CardLayoutDiff. The
+     * file settings are coded like the responses of the getFileSettings command (no current records, no
+     * limited credit value), the key version is -1 (unknown).
+     */
+    public CardSnapshot.ApplicationSnapshot buildApplicationSnapshot() {
+        byte[] fileIds = new byte[files.size()];
+        FileSettings[] fileSettings = new FileSettings[32];
+        for (int i = 0; i < files.size(); i++) {
+            FileDefinition file = files.get(i);
+            fileIds[i] = file.fileNumber;
+            fileSettings[file.fileNumber] = new FileSettings(file.fileNumber, file.getFileSettingsResponse());
+        }
+        byte[] keySettings = new byte[]{APPLICATION_MASTER_KEY_SETTINGS, (byte) (numberOfApplicationKeys | 0x80)};
+        return new CardSnapshot.ApplicationSnapshot(applicationIdentifier, keySettings, -1, fileIds, fileSettings);
+    }
+
+    public byte[] getApplicationIdentifier() {
+        return applicationIdentifier.clone();
+    }
+
+    public int getNumberOfApplicationKeys() {
+        return numberOfApplicationKeys;
+    }
+
+    public List<FileDefinition> getFiles() {
+        return files;
+    }
+
+    /**
+     * @return the file number of the NDEF file or -1
+     */
+    public byte getNdefFileNumber() {
+        return ndefFileNumber;
+    }
+
+    /**
+     * @return the definition of the file or null if the file is not part of the layout
+     */
+    public FileDefinition getFile(byte fileNumber) {
+        for (FileDefinition file : files) {
+            if (file.fileNumber == fileNumber) return file;
+        }
+        return null;
+    }
+
+    public byte getKeyVersion() {
+        return keyVersion;
+    }
+
+    private static byte[] wrapMessage(byte command, byte[] parameters) {
+        // same coding as DesfireEv3.wrapMessage
+        byte[] apdu = new byte[parameters.length + 6];
+        apdu[0] = (byte) 0x90;
+        apdu[1] = command;
+        apdu[4] = (byte) parameters.length;
+        System.arraycopy(parameters, 0, apdu, 5, parameters.length);
+        return apdu;
+    }
+}
@@ -0,0 +1,246 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pipeline for the personalization of many cards with the same PersonalizationLayout. A background stage
+ * prepares everything that does not depend on the card and keeps a queue of ready work items:
+ * - the create application and create file commands (built once for all cards)
+ * - the NDEF file content with the serial number of the card
+ * - the card independent input for the key derivation (KeyProvider.prepare)
+ * In the tap window only the card dependent work is done: sending the prepared commands, the authentication,
+ * reading the card UID, deriving the keys and the encrypted key changes.
+ * <p>
+ * The personalization runs on blank cards with default (all zero) AES application keys:
+ * 1) create the application, 2) select it, 3) create the files (all in Plain communication)
+ * 4) select the application again to read the file settings, authenticate with the write key and write the NDEF file
+ * 5) authenticate with the application master key, read the card UID, change the application keys with the derived keys,
+ * the application master key is changed last.
+ * If a card fails before the NDEF file is written the work item is used for the next card, so no serial number gets
+ * lost. After the NDEF write was started the serial number may be on the failed card, so the work item is bound to
+ * its tag id and is used only if the same card is tapped again; if another card is tapped the serial number is
+ * skipped (a card with a random UID or an unknown tag id always skips it). An interrupted card can be tapped again
+ * as long as the application keys were not changed, the create commands accept a DUPLICATE_ERROR.
+ * Usage in onTagDiscovered:
+ * DesfireResult<Long> result = pipeline.personalize(new DesfireEv3(isoDep));
+ * Log.d(TAG, pipeline.getStats().toString());
+ */
+
+public class PersonalizationPipeline implements Closeable {
+
+    private static final String TAG = PersonalizationPipeline.class.getName();
+    private static final byte[] APPLICATION_KEY_AES_DEFAULT = new byte[16];
+
+    /**
+     * supplies the personalized application keys
+     */
+    public interface KeyProvider {
+        /**
+         * runs in the background stage
+         *
+         * @return the card independent input for deriveKey, e.g. a diversification input without the UID
+         */
+        byte[] prepare(byte keyNumber, long serialNumber);
+
+        /**
+         * runs in the tap window
+         *
+         * @param preparedInput | the result of prepare
+         * @param uid           | the 7 bytes UID of the card
+         * @return the new AES key (16 bytes) for the key number
+         */
+        byte[] deriveKey(byte keyNumber, byte[] preparedInput, byte[] uid);
+    }
+
+    /**
+     * the prepared data for one card
+     */
+    public static class WorkItem {
+        private final long serialNumber;
+        private final byte[] ndefFileContent;
+        private final byte[][] keyInputs;
+        private boolean isNdefWriteStarted = false; // the serial number may be on the card with tagId
+        private byte[] tagId;
+
+        private WorkItem(long serialNumber, byte[] ndefFileContent, byte[][] keyInputs) {
+            this.serialNumber = serialNumber;
+            this.ndefFileContent = ndefFileContent;
+            this.keyInputs = keyInputs;
+        }
+
+        public long getSerialNumber() {
+            return serialNumber;
+        }
+    }
+
+    private final PersonalizationLayout layout;
+    private final KeyProvider keyProvider;
+    private final byte[] applicationIdentifier;
+    private final byte[] createApplicationApdu;
+    private final byte[][] createFileApdus;
+    private final int ndefWriteKeyNumber;
+    private final BlockingQueue<WorkItem> queue;
+    private final PersonalizationStats stats = new PersonalizationStats();
+    private final Thread producer;
+    private final AtomicLong nextSerialNumber;
+    private WorkItem retryItem; // the work item of a failed card, guarded by this
+    private volatile boolean isClosed = false;
+
+    /**
+     * starts the background stage
+     *
+     * @param layout            | the layout of all cards
+     * @param keyProvider       | null = the application keys are not changed
+     * @param firstSerialNumber | the serial number of the first card
+     * @param queueCapacity     | the number of prepared work items
+     */
+    public PersonalizationPipeline(PersonalizationLayout layout, KeyProvider keyProvider, long firstSerialNumber, int queueCapacity) {
+        if (layout == null) {
+            throw new IllegalArgumentException("layout is NULL");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity needs to be at least 1");
+        }
+        this.layout = layout;
+        this.keyProvider = keyProvider;
+        this.nextSerialNumber = new AtomicLong(firstSerialNumber);
+        this.applicationIdentifier = layout.getApplicationIdentifier();
+        this.createApplicationApdu = layout.buildCreateApplicationApdu();
+        this.createFileApdus = layout.buildCreateFileApdus();
+        this.ndefWriteKeyNumber = (layout.getNdefFileNumber() < 0) ? -1 : layout.getFile(layout.getNdefFileNumber()).getWriteKeyNumber();
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.producer = new Thread(this::produce, "PersonalizationPipeline");
+        this.producer.setDaemon(true);
+        this.producer.start();
+    }
+
+    private void produce() {
+        try {
+            while (!isClosed) {
+                queue.put(prepareWorkItem());
+            }
+        } catch (InterruptedException e) {
+            // the pipeline is closed
+        }
+    }
+
+    private WorkItem prepareWorkItem() {
+        long startNanos = System.nanoTime();
+        long serialNumber = nextSerialNumber.getAndIncrement();
+        byte[] ndefFileContent = layout.buildNdefFileContent(serialNumber);
+        byte[][] keyInputs = null;
+        if (keyProvider != null) {
+            keyInputs = new byte[layout.getNumberOfApplicationKeys()][];
+            for (int i = 0; i < keyInputs.length; i++) {
+                keyInputs[i] = keyProvider.prepare((byte) i, serialNumber);
+            }
+        }
+        stats.recordPreparedItem(System.nanoTime() - startNanos);
+        return new WorkItem(serialNumber, ndefFileContent, keyInputs);
+    }
+
+    /**
+     * personalizes the tapped card with the next work item
+     *
+     * @param desfireEv3 | a new DesfireEv3 object for the tapped card
+     * @return the serial number of the card on success, on failure the errorCode and errorCodeReason of the failing command
+     */
+    public synchronized DesfireResult<Long> personalize(DesfireEv3 desfireEv3) {
+        final String methodName = "personalize";
+        if (isClosed) {
+            throw new IllegalStateException("the pipeline is closed");
+        }
+        long startNanos = System.nanoTime();
+        boolean isQueueMiss = false;
+        WorkItem workItem = takeRetryItem(desfireEv3.getTagId());
+        if (workItem == null) workItem = queue.poll();
+        if (workItem == null) {
+            // the background stage is behind, prepare the item in the tap window
+            isQueueMiss = true;
+            workItem = prepareWorkItem();
+        }
+        boolean success = runSteps(desfireEv3, workItem);
+        stats.recordCard(startNanos, System.nanoTime(), !success, isQueueMiss);
+        if (!success) {
+            Log.e(TAG, methodName + " card with serial number " + workItem.serialNumber + " FAILURE: " + desfireEv3.getErrorCodeReason());
+            retryItem = workItem;
+            return DesfireResult.failure(desfireEv3.getErrorCode(), desfireEv3.getErrorCodeReason());
+        }
+        Log.d(TAG, methodName + " card with serial number " + workItem.serialNumber + " SUCCESS");
+        return DesfireResult.success(workItem.serialNumber, desfireEv3.getErrorCode(), desfireEv3.getErrorCodeReason());
+    }
+
+    /**
+     * @param tagId | the tag id of the tapped card
+     * @return the work item of the failed card if it can be used for the tapped card, else null
+     */
+    private WorkItem takeRetryItem(byte[] tagId) {
+        WorkItem workItem = retryItem;
+        retryItem = null;
+        if ((workItem == null) || (!workItem.isNdefWriteStarted)) return workItem;
+        if ((workItem.tagId != null) && (Arrays.equals(workItem.tagId, tagId))) return workItem;
+        Log.w(TAG, "the serial number " + workItem.serialNumber + " is skipped, it may be written to the failed card");
+        return null;
+    }
+
+    private boolean runSteps(DesfireEv3 desfireEv3, WorkItem workItem) {
+        // the Master Application is selected after the card is connected
+        if (!desfireEv3.sendPlainCommands(new byte[][]{createApplicationApdu}, true)) return false;
+        if (!desfireEv3.selectApplicationByAid(applicationIdentifier)) return false;
+        if (!desfireEv3.sendPlainCommands(createFileApdus, true)) return false;
+        if (workItem.ndefFileContent != null) {
+            // the new select reads the file settings of the created files
+            if (!desfireEv3.selectApplicationByAid(applicationIdentifier)) return false;
+            if ((ndefWriteKeyNumber >= 0) && (!desfireEv3.authenticateAesEv2First((byte) ndefWriteKeyNumber, APPLICATION_KEY_AES_DEFAULT))) {
+                return false;
+            }
+            if (!workItem.isNdefWriteStarted) {
+                workItem.isNdefWriteStarted = true;
+                workItem.tagId = desfireEv3.getTagId();
+            }
+            if (!desfireEv3.writeToADataFile(layout.getNdefFileNumber(), 0, workItem.ndefFileContent)) return false;
+        }
+        if (keyProvider == null) return true;
+        if (!desfireEv3.authenticateAesEv2First((byte) 0, APPLICATION_KEY_AES_DEFAULT)) return false;
+        byte[] uid = desfireEv3.getCardUidFull();
+        if (uid == null) return false;
+        byte keyVersion = layout.getKeyVersion();
+        // the application master key is changed last as the change ends the authentication
+        for (int keyNumber = 1; keyNumber <= workItem.keyInputs.length; keyNumber++) {
+            byte keyNumberToChange = (byte) (keyNumber % workItem.keyInputs.length);
+            byte[] key = keyProvider.deriveKey(keyNumberToChange, workItem.keyInputs[keyNumberToChange], uid);
+            if (!desfireEv3.changeApplicationKeyFull(keyNumberToChange, keyVersion, key, APPLICATION_KEY_AES_DEFAULT)) return false;
+        }
+        return true;
+    }
+
+    public PersonalizationStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the number of prepared work items in the queue
+     */
+    public int getNumberOfPreparedItems() {
+        return queue.size();
+    }
+
+    public PersonalizationLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * stops the background stage, the prepared work items are discarded
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+        producer.interrupt();
+    }
+}
@@ -0,0 +1,109 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+/**
+ * The timing of a PersonalizationPipeline: the time of each card in the tap window, the time of the background
+ * stage and the throughput in cards per minute. The values are updated by the pipeline and can be read from any thread.
+ */
+
+public class PersonalizationStats {
+
+    private long numberOfCards;
+    private long numberOfFailedCards;
+    private long numberOfQueueMisses;
+    private long tapNanos;
+    private long minimumTapNanos = Long.MAX_VALUE;
+    private long maximumTapNanos;
+    private long lastTapNanos;
+    private long numberOfPreparedItems;
+    private long prepareNanos;
+    private long firstTapStartNanos = -1;
+    private long lastTapEndNanos;
+
+    synchronized void recordCard(long startNanos, long endNanos, boolean failed, boolean isQueueMiss) {
+        long nanos = endNanos - startNanos;
+        if (failed) {
+            numberOfFailedCards++;
+        } else {
+            numberOfCards++;
+        }
+        if (isQueueMiss) numberOfQueueMisses++;
+        tapNanos += nanos;
+        minimumTapNanos = Math.min(minimumTapNanos, nanos);
+        maximumTapNanos = Math.max(maximumTapNanos, nanos);
+        lastTapNanos = nanos;
+        if (firstTapStartNanos < 0) firstTapStartNanos = startNanos;
+        lastTapEndNanos = endNanos;
+    }
+
+    synchronized void recordPreparedItem(long nanos) {
+        numberOfPreparedItems++;
+        prepareNanos += nanos;
+    }
+
+    /**
+     * @return the number of successfully personalized cards
+     */
+    public synchronized long getNumberOfCards() {
+        return numberOfCards;
+    }
+
+    public synchronized long getNumberOfFailedCards() {
+        return numberOfFailedCards;
+    }
+
+    /**
+     * @return the number of taps that found no prepared work item, the background stage was too slow
+     */
+    public synchronized long getNumberOfQueueMisses() {
+        return numberOfQueueMisses;
+    }
+
+    /**
+     * @return the average time in the tap window in milliseconds, failed cards included
+     */
+    public synchronized double getAverageTapMillis() {
+        long taps = numberOfCards + numberOfFailedCards;
+        if (taps == 0) return 0;
+        return tapNanos / 1000000.0 / taps;
+    }
+
+    public synchronized long getMinimumTapMillis() {
+        if (numberOfCards + numberOfFailedCards == 0) return 0;
+        return minimumTapNanos / 1000000;
+    }
+
+    public synchronized long getMaximumTapMillis() {
+        return maximumTapNanos / 1000000;
+    }
+
+    public synchronized long getLastTapMillis() {
+        return lastTapNanos / 1000000;
+    }
+
+    /**
+     * @return the average time the background stage needed for one work item in milliseconds
+     */
+    public synchronized double getAveragePrepareMillis() {
+        if (numberOfPreparedItems == 0) return 0;
+        return prepareNanos / 1000000.0 / numberOfPreparedItems;
+    }
+
+    /**
+     * @return the successfully personalized cards per minute, measured from the start of the first tap to the end
+     * of the last tap (so the time for changing the cards is included)
+     */
+    public synchronized double getCardsPerMinute() {
+        long nanos = lastTapEndNanos - firstTapStartNanos;
+        if ((firstTapStartNanos < 0) || (nanos <= 0)) return 0;
+        return numberOfCards * 60000000000.0 / nanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PersonalizationStats cards: " + numberOfCards + " failedCards: " + numberOfFailedCards +
+                " queueMisses: " + numberOfQueueMisses + " averageTapMillis: " + String.format("%.1f", getAverageTapMillis()) +
+                " minimumTapMillis: " + getMinimumTapMillis() + " maximumTapMillis: " + getMaximumTapMillis() +
+                " averagePrepareMillis: " + String.format("%.2f", getAveragePrepareMillis()) +
+                " cardsPerMinute: " + String.format("%.1f", getCardsPerMinute());
+    }
+}
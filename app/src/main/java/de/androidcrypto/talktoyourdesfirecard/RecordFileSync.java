@@ -0,0 +1,263 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the records of a Linear or Cyclic Record file that were added since the last sync of the same file.
+ * For each file the class remembers the number of existing records and a SHA-256 hash of the newest record
+ * (the anchor). On the next sync the records are read from the newest record backwards until the anchor is
+ * found, so only the new records and the anchor are read from the card:
+ * - Linear Record file and Cyclic Record file that is not full: the number of new records is known from the
+ * number of existing records, the anchor is just verified
+ * - full Cyclic Record file: the number of existing records does not grow anymore, the anchor is searched
+ * If the anchor is not found all existing records are read: a Linear Record file was cleared and written
+ * again or in a Cyclic Record file more records were written than the file can hold (isRecordsLost).
+ * <p>
+ * The records of a log file should be distinct (e.g. by a counter or timestamp in the record), a new record
+ * that is equal to the anchor ends the search too early.
+ * <p>
+ * The states are identified by the UID of the card (the tag id), the application identifier and the file
+ * number. Nothing is stored for a card without a tag id and a card with a random UID gets a new tag id on each
+ * tap, so all records are read on these cards. When the capacity is reached the least recently used state gets
+ * removed, the next sync of this file reads all records. The State class is Serializable, so the states can be
+ * saved with getState and restored with putState between two app starts.
+ * <p>
+ * The state access is thread safe, one instance can be shared by several DesfireEv3 objects (e.g. one per tap).
+ * <p>
+ * Usage in onTagDiscovered, after selecting the application and the authentication:
+ * RecordFileSync.Result result = recordFileSync.sync(desfireEv3, fileNumber);
+ * for (byte[] record : result.getRecords()) { ... }
+ */
+
+public class RecordFileSync {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int capacity;
+    private final LinkedHashMap<String, State> states;
+
+    public RecordFileSync() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RecordFileSync(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity needs to be at least 1");
+        }
+        this.capacity = capacity;
+        // access order = true: the iteration order is from the least to the most recently used state
+        this.states = new LinkedHashMap<String, State>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, State> eldest) {
+                return size() > RecordFileSync.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * the state of a file after the last sync
+     */
+    public static class State implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int numberOfRecordsExisting;
+        private final byte[] newestRecordHash; // null if the file was empty
+
+        public State(int numberOfRecordsExisting, byte[] newestRecordHash) {
+            if (numberOfRecordsExisting < 0) {
+                throw new IllegalArgumentException("numberOfRecordsExisting is negative");
+            }
+            this.numberOfRecordsExisting = numberOfRecordsExisting;
+            this.newestRecordHash = (newestRecordHash == null) ? null : newestRecordHash.clone();
+        }
+
+        public int getNumberOfRecordsExisting() {
+            return numberOfRecordsExisting;
+        }
+
+        public byte[] getNewestRecordHash() {
+            return (newestRecordHash == null) ? null : newestRecordHash.clone();
+        }
+    }
+
+    /**
+     * the result of a sync
+     */
+    public static class Result {
+        private final List<byte[]> records;
+        private final int numberOfRecordsExisting;
+        private final int numberOfRecordsRead;
+        private final boolean isFullRead;
+        private final boolean isRecordsLost;
+
+        private Result(List<byte[]> records, int numberOfRecordsExisting, int numberOfRecordsRead, boolean isFullRead, boolean isRecordsLost) {
+            this.records = Collections.unmodifiableList(records);
+            this.numberOfRecordsExisting = numberOfRecordsExisting;
+            this.numberOfRecordsRead = numberOfRecordsRead;
+            this.isFullRead = isFullRead;
+            this.isRecordsLost = isRecordsLost;
+        }
+
+        /**
+         * @return the new records, oldest first
+         */
+        public List<byte[]> getRecords() {
+            return records;
+        }
+
+        public int getNumberOfRecordsExisting() {
+            return numberOfRecordsExisting;
+        }
+
+        /**
+         * @return the number of records read from the card, the new records, the anchor and in a full Cyclic
+         * Record file the older records of the last command
+         */
+        public int getNumberOfRecordsRead() {
+            return numberOfRecordsRead;
+        }
+
+        /**
+         * @return true if all existing records were read because there was no state or the anchor was not found
+         */
+        public boolean isFullRead() {
+            return isFullRead;
+        }
+
+        /**
+         * @return true if the anchor of a full Cyclic Record file was overwritten, records that were written
+         * since the last sync may be lost
+         */
+        public boolean isRecordsLost() {
+            return isRecordsLost;
+        }
+    }
+
+    /**
+     * reads the records that were added since the last sync and stores the new state of the file
+     *
+     * @param desfireEv3 with a selected application, available file settings and, depending on the access rights
+     *                   and the communication mode, a preceding authentication
+     * @param fileNumber | in range 0..31 AND file is a Linear or Cyclic Record file
+     * @throws IOException if no application is selected, the file is not a Record file or a command failed
+     */
+    public Result sync(DesfireEv3 desfireEv3, byte fileNumber) throws IOException {
+        byte[] uid = desfireEv3.getTagId();
+        byte[] aid = desfireEv3.getSelectedApplicationId();
+        if (aid == null) throw new IOException("no application selected");
+        FileSettings fileSettings = DesfireRecordFileCursor.getRecordFileSettings(desfireEv3, fileNumber);
+        int numberOfRecordsExisting = fileSettings.getRecordsExistingInt();
+        int recordSize = fileSettings.getRecordSizeInt();
+        State state = getState(uid, aid, fileNumber);
+
+        // the offset of the anchor, counted from the newest record (0), -1 if there is no anchor
+        int expectedAnchorOffset = -1;
+        boolean isSearch = false;
+        if ((state != null) && (state.newestRecordHash != null) && (numberOfRecordsExisting >= state.numberOfRecordsExisting)) {
+            expectedAnchorOffset = numberOfRecordsExisting - state.numberOfRecordsExisting;
+            // a full Cyclic Record file overwrites the oldest record, the number of existing records does not grow anymore
+            isSearch = (fileSettings.getFileType() == FileSettings.CYCLIC_RECORD_FILE_TYPE) &&
+                    (numberOfRecordsExisting == fileSettings.getRecordsMaxInt() - 1);
+        }
+        int numberOfRecordsPerCommand = Math.max(1, desfireEv3.getMaximumReadLength(fileSettings.getCommunicationSettings()) / recordSize);
+
+        ArrayDeque<byte[]> records = new ArrayDeque<>();
+        byte[] newestRecordHash = null;
+        int numberOfRecordsRead = 0;
+        int anchorOffset = -1;
+        int offset = 0; // the offset of the next record to read, counted from the newest record
+        while ((offset < numberOfRecordsExisting) && (anchorOffset < 0)) {
+            int numberOfRecordsToRead = Math.min(numberOfRecordsPerCommand, numberOfRecordsExisting - offset);
+            if ((expectedAnchorOffset >= 0) && (!isSearch)) {
+                // don't read records older than the anchor
+                numberOfRecordsToRead = Math.min(numberOfRecordsToRead, expectedAnchorOffset + 1 - offset);
+            }
+            byte[] data = desfireEv3.readFromARecordFile(fileNumber, offset, numberOfRecordsToRead);
+            if ((data == null) || (data.length != numberOfRecordsToRead * recordSize)) {
+                throw new IOException("could not read " + numberOfRecordsToRead + " records of file " + fileNumber + " at offset " + offset + ", errorCode: " +
+                        Utils.bytesToHexNpeUpperCase(desfireEv3.getErrorCode()) + " reason: " + desfireEv3.getErrorCodeReason());
+            }
+            numberOfRecordsRead += numberOfRecordsToRead;
+            // the records are returned oldest first, they are checked from the newest record backwards
+            for (int i = numberOfRecordsToRead - 1; i >= 0; i--) {
+                byte[] record = Arrays.copyOfRange(data, i * recordSize, (i + 1) * recordSize);
+                if (offset == 0) newestRecordHash = getHash(record);
+                if ((expectedAnchorOffset >= 0) && (offset >= expectedAnchorOffset)) {
+                    if (Arrays.equals(state.newestRecordHash, (offset == 0) ? newestRecordHash : getHash(record))) {
+                        anchorOffset = offset;
+                        break;
+                    }
+                    // the Linear Record file was cleared and written again, read all records
+                    if (!isSearch) expectedAnchorOffset = -1;
+                }
+                records.addFirst(record);
+                offset++;
+            }
+        }
+        putState(uid, aid, fileNumber, new State(numberOfRecordsExisting, newestRecordHash));
+        // after a sync of an empty file all records are new, that is not a fallback
+        boolean isFullRead = (state == null) || ((state.numberOfRecordsExisting > 0) && (anchorOffset < 0));
+        boolean isRecordsLost = isSearch && (anchorOffset < 0);
+        return new Result(new ArrayList<>(records), numberOfRecordsExisting, numberOfRecordsRead, isFullRead, isRecordsLost);
+    }
+
+    /**
+     * @return the state of the file after the last sync or null (or uid or aid are null)
+     */
+    public synchronized State getState(byte[] uid, byte[] aid, byte fileNumber) {
+        if ((uid == null) || (aid == null)) return null;
+        return states.get(getKey(uid, aid, fileNumber));
+    }
+
+    /**
+     * stores the state of a file, nothing is stored if one parameter is null
+     */
+    public synchronized void putState(byte[] uid, byte[] aid, byte fileNumber, State state) {
+        if ((uid == null) || (aid == null) || (state == null)) return;
+        states.put(getKey(uid, aid, fileNumber), state);
+    }
+
+    /**
+     * removes the state of a file, the next sync reads all records
+     */
+    public synchronized void invalidate(byte[] uid, byte[] aid, byte fileNumber) {
+        if ((uid == null) || (aid == null)) return;
+        states.remove(getKey(uid, aid, fileNumber));
+    }
+
+    public synchronized void clear() {
+        states.clear();
+    }
+
+    public synchronized int size() {
+        return states.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private static byte[] getHash(byte[] record) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(record);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is available on all Android versions
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String getKey(byte[] uid, byte[] aid, byte fileNumber) {
+        return Utils.bytesToHexNpe(uid) + ":" + Utils.bytesToHexNpe(aid) + ":" + fileNumber;
+    }
+}
@@ -0,0 +1,130 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import android.util.Log;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The shared random source for the authentication challenges (RndA) of DesfireEv3 and DesfireAuthenticateLegacy.
+ * A new SecureRandom per authentication may block on seeding and costs measurable time on a cold device, so one
+ * (thread safe) SecureRandom is used for all random data.
+ * <p>
+ * Optionally a pool of challenges is prefilled and refilled by a background thread, the authentication then takes
+ * a prepared challenge and never waits for the random generator in the tap window. Each challenge is used once
+ * and removed from the pool. Enable the pool e.g. in onCreate of an activity that works with many cards:
+ * SecureRandomSource.enableChallengePool(16);
+ * Without a pool the SecureRandom gets seeded in the background by warmUp().
+ */
+
+public class SecureRandomSource {
+
+    private static final String TAG = SecureRandomSource.class.getName();
+    public static final int CHALLENGE_LENGTH = 16; // the longest challenge, AES keys
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+    private static BlockingQueue<byte[]> challengePool; // guarded by SecureRandomSource.class
+    private static Thread refillThread; // guarded by SecureRandomSource.class
+
+    private SecureRandomSource() {
+    }
+
+    /**
+     * @return length random bytes, taken from the challenge pool if the pool is enabled and a challenge is ready
+     */
+    public static byte[] getRandomBytes(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("length is negative");
+        }
+        byte[] value = new byte[length];
+        BlockingQueue<byte[]> pool = getChallengePool();
+        byte[] challenge = ((pool != null) && (length <= CHALLENGE_LENGTH)) ? pool.poll() : null;
+        if (challenge != null) {
+            System.arraycopy(challenge, 0, value, 0, length);
+            Arrays.fill(challenge, (byte) 0);
+        } else {
+            SECURE_RANDOM.nextBytes(value);
+        }
+        return value;
+    }
+
+    /**
+     * fills the array with random bytes from the shared SecureRandom, the challenge pool is not used
+     */
+    public static void nextBytes(byte[] bytes) {
+        SECURE_RANDOM.nextBytes(bytes);
+    }
+
+    /**
+     * seeds the shared SecureRandom in a background thread, so the first authentication does not wait for it
+     *
+     * @return the started (daemon) thread, there is no need to wait for it
+     */
+    public static Thread warmUp() {
+        Thread thread = new Thread(() -> SECURE_RANDOM.nextBytes(new byte[1]), "SecureRandomSource-warmUp");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * starts a background thread that keeps up to poolSize challenges ready, an enabled pool is resized
+     *
+     * @param poolSize | at least 1
+     */
+    public static synchronized void enableChallengePool(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize needs to be at least 1");
+        }
+        disableChallengePool();
+        final BlockingQueue<byte[]> pool = new ArrayBlockingQueue<>(poolSize);
+        challengePool = pool;
+        refillThread = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    byte[] challenge = new byte[CHALLENGE_LENGTH];
+                    SECURE_RANDOM.nextBytes(challenge);
+                    pool.put(challenge);
+                }
+            } catch (InterruptedException e) {
+                // the pool is disabled
+            }
+        }, "SecureRandomSource-refill");
+        refillThread.setDaemon(true);
+        refillThread.start();
+        Log.d(TAG, "challenge pool enabled with size " + poolSize);
+    }
+
+    /**
+     * stops the background thread and clears the prepared challenges
+     */
+    public static synchronized void disableChallengePool() {
+        if (refillThread != null) {
+            refillThread.interrupt();
+            refillThread = null;
+        }
+        if (challengePool != null) {
+            byte[] challenge;
+            while ((challenge = challengePool.poll()) != null) {
+                Arrays.fill(challenge, (byte) 0);
+            }
+            challengePool = null;
+        }
+    }
+
+    public static synchronized boolean isChallengePoolEnabled() {
+        return challengePool != null;
+    }
+
+    /**
+     * @return the number of prepared challenges, 0 if the pool is disabled
+     */
+    public static synchronized int getNumberOfPreparedChallenges() {
+        return (challengePool == null) ? 0 : challengePool.size();
+    }
+
+    private static synchronized BlockingQueue<byte[]> getChallengePool() {
+        return challengePool;
+    }
+}
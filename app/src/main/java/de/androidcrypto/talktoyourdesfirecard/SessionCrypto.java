@@ -0,0 +1,143 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import android.util.Log;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class holds the cryptographic contexts of an authenticated session (authenticateAesEv2First or
+ * authenticateAesEv2NonFirst). The ciphers for the SesAuthENCKey and the CMAC for the SesAuthMACKey
+ * (including the subkeys K1 and K2) are initialized once after the authentication and are reused for
+ * all commands until the session gets invalidated, so there is no provider lookup and no key setup per APDU.
+ * <p>
+ * An instance is bound to the DesfireEv3 object that created it and is not thread safe.
+ */
+
+public class SessionCrypto {
+
+    private static final String TAG = SessionCrypto.class.getName();
+    private static final String AES_CBC_NO_PADDING = "AES/CBC/NoPadding";
+
+    private final SecretKeySpec sesAuthEncKeySpec;
+    private final Cipher encryptCipher;
+    private final Cipher decryptCipher;
+    private final AesCmac sesAuthMacCmac;
+    private final byte[] macScratch = new byte[16]; // holds the full CMAC for verifyTruncatedCmac
+
+    /**
+     * @param sesAuthEncKey the 16 bytes long session encryption key
+     * @param sesAuthMacKey the 16 bytes long session MAC key
+     * @throws GeneralSecurityException if the AES/CMAC contexts could not get initialized
+     */
+    public SessionCrypto(byte[] sesAuthEncKey, byte[] sesAuthMacKey) throws GeneralSecurityException {
+        if ((sesAuthEncKey == null) || (sesAuthEncKey.length != 16) || (sesAuthMacKey == null) || (sesAuthMacKey.length != 16)) {
+            throw new GeneralSecurityException("session keys are NULL or not of length 16");
+        }
+        sesAuthEncKeySpec = new SecretKeySpec(sesAuthEncKey, "AES");
+        encryptCipher = Cipher.getInstance(AES_CBC_NO_PADDING);
+        decryptCipher = Cipher.getInstance(AES_CBC_NO_PADDING);
+        sesAuthMacCmac = new AesCmac();
+        sesAuthMacCmac.init(new SecretKeySpec(sesAuthMacKey, "AES"));
+    }
+
+    /**
+     * encrypts data with the SesAuthENCKey in AES-CBC mode without padding
+     *
+     * @param iv   16 bytes long initialization vector
+     * @param data multiple of 16 bytes
+     * @return the encrypted data or null on failure
+     */
+    public byte[] encrypt(byte[] iv, byte[] data) {
+        try {
+            encryptCipher.init(Cipher.ENCRYPT_MODE, sesAuthEncKeySpec, new IvParameterSpec(iv));
+            return encryptCipher.doFinal(data);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            Log.e(TAG, "Exception on encrypt: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * decrypts data with the SesAuthENCKey in AES-CBC mode without padding
+     *
+     * @param iv   16 bytes long initialization vector
+     * @param data multiple of 16 bytes
+     * @return the decrypted data or null on failure
+     */
+    public byte[] decrypt(byte[] iv, byte[] data) {
+        try {
+            decryptCipher.init(Cipher.DECRYPT_MODE, sesAuthEncKeySpec, new IvParameterSpec(iv));
+            return decryptCipher.doFinal(data);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            Log.e(TAG, "Exception on decrypt: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * calculates the full (not truncated) CMAC with the SesAuthMACKey
+     *
+     * @param input the MAC input
+     * @return the 16 bytes long CMAC
+     */
+    public byte[] cmac(byte[] input) {
+        return sesAuthMacCmac.calculateHash(input);
+    }
+
+    /**
+     * calculates the full (not truncated) CMAC with the SesAuthMACKey over
+     * MAC_Input (Ins || CmdCounter || TI || CmdHeader || CmdData). The parts are streamed into the CMAC
+     * in place, the MAC input is never concatenated.
+     *
+     * @param ins        the command code or the response code (e.g. 0x00 for a response MAC)
+     * @param cmdCounter the actual CmdCounter, written LSB first
+     * @param ti         the 4 bytes long TransactionIdentifier
+     * @param cmdHeader  can be null
+     * @param cmdData    can be null
+     * @return the 16 bytes long CMAC
+     */
+    public byte[] cmac(byte ins, int cmdCounter, byte[] ti, byte[] cmdHeader, byte[] cmdData) {
+        byte[] mac = new byte[16];
+        cmac(ins, cmdCounter, ti, cmdHeader, cmdData, mac, 0);
+        return mac;
+    }
+
+    /**
+     * same as cmac(ins, cmdCounter, ti, cmdHeader, cmdData) but the 16 bytes long CMAC is written to
+     * 'out', beginning at 'offset'
+     */
+    public void cmac(byte ins, int cmdCounter, byte[] ti, byte[] cmdHeader, byte[] cmdData, byte[] out, int offset) {
+        sesAuthMacCmac.updateByte(ins);
+        sesAuthMacCmac.updateByte((byte) cmdCounter);
+        sesAuthMacCmac.updateByte((byte) (cmdCounter >> 8));
+        sesAuthMacCmac.update(ti, 0, ti.length);
+        if (cmdHeader != null) {
+            sesAuthMacCmac.update(cmdHeader, 0, cmdHeader.length);
+        }
+        if (cmdData != null) {
+            sesAuthMacCmac.update(cmdData, 0, cmdData.length);
+        }
+        sesAuthMacCmac.doFinal(out, offset);
+    }
+
+    /**
+     * verifies a truncated (8 bytes long) MAC, e.g. a response MAC, without allocating the MAC input,
+     * the full CMAC or the truncated CMAC. All bytes are compared to avoid an early exit.
+     *
+     * @param truncatedMac the received MAC (the bytes at the odd positions of the full CMAC)
+     * @return true if the MAC matches
+     */
+    public boolean verifyTruncatedCmac(byte[] truncatedMac, byte ins, int cmdCounter, byte[] ti, byte[] data) {
+        if ((truncatedMac == null) || (truncatedMac.length != 8)) return false;
+        cmac(ins, cmdCounter, ti, null, data, macScratch, 0);
+        int diff = 0;
+        for (int i = 0; i < 8; i++) {
+            diff |= macScratch[2 * i + 1] ^ truncatedMac[i];
+        }
+        return diff == 0;
+    }
+}
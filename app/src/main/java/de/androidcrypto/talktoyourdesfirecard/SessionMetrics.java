@@ -0,0 +1,89 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The counters of one DesfireSession: the tasks run on the session and the APDUs sent through its transport.
+ * The counters are updated by the executor threads and can be read from any thread.
+ */
+
+public class SessionMetrics {
+
+    private final AtomicLong numberOfTasks = new AtomicLong();
+    private final AtomicLong numberOfFailedTasks = new AtomicLong();
+    private final AtomicLong taskNanos = new AtomicLong();
+    private final AtomicLong numberOfTransceives = new AtomicLong();
+    private final AtomicLong numberOfFailedTransceives = new AtomicLong();
+    private final AtomicLong transceiveNanos = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    void recordTask(long nanos, boolean failed) {
+        numberOfTasks.incrementAndGet();
+        if (failed) numberOfFailedTasks.incrementAndGet();
+        taskNanos.addAndGet(nanos);
+    }
+
+    void recordTransceive(int commandLength, byte[] response, long nanos) {
+        numberOfTransceives.incrementAndGet();
+        transceiveNanos.addAndGet(nanos);
+        bytesSent.addAndGet(commandLength);
+        if (response == null) {
+            numberOfFailedTransceives.incrementAndGet();
+        } else {
+            bytesReceived.addAndGet(response.length);
+        }
+    }
+
+    public long getNumberOfTasks() {
+        return numberOfTasks.get();
+    }
+
+    /**
+     * @return the number of tasks that returned false, null or a failed DesfireResult or threw an exception
+     */
+    public long getNumberOfFailedTasks() {
+        return numberOfFailedTasks.get();
+    }
+
+    /**
+     * @return the time the tasks were running, including the time on the card
+     */
+    public long getTaskNanos() {
+        return taskNanos.get();
+    }
+
+    public long getNumberOfTransceives() {
+        return numberOfTransceives.get();
+    }
+
+    /**
+     * @return the number of transceives that threw an IOException (e.g. a TagLostException)
+     */
+    public long getNumberOfFailedTransceives() {
+        return numberOfFailedTransceives.get();
+    }
+
+    /**
+     * @return the time spent in the transport, the remaining task time is spent on the host (crypto, parsing)
+     */
+    public long getTransceiveNanos() {
+        return transceiveNanos.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SessionMetrics tasks: " + getNumberOfTasks() + " failedTasks: " + getNumberOfFailedTasks() +
+                " taskMillis: " + (getTaskNanos() / 1000000) + " transceives: " + getNumberOfTransceives() +
+                " failedTransceives: " + getNumberOfFailedTransceives() + " transceiveMillis: " + (getTransceiveNanos() / 1000000) +
+                " bytesSent: " + getBytesSent() + " bytesReceived: " + getBytesReceived();
+    }
+}
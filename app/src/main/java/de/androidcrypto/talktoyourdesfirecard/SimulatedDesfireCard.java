@@ -0,0 +1,1236 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import de.androidcrypto.talktoyourdesfirecard.nfcjlib.CRC32;
+
+/**
+ * This class is an in-memory Mifare DESFire EV3 PICC that runs on a plain JVM. It implements ApduTransport,
+ * so a DesfireEv3 instance can be created with it and runs the same code paths as with a real tag:
+ * DesfireEv3 desfireEv3 = new DesfireEv3(new SimulatedDesfireCard());
+ * <p>
+ * Supported (native wrapped) commands:
+ * - GetVersion (0x60), FormatPicc (0xFC), GetCardUID (0x51)
+ * - CreateApplication (0xCA), DeleteApplication (0xDA), SelectApplication (0x5A), GetApplicationIDs (0x6A), GetDFNames (0x6D)
+ * - AuthenticateEV2First (0x71), AuthenticateEV2NonFirst (0x77), GetKeySettings (0x45), GetKeyVersion (0x64), ChangeKey (0xC4)
+ * - CreateStdDataFile (0xCD), CreateBackupDataFile (0xCB), CreateValueFile (0xCC), CreateLinearRecordFile (0xC1),
+ *   CreateCyclicRecordFile (0xC0), DeleteFile (0xDF), GetFileIDs (0x6F), GetFileSettings (0xF5), ChangeFileSettings (0x5F)
+ * - ReadData (0xBD/0xAD), WriteData (0x3D/0x8D), GetValue (0x6C), Credit (0x0C), Debit (0xDC)
+ * - WriteRecord (0x8B), ReadRecords (0xBB/0xAB), ClearRecordFile (0xEB), CommitTransaction (0xC7), AbortTransaction (0xA7)
+ * - AdditionalFrame (0xAF) for the authentication, for responses that are longer than one frame and for
+ *   WriteData and WriteRecord commands whose data continues in additional frames (command chaining)
+ * <p>
+ * The secure messaging follows the EV2 scheme (session keys from SV1/SV2, TI, CmdCtr, truncated CMAC and the
+ * IV derived from the command counter) in communication modes Plain, MACed and Full enciphered.
+ * Limitations: all keys are AES keys (including the PICC master key, default 16 * 0x00), there is no legacy
+ * authentication, no Transaction MAC file, no SDM, no ISO/IEC 7816-4 commands and no proximity check. The
+ * CommitTransaction command accepts the option byte and an optional MAC; the TMC/TMV are never returned.
+ */
+
+public class SimulatedDesfireCard implements ApduTransport {
+
+    /**
+     * status codes returned by the PICC in SW2 (SW1 is always 0x91)
+     */
+    private static final byte OPERATION_OK = (byte) 0x00;
+    private static final byte ILLEGAL_COMMAND_CODE = (byte) 0x1C;
+    private static final byte INTEGRITY_ERROR = (byte) 0x1E;
+    private static final byte NO_SUCH_KEY = (byte) 0x40;
+    private static final byte LENGTH_ERROR = (byte) 0x7E;
+    private static final byte PERMISSION_DENIED = (byte) 0x9D;
+    private static final byte PARAMETER_ERROR = (byte) 0x9E;
+    private static final byte APPLICATION_NOT_FOUND = (byte) 0xA0;
+    private static final byte AUTHENTICATION_ERROR = (byte) 0xAE;
+    private static final byte ADDITIONAL_FRAME = (byte) 0xAF;
+    private static final byte BOUNDARY_ERROR = (byte) 0xBE;
+    private static final byte DUPLICATE_ERROR = (byte) 0xDE;
+    private static final byte FILE_NOT_FOUND = (byte) 0xF0;
+
+    private static final byte FILE_TYPE_STANDARD = (byte) 0x00;
+    private static final byte FILE_TYPE_BACKUP = (byte) 0x01;
+    private static final byte FILE_TYPE_VALUE = (byte) 0x02;
+    private static final byte FILE_TYPE_LINEAR_RECORD = (byte) 0x03;
+    private static final byte FILE_TYPE_CYCLIC_RECORD = (byte) 0x04;
+
+    private static final int COMM_MODE_PLAIN = 0;
+    private static final int COMM_MODE_MACED = 1;
+    private static final int COMM_MODE_FULL = 3;
+
+    private static final int ACCESS_FREE = 0x0E;
+    private static final int MAXIMUM_NUMBER_OF_FILES = 32;
+    private static final int MAC_LENGTH = 8;
+    private static final byte[] ATS = Utils.hexStringToByteArray("067877710280"); // FSCI 8 = 256 bytes frame size
+    private static final int ISO_DEP_FRAME_OVERHEAD = 3; // PCB and 2 bytes CRC_A
+    private static final int STATUS_WORD_LENGTH = 2;
+    // the response frames follow the frame size announced in the ATS (256 - 3 - 2 = 251 data bytes)
+    private static final int DEFAULT_MAXIMUM_RESPONSE_FRAME_LENGTH =
+            FrameSize.getFsc(FrameSize.getFsciFromAts(ATS)) - ISO_DEP_FRAME_OVERHEAD - STATUS_WORD_LENGTH;
+    private static final int DEFAULT_MAX_TRANSCEIVE_LENGTH = 253; // the value most Android readers report
+    private static final byte[] PICC_APPLICATION_IDENTIFIER = new byte[3];
+    private static final byte[] HARDWARE_VERSION = Utils.hexStringToByteArray("04010133001A05"); // DESFire EV3 8K
+    private static final byte[] SOFTWARE_VERSION = Utils.hexStringToByteArray("04010103001A05");
+    private static final byte[] PRODUCTION_DATA = Utils.hexStringToByteArray("BA5E0000001523"); // batch number, week, year
+
+    private final byte[] uid;
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final Map<Integer, SimulatedApplication> applications = new LinkedHashMap<>();
+    private SimulatedApplication selectedApplication;
+    private boolean connected = true;
+    private int maximumResponseFrameLength = DEFAULT_MAXIMUM_RESPONSE_FRAME_LENGTH;
+    private int maxTransceiveLength = DEFAULT_MAX_TRANSCEIVE_LENGTH;
+    private long numberOfCommands = 0;
+
+    // authentication and secure messaging
+    private boolean authenticated = false;
+    private int authenticatedKeyNumber = -1;
+    private byte[] sesAuthEncKey;
+    private byte[] sesAuthMacKey;
+    private byte[] transactionIdentifier;
+    private int cmdCounter = 0;
+    private byte pendingAuthenticationCommand = 0;
+    private int pendingAuthenticationKeyNumber = -1;
+    private byte[] pendingRndB;
+
+    // response chaining with 0xAF
+    private final List<byte[]> pendingFrames = new ArrayList<>();
+    // command chaining with 0xAF
+    private byte pendingChainedCommand = 0;
+    private int pendingChainedLength = 0;
+    private final ByteArrayOutputStream pendingChainedData = new ByteArrayOutputStream();
+
+    public SimulatedDesfireCard() {
+        this(null);
+    }
+
+    /**
+     * creates an empty (formatted) PICC with the Master Application only
+     *
+     * @param uid 7 bytes long UID, if null a random UID with NXP's manufacturer byte 0x04 is used
+     */
+    public SimulatedDesfireCard(byte[] uid) {
+        if ((uid == null) || (uid.length != 7)) {
+            this.uid = new byte[7];
+            secureRandom.nextBytes(this.uid);
+            this.uid[0] = (byte) 0x04;
+        } else {
+            this.uid = uid.clone();
+        }
+        formatPicc();
+    }
+
+    /**
+     * section for ApduTransport
+     */
+
+    @Override
+    public byte[] transceive(byte[] apdu) throws IOException {
+        if (!connected) {
+            throw new IOException("Tag was lost.");
+        }
+        numberOfCommands++;
+        if ((apdu != null) && (apdu.length > maxTransceiveLength)) {
+            throw new IOException("APDU length " + apdu.length + " exceeds the maximum transceive length of " + maxTransceiveLength);
+        }
+        if ((apdu == null) || (apdu.length < 4)) {
+            return new byte[]{(byte) 0x67, (byte) 0x00}; // wrong length
+        }
+        if (apdu[0] != (byte) 0x90) {
+            return new byte[]{(byte) 0x6E, (byte) 0x00}; // class not supported, ISO commands are not simulated
+        }
+        byte command = apdu[1];
+        byte[] data = new byte[0];
+        if (apdu.length > 5) {
+            int lc = apdu[4] & 0xff;
+            if (apdu.length < 5 + lc) return status(LENGTH_ERROR);
+            data = Arrays.copyOfRange(apdu, 5, 5 + lc);
+        }
+        try {
+            if (command == ADDITIONAL_FRAME) {
+                return additionalFrame(data);
+            }
+            pendingFrames.clear();
+            pendingAuthenticationCommand = 0;
+            clearCommandChaining();
+            return process(command, data);
+        } catch (PiccException e) {
+            pendingFrames.clear();
+            pendingAuthenticationCommand = 0;
+            clearCommandChaining();
+            // any error terminates the authenticated state
+            invalidateAuthentication();
+            return status(e.status);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            pendingFrames.clear();
+            clearCommandChaining();
+            invalidateAuthentication();
+            return status(LENGTH_ERROR);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("crypto failure in simulated card: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * simulates the removal of the tag from the reader field (or putting it back), all following
+     * transceive calls throw an IOException and the authentication is lost
+     *
+     * @param connected false to simulate a tag lost
+     */
+    public void setConnected(boolean connected) {
+        this.connected = connected;
+        if (!connected) {
+            invalidateAuthentication();
+            abortTransaction();
+            pendingFrames.clear();
+            clearCommandChaining();
+            selectedApplication = applications.get(0);
+        }
+    }
+
+    /**
+     * responses with more data than the frame length are chained with status 0x91AF, by default the
+     * frame length is derived from the FSCI in the ATS (see getAts)
+     *
+     * @param maximumResponseFrameLength data bytes per response frame (without status bytes)
+     */
+    public void setMaximumResponseFrameLength(int maximumResponseFrameLength) {
+        if (maximumResponseFrameLength < 16) return;
+        this.maximumResponseFrameLength = maximumResponseFrameLength;
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return maxTransceiveLength;
+    }
+
+    /**
+     * simulates a reader with a smaller (or larger) maximum transceive length, longer APDUs throw an IOException
+     */
+    public void setMaxTransceiveLength(int maxTransceiveLength) {
+        this.maxTransceiveLength = maxTransceiveLength;
+    }
+
+    /**
+     * @return the Answer To Select of a DESFire EV3 (TL || T0 || TA || TB || TC || historical bytes)
+     */
+    @Override
+    public byte[] getAts() {
+        return ATS.clone();
+    }
+
+    public long getNumberOfCommands() {
+        return numberOfCommands;
+    }
+
+    public byte[] getUid() {
+        return uid.clone();
+    }
+
+    @Override
+    public byte[] getTagId() {
+        return getUid();
+    }
+
+    /**
+     * command dispatcher
+     */
+
+    private byte[] process(byte command, byte[] data) throws PiccException, GeneralSecurityException {
+        switch (command) {
+            case (byte) 0x60:
+                return getVersion();
+            case (byte) 0xFC:
+                return formatPiccCommand(data);
+            case (byte) 0x51:
+                return getCardUid(data);
+            case (byte) 0xCA:
+                return createApplication(data);
+            case (byte) 0xDA:
+                return deleteApplication(data);
+            case (byte) 0x5A:
+                return selectApplication(data);
+            case (byte) 0x6A:
+                return getApplicationIds(data);
+            case (byte) 0x6D:
+                return getDfNames(data);
+            case (byte) 0x71:
+            case (byte) 0x77:
+                return authenticateEv2Part1(command, data);
+            case (byte) 0x45:
+                return getKeySettings(data);
+            case (byte) 0x64:
+                return getKeyVersion(data);
+            case (byte) 0xC4:
+                return changeKey(data);
+            case (byte) 0xCD:
+            case (byte) 0xCB:
+                return createDataFile(command, data);
+            case (byte) 0xCC:
+                return createValueFile(data);
+            case (byte) 0xC1:
+            case (byte) 0xC0:
+                return createRecordFile(command, data);
+            case (byte) 0xDF:
+                return deleteFile(data);
+            case (byte) 0x6F:
+                return getFileIds(data);
+            case (byte) 0xF5:
+                return getFileSettings(data);
+            case (byte) 0x5F:
+                return changeFileSettings(data);
+            case (byte) 0xBD:
+            case (byte) 0xAD:
+                return readData(command, data);
+            case (byte) 0x3D:
+            case (byte) 0x8D:
+                return writeData(command, data);
+            case (byte) 0x6C:
+                return getValue(data);
+            case (byte) 0x0C:
+            case (byte) 0xDC:
+                return changeValue(command, data);
+            case (byte) 0x8B:
+            case (byte) 0x3B:
+                return writeRecord(command, data);
+            case (byte) 0xBB:
+            case (byte) 0xAB:
+                return readRecords(command, data);
+            case (byte) 0xEB:
+                return clearRecordFile(data);
+            case (byte) 0xC7:
+                return commitTransaction(data);
+            case (byte) 0xA7:
+                return abortTransactionCommand(data);
+            default:
+                throw new PiccException(ILLEGAL_COMMAND_CODE);
+        }
+    }
+
+    private byte[] additionalFrame(byte[] data) throws PiccException, GeneralSecurityException {
+        if (pendingAuthenticationCommand != 0) {
+            return authenticateEv2Part2(data);
+        }
+        if (pendingChainedCommand != 0) {
+            return continueCommandChaining(data);
+        }
+        if (pendingFrames.isEmpty()) {
+            throw new PiccException(ILLEGAL_COMMAND_CODE);
+        }
+        return nextFrame();
+    }
+
+    /**
+     * section for PICC level commands
+     */
+
+    private byte[] getVersion() {
+        pendingFrames.clear();
+        pendingFrames.add(HARDWARE_VERSION.clone());
+        pendingFrames.add(SOFTWARE_VERSION.clone());
+        pendingFrames.add(concatenate(uid, PRODUCTION_DATA));
+        countCommand();
+        return nextFrame();
+    }
+
+    private byte[] formatPiccCommand(byte[] data) throws PiccException, GeneralSecurityException {
+        if (!isPiccLevel()) throw new PiccException(PERMISSION_DENIED);
+        if (!authenticated || authenticatedKeyNumber != 0) throw new PiccException(PERMISSION_DENIED);
+        unwrapMacedCommand((byte) 0xFC, data, 0, true);
+        formatPicc();
+        return ok();
+    }
+
+    private void formatPicc() {
+        applications.clear();
+        SimulatedApplication picc = new SimulatedApplication(PICC_APPLICATION_IDENTIFIER, (byte) 0x0F, 1, null, null);
+        applications.put(0, picc);
+        selectedApplication = picc;
+        invalidateAuthentication();
+    }
+
+    private byte[] getCardUid(byte[] data) throws PiccException, GeneralSecurityException {
+        if (!authenticated) throw new PiccException(AUTHENTICATION_ERROR);
+        unwrapMacedCommand((byte) 0x51, data, 0, true);
+        return respond(uid.clone(), COMM_MODE_FULL);
+    }
+
+    /**
+     * section for applications
+     */
+
+    private byte[] createApplication(byte[] data) throws PiccException, GeneralSecurityException {
+        if (!isPiccLevel()) throw new PiccException(PERMISSION_DENIED);
+        data = unwrapMacedCommand((byte) 0xCA, data, 5, false);
+        if (data.length < 5) throw new PiccException(LENGTH_ERROR);
+        checkPiccMasterKeyOrFree();
+        byte[] aid = Arrays.copyOfRange(data, 0, 3);
+        int aidInt = aidToInt(aid);
+        if (aidInt == 0) throw new PiccException(PARAMETER_ERROR);
+        if (applications.containsKey(aidInt)) throw new PiccException(DUPLICATE_ERROR);
+        int numberOfKeys = data[4] & 0x0F;
+        if ((numberOfKeys < 1) || (numberOfKeys > 14)) throw new PiccException(PARAMETER_ERROR);
+        byte[] isoFileId = null;
+        byte[] dfName = null;
+        if (data.length >= 7) {
+            isoFileId = Arrays.copyOfRange(data, 5, 7);
+            if (data.length > 7) dfName = Arrays.copyOfRange(data, 7, data.length);
+        }
+        applications.put(aidInt, new SimulatedApplication(aid, data[3], numberOfKeys, isoFileId, dfName));
+        return ok();
+    }
+
+    private byte[] deleteApplication(byte[] data) throws PiccException, GeneralSecurityException {
+        data = unwrapMacedCommand((byte) 0xDA, data, 3, false);
+        if (data.length != 3) throw new PiccException(LENGTH_ERROR);
+        int aidInt = aidToInt(data);
+        if (aidInt == 0) throw new PiccException(PARAMETER_ERROR);
+        // unlike CreateApplication the free create/delete bit of the PICC master key settings does not free
+        // DeleteApplication, it needs the PICC master key or the master key of the selected application
+        boolean isSelectedApplication = (!isPiccLevel()) && (selectedApplication.aidInt == aidInt);
+        if ((!isPiccLevel()) && (!isSelectedApplication)) throw new PiccException(PERMISSION_DENIED);
+        if (!authenticated || authenticatedKeyNumber != 0) throw new PiccException(AUTHENTICATION_ERROR);
+        if (applications.remove(aidInt) == null) throw new PiccException(APPLICATION_NOT_FOUND);
+        byte[] response = ok();
+        if (isSelectedApplication) {
+            // the PICC level is selected after deleting the selected application
+            selectedApplication = applications.get(0);
+            invalidateAuthentication();
+        }
+        return response;
+    }
+
+    private byte[] selectApplication(byte[] data) throws PiccException {
+        if (data.length != 3) throw new PiccException(LENGTH_ERROR);
+        SimulatedApplication application = applications.get(aidToInt(data));
+        if (application == null) throw new PiccException(APPLICATION_NOT_FOUND);
+        abortTransaction();
+        invalidateAuthentication();
+        selectedApplication = application;
+        return status(OPERATION_OK);
+    }
+
+    private byte[] getApplicationIds(byte[] data) throws PiccException, GeneralSecurityException {
+        if (!isPiccLevel()) throw new PiccException(PERMISSION_DENIED);
+        unwrapMacedCommand((byte) 0x6A, data, 0, false);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (SimulatedApplication application : applications.values()) {
+            if (application.aidInt == 0) continue;
+            baos.write(application.aid, 0, 3);
+        }
+        return respond(baos.toByteArray(), COMM_MODE_PLAIN);
+    }
+
+    private byte[] getDfNames(byte[] data) throws PiccException {
+        if (!isPiccLevel()) throw new PiccException(PERMISSION_DENIED);
+        // one application per frame: AID || ISO file ID || DF name
+        pendingFrames.clear();
+        for (SimulatedApplication application : applications.values()) {
+            if ((application.aidInt == 0) || (application.isoFileId == null)) continue;
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            baos.write(application.aid, 0, 3);
+            baos.write(application.isoFileId, 0, 2);
+            if (application.dfName != null) baos.write(application.dfName, 0, application.dfName.length);
+            pendingFrames.add(baos.toByteArray());
+        }
+        countCommand();
+        if (pendingFrames.isEmpty()) return status(OPERATION_OK);
+        return nextFrame();
+    }
+
+    /**
+     * section for authentication and keys
+     */
+
+    private byte[] authenticateEv2Part1(byte command, byte[] data) throws PiccException, GeneralSecurityException {
+        if (data.length < 1) throw new PiccException(LENGTH_ERROR);
+        int keyNumber = data[0] & 0xff;
+        if (keyNumber >= selectedApplication.keys.length) throw new PiccException(NO_SUCH_KEY);
+        if ((command == (byte) 0x77) && (!authenticated)) throw new PiccException(PERMISSION_DENIED);
+        pendingRndB = getRandomData(16);
+        pendingAuthenticationKeyNumber = keyNumber;
+        byte[] rndBEnc = aesCbc(Cipher.ENCRYPT_MODE, selectedApplication.keys[keyNumber], new byte[16], pendingRndB);
+        pendingAuthenticationCommand = command;
+        return concatenate(rndBEnc, new byte[]{(byte) 0x91, ADDITIONAL_FRAME});
+    }
+
+    private byte[] authenticateEv2Part2(byte[] data) throws PiccException, GeneralSecurityException {
+        byte command = pendingAuthenticationCommand;
+        pendingAuthenticationCommand = 0;
+        if (data.length != 32) throw new PiccException(LENGTH_ERROR);
+        byte[] key = selectedApplication.keys[pendingAuthenticationKeyNumber];
+        byte[] rndArndBLeftRotated = aesCbc(Cipher.DECRYPT_MODE, key, new byte[16], data);
+        byte[] rndA = Arrays.copyOfRange(rndArndBLeftRotated, 0, 16);
+        byte[] rndBLeftRotated = Arrays.copyOfRange(rndArndBLeftRotated, 16, 32);
+        if (!Arrays.equals(rndBLeftRotated, rotateLeft(pendingRndB))) {
+            throw new PiccException(AUTHENTICATION_ERROR);
+        }
+        byte[] rndALeftRotated = rotateLeft(rndA);
+        byte[] response;
+        if (command == (byte) 0x71) {
+            // AuthenticateEV2First starts a new transaction: TI || RndA' || PDcap2 || PCDcap2
+            transactionIdentifier = getRandomData(4);
+            cmdCounter = 0;
+            response = new byte[32];
+            System.arraycopy(transactionIdentifier, 0, response, 0, 4);
+            System.arraycopy(rndALeftRotated, 0, response, 4, 16);
+        } else {
+            // AuthenticateEV2NonFirst keeps TI and CmdCtr
+            response = rndALeftRotated;
+        }
+        sesAuthEncKey = getSessionKey(new byte[]{(byte) 0xA5, (byte) 0x5A}, rndA, pendingRndB, key);
+        sesAuthMacKey = getSessionKey(new byte[]{(byte) 0x5A, (byte) 0xA5}, rndA, pendingRndB, key);
+        authenticated = true;
+        authenticatedKeyNumber = pendingAuthenticationKeyNumber;
+        byte[] responseEnc = aesCbc(Cipher.ENCRYPT_MODE, key, new byte[16], response);
+        return concatenate(responseEnc, status(OPERATION_OK));
+    }
+
+    private byte[] getKeySettings(byte[] data) throws PiccException, GeneralSecurityException {
+        boolean isMaced = authenticated && (data.length == MAC_LENGTH);
+        unwrapMacedCommand((byte) 0x45, data, 0, false);
+        byte[] keySettings = new byte[]{selectedApplication.keySettings, (byte) (selectedApplication.keys.length | 0x80)};
+        return respond(keySettings, isMaced ? COMM_MODE_MACED : COMM_MODE_PLAIN);
+    }
+
+    private byte[] getKeyVersion(byte[] data) throws PiccException, GeneralSecurityException {
+        boolean isMaced = authenticated && (data.length == 1 + MAC_LENGTH);
+        data = unwrapMacedCommand((byte) 0x64, data, 1, false);
+        if (data.length != 1) throw new PiccException(LENGTH_ERROR);
+        int keyNumber = data[0] & 0x0F;
+        if (keyNumber >= selectedApplication.keys.length) throw new PiccException(NO_SUCH_KEY);
+        return respond(new byte[]{selectedApplication.keyVersions[keyNumber]}, isMaced ? COMM_MODE_MACED : COMM_MODE_PLAIN);
+    }
+
+    private byte[] changeKey(byte[] data) throws PiccException, GeneralSecurityException {
+        if (!authenticated) throw new PiccException(AUTHENTICATION_ERROR);
+        data = unwrapCommand((byte) 0xC4, data, 1, COMM_MODE_FULL);
+        int keyNumber = data[0] & 0x0F;
+        if (keyNumber >= selectedApplication.keys.length) throw new PiccException(NO_SUCH_KEY);
+        int changeKey = (selectedApplication.keySettings >> 4) & 0x0F;
+        boolean isAllowed;
+        if (changeKey == 0x0E) {
+            isAllowed = (authenticatedKeyNumber == keyNumber);
+        } else if (changeKey == 0x0F) {
+            isAllowed = (authenticatedKeyNumber == keyNumber) && (keyNumber == 0);
+        } else {
+            isAllowed = (authenticatedKeyNumber == changeKey) || ((keyNumber == 0) && (authenticatedKeyNumber == 0));
+        }
+        if (!isAllowed) throw new PiccException(PERMISSION_DENIED);
+        byte[] newKey;
+        if (keyNumber == authenticatedKeyNumber) {
+            if (data.length < 18) throw new PiccException(LENGTH_ERROR);
+            newKey = Arrays.copyOfRange(data, 1, 17);
+            selectedApplication.keyVersions[keyNumber] = data[17];
+            selectedApplication.keys[keyNumber] = newKey;
+            // changing the key used for authentication ends the session, the response is not MACed
+            invalidateAuthentication();
+            return status(OPERATION_OK);
+        }
+        if (data.length < 22) throw new PiccException(LENGTH_ERROR);
+        newKey = Arrays.copyOfRange(data, 1, 17);
+        byte[] oldKey = selectedApplication.keys[keyNumber];
+        for (int i = 0; i < 16; i++) {
+            newKey[i] ^= oldKey[i];
+        }
+        if (!Arrays.equals(CRC32.get(newKey), Arrays.copyOfRange(data, 18, 22))) {
+            throw new PiccException(INTEGRITY_ERROR);
+        }
+        selectedApplication.keys[keyNumber] = newKey;
+        selectedApplication.keyVersions[keyNumber] = data[17];
+        return respond(new byte[0], COMM_MODE_MACED);
+    }
+
+    /**
+     * section for file management
+     */
+
+    private byte[] createDataFile(byte command, byte[] data) throws PiccException, GeneralSecurityException {
+        data = unwrapMacedCommand(command, data, 7, false);
+        // fileNo || [ISO file ID] || fileOption || access rights || file size
+        int isoOffset = (data.length == 9) ? 2 : 0;
+        if (data.length != 7 + isoOffset) throw new PiccException(LENGTH_ERROR);
+        SimulatedFile file = newFile(data[0], (command == (byte) 0xCD) ? FILE_TYPE_STANDARD : FILE_TYPE_BACKUP, data, 1 + isoOffset);
+        int fileSize = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 4 + isoOffset, 7 + isoOffset));
+        if (fileSize < 1) throw new PiccException(PARAMETER_ERROR);
+        file.fileSize = fileSize;
+        file.data = new byte[fileSize];
+        return addFile(file);
+    }
+
+    private byte[] createValueFile(byte[] data) throws PiccException, GeneralSecurityException {
+        data = unwrapMacedCommand((byte) 0xCC, data, 17, false);
+        // fileNo || fileOption || access rights || lower limit || upper limit || value || limited credit enabled
+        if (data.length != 17) throw new PiccException(LENGTH_ERROR);
+        SimulatedFile file = newFile(data[0], FILE_TYPE_VALUE, data, 1);
+        file.lowerLimit = Utils.intFrom4ByteArrayInversed(Arrays.copyOfRange(data, 4, 8));
+        file.upperLimit = Utils.intFrom4ByteArrayInversed(Arrays.copyOfRange(data, 8, 12));
+        file.value = Utils.intFrom4ByteArrayInversed(Arrays.copyOfRange(data, 12, 16));
+        file.limitedCreditEnabled = data[16];
+        if ((file.lowerLimit > file.upperLimit) || (file.value < file.lowerLimit) || (file.value > file.upperLimit)) {
+            throw new PiccException(BOUNDARY_ERROR);
+        }
+        return addFile(file);
+    }
+
+    private byte[] createRecordFile(byte command, byte[] data) throws PiccException, GeneralSecurityException {
+        data = unwrapMacedCommand(command, data, 10, false);
+        // fileNo || [ISO file ID] || fileOption || access rights || record size || max number of records
+        int isoOffset = (data.length == 12) ? 2 : 0;
+        if (data.length != 10 + isoOffset) throw new PiccException(LENGTH_ERROR);
+        byte fileType = (command == (byte) 0xC1) ? FILE_TYPE_LINEAR_RECORD : FILE_TYPE_CYCLIC_RECORD;
+        SimulatedFile file = newFile(data[0], fileType, data, 1 + isoOffset);
+        file.recordSize = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 4 + isoOffset, 7 + isoOffset));
+        file.maximumNumberOfRecords = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 7 + isoOffset, 10 + isoOffset));
+        if ((file.recordSize < 1) || (file.maximumNumberOfRecords < 1)) throw new PiccException(PARAMETER_ERROR);
+        if ((fileType == FILE_TYPE_CYCLIC_RECORD) && (file.maximumNumberOfRecords < 2)) {
+            throw new PiccException(PARAMETER_ERROR);
+        }
+        return addFile(file);
+    }
+
+    private SimulatedFile newFile(byte fileNumber, byte fileType, byte[] data, int settingsOffset) throws PiccException {
+        if (isPiccLevel()) throw new PiccException(PERMISSION_DENIED);
+        checkApplicationMasterKeyOrFree();
+        if ((fileNumber < 0) || (fileNumber >= MAXIMUM_NUMBER_OF_FILES)) throw new PiccException(PARAMETER_ERROR);
+        if (selectedApplication.files.containsKey(fileNumber)) throw new PiccException(DUPLICATE_ERROR);
+        SimulatedFile file = new SimulatedFile(fileNumber, fileType);
+        file.fileOption = data[settingsOffset];
+        file.accessRights = Arrays.copyOfRange(data, settingsOffset + 1, settingsOffset + 3);
+        return file;
+    }
+
+    private byte[] addFile(SimulatedFile file) throws PiccException, GeneralSecurityException {
+        selectedApplication.files.put(file.fileNumber, file);
+        return ok();
+    }
+
+    private byte[] deleteFile(byte[] data) throws PiccException, GeneralSecurityException {
+        data = unwrapMacedCommand((byte) 0xDF, data, 1, false);
+        if (data.length != 1) throw new PiccException(LENGTH_ERROR);
+        if (isPiccLevel()) throw new PiccException(PERMISSION_DENIED);
+        checkApplicationMasterKeyOrFree();
+        if (selectedApplication.files.remove(data[0]) == null) throw new PiccException(FILE_NOT_FOUND);
+        return ok();
+    }
+
+    private byte[] getFileIds(byte[] data) throws PiccException, GeneralSecurityException {
+        if (isPiccLevel()) throw new PiccException(PERMISSION_DENIED);
+        boolean isMaced = authenticated && (data.length == MAC_LENGTH);
+        unwrapMacedCommand((byte) 0x6F, data, 0, false);
+        byte[] fileIds = new byte[selectedApplication.files.size()];
+        int i = 0;
+        for (Byte fileNumber : selectedApplication.files.keySet()) {
+            fileIds[i++] = fileNumber;
+        }
+        return respond(fileIds, isMaced ? COMM_MODE_MACED : COMM_MODE_PLAIN);
+    }
+
+    private byte[] getFileSettings(byte[] data) throws PiccException, GeneralSecurityException {
+        boolean isMaced = authenticated && (data.length == 1 + MAC_LENGTH);
+        data = unwrapMacedCommand((byte) 0xF5, data, 1, false);
+        if (data.length != 1) throw new PiccException(LENGTH_ERROR);
+        SimulatedFile file = getFile(data[0]);
+        return respond(file.getFileSettings(), isMaced ? COMM_MODE_MACED : COMM_MODE_PLAIN);
+    }
+
+    private byte[] changeFileSettings(byte[] data) throws PiccException, GeneralSecurityException {
+        if (data.length < 1) throw new PiccException(LENGTH_ERROR);
+        SimulatedFile file = getFile(data[0]);
+        int changeAccessRights = file.accessRights[0] & 0x0F;
+        if (changeAccessRights == 0x0F) throw new PiccException(PERMISSION_DENIED);
+        int commMode = COMM_MODE_PLAIN;
+        if (changeAccessRights != ACCESS_FREE) {
+            if (!authenticated) throw new PiccException(AUTHENTICATION_ERROR);
+            if (authenticatedKeyNumber != changeAccessRights) throw new PiccException(PERMISSION_DENIED);
+            commMode = COMM_MODE_FULL;
+        }
+        data = unwrapCommand((byte) 0x5F, data, 1, commMode);
+        if (data.length < 4) throw new PiccException(LENGTH_ERROR);
+        file.fileOption = data[1];
+        file.accessRights = Arrays.copyOfRange(data, 2, 4);
+        return respond(new byte[0], (commMode == COMM_MODE_FULL) ? COMM_MODE_MACED : COMM_MODE_PLAIN);
+    }
+
+    /**
+     * section for Standard and Backup files
+     */
+
+    private byte[] readData(byte command, byte[] data) throws PiccException, GeneralSecurityException {
+        if (data.length < 7) throw new PiccException(LENGTH_ERROR);
+        SimulatedFile file = getFile(data[0]);
+        if ((file.fileType != FILE_TYPE_STANDARD) && (file.fileType != FILE_TYPE_BACKUP)) {
+            throw new PiccException(PARAMETER_ERROR);
+        }
+        int commMode = checkAccess(file, true, false, false);
+        data = unwrapCommand(command, data, 7, commMode == COMM_MODE_FULL ? COMM_MODE_MACED : commMode);
+        int offset = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 1, 4));
+        int length = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 4, 7));
+        if (length == 0) length = file.fileSize - offset;
+        if ((offset < 0) || (length < 1) || (offset + length > file.fileSize)) throw new PiccException(BOUNDARY_ERROR);
+        return respond(Arrays.copyOfRange(file.data, offset, offset + length), commMode);
+    }
+
+    private byte[] writeData(byte command, byte[] data) throws PiccException, GeneralSecurityException {
+        if (data.length < 7) throw new PiccException(LENGTH_ERROR);
+        SimulatedFile file = getFile(data[0]);
+        if ((file.fileType != FILE_TYPE_STANDARD) && (file.fileType != FILE_TYPE_BACKUP)) {
+            throw new PiccException(PARAMETER_ERROR);
+        }
+        int commMode = checkAccess(file, false, true, false);
+        int chainedLength = getChainedCommandLength(data, commMode);
+        if (data.length < chainedLength) return startCommandChaining(command, data, chainedLength);
+        data = unwrapCommand(command, data, 7, commMode);
+        int offset = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 1, 4));
+        int length = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 4, 7));
+        if (data.length - 7 != length) throw new PiccException(LENGTH_ERROR);
+        if ((offset < 0) || (offset + length > file.fileSize)) throw new PiccException(BOUNDARY_ERROR);
+        byte[] target;
+        if (file.fileType == FILE_TYPE_BACKUP) {
+            if (file.pendingData == null) file.pendingData = file.data.clone();
+            target = file.pendingData;
+        } else {
+            target = file.data;
+        }
+        System.arraycopy(data, 7, target, offset, length);
+        return respond(new byte[0], commMode == COMM_MODE_PLAIN ? COMM_MODE_PLAIN : COMM_MODE_MACED);
+    }
+
+    /**
+     * section for Value files
+     */
+
+    private byte[] getValue(byte[] data) throws PiccException, GeneralSecurityException {
+        if (data.length < 1) throw new PiccException(LENGTH_ERROR);
+        SimulatedFile file = getValueFile(data[0]);
+        int commMode = checkAccess(file, true, true, false);
+        unwrapCommand((byte) 0x6C, data, 1, commMode == COMM_MODE_FULL ? COMM_MODE_MACED : commMode);
+        return respond(Utils.intTo4ByteArrayInversed(file.value), commMode);
+    }
+
+    private byte[] changeValue(byte command, byte[] data) throws PiccException, GeneralSecurityException {
+        if (data.length < 1) throw new PiccException(LENGTH_ERROR);
+        SimulatedFile file = getValueFile(data[0]);
+        boolean isCredit = (command == (byte) 0x0C);
+        // Credit needs the Read&Write key, Debit any of Read, Write or Read&Write
+        int commMode = checkAccess(file, !isCredit, !isCredit, true);
+        data = unwrapCommand(command, data, 1, commMode);
+        if (data.length != 5) throw new PiccException(LENGTH_ERROR);
+        int changeValue = Utils.intFrom4ByteArrayInversed(Arrays.copyOfRange(data, 1, 5));
+        if (changeValue < 0) throw new PiccException(PARAMETER_ERROR);
+        long newValue = (file.pendingValue != null) ? file.pendingValue : file.value;
+        newValue = isCredit ? newValue + changeValue : newValue - changeValue;
+        if ((newValue < file.lowerLimit) || (newValue > file.upperLimit)) throw new PiccException(BOUNDARY_ERROR);
+        file.pendingValue = (int) newValue;
+        return respond(new byte[0], commMode == COMM_MODE_PLAIN ? COMM_MODE_PLAIN : COMM_MODE_MACED);
+    }
+
+    /**
+     * section for Linear and Cyclic Record files
+     */
+
+    private byte[] writeRecord(byte command, byte[] data) throws PiccException, GeneralSecurityException {
+        if (data.length < 7) throw new PiccException(LENGTH_ERROR);
+        SimulatedFile file = getRecordFile(data[0]);
+        int commMode = checkAccess(file, false, true, false);
+        int chainedLength = getChainedCommandLength(data, commMode);
+        if (data.length < chainedLength) return startCommandChaining(command, data, chainedLength);
+        data = unwrapCommand(command, data, 7, commMode);
+        int offset = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 1, 4));
+        int length = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 4, 7));
+        if (data.length - 7 != length) throw new PiccException(LENGTH_ERROR);
+        if ((offset < 0) || (length < 1) || (offset + length > file.recordSize)) throw new PiccException(BOUNDARY_ERROR);
+        if (file.pendingRecord == null) {
+            if ((file.fileType == FILE_TYPE_LINEAR_RECORD) && (file.records.size() >= file.maximumNumberOfRecords)) {
+                throw new PiccException(BOUNDARY_ERROR);
+            }
+            file.pendingRecord = new byte[file.recordSize];
+        }
+        System.arraycopy(data, 7, file.pendingRecord, offset, length);
+        return respond(new byte[0], commMode == COMM_MODE_PLAIN ? COMM_MODE_PLAIN : COMM_MODE_MACED);
+    }
+
+    private byte[] readRecords(byte command, byte[] data) throws PiccException, GeneralSecurityException {
+        if (data.length < 7) throw new PiccException(LENGTH_ERROR);
+        SimulatedFile file = getRecordFile(data[0]);
+        int commMode = checkAccess(file, true, false, false);
+        data = unwrapCommand(command, data, 7, commMode == COMM_MODE_FULL ? COMM_MODE_MACED : commMode);
+        // the offset counts from the newest record (0) to older records, the records are returned oldest first
+        int offset = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 1, 4));
+        int count = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 4, 7));
+        int existing = file.records.size();
+        if (offset >= existing) throw new PiccException(BOUNDARY_ERROR);
+        if (count == 0) count = existing - offset;
+        if (count > existing - offset) throw new PiccException(BOUNDARY_ERROR);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (int i = existing - offset - count; i < existing - offset; i++) {
+            baos.write(file.records.get(i), 0, file.recordSize);
+        }
+        return respond(baos.toByteArray(), commMode);
+    }
+
+    private byte[] clearRecordFile(byte[] data) throws PiccException, GeneralSecurityException {
+        if (data.length < 1) throw new PiccException(LENGTH_ERROR);
+        SimulatedFile file = getRecordFile(data[0]);
+        int readWriteKey = (file.accessRights[0] >> 4) & 0x0F;
+        if (readWriteKey == 0x0F) throw new PiccException(PERMISSION_DENIED);
+        boolean isMaced = authenticated && (data.length == 1 + MAC_LENGTH);
+        if (readWriteKey != ACCESS_FREE) {
+            if (!authenticated) throw new PiccException(AUTHENTICATION_ERROR);
+            if (authenticatedKeyNumber != readWriteKey) throw new PiccException(PERMISSION_DENIED);
+        }
+        unwrapMacedCommand((byte) 0xEB, data, 1, false);
+        file.pendingClear = true;
+        file.pendingRecord = null;
+        return respond(new byte[0], isMaced ? COMM_MODE_MACED : COMM_MODE_PLAIN);
+    }
+
+    /**
+     * section for transactions
+     */
+
+    private byte[] commitTransaction(byte[] data) throws PiccException, GeneralSecurityException {
+        boolean isMaced = authenticated && (data.length >= MAC_LENGTH);
+        data = unwrapMacedCommand((byte) 0xC7, data, data.length >= MAC_LENGTH ? data.length - MAC_LENGTH : data.length, false);
+        if (data.length > 1) throw new PiccException(LENGTH_ERROR);
+        if (isPiccLevel()) throw new PiccException(PERMISSION_DENIED);
+        for (SimulatedFile file : selectedApplication.files.values()) {
+            file.commit();
+        }
+        return respond(new byte[0], isMaced ? COMM_MODE_MACED : COMM_MODE_PLAIN);
+    }
+
+    private byte[] abortTransactionCommand(byte[] data) throws PiccException, GeneralSecurityException {
+        boolean isMaced = authenticated && (data.length == MAC_LENGTH);
+        unwrapMacedCommand((byte) 0xA7, data, 0, false);
+        abortTransaction();
+        return respond(new byte[0], isMaced ? COMM_MODE_MACED : COMM_MODE_PLAIN);
+    }
+
+    private void abortTransaction() {
+        if (selectedApplication == null) return;
+        for (SimulatedFile file : selectedApplication.files.values()) {
+            file.abort();
+        }
+    }
+
+    /**
+     * section for access rights
+     */
+
+    /**
+     * checks the access rights of the file for the requested operation and returns the communication mode to use
+     *
+     * @param readAllowed      the Read key grants the access
+     * @param writeAllowed     the Write key grants the access
+     * @param readWriteAllowed the Read&Write key grants the access (always true for read and write operations)
+     * @return COMM_MODE_PLAIN if the access is free, otherwise the communication mode of the file
+     */
+    private int checkAccess(SimulatedFile file, boolean readAllowed, boolean writeAllowed, boolean readWriteAllowed) throws PiccException {
+        int readWriteKey = (file.accessRights[0] >> 4) & 0x0F;
+        int readKey = (file.accessRights[1] >> 4) & 0x0F;
+        int writeKey = file.accessRights[1] & 0x0F;
+        List<Integer> grantingKeys = new ArrayList<>();
+        grantingKeys.add(readWriteKey); // the Read&Write key grants every file data operation
+        if (readAllowed) grantingKeys.add(readKey);
+        if (writeAllowed) grantingKeys.add(writeKey);
+        if (authenticated && grantingKeys.contains(authenticatedKeyNumber)) {
+            return file.fileOption & 0x03;
+        }
+        if (grantingKeys.contains(ACCESS_FREE)) {
+            return COMM_MODE_PLAIN;
+        }
+        if (!authenticated) throw new PiccException(AUTHENTICATION_ERROR);
+        throw new PiccException(PERMISSION_DENIED);
+    }
+
+    private void checkPiccMasterKeyOrFree() throws PiccException {
+        // bit 2 of the PICC master key settings: create application without authentication
+        boolean isFree = (applications.get(0).keySettings & 0x04) != 0;
+        if (isFree) return;
+        if (!authenticated || authenticatedKeyNumber != 0) throw new PiccException(PERMISSION_DENIED);
+    }
+
+    private void checkApplicationMasterKeyOrFree() throws PiccException {
+        // bit 2 of the application master key settings: create/delete file without authentication
+        boolean isFree = (selectedApplication.keySettings & 0x04) != 0;
+        if (isFree) return;
+        if (!authenticated || authenticatedKeyNumber != 0) throw new PiccException(PERMISSION_DENIED);
+    }
+
+    private SimulatedFile getFile(byte fileNumber) throws PiccException {
+        if (isPiccLevel()) throw new PiccException(PERMISSION_DENIED);
+        SimulatedFile file = selectedApplication.files.get(fileNumber);
+        if (file == null) throw new PiccException(FILE_NOT_FOUND);
+        return file;
+    }
+
+    private SimulatedFile getValueFile(byte fileNumber) throws PiccException {
+        SimulatedFile file = getFile(fileNumber);
+        if (file.fileType != FILE_TYPE_VALUE) throw new PiccException(PARAMETER_ERROR);
+        return file;
+    }
+
+    private SimulatedFile getRecordFile(byte fileNumber) throws PiccException {
+        SimulatedFile file = getFile(fileNumber);
+        if ((file.fileType != FILE_TYPE_LINEAR_RECORD) && (file.fileType != FILE_TYPE_CYCLIC_RECORD)) {
+            throw new PiccException(PARAMETER_ERROR);
+        }
+        return file;
+    }
+
+    private boolean isPiccLevel() {
+        return selectedApplication.aidInt == 0;
+    }
+
+    /**
+     * section for secure messaging
+     */
+
+    /**
+     * verifies and removes the MAC of a command that has an optional MAC in authenticated state
+     *
+     * @param headerLength the length of the command data without MAC
+     * @param isMandatory  if true a missing MAC is an integrity error
+     */
+    private byte[] unwrapMacedCommand(byte command, byte[] data, int headerLength, boolean isMandatory) throws PiccException, GeneralSecurityException {
+        if (!authenticated) return data;
+        if (data.length < headerLength + MAC_LENGTH) {
+            if (isMandatory) throw new PiccException(INTEGRITY_ERROR);
+            return data;
+        }
+        return unwrapCommand(command, data, data.length - MAC_LENGTH, COMM_MODE_MACED);
+    }
+
+    /**
+     * verifies the MAC of the command (MACed and Full) and decrypts the data following the header (Full)
+     *
+     * @return the plain command data (header || data) without MAC
+     */
+    private byte[] unwrapCommand(byte command, byte[] data, int headerLength, int commMode) throws PiccException, GeneralSecurityException {
+        if ((commMode == COMM_MODE_PLAIN) || (!authenticated)) return data;
+        if (data.length < headerLength + MAC_LENGTH) throw new PiccException(LENGTH_ERROR);
+        byte[] commandData = Arrays.copyOf(data, data.length - MAC_LENGTH);
+        byte[] macReceived = Arrays.copyOfRange(data, data.length - MAC_LENGTH, data.length);
+        ByteArrayOutputStream macInput = new ByteArrayOutputStream();
+        macInput.write(command);
+        macInput.write(Utils.intTo2ByteArrayInversed(cmdCounter), 0, 2);
+        macInput.write(transactionIdentifier, 0, 4);
+        macInput.write(commandData, 0, commandData.length);
+        if (!Arrays.equals(macReceived, truncateMac(cmac(sesAuthMacKey, macInput.toByteArray())))) {
+            throw new PiccException(INTEGRITY_ERROR);
+        }
+        if (commMode != COMM_MODE_FULL) return commandData;
+        int encryptedLength = commandData.length - headerLength;
+        if ((encryptedLength == 0) || (encryptedLength % 16 != 0)) throw new PiccException(LENGTH_ERROR);
+        byte[] iv = getIv(new byte[]{(byte) 0xA5, (byte) 0x5A}, cmdCounter);
+        byte[] decrypted = aesCbc(Cipher.DECRYPT_MODE, sesAuthEncKey, iv, Arrays.copyOfRange(commandData, headerLength, commandData.length));
+        int paddingStart = decrypted.length - 1;
+        while ((paddingStart > 0) && (decrypted[paddingStart] == (byte) 0x00)) paddingStart--;
+        if (decrypted[paddingStart] != (byte) 0x80) throw new PiccException(INTEGRITY_ERROR);
+        return concatenate(Arrays.copyOf(commandData, headerLength), Arrays.copyOf(decrypted, paddingStart));
+    }
+
+    /**
+     * builds the response of a successful command: in authenticated state the CmdCtr is increased, in
+     * MACed mode the MAC of the response is appended, in Full mode the data is encrypted and MACed
+     */
+    private byte[] respond(byte[] data, int commMode) throws GeneralSecurityException {
+        countCommand();
+        if (authenticated && (commMode != COMM_MODE_PLAIN)) {
+            if (commMode == COMM_MODE_FULL) {
+                byte[] padded = Arrays.copyOf(data, (data.length / 16 + 1) * 16);
+                padded[data.length] = (byte) 0x80;
+                byte[] iv = getIv(new byte[]{(byte) 0x5A, (byte) 0xA5}, cmdCounter);
+                data = aesCbc(Cipher.ENCRYPT_MODE, sesAuthEncKey, iv, padded);
+            }
+            ByteArrayOutputStream macInput = new ByteArrayOutputStream();
+            macInput.write(OPERATION_OK);
+            macInput.write(Utils.intTo2ByteArrayInversed(cmdCounter), 0, 2);
+            macInput.write(transactionIdentifier, 0, 4);
+            macInput.write(data, 0, data.length);
+            data = concatenate(data, truncateMac(cmac(sesAuthMacKey, macInput.toByteArray())));
+        }
+        pendingFrames.clear();
+        for (int i = 0; i < data.length; i += maximumResponseFrameLength) {
+            pendingFrames.add(Arrays.copyOfRange(data, i, Math.min(data.length, i + maximumResponseFrameLength)));
+        }
+        if (pendingFrames.isEmpty()) return status(OPERATION_OK);
+        return nextFrame();
+    }
+
+    /**
+     * the length of a WriteData or WriteRecord command (header || data || MAC) calculated from the length in
+     * the command header, if the received data is shorter the command continues in additional frames
+     */
+    private int getChainedCommandLength(byte[] data, int commMode) {
+        int length = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 4, 7));
+        if ((commMode == COMM_MODE_PLAIN) || (!authenticated)) return 7 + length;
+        if (commMode == COMM_MODE_MACED) return 7 + length + MAC_LENGTH;
+        return 7 + (length / 16 + 1) * 16 + MAC_LENGTH;
+    }
+
+    private byte[] startCommandChaining(byte command, byte[] data, int chainedLength) {
+        pendingChainedCommand = command;
+        pendingChainedLength = chainedLength;
+        pendingChainedData.reset();
+        pendingChainedData.write(data, 0, data.length);
+        return status(ADDITIONAL_FRAME);
+    }
+
+    /**
+     * collects the data of an additional frame, when the command is complete it gets processed as if it was
+     * sent in one frame (the CmdCtr is increased once per command, not per frame)
+     */
+    private byte[] continueCommandChaining(byte[] data) throws PiccException, GeneralSecurityException {
+        pendingChainedData.write(data, 0, data.length);
+        if (pendingChainedData.size() > pendingChainedLength) throw new PiccException(LENGTH_ERROR);
+        if (pendingChainedData.size() < pendingChainedLength) return status(ADDITIONAL_FRAME);
+        byte command = pendingChainedCommand;
+        byte[] commandData = pendingChainedData.toByteArray();
+        clearCommandChaining();
+        return process(command, commandData);
+    }
+
+    private void clearCommandChaining() {
+        pendingChainedCommand = 0;
+        pendingChainedLength = 0;
+        pendingChainedData.reset();
+    }
+
+    private byte[] ok() throws GeneralSecurityException {
+        return respond(new byte[0], COMM_MODE_MACED);
+    }
+
+    private void countCommand() {
+        if (authenticated) cmdCounter++;
+    }
+
+    private byte[] nextFrame() {
+        byte[] frame = pendingFrames.remove(0);
+        byte statusByte = pendingFrames.isEmpty() ? OPERATION_OK : ADDITIONAL_FRAME;
+        return concatenate(frame, status(statusByte));
+    }
+
+    private void invalidateAuthentication() {
+        authenticated = false;
+        authenticatedKeyNumber = -1;
+        sesAuthEncKey = null;
+        sesAuthMacKey = null;
+        transactionIdentifier = null;
+        cmdCounter = 0;
+    }
+
+    private byte[] getIv(byte[] label, int counter) throws GeneralSecurityException {
+        byte[] ivInput = new byte[16];
+        System.arraycopy(label, 0, ivInput, 0, 2);
+        System.arraycopy(transactionIdentifier, 0, ivInput, 2, 4);
+        System.arraycopy(Utils.intTo2ByteArrayInversed(counter), 0, ivInput, 6, 2);
+        return aesCbc(Cipher.ENCRYPT_MODE, sesAuthEncKey, new byte[16], ivInput);
+    }
+
+    private byte[] getSessionKey(byte[] label, byte[] rndA, byte[] rndB, byte[] key) throws GeneralSecurityException {
+        // SV = label || 0x0001 || 0x0080 || RndA[15..14] || (RndA[13..8] XOR RndB[15..10]) || RndB[9..0] || RndA[7..0]
+        byte[] sv = new byte[32];
+        System.arraycopy(label, 0, sv, 0, 2);
+        sv[3] = (byte) 0x01;
+        sv[5] = (byte) 0x80;
+        System.arraycopy(rndA, 0, sv, 6, 2);
+        for (int i = 0; i < 6; i++) {
+            sv[8 + i] = (byte) (rndA[2 + i] ^ rndB[i]);
+        }
+        System.arraycopy(rndB, 6, sv, 14, 10);
+        System.arraycopy(rndA, 8, sv, 24, 8);
+        return cmac(key, sv);
+    }
+
+    private byte[] cmac(byte[] key, byte[] data) throws GeneralSecurityException {
+        AesCmac mac = new AesCmac();
+        mac.init(new SecretKeySpec(key, "AES"));
+        mac.updateBlock(data);
+        return mac.doFinal();
+    }
+
+    private byte[] truncateMac(byte[] fullMac) {
+        byte[] truncated = new byte[MAC_LENGTH];
+        for (int i = 0; i < MAC_LENGTH; i++) {
+            truncated[i] = fullMac[2 * i + 1];
+        }
+        return truncated;
+    }
+
+    private byte[] aesCbc(int mode, byte[] key, byte[] iv, byte[] data) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+        cipher.init(mode, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+        return cipher.doFinal(data);
+    }
+
+    /**
+     * internal utility methods
+     */
+
+    private byte[] getRandomData(int length) {
+        byte[] data = new byte[length];
+        secureRandom.nextBytes(data);
+        return data;
+    }
+
+    private static byte[] rotateLeft(byte[] data) {
+        byte[] rotated = new byte[data.length];
+        System.arraycopy(data, 1, rotated, 0, data.length - 1);
+        rotated[data.length - 1] = data[0];
+        return rotated;
+    }
+
+    private static byte[] concatenate(byte[] dataA, byte[] dataB) {
+        byte[] concatenated = new byte[dataA.length + dataB.length];
+        System.arraycopy(dataA, 0, concatenated, 0, dataA.length);
+        System.arraycopy(dataB, 0, concatenated, dataA.length, dataB.length);
+        return concatenated;
+    }
+
+    private static byte[] status(byte statusByte) {
+        return new byte[]{(byte) 0x91, statusByte};
+    }
+
+    private static int aidToInt(byte[] aid) {
+        return (aid[0] & 0xff) | ((aid[1] & 0xff) << 8) | ((aid[2] & 0xff) << 16);
+    }
+
+    /**
+     * internal data model of the simulated PICC
+     */
+
+    private static class PiccException extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final byte status;
+
+        PiccException(byte status) {
+            super("PICC status 91" + Utils.byteToHex(status));
+            this.status = status;
+        }
+    }
+
+    private static class SimulatedApplication {
+        private final byte[] aid;
+        private final int aidInt;
+        private final byte keySettings;
+        private final byte[][] keys;
+        private final byte[] keyVersions;
+        private final byte[] isoFileId;
+        private final byte[] dfName;
+        private final Map<Byte, SimulatedFile> files = new TreeMap<>();
+
+        SimulatedApplication(byte[] aid, byte keySettings, int numberOfKeys, byte[] isoFileId, byte[] dfName) {
+            this.aid = aid.clone();
+            this.aidInt = aidToInt(aid);
+            this.keySettings = keySettings;
+            this.keys = new byte[numberOfKeys][];
+            for (int i = 0; i < numberOfKeys; i++) {
+                keys[i] = new byte[16]; // default AES key
+            }
+            this.keyVersions = new byte[numberOfKeys];
+            this.isoFileId = isoFileId;
+            this.dfName = dfName;
+        }
+    }
+
+    private static class SimulatedFile {
+        private final byte fileNumber;
+        private final byte fileType;
+        private byte fileOption;
+        private byte[] accessRights;
+        // Standard and Backup files
+        private int fileSize;
+        private byte[] data;
+        private byte[] pendingData;
+        // Value files
+        private int lowerLimit;
+        private int upperLimit;
+        private int value;
+        private Integer pendingValue;
+        private byte limitedCreditEnabled;
+        // Linear and Cyclic Record files
+        private int recordSize;
+        private int maximumNumberOfRecords;
+        private final List<byte[]> records = new ArrayList<>(); // oldest record first
+        private byte[] pendingRecord;
+        private boolean pendingClear;
+
+        SimulatedFile(byte fileNumber, byte fileType) {
+            this.fileNumber = fileNumber;
+            this.fileType = fileType;
+        }
+
+        void commit() {
+            if (pendingData != null) {
+                data = pendingData;
+                pendingData = null;
+            }
+            if (pendingValue != null) {
+                value = pendingValue;
+                pendingValue = null;
+            }
+            if (pendingClear) {
+                records.clear();
+                pendingClear = false;
+            }
+            if (pendingRecord != null) {
+                // a cyclic record file keeps one record for the next write, the oldest record is overwritten
+                if ((fileType == FILE_TYPE_CYCLIC_RECORD) && (records.size() >= maximumNumberOfRecords - 1)) {
+                    records.remove(0);
+                }
+                records.add(pendingRecord);
+                pendingRecord = null;
+            }
+        }
+
+        void abort() {
+            pendingData = null;
+            pendingValue = null;
+            pendingRecord = null;
+            pendingClear = false;
+        }
+
+        byte[] getFileSettings() {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            baos.write(fileType);
+            baos.write(fileOption);
+            baos.write(accessRights, 0, 2);
+            switch (fileType) {
+                case FILE_TYPE_STANDARD:
+                case FILE_TYPE_BACKUP:
+                    baos.write(Utils.intTo3ByteArrayInversed(fileSize), 0, 3);
+                    break;
+                case FILE_TYPE_VALUE:
+                    baos.write(Utils.intTo4ByteArrayInversed(lowerLimit), 0, 4);
+                    baos.write(Utils.intTo4ByteArrayInversed(upperLimit), 0, 4);
+                    baos.write(Utils.intTo4ByteArrayInversed(0), 0, 4); // limited credit value
+                    baos.write(limitedCreditEnabled);
+                    break;
+                default:
+                    baos.write(Utils.intTo3ByteArrayInversed(recordSize), 0, 3);
+                    baos.write(Utils.intTo3ByteArrayInversed(maximumNumberOfRecords), 0, 3);
+                    baos.write(Utils.intTo3ByteArrayInversed(records.size()), 0, 3);
+                    break;
+            }
+            return baos.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+/**
+ * A bounded trace of the steps of the DesfireEv3 commands, replacing the former 'logData += ...' String.
+ * The recorder preallocates a ring buffer of events. An event stores the method name, the message or label and
+ * a copy of the byte array, nothing gets formatted on recording. The text is built only when format() is called
+ * (see DesfireEv3.getLogData()). When the buffer is full the oldest events get overwritten.
+ * <p>
+ * Note: byte arrays are copied because several arrays get reused or wiped after logging (e.g. the session
+ * vector buffer or pooled challenges), a reference would show the later content.
+ * <p>
+ * The class is not thread safe, an instance belongs to one DesfireEv3 object.
+ */
+
+public class TraceRecorder {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final String[] methodNames;
+    private final String[] messages; // the message or the label of the data
+    private final byte[][] data;
+    private final boolean[] hasData;
+    private final boolean[] isSecret;
+    private int next = 0; // index of the next event to write
+    private int size = 0;
+    private long droppedEvents = 0;
+
+    public TraceRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TraceRecorder(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity needs to be at least 1");
+        }
+        methodNames = new String[capacity];
+        messages = new String[capacity];
+        data = new byte[capacity][];
+        hasData = new boolean[capacity];
+        isSecret = new boolean[capacity];
+    }
+
+    /**
+     * records a plain message
+     */
+    public void record(String methodName, String message) {
+        int index = advance();
+        methodNames[index] = methodName;
+        messages[index] = message;
+        data[index] = null;
+        hasData[index] = false;
+        isSecret[index] = false;
+    }
+
+    /**
+     * records a copy of a labeled byte array, the array is formatted like printData ('label length: n data: hex') on format()
+     */
+    public void record(String methodName, String label, byte[] data) {
+        int index = advance();
+        methodNames[index] = methodName;
+        messages[index] = label;
+        this.data[index] = (data == null) ? null : data.clone();
+        hasData[index] = true;
+        isSecret[index] = false;
+    }
+
+    /**
+     * records key material or another secret, in production mode (see DesfireLog) only the length gets formatted
+     */
+    public void recordSecret(String methodName, String label, byte[] data) {
+        record(methodName, label, data);
+        isSecret[(next - 1 + methodNames.length) % methodNames.length] = true;
+    }
+
+    private int advance() {
+        int index = next;
+        next = (next + 1) % methodNames.length;
+        if (size < methodNames.length) {
+            size++;
+        } else {
+            droppedEvents++;
+        }
+        return index;
+    }
+
+    /**
+     * removes all events and releases the recorded byte arrays, only the used slots are visited
+     */
+    public void clear() {
+        int start = (next - size + methodNames.length) % methodNames.length;
+        for (int i = 0; i < size; i++) {
+            int index = (start + i) % methodNames.length;
+            methodNames[index] = null;
+            messages[index] = null;
+            data[index] = null;
+        }
+        next = 0;
+        size = 0;
+        droppedEvents = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return methodNames.length;
+    }
+
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    /**
+     * builds the text of all recorded events, oldest first, in the format of the former log:
+     * 'method: methodName' followed by the message in the next line
+     */
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        if (droppedEvents > 0) {
+            sb.append("(").append(droppedEvents).append(" older trace events dropped)\n");
+        }
+        int start = (next - size + methodNames.length) % methodNames.length;
+        for (int i = 0; i < size; i++) {
+            int index = (start + i) % methodNames.length;
+            sb.append("method: ").append(methodNames[index]).append("\n");
+            if (isSecret[index]) {
+                sb.append(DesfireLog.printSecret(messages[index], data[index]));
+            } else if (hasData[index]) {
+                appendData(sb, messages[index], data[index]);
+            } else {
+                sb.append(messages[index]);
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * formats a single labeled byte array the same way as format() does
+     */
+    public static String formatData(String label, byte[] data) {
+        StringBuilder sb = new StringBuilder();
+        appendData(sb, label, data);
+        return sb.toString();
+    }
+
+    private static void appendData(StringBuilder sb, String label, byte[] data) {
+        sb.append(label).append(" length: ");
+        if (data == null) {
+            sb.append(0).append(" data: IS NULL");
+            return;
+        }
+        sb.append(data.length).append(" data: ");
+        for (byte b : data) {
+            sb.append(Character.forDigit((b >> 4) & 0x0F, 16)).append(Character.forDigit(b & 0x0F, 16));
+        }
+    }
+}
@@ -4,6 +4,8 @@ import static de.androidcrypto.talktoyourdesfirecard.Utils.printData;
 
 import android.util.Log;
 
+import de.androidcrypto.talktoyourdesfirecard.DesfireLog;
+
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
@@ -33,7 +35,7 @@ public class AES {
 	private static final String TAG = AES.class.getName();
 
 	public static byte[] encrypt(byte[] myIV, byte[] myKey, byte[] myMsg) {
-		Log.d(TAG, "encrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg));
+		if (DesfireLog.isVerboseEnabled()) Log.v(TAG, "encrypt with " + printData("myIV", myIV) + DesfireLog.printSecret(" myKey", myKey) + printData(" myMsg", myMsg));
 		byte[] cipherText = null;
 
 		try {
@@ -60,7 +62,7 @@ public class AES {
 	 * @return		The plain text, or null on error.
 	 */
 	public static byte[] decrypt(byte[] myIV, byte[] myKey, byte[] myMsg) {
-		Log.d(TAG, "decrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg));
+		if (DesfireLog.isVerboseEnabled()) Log.v(TAG, "decrypt with " + printData("myIV", myIV) + DesfireLog.printSecret(" myKey", myKey) + printData(" myMsg", myMsg));
 		byte[] plainText = null;
 		try {
 			IvParameterSpec iv = new IvParameterSpec(myIV);
@@ -88,7 +90,7 @@ public class AES {
 	 * @return			the plaintext, or {@code null} on error
 	 */
 	public static byte[] decrypt(byte[] myIV, byte[] myKey, byte[] myMsg, int offset, int length) {
-		Log.d(TAG, "decrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg) + " offset: " + offset + " length: " + length);
+		if (DesfireLog.isVerboseEnabled()) Log.v(TAG, "decrypt with " + printData("myIV", myIV) + DesfireLog.printSecret(" myKey", myKey) + printData(" myMsg", myMsg) + " offset: " + offset + " length: " + length);
 		byte[] plainText = null;
 		try {
 			IvParameterSpec iv = new IvParameterSpec(myIV);
@@ -4,6 +4,8 @@ import static de.androidcrypto.talktoyourdesfirecard.Utils.printData;
 
 import android.util.Log;
 
+import de.androidcrypto.talktoyourdesfirecard.DesfireLog;
+
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
@@ -32,7 +34,7 @@ public class TripleDES {
 	private static final String TAG = TripleDES.class.getName();
 
 	public static byte[] encrypt(byte[] myIV, byte[] myKey, byte[] myMsg) {
-		Log.d(TAG, "encrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg));
+		if (DesfireLog.isVerboseEnabled()) Log.v(TAG, "encrypt with " + printData("myIV", myIV) + DesfireLog.printSecret(" myKey", myKey) + printData(" myMsg", myMsg));
 		byte[] cipherText = null;
 
 		try {
@@ -55,7 +57,7 @@ public class TripleDES {
 	
 	// ciphertext inside msg at offset and with length length
 	public static byte[] decrypt(byte[] myKey, byte[] myMsg, int offset, int length) {
-		Log.d(TAG, "decrypt with " + printData("myKey", myKey) + printData(" myMsg", myMsg) + " offset: " + offset + " length: " + length);
+		if (DesfireLog.isVerboseEnabled()) Log.v(TAG, "decrypt with " + DesfireLog.printSecret("myKey", myKey) + printData(" myMsg", myMsg) + " offset: " + offset + " length: " + length);
 		return decrypt(new byte[8], myKey, myMsg, offset, length);
 	}
 
@@ -68,12 +70,12 @@ public class TripleDES {
 	 * @return
 	 */
 	public static byte[] decrypt(byte[] myIV, byte[] myKey, byte[] myMsg) {
-		Log.d(TAG, "decrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg));
+		if (DesfireLog.isVerboseEnabled()) Log.v(TAG, "decrypt with " + printData("myIV", myIV) + DesfireLog.printSecret(" myKey", myKey) + printData(" myMsg", myMsg));
 		return decrypt(myIV, myKey, myMsg, 0, myMsg.length);
 	}
 	
 	public static byte[] decrypt(byte[] myIV, byte[] myKey, byte[] myMsg, int offset, int length) {
-		Log.d(TAG, "decrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg) + " offset: " + offset + " length: " + length);
+		if (DesfireLog.isVerboseEnabled()) Log.v(TAG, "decrypt with " + printData("myIV", myIV) + DesfireLog.printSecret(" myKey", myKey) + printData(" myMsg", myMsg) + " offset: " + offset + " length: " + length);
 		byte[] plainText = null;
 
 		try {
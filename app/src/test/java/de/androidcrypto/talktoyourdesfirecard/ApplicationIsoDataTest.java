@@ -0,0 +1,111 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reads the ISO data of all applications with GetDFNames (0x6D) from the SimulatedDesfireCard: one application per
+ * 0xAF frame, applications with and without an ISO DF Name and a DF Name that contains the bytes of an AID.
+ */
+public class ApplicationIsoDataTest {
+
+    private static final byte[] MASTER_APPLICATION_IDENTIFIER = new byte[3];
+    private static final byte[] AID_ISO_1 = Utils.hexStringToByteArray("A1A2A3");
+    private static final byte[] AID_ISO_2 = Utils.hexStringToByteArray("B1B2B3");
+    private static final byte[] AID_ISO_WITHOUT_DF_NAME = Utils.hexStringToByteArray("C1C2C3");
+    private static final byte[] AID_WITHOUT_ISO = Utils.hexStringToByteArray("D1D2D3");
+    private static final byte[] ISO_FILE_ID_1 = Utils.hexStringToByteArray("E105");
+    private static final byte[] ISO_FILE_ID_2 = Utils.hexStringToByteArray("E106");
+    private static final byte[] ISO_FILE_ID_3 = Utils.hexStringToByteArray("E107");
+    private static final byte[] DF_NAME_1 = Utils.hexStringToByteArray("D2760000850101");
+    // the DF Name contains the AID of the first application and of the application without ISO data
+    private static final byte[] DF_NAME_WITH_AID_PATTERN = Utils.hexStringToByteArray("A1A2A3E105D1D2D3");
+
+    private SimulatedDesfireCard card;
+    private DesfireEv3 desfireEv3;
+
+    @Before
+    public void setUp() {
+        card = new SimulatedDesfireCard();
+        desfireEv3 = new DesfireEv3(card);
+    }
+
+    @Test
+    public void getApplicationIsoDataList_oneApplicationPerFrame() {
+        assertTrue(desfireEv3.createApplicationAesIso(AID_ISO_1, ISO_FILE_ID_1, DF_NAME_1, 2));
+        assertTrue(desfireEv3.createApplicationAes(AID_WITHOUT_ISO, 2));
+        assertTrue(desfireEv3.createApplicationAesIso(AID_ISO_2, ISO_FILE_ID_2, DF_NAME_WITH_AID_PATTERN, 2));
+        // CreateApplication with an ISO File ID but without an ISO DF Name
+        byte[] createApplicationApdu = Utils.hexStringToByteArray("90CA000007" + "C1C2C3" + "0F82" + "E107" + "00");
+        assertTrue(desfireEv3.sendPlainCommands(new byte[][]{createApplicationApdu}, false));
+        assertTrue(desfireEv3.selectApplicationByAid(MASTER_APPLICATION_IDENTIFIER));
+
+        long commandsBefore = card.getNumberOfCommands();
+        List<ApplicationIsoData> applicationIsoDataList = desfireEv3.getApplicationIsoDataList();
+        assertNotNull(applicationIsoDataList);
+        // the application without ISO File ID is not listed
+        assertEquals(3, applicationIsoDataList.size());
+        // one GetDFNames command and two additional frames
+        assertEquals(3, card.getNumberOfCommands() - commandsBefore);
+
+        ApplicationIsoData isoData1 = find(applicationIsoDataList, AID_ISO_1);
+        assertArrayEquals(ISO_FILE_ID_1, isoData1.getIsoFileId());
+        assertArrayEquals(DF_NAME_1, isoData1.getDfName());
+        ApplicationIsoData isoData2 = find(applicationIsoDataList, AID_ISO_2);
+        assertArrayEquals(ISO_FILE_ID_2, isoData2.getIsoFileId());
+        assertArrayEquals(DF_NAME_WITH_AID_PATTERN, isoData2.getDfName());
+        ApplicationIsoData isoData3 = find(applicationIsoDataList, AID_ISO_WITHOUT_DF_NAME);
+        assertArrayEquals(ISO_FILE_ID_3, isoData3.getIsoFileId());
+        assertEquals(0, isoData3.getDfName().length);
+        assertNull(find(applicationIsoDataList, AID_WITHOUT_ISO));
+
+        assertTrue(desfireEv3.getApplicationsIsoData());
+        assertEquals(3, desfireEv3.getIsoFileIdsList().size());
+    }
+
+    @Test
+    public void getApplicationIsoDataList_noIsoApplication_returnsAnEmptyList() {
+        assertTrue(desfireEv3.createApplicationAes(AID_WITHOUT_ISO, 2));
+        assertTrue(desfireEv3.selectApplicationByAid(MASTER_APPLICATION_IDENTIFIER));
+        List<ApplicationIsoData> applicationIsoDataList = desfireEv3.getApplicationIsoDataList();
+        assertNotNull(applicationIsoDataList);
+        assertTrue(applicationIsoDataList.isEmpty());
+        // getApplicationsIsoData succeeds only when at least one application is returned
+        assertFalse(desfireEv3.getApplicationsIsoData());
+    }
+
+    @Test
+    public void getApplicationIsoDataList_applicationSelected_fails() {
+        assertTrue(desfireEv3.createApplicationAesIso(AID_ISO_1, ISO_FILE_ID_1, DF_NAME_1, 2));
+        assertTrue(desfireEv3.selectApplicationByAid(AID_ISO_1));
+        assertNull(desfireEv3.getApplicationIsoDataList());
+    }
+
+    @Test
+    public void parse_recordWithOffset() {
+        byte[] frameData = Utils.hexStringToByteArray("FFFF" + "A3A2A1" + "E105" + "D2760000850101");
+        ApplicationIsoData isoData = ApplicationIsoData.parse(frameData, 2, frameData.length - 2);
+        assertArrayEquals(Utils.hexStringToByteArray("A3A2A1"), isoData.getApplicationIdentifier());
+        assertArrayEquals(ISO_FILE_ID_1, isoData.getIsoFileId());
+        assertArrayEquals(DF_NAME_1, isoData.getDfName());
+    }
+
+    @Test
+    public void parse_invalidLength_throws() {
+        assertThrows(IllegalArgumentException.class, () -> ApplicationIsoData.parse(new byte[4], 0, 4));
+        assertThrows(IllegalArgumentException.class, () -> ApplicationIsoData.parse(new byte[22], 0, 22));
+        assertThrows(IllegalArgumentException.class, () -> ApplicationIsoData.parse(new byte[8], 4, 5));
+        assertThrows(IllegalArgumentException.class, () -> ApplicationIsoData.parse(null, 0, 5));
+    }
+
+    private static ApplicationIsoData find(List<ApplicationIsoData> applicationIsoDataList, byte[] applicationIdentifier) {
+        for (ApplicationIsoData isoData : applicationIsoDataList) {
+            if (isoData.isApplicationIdentifier(applicationIdentifier)) return isoData;
+        }
+        return null;
+    }
+}
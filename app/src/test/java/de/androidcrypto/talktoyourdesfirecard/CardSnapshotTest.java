@@ -0,0 +1,284 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reads CardSnapshots from SimulatedDesfireCards, runs them through the CardSnapshotCodec and brings a card
+ * to the layout of a reference card with CardLayoutDiff.
+ */
+public class CardSnapshotTest {
+
+    private static final byte[] AID_1 = Utils.hexStringToByteArray("A1A2A3");
+    private static final byte[] AID_2 = Utils.hexStringToByteArray("B1B2B3");
+    private static final byte[] AID_3 = Utils.hexStringToByteArray("C1C2C3");
+    private static final byte[] APPLICATION_KEY_DEFAULT = new byte[16];
+    private static final byte[] ACCESS_RIGHTS_FREE = Utils.hexStringToByteArray("EEEE");
+    private static final byte[] ACCESS_RIGHTS_OTHER = Utils.hexStringToByteArray("1233");
+
+    private SimulatedDesfireCard referenceCard;
+    private CardSnapshot referenceSnapshot;
+
+    @Before
+    public void setUp() {
+        referenceCard = new SimulatedDesfireCard();
+        DesfireEv3 desfireEv3 = new DesfireEv3(referenceCard);
+        createApplication(desfireEv3, AID_1, 3);
+        assertTrue(desfireEv3.createAStandardFile((byte) 0x01, DesfireEv3.CommunicationSettings.Full, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 64, false));
+        assertTrue(desfireEv3.createABackupFile((byte) 0x02, DesfireEv3.CommunicationSettings.MACed, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 32));
+        assertTrue(desfireEv3.createAValueFile((byte) 0x03, DesfireEv3.CommunicationSettings.Plain, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 0, 1000, 0, false));
+        assertTrue(desfireEv3.createALinearRecordFile((byte) 0x04, DesfireEv3.CommunicationSettings.Full, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 16, 5));
+        assertTrue(desfireEv3.createACyclicRecordFile((byte) 0x05, DesfireEv3.CommunicationSettings.MACed, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 16, 5));
+        createApplication(desfireEv3, AID_2, 2);
+        assertTrue(desfireEv3.createAStandardFile((byte) 0x00, DesfireEv3.CommunicationSettings.Plain, ACCESS_RIGHTS_FREE, 32, false));
+        referenceSnapshot = desfireEv3.getCardSnapshot(null);
+        assertNotNull(referenceSnapshot);
+    }
+
+    @Test
+    public void getCardSnapshot_readsTheLayout() {
+        assertEquals(2, referenceSnapshot.getApplications().size());
+        CardSnapshot.ApplicationSnapshot application = referenceSnapshot.getApplication(AID_1);
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, sorted(application.getFileIds()));
+        assertEquals(64, application.getFileSettings((byte) 0x01).getFileSizeInt());
+        assertEquals(5, application.getFileSettings((byte) 0x05).getRecordsMaxInt());
+        assertArrayEquals(referenceCard.getUid(), referenceSnapshot.getTagId());
+    }
+
+    @Test
+    public void getCardSnapshot_withPreviousSnapshot_reusesUnchangedApplications() {
+        CardSnapshot snapshot = new DesfireEv3(referenceCard).getCardSnapshot(referenceSnapshot);
+        assertEquals(2, snapshot.getNumberOfReusedApplications());
+        // another card does not reuse the applications
+        CardSnapshot otherCard = new DesfireEv3(new SimulatedDesfireCard()).getCardSnapshot(referenceSnapshot);
+        assertEquals(0, otherCard.getNumberOfReusedApplications());
+    }
+
+    @Test
+    public void getCardSnapshot_fileCreatedWithoutKeyVersionChange_isNotDetected() {
+        DesfireEv3 desfireEv3 = new DesfireEv3(referenceCard);
+        assertTrue(desfireEv3.selectApplicationByAid(AID_1));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+        assertTrue(desfireEv3.createAStandardFile((byte) 0x06, DesfireEv3.CommunicationSettings.Plain, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 32, false));
+
+        // the key version and the key settings are unchanged, so the cached application is reused
+        CardSnapshot snapshot = new DesfireEv3(referenceCard).getCardSnapshot(referenceSnapshot);
+        assertEquals(2, snapshot.getNumberOfReusedApplications());
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, sorted(snapshot.getApplication(AID_1).getFileIds()));
+        assertNull(snapshot.getApplication(AID_1).getFileSettings((byte) 0x06));
+
+        // a snapshot without a previous snapshot reads the new file
+        CardSnapshot fullSnapshot = new DesfireEv3(referenceCard).getCardSnapshot(null);
+        assertEquals(0, fullSnapshot.getNumberOfReusedApplications());
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, sorted(fullSnapshot.getApplication(AID_1).getFileIds()));
+    }
+
+    @Test
+    public void getCardSnapshot_keyVersionChanged_readsTheApplicationAgain() {
+        DesfireEv3 desfireEv3 = new DesfireEv3(referenceCard);
+        assertTrue(desfireEv3.selectApplicationByAid(AID_1));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+        assertTrue(desfireEv3.createAStandardFile((byte) 0x06, DesfireEv3.CommunicationSettings.Plain, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 32, false));
+        // the plain create file command does not increase the CmdCounter of DesfireEv3, so authenticate again
+        assertTrue(desfireEv3.selectApplicationByAid(AID_1));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+        assertTrue(desfireEv3.changeApplicationKeyFull((byte) 0x00, (byte) 0x01, APPLICATION_KEY_DEFAULT, APPLICATION_KEY_DEFAULT));
+
+        CardSnapshot snapshot = new DesfireEv3(referenceCard).getCardSnapshot(referenceSnapshot);
+        assertEquals(1, snapshot.getNumberOfReusedApplications());
+        assertEquals(1, snapshot.getApplication(AID_1).getKeyVersion());
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, sorted(snapshot.getApplication(AID_1).getFileIds()));
+    }
+
+    @Test
+    public void codec_roundTrip() {
+        byte[] encoded = CardSnapshotCodec.encode(referenceSnapshot);
+        CardSnapshot decoded = CardSnapshotCodec.decode(encoded);
+        assertArrayEquals(encoded, CardSnapshotCodec.encode(decoded));
+        assertArrayEquals(referenceSnapshot.getTagId(), decoded.getTagId());
+        assertArrayEquals(referenceSnapshot.getVersionData(), decoded.getVersionData());
+        assertArrayEquals(referenceSnapshot.getPiccKeySettingsData(), decoded.getPiccKeySettingsData());
+        assertEquals(referenceSnapshot.getTimestampMillis(), decoded.getTimestampMillis());
+        assertEquals(referenceSnapshot.getApplications().size(), decoded.getApplications().size());
+        for (CardSnapshot.ApplicationSnapshot application : referenceSnapshot.getApplications()) {
+            CardSnapshot.ApplicationSnapshot decodedApplication = decoded.getApplication(application.getApplicationIdentifier());
+            assertNotNull(decodedApplication);
+            assertArrayEquals(application.getKeySettings(), decodedApplication.getKeySettings());
+            assertEquals(application.getKeyVersion(), decodedApplication.getKeyVersion());
+            assertArrayEquals(application.getFileIds(), decodedApplication.getFileIds());
+            for (byte fileId : application.getFileIds()) {
+                assertArrayEquals(application.getFileSettings(fileId).getCompleteResponse(),
+                        decodedApplication.getFileSettings(fileId).getCompleteResponse());
+            }
+        }
+        // a decoded snapshot has no differences to the card
+        assertTrue(CardLayoutDiff.compare(referenceSnapshot, decoded.getApplications(), true).isEmpty());
+    }
+
+    @Test
+    public void codec_applicationWithoutFileIds() {
+        CardSnapshot.ApplicationSnapshot application = new CardSnapshot.ApplicationSnapshot(AID_3, null, -1, null, null);
+        CardSnapshot snapshot = new CardSnapshot(null, null, null, Arrays.asList(application), 0, 0, 0);
+        CardSnapshot decoded = CardSnapshotCodec.decode(CardSnapshotCodec.encode(snapshot));
+        assertNull(decoded.getTagId());
+        assertNull(decoded.getApplication(AID_3).getFileIds());
+        assertNull(decoded.getApplication(AID_3).getKeySettings());
+        assertEquals(-1, decoded.getApplication(AID_3).getKeyVersion());
+    }
+
+    @Test
+    public void codec_invalidData_throws() {
+        byte[] encoded = CardSnapshotCodec.encode(referenceSnapshot);
+        assertThrows(IllegalArgumentException.class, () -> CardSnapshotCodec.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+        assertThrows(IllegalArgumentException.class, () -> CardSnapshotCodec.decode(Arrays.copyOf(encoded, encoded.length + 1)));
+        byte[] wrongMagic = encoded.clone();
+        wrongMagic[0] = (byte) 'X';
+        assertThrows(IllegalArgumentException.class, () -> CardSnapshotCodec.decode(wrongMagic));
+        byte[] wrongVersion = encoded.clone();
+        wrongVersion[2] = (byte) 0x02;
+        assertThrows(IllegalArgumentException.class, () -> CardSnapshotCodec.decode(wrongVersion));
+    }
+
+    @Test
+    public void compare_sameLayout_isEmpty() {
+        CardLayoutDiff diff = CardLayoutDiff.compare(referenceSnapshot, referenceSnapshot.getApplications(), true);
+        assertTrue(diff.dump(), diff.isEmpty());
+    }
+
+    @Test
+    public void compareAndApply_bringsTheCardToTheTargetLayout() {
+        SimulatedDesfireCard card = new SimulatedDesfireCard();
+        DesfireEv3 desfireEv3 = new DesfireEv3(card);
+        createApplication(desfireEv3, AID_1, 3);
+        // other size, other access rights and a file that is not part of the target
+        assertTrue(desfireEv3.createAStandardFile((byte) 0x01, DesfireEv3.CommunicationSettings.Full, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 128, false));
+        assertTrue(desfireEv3.createABackupFile((byte) 0x02, DesfireEv3.CommunicationSettings.Plain, ACCESS_RIGHTS_OTHER, 32));
+        assertTrue(desfireEv3.createAStandardFile((byte) 0x07, DesfireEv3.CommunicationSettings.Plain, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 32, false));
+        // an application that is not part of the target, the application AID_2 is missing
+        createApplication(desfireEv3, AID_3, 1);
+        CardSnapshot snapshot = desfireEv3.getCardSnapshot(null);
+
+        CardLayoutDiff diff = CardLayoutDiff.compare(snapshot, referenceSnapshot.getApplications(), true);
+        assertEquals(1, count(diff, CardLayoutDiff.OperationType.DELETE_APPLICATION));
+        assertEquals(1, count(diff, CardLayoutDiff.OperationType.CREATE_APPLICATION));
+        // file 1 is created again, file 7 is deleted
+        assertEquals(2, count(diff, CardLayoutDiff.OperationType.DELETE_FILE));
+        // file 1, 3, 4, 5 in AID_1 and file 0 in AID_2
+        assertEquals(5, count(diff, CardLayoutDiff.OperationType.CREATE_FILE));
+        assertEquals(1, count(diff, CardLayoutDiff.OperationType.CHANGE_FILE_SETTINGS));
+
+        DesfireResult<Integer> result = diff.apply(new DesfireEv3(card), (aid, keyNumber) -> APPLICATION_KEY_DEFAULT);
+        assertTrue(result.toString(), result.isSuccess());
+        assertEquals(diff.getOperations().size(), (int) result.getValue());
+
+        CardSnapshot after = new DesfireEv3(card).getCardSnapshot(null);
+        CardLayoutDiff remaining = CardLayoutDiff.compare(after, referenceSnapshot.getApplications(), true);
+        assertTrue(remaining.dump(), remaining.isEmpty());
+        assertNull(after.getApplication(AID_3));
+    }
+
+    @Test
+    public void apply_missingKey_fails() {
+        SimulatedDesfireCard card = new SimulatedDesfireCard();
+        DesfireEv3 desfireEv3 = new DesfireEv3(card);
+        createApplication(desfireEv3, AID_1, 3);
+        assertTrue(desfireEv3.createABackupFile((byte) 0x02, DesfireEv3.CommunicationSettings.Plain, ACCESS_RIGHTS_OTHER, 32));
+        CardLayoutDiff diff = CardLayoutDiff.compare(desfireEv3.getCardSnapshot(null), referenceSnapshot.getApplications(), false);
+        // the ChangeFileSettings needs the Change Access Rights key 2
+        DesfireResult<Integer> result = diff.apply(new DesfireEv3(card), null);
+        assertFalse(result.isSuccess());
+    }
+
+    @Test
+    public void deleteApplication_freeCreateBitSet_needsThePiccMasterKey() {
+        SimulatedDesfireCard card = new SimulatedDesfireCard();
+        DesfireEv3 desfireEv3 = new DesfireEv3(card);
+        createApplication(desfireEv3, AID_3, 1);
+        CardSnapshot snapshot = desfireEv3.getCardSnapshot(null);
+        // the factory PICC master key settings 0F have bit 2 (free create/delete) set
+        assertEquals(0x04, snapshot.getPiccKeySettingsData()[0] & 0x04);
+        assertTrue(desfireEv3.selectApplicationByAid(DesfireEv3.MASTER_APPLICATION_IDENTIFIER));
+        assertFalse(desfireEv3.deleteApplication(AID_3));
+        assertArrayEquals(Utils.hexStringToByteArray("91AE"), desfireEv3.getErrorCode());
+
+        CardLayoutDiff diff = CardLayoutDiff.compare(snapshot, referenceSnapshot.getApplications(), true);
+        CardLayoutDiff.Operation delete = diff.getOperations().get(0);
+        assertEquals(CardLayoutDiff.OperationType.DELETE_APPLICATION, delete.getType());
+        assertEquals(0, delete.getAuthenticationKeyNumber());
+        // the free create bit: CreateApplication without authentication
+        assertEquals(-1, diff.getOperations().get(1).getAuthenticationKeyNumber());
+        DesfireResult<Integer> result = diff.apply(new DesfireEv3(card), (aid, keyNumber) -> APPLICATION_KEY_DEFAULT);
+        assertTrue(result.toString(), result.isSuccess());
+        assertTrue(CardLayoutDiff.compare(new DesfireEv3(card).getCardSnapshot(null), referenceSnapshot.getApplications(), true).isEmpty());
+    }
+
+    @Test
+    public void compare_desPiccMasterKey_piccOperationsAreNotPlanned() {
+        SimulatedDesfireCard card = new SimulatedDesfireCard();
+        DesfireEv3 desfireEv3 = new DesfireEv3(card);
+        createApplication(desfireEv3, AID_3, 1);
+        CardSnapshot snapshot = desfireEv3.getCardSnapshot(null);
+        // a factory card: DES PICC master key, create application without authentication
+        CardSnapshot desCard = new CardSnapshot(snapshot.getTagId(), snapshot.getVersionData(), Utils.hexStringToByteArray("0F01"),
+                snapshot.getApplications(), 0, 0, 0);
+        CardLayoutDiff diff = CardLayoutDiff.compare(desCard, referenceSnapshot.getApplications(), true);
+        assertEquals(0, count(diff, CardLayoutDiff.OperationType.DELETE_APPLICATION));
+        assertEquals(2, count(diff, CardLayoutDiff.OperationType.CREATE_APPLICATION));
+        assertEquals(1, diff.getNotes().size());
+        // without free create the applications can't be created too
+        CardSnapshot desCardNoFreeCreate = new CardSnapshot(snapshot.getTagId(), snapshot.getVersionData(), Utils.hexStringToByteArray("0B01"),
+                snapshot.getApplications(), 0, 0, 0);
+        diff = CardLayoutDiff.compare(desCardNoFreeCreate, referenceSnapshot.getApplications(), true);
+        assertTrue(diff.dump(), diff.isEmpty());
+        assertEquals(3, diff.getNotes().size());
+    }
+
+    @Test
+    public void compareAndApply_withoutFreeCreateDelete_authenticatesWithTheApplicationMasterKey() {
+        SimulatedDesfireCard card = new SimulatedDesfireCard();
+        DesfireEv3 desfireEv3 = new DesfireEv3(card);
+        assertTrue(desfireEv3.createApplicationAes(AID_1, 3, (byte) 0x0B));
+        assertTrue(desfireEv3.selectApplicationByAid(AID_1));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+        assertTrue(desfireEv3.createAStandardFile((byte) 0x07, DesfireEv3.CommunicationSettings.Plain, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 32, false));
+        createApplication(desfireEv3, AID_2, 2);
+        assertTrue(desfireEv3.createAStandardFile((byte) 0x00, DesfireEv3.CommunicationSettings.Plain, ACCESS_RIGHTS_FREE, 32, false));
+
+        CardLayoutDiff diff = CardLayoutDiff.compare(desfireEv3.getCardSnapshot(null), referenceSnapshot.getApplications(), true);
+        assertEquals(1, count(diff, CardLayoutDiff.OperationType.DELETE_FILE));
+        assertEquals(5, count(diff, CardLayoutDiff.OperationType.CREATE_FILE));
+        for (CardLayoutDiff.Operation operation : diff.getOperations()) {
+            assertEquals(operation.toString(), 0, operation.getAuthenticationKeyNumber());
+        }
+        // the simulator denies CreateFile and DeleteFile without the application master key
+        DesfireResult<Integer> result = diff.apply(new DesfireEv3(card), (aid, keyNumber) -> APPLICATION_KEY_DEFAULT);
+        assertTrue(result.toString(), result.isSuccess());
+        CardLayoutDiff remaining = CardLayoutDiff.compare(new DesfireEv3(card).getCardSnapshot(null), referenceSnapshot.getApplications(), true);
+        assertTrue(remaining.dump(), remaining.isEmpty());
+    }
+
+    private static void createApplication(DesfireEv3 desfireEv3, byte[] aid, int numberOfApplicationKeys) {
+        assertTrue(desfireEv3.selectApplicationByAid(DesfireEv3.MASTER_APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.createApplicationAes(aid, numberOfApplicationKeys));
+        assertTrue(desfireEv3.selectApplicationByAid(aid));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+    }
+
+    private static int count(CardLayoutDiff diff, CardLayoutDiff.OperationType type) {
+        int count = 0;
+        for (CardLayoutDiff.Operation operation : diff.getOperations()) {
+            if (operation.getType() == type) count++;
+        }
+        return count;
+    }
+
+    private static byte[] sorted(byte[] data) {
+        byte[] copy = data.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,86 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs DesfireEv3Async against the SimulatedDesfireCard: the DesfireResult of a pipeline of commands, failures and
+ * the shutdown of the command thread.
+ */
+public class DesfireEv3AsyncTest {
+
+    private static final byte[] APPLICATION_IDENTIFIER = Utils.hexStringToByteArray("A1A2A3");
+    private static final byte[] APPLICATION_KEY_DEFAULT = new byte[16];
+    private static final byte FILE_NUMBER = (byte) 0x01;
+
+    private DesfireEv3Async async;
+
+    @Before
+    public void setUp() {
+        DesfireEv3 desfireEv3 = new DesfireEv3(new SimulatedDesfireCard());
+        assertTrue(desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 5));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+        assertTrue(desfireEv3.createAStandardFile(FILE_NUMBER, DesfireEv3.CommunicationSettings.Full, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 32, false));
+        async = new DesfireEv3Async(desfireEv3);
+    }
+
+    @After
+    public void tearDown() {
+        async.close();
+    }
+
+    @Test
+    public void pipeline_writeAndRead_returnsTheData() throws Exception {
+        byte[] data = Utils.generateTestData(32);
+        DesfireResult<byte[]> result = async.selectApplicationByAid(APPLICATION_IDENTIFIER)
+                .thenCompose(r -> r.isSuccess() ? async.authenticateAesEv2First((byte) 0x01, APPLICATION_KEY_DEFAULT) : CompletableFuture.completedFuture(r))
+                .thenCompose(r -> r.isSuccess() ? async.writeToADataFile(FILE_NUMBER, 0, data) : CompletableFuture.completedFuture(r))
+                .thenCompose(r -> r.isSuccess() ? async.readFromADataFile(FILE_NUMBER, 0, 32) : CompletableFuture.completedFuture(r.asFailure()))
+                .get(5, TimeUnit.SECONDS);
+        assertTrue(result.isSuccess());
+        assertArrayEquals(data, result.getValue());
+        assertArrayEquals(Utils.hexStringToByteArray("9100"), result.getErrorCode());
+    }
+
+    @Test
+    public void submit_failingCommand_returnsTheErrorCode() throws Exception {
+        assertTrue(async.selectApplicationByAid(APPLICATION_IDENTIFIER).get().isSuccess());
+        DesfireResult<Boolean> result = async.authenticateAesEv2First((byte) 0x01, Utils.hexStringToByteArray("000102030405060708090A0B0C0D0E0F")).get();
+        assertFalse(result.isSuccess());
+        assertNull(result.getValue());
+        assertNotNull(result.getErrorCodeReason());
+        // without the authentication the Full file can't be read
+        assertFalse(async.readFromADataFile(FILE_NUMBER, 0, 32).get().isSuccess());
+    }
+
+    @Test
+    public void submit_exception_completesExceptionally() {
+        CompletableFuture<DesfireResult<Boolean>> future = async.submit(desfireEv3 -> {
+            throw new IllegalStateException("task failed");
+        });
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void close_completesSubmittedCommandsAndStopsTheDaemonThread() throws Exception {
+        Thread thread = async.submit(desfireEv3 -> Thread.currentThread()).get().getValue();
+        assertTrue(thread.isDaemon());
+        assertNotSame(Thread.currentThread(), thread);
+        CompletableFuture<DesfireResult<Boolean>> pending = async.selectApplicationByAid(APPLICATION_IDENTIFIER);
+        async.close();
+        assertTrue(pending.get(5, TimeUnit.SECONDS).isSuccess());
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertThrows(RejectedExecutionException.class, () -> async.selectApplicationByAid(APPLICATION_IDENTIFIER));
+    }
+}
@@ -0,0 +1,139 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streams the content of Standard files through DesfireFileOutputStream and DesfireFileInputStream
+ * to and from the SimulatedDesfireCard.
+ */
+public class DesfireFileStreamTest {
+
+    private static final byte[] APPLICATION_IDENTIFIER = Utils.hexStringToByteArray("A1A2A3");
+    private static final byte[] APPLICATION_KEY_DEFAULT = new byte[16];
+    private static final byte FILE_NUMBER_PLAIN = (byte) 0x01;
+    private static final byte FILE_NUMBER_FULL = (byte) 0x02;
+    private static final byte FILE_NUMBER_VALUE = (byte) 0x03;
+    private static final int FILE_SIZE = 1000;
+
+    private DesfireEv3 desfireEv3;
+
+    @Before
+    public void setUp() {
+        desfireEv3 = new DesfireEv3(new SimulatedDesfireCard());
+        assertTrue(desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 5));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+        assertTrue(desfireEv3.createAStandardFile(FILE_NUMBER_PLAIN, DesfireEv3.CommunicationSettings.Plain, DesfireEv3.ACCESS_RIGHTS_DEFAULT, FILE_SIZE, false));
+        assertTrue(desfireEv3.createAStandardFile(FILE_NUMBER_FULL, DesfireEv3.CommunicationSettings.Full, DesfireEv3.ACCESS_RIGHTS_DEFAULT, FILE_SIZE, false));
+        assertTrue(desfireEv3.createAValueFile(FILE_NUMBER_VALUE, DesfireEv3.CommunicationSettings.Plain, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 0, 1000, 0, false));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x01, APPLICATION_KEY_DEFAULT));
+    }
+
+    @Test
+    public void roundTrip_plain() throws IOException {
+        assertRoundTrip(FILE_NUMBER_PLAIN);
+    }
+
+    @Test
+    public void roundTrip_full() throws IOException {
+        assertRoundTrip(FILE_NUMBER_FULL);
+    }
+
+    @Test
+    public void roundTrip_fullWithWriteChaining() throws IOException {
+        desfireEv3.setWriteChaining(true);
+        assertRoundTrip(FILE_NUMBER_FULL);
+    }
+
+    @Test
+    public void roundTrip_fullWithNegotiatedFrameSize() throws IOException {
+        desfireEv3.negotiateFrameSize(Utils.hexStringToByteArray("067877710280"));
+        assertRoundTrip(FILE_NUMBER_FULL);
+    }
+
+    @Test
+    public void inputStream_partOfTheFileWithSkip() throws IOException {
+        byte[] data = Utils.generateTestData(FILE_SIZE);
+        assertTrue(desfireEv3.writeToADataFile(FILE_NUMBER_FULL, data));
+        try (InputStream inputStream = new DesfireFileInputStream(desfireEv3, FILE_NUMBER_FULL, 100, 500)) {
+            assertEquals(data[100] & 0xFF, inputStream.read());
+            assertEquals(200, inputStream.skip(200));
+            byte[] rest = readAll(inputStream);
+            assertArrayEquals(Arrays.copyOfRange(data, 301, 600), rest);
+            assertEquals(-1, inputStream.read());
+        }
+    }
+
+    @Test
+    public void outputStream_withOffsetKeepsTheOtherData() throws IOException {
+        byte[] data = Utils.generateTestData(FILE_SIZE);
+        assertTrue(desfireEv3.writeToADataFile(FILE_NUMBER_PLAIN, data));
+        byte[] part = Utils.hexStringToByteArray("0102030405060708090A");
+        try (OutputStream outputStream = new DesfireFileOutputStream(desfireEv3, FILE_NUMBER_PLAIN, 500)) {
+            outputStream.write(part);
+        }
+        System.arraycopy(part, 0, data, 500, part.length);
+        assertArrayEquals(data, desfireEv3.readFromADataFile(FILE_NUMBER_PLAIN, 0, FILE_SIZE));
+    }
+
+    @Test
+    public void outputStream_beyondTheFileSize_throwsIOException() throws IOException {
+        OutputStream outputStream = new DesfireFileOutputStream(desfireEv3, FILE_NUMBER_PLAIN, FILE_SIZE - 10);
+        assertThrows(IOException.class, () -> outputStream.write(new byte[11]));
+        outputStream.close();
+    }
+
+    @Test
+    public void inputStream_outsideTheFileSize_throwsIOException() {
+        assertThrows(IOException.class, () -> new DesfireFileInputStream(desfireEv3, FILE_NUMBER_PLAIN, 900, 101));
+    }
+
+    @Test
+    public void streams_onAValueFile_throwIOException() {
+        assertThrows(IOException.class, () -> new DesfireFileInputStream(desfireEv3, FILE_NUMBER_VALUE));
+        assertThrows(IOException.class, () -> new DesfireFileOutputStream(desfireEv3, FILE_NUMBER_VALUE));
+    }
+
+    @Test
+    public void inputStream_afterClose_throwsIOException() throws IOException {
+        InputStream inputStream = new DesfireFileInputStream(desfireEv3, FILE_NUMBER_PLAIN);
+        inputStream.close();
+        assertThrows(IOException.class, inputStream::read);
+    }
+
+    private void assertRoundTrip(byte fileNumber) throws IOException {
+        byte[] data = Utils.generateTestData(FILE_SIZE);
+        try (OutputStream outputStream = new DesfireFileOutputStream(desfireEv3, fileNumber)) {
+            // odd write lengths that don't match the chunk length
+            int offset = 0;
+            while (offset < data.length) {
+                int length = Math.min(37, data.length - offset);
+                outputStream.write(data, offset, length);
+                offset += length;
+            }
+        }
+        try (InputStream inputStream = new DesfireFileInputStream(desfireEv3, fileNumber)) {
+            assertArrayEquals(data, readAll(inputStream));
+        }
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[53];
+        int length;
+        while ((length = inputStream.read(buffer)) != -1) {
+            baos.write(buffer, 0, length);
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,158 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reads Linear and Cyclic Record files of the SimulatedDesfireCard record by record with the
+ * DesfireRecordFileCursor in all communication modes and chunk lengths.
+ */
+public class DesfireRecordFileCursorTest {
+
+    private static final byte[] APPLICATION_IDENTIFIER = Utils.hexStringToByteArray("A1A2A3");
+    private static final byte[] APPLICATION_KEY_DEFAULT = new byte[16];
+    private static final byte FILE_NUMBER_PLAIN = (byte) 0x01;
+    private static final byte FILE_NUMBER_MACED = (byte) 0x02;
+    private static final byte FILE_NUMBER_FULL = (byte) 0x03;
+    private static final byte FILE_NUMBER_CYCLIC = (byte) 0x04;
+    private static final byte FILE_NUMBER_EMPTY = (byte) 0x05;
+    private static final byte FILE_NUMBER_STANDARD = (byte) 0x06;
+    private static final int RECORD_SIZE = 20;
+    private static final int MAXIMUM_NUMBER_OF_RECORDS = 10;
+    private static final int NUMBER_OF_RECORDS = 7;
+
+    private DesfireEv3 desfireEv3;
+
+    @Before
+    public void setUp() {
+        desfireEv3 = new DesfireEv3(new SimulatedDesfireCard());
+        assertTrue(desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 5));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+        assertTrue(desfireEv3.createALinearRecordFile(FILE_NUMBER_PLAIN, DesfireEv3.CommunicationSettings.Plain, DesfireEv3.ACCESS_RIGHTS_DEFAULT, RECORD_SIZE, MAXIMUM_NUMBER_OF_RECORDS));
+        assertTrue(desfireEv3.createALinearRecordFile(FILE_NUMBER_MACED, DesfireEv3.CommunicationSettings.MACed, DesfireEv3.ACCESS_RIGHTS_DEFAULT, RECORD_SIZE, MAXIMUM_NUMBER_OF_RECORDS));
+        assertTrue(desfireEv3.createALinearRecordFile(FILE_NUMBER_FULL, DesfireEv3.CommunicationSettings.Full, DesfireEv3.ACCESS_RIGHTS_DEFAULT, RECORD_SIZE, MAXIMUM_NUMBER_OF_RECORDS));
+        assertTrue(desfireEv3.createACyclicRecordFile(FILE_NUMBER_CYCLIC, DesfireEv3.CommunicationSettings.Full, DesfireEv3.ACCESS_RIGHTS_DEFAULT, RECORD_SIZE, 4));
+        assertTrue(desfireEv3.createALinearRecordFile(FILE_NUMBER_EMPTY, DesfireEv3.CommunicationSettings.Full, DesfireEv3.ACCESS_RIGHTS_DEFAULT, RECORD_SIZE, MAXIMUM_NUMBER_OF_RECORDS));
+        assertTrue(desfireEv3.createAStandardFile(FILE_NUMBER_STANDARD, DesfireEv3.CommunicationSettings.Plain, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 32, false));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x01, APPLICATION_KEY_DEFAULT));
+    }
+
+    @Test
+    public void next_plain_allChunkLengths() throws IOException {
+        assertAllChunkLengths(FILE_NUMBER_PLAIN);
+    }
+
+    @Test
+    public void next_maced_allChunkLengths() throws IOException {
+        assertAllChunkLengths(FILE_NUMBER_MACED);
+    }
+
+    @Test
+    public void next_full_allChunkLengths() throws IOException {
+        assertAllChunkLengths(FILE_NUMBER_FULL);
+    }
+
+    @Test
+    public void next_fullWithNegotiatedFrameSize() throws IOException {
+        desfireEv3.negotiateFrameSize(Utils.hexStringToByteArray("067877710280"));
+        List<byte[]> records = writeRecords(FILE_NUMBER_FULL, NUMBER_OF_RECORDS);
+        assertRecords(records, readAll(new DesfireRecordFileCursor(desfireEv3, FILE_NUMBER_FULL)));
+    }
+
+    @Test
+    public void next_newestRecordsOnly() throws IOException {
+        List<byte[]> records = writeRecords(FILE_NUMBER_FULL, NUMBER_OF_RECORDS);
+        FileSettings fileSettings = DesfireRecordFileCursor.getRecordFileSettings(desfireEv3, FILE_NUMBER_FULL);
+        DesfireRecordFileCursor cursor = new DesfireRecordFileCursor(desfireEv3, fileSettings, 3, 2);
+        assertEquals(3, cursor.getNumberOfRecords());
+        assertEquals(NUMBER_OF_RECORDS, cursor.getNumberOfRecordsExisting());
+        assertRecords(records.subList(NUMBER_OF_RECORDS - 3, NUMBER_OF_RECORDS), readAll(cursor));
+    }
+
+    @Test
+    public void next_cyclicFileAfterOverwrites() throws IOException {
+        // a Cyclic record file with 4 records keeps the 3 newest records
+        List<byte[]> records = writeRecords(FILE_NUMBER_CYCLIC, 6);
+        DesfireRecordFileCursor cursor = new DesfireRecordFileCursor(desfireEv3, FILE_NUMBER_CYCLIC);
+        assertRecords(records.subList(3, 6), readAll(cursor));
+    }
+
+    @Test
+    public void next_emptyFile_returnsNull() throws IOException {
+        DesfireRecordFileCursor cursor = new DesfireRecordFileCursor(desfireEv3, FILE_NUMBER_EMPTY);
+        assertFalse(cursor.hasNext());
+        assertNull(cursor.next());
+    }
+
+    @Test
+    public void next_stopsEarly_readsOnlyTheFirstChunk() throws IOException {
+        List<byte[]> records = writeRecords(FILE_NUMBER_PLAIN, NUMBER_OF_RECORDS);
+        FileSettings fileSettings = DesfireRecordFileCursor.getRecordFileSettings(desfireEv3, FILE_NUMBER_PLAIN);
+        DesfireRecordFileCursor cursor = new DesfireRecordFileCursor(desfireEv3, fileSettings, -1, 2);
+        assertArrayEquals(records.get(0), cursor.next());
+        assertTrue(cursor.hasNext());
+        cursor.close();
+        assertFalse(cursor.hasNext());
+        assertThrows(IOException.class, cursor::next);
+    }
+
+    @Test
+    public void constructor_invalidParameters_throw() throws IOException {
+        writeRecords(FILE_NUMBER_PLAIN, 2);
+        FileSettings fileSettings = DesfireRecordFileCursor.getRecordFileSettings(desfireEv3, FILE_NUMBER_PLAIN);
+        assertThrows(IOException.class, () -> new DesfireRecordFileCursor(desfireEv3, fileSettings, 3, 0));
+        assertThrows(IOException.class, () -> new DesfireRecordFileCursor(desfireEv3, fileSettings, -1, -1));
+        assertThrows(IOException.class, () -> new DesfireRecordFileCursor(desfireEv3, FILE_NUMBER_STANDARD));
+    }
+
+    private void assertAllChunkLengths(byte fileNumber) throws IOException {
+        List<byte[]> records = writeRecords(fileNumber, NUMBER_OF_RECORDS);
+        FileSettings fileSettings = DesfireRecordFileCursor.getRecordFileSettings(desfireEv3, fileNumber);
+        for (int numberOfRecordsPerCommand = 0; numberOfRecordsPerCommand <= NUMBER_OF_RECORDS + 1; numberOfRecordsPerCommand++) {
+            DesfireRecordFileCursor cursor = new DesfireRecordFileCursor(desfireEv3, fileSettings, -1, numberOfRecordsPerCommand);
+            assertRecords(records, readAll(cursor));
+        }
+    }
+
+    /**
+     * writes records with the record number in the first byte, each record is committed
+     */
+    private List<byte[]> writeRecords(byte fileNumber, int numberOfRecords) {
+        List<byte[]> records = new ArrayList<>();
+        for (int i = 0; i < numberOfRecords; i++) {
+            byte[] record = Utils.generateTestData(RECORD_SIZE);
+            record[0] = (byte) i;
+            assertTrue(desfireEv3.writeToARecordFile(fileNumber, 0, record));
+            assertTrue(desfireEv3.commitTransactionFull(false));
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static List<byte[]> readAll(DesfireRecordFileCursor cursor) throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        byte[] record;
+        while ((record = cursor.next()) != null) {
+            records.add(record);
+        }
+        assertFalse(cursor.hasNext());
+        cursor.close();
+        return records;
+    }
+
+    private static void assertRecords(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue("record " + i, Arrays.equals(expected.get(i), actual.get(i)));
+        }
+    }
+}
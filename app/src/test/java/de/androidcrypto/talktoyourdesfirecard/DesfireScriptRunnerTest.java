@@ -0,0 +1,173 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a personalization script against the SimulatedDesfireCard, loses the tag at every command of the
+ * script and resumes the script with the DesfireEv3 object of the next tap.
+ */
+public class DesfireScriptRunnerTest {
+
+    private static final byte[] APPLICATION_IDENTIFIER = Utils.hexStringToByteArray("A1A2A3");
+    private static final byte[] APPLICATION_KEY_DEFAULT = new byte[16];
+    private static final byte[] APPLICATION_KEY_1_NEW = Utils.hexStringToByteArray("A0A1A2A3A4A5A6A7A8A9AAABACADAEAF");
+    private static final byte APPLICATION_KEY_1_VERSION_NEW = (byte) 0x01;
+    private static final byte FILE_NUMBER_STANDARD = (byte) 0x01;
+    private static final byte FILE_NUMBER_BACKUP = (byte) 0x02;
+    private static final byte[] DATA_STANDARD = Utils.generateTestData(100);
+    private static final byte[] DATA_BACKUP = Utils.generateTestData(64);
+
+    /**
+     * drops the tag on a given command, before or after the card executed it
+     */
+    private static class TagLossTransport implements ApduTransport {
+        private final SimulatedDesfireCard card;
+        private final long lostAtCommand;
+        private final boolean isLostAfterExecution;
+        private long numberOfCommands = 0;
+
+        TagLossTransport(SimulatedDesfireCard card, long lostAtCommand, boolean isLostAfterExecution) {
+            this.card = card;
+            this.lostAtCommand = lostAtCommand;
+            this.isLostAfterExecution = isLostAfterExecution;
+        }
+
+        @Override
+        public byte[] transceive(byte[] apdu) throws IOException {
+            numberOfCommands++;
+            if (numberOfCommands == lostAtCommand) {
+                if (isLostAfterExecution) card.transceive(apdu);
+                card.setConnected(false);
+            }
+            return card.transceive(apdu);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return card.isConnected();
+        }
+
+        @Override
+        public int getMaxTransceiveLength() {
+            return card.getMaxTransceiveLength();
+        }
+
+        @Override
+        public byte[] getTagId() {
+            return card.getTagId();
+        }
+
+        @Override
+        public byte[] getAts() {
+            return card.getAts();
+        }
+    }
+
+    @Test
+    public void run_completeScript() {
+        SimulatedDesfireCard card = new SimulatedDesfireCard();
+        DesfireScriptRunner runner = new DesfireScriptRunner(buildScript());
+        DesfireScriptRunner.Result result = runner.run(new DesfireEv3(card));
+        assertTrue(result.toString(), result.isSuccess());
+        assertEquals(runner.getScript().size(), result.getNumberOfExecutedSteps());
+        assertTrue(runner.isDone());
+        assertCardIsPersonalized(card);
+        // a done script is not run again
+        assertEquals(0, runner.run(new DesfireEv3(card)).getNumberOfExecutedSteps());
+    }
+
+    @Test
+    public void run_tagLostAtEveryCommand_resumesOnTheNextTap() {
+        SimulatedDesfireCard referenceCard = new SimulatedDesfireCard();
+        assertTrue(new DesfireScriptRunner(buildScript()).run(new DesfireEv3(referenceCard)).isSuccess());
+        long numberOfCommands = referenceCard.getNumberOfCommands();
+        for (long lostAtCommand = 1; lostAtCommand <= numberOfCommands; lostAtCommand++) {
+            for (boolean isLostAfterExecution : new boolean[]{false, true}) {
+                String message = "lost at command " + lostAtCommand + (isLostAfterExecution ? " after" : " before") + " execution";
+                SimulatedDesfireCard card = new SimulatedDesfireCard();
+                DesfireScriptRunner runner = new DesfireScriptRunner(buildScript());
+                DesfireScriptRunner.Result result = runner.run(new DesfireEv3(new TagLossTransport(card, lostAtCommand, isLostAfterExecution)));
+                assertFalse(message, result.isSuccess());
+                assertTrue(message, result.isTagLost());
+                // the next tap
+                card.setConnected(true);
+                result = runner.run(new DesfireEv3(card));
+                assertTrue(message + ": " + result, result.isSuccess());
+                assertCardIsPersonalized(card);
+            }
+        }
+    }
+
+    @Test
+    public void run_failingStep_stopsWithoutTagLoss() {
+        SimulatedDesfireCard card = new SimulatedDesfireCard();
+        DesfireScript script = new DesfireScript.Builder()
+                .selectApplication(APPLICATION_IDENTIFIER)
+                .build();
+        DesfireScriptRunner.Result result = new DesfireScriptRunner(script).run(new DesfireEv3(card));
+        assertFalse(result.isSuccess());
+        assertFalse(result.isTagLost());
+        assertEquals(0, result.getFailedStepIndex());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void build_fileCommandAfterChangingTheAuthenticatedKey_throws() {
+        new DesfireScript.Builder()
+                .selectApplication(APPLICATION_IDENTIFIER)
+                .authenticateAesEv2First((byte) 0x01, APPLICATION_KEY_DEFAULT)
+                .changeApplicationKey((byte) 0x01, APPLICATION_KEY_1_VERSION_NEW, APPLICATION_KEY_1_NEW, APPLICATION_KEY_DEFAULT)
+                .writeData(FILE_NUMBER_STANDARD, 0, DATA_STANDARD)
+                .build();
+    }
+
+    @Test
+    public void build_fileCommandAfterAuthenticationWithTheNewKey_isAccepted() {
+        DesfireScript script = new DesfireScript.Builder()
+                .selectApplication(APPLICATION_IDENTIFIER)
+                .authenticateAesEv2First((byte) 0x01, APPLICATION_KEY_DEFAULT)
+                .changeApplicationKey((byte) 0x01, APPLICATION_KEY_1_VERSION_NEW, APPLICATION_KEY_1_NEW, APPLICATION_KEY_DEFAULT)
+                .authenticateAesEv2First((byte) 0x01, APPLICATION_KEY_1_NEW)
+                .writeData(FILE_NUMBER_STANDARD, 0, DATA_STANDARD)
+                .build();
+        assertEquals(5, script.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void build_selectWithPendingTransaction_throws() {
+        new DesfireScript.Builder()
+                .selectApplication(APPLICATION_IDENTIFIER)
+                .writeData(FILE_NUMBER_BACKUP, 0, DATA_BACKUP)
+                .selectApplication(APPLICATION_IDENTIFIER)
+                .build();
+    }
+
+    private static DesfireScript buildScript() {
+        return new DesfireScript.Builder()
+                .createApplicationAes(APPLICATION_IDENTIFIER, 3)
+                .selectApplication(APPLICATION_IDENTIFIER)
+                .authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT)
+                .createStandardFile(FILE_NUMBER_STANDARD, DesfireEv3.CommunicationSettings.Full, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 128)
+                .createBackupFile(FILE_NUMBER_BACKUP, DesfireEv3.CommunicationSettings.MACed, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 64)
+                .selectApplication(APPLICATION_IDENTIFIER)
+                .authenticateAesEv2First((byte) 0x01, APPLICATION_KEY_DEFAULT)
+                .writeData(FILE_NUMBER_STANDARD, 0, DATA_STANDARD)
+                .writeData(FILE_NUMBER_BACKUP, 0, DATA_BACKUP)
+                .commit()
+                .authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT)
+                .changeApplicationKey((byte) 0x01, APPLICATION_KEY_1_VERSION_NEW, APPLICATION_KEY_1_NEW, APPLICATION_KEY_DEFAULT)
+                .build();
+    }
+
+    private static void assertCardIsPersonalized(SimulatedDesfireCard card) {
+        DesfireEv3 desfireEv3 = new DesfireEv3(card);
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x01, APPLICATION_KEY_1_NEW));
+        assertEquals(APPLICATION_KEY_1_VERSION_NEW, desfireEv3.getKeyVersion((byte) 0x01));
+        assertArrayEquals(DATA_STANDARD, desfireEv3.readFromADataFile(FILE_NUMBER_STANDARD, 0, DATA_STANDARD.length));
+        assertArrayEquals(DATA_BACKUP, desfireEv3.readFromADataFile(FILE_NUMBER_BACKUP, 0, DATA_BACKUP.length));
+    }
+}
@@ -0,0 +1,104 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs tasks on sessions of a DesfireSessionManager against SimulatedDesfireCards and checks the SessionMetrics.
+ */
+public class DesfireSessionManagerTest {
+
+    private static final byte[] APPLICATION_IDENTIFIER = Utils.hexStringToByteArray("A1A2A3");
+    private static final byte[] APPLICATION_KEY_DEFAULT = new byte[16];
+
+    private DesfireSessionManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new DesfireSessionManager(2);
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+    }
+
+    @Test
+    public void submit_countsFalseNullAndExceptionsAsFailedTasks() throws Exception {
+        SimulatedDesfireCard card = new SimulatedDesfireCard();
+        DesfireSession session = manager.openSession("reader 1", card);
+
+        assertTrue(session.submit(desfireEv3 -> desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 2)).get());
+        // the application exists, the command fails with a DUPLICATE_ERROR
+        assertFalse(session.submit(desfireEv3 -> desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 2)).get());
+        // reading a file without selecting an application returns null
+        assertNull(session.submit(desfireEv3 -> desfireEv3.readFromADataFile((byte) 0x01, 0, 32)).get());
+        assertEquals(2, (int) session.submit(desfireEv3 -> {
+            assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+            assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+            return desfireEv3.getKeyVersion((byte) 0x00) + 2;
+        }).get());
+        Future<Boolean> failingTask = session.submit(desfireEv3 -> {
+            throw new IOException("reader detached");
+        });
+        assertThrows(ExecutionException.class, failingTask::get);
+
+        SessionMetrics metrics = session.getMetrics();
+        assertEquals(5, metrics.getNumberOfTasks());
+        assertEquals(3, metrics.getNumberOfFailedTasks());
+        assertEquals(card.getNumberOfCommands(), metrics.getNumberOfTransceives());
+        assertEquals(0, metrics.getNumberOfFailedTransceives());
+        assertTrue(metrics.getBytesSent() > 0);
+        assertTrue(metrics.getBytesReceived() > 0);
+    }
+
+    @Test
+    public void submit_lostTag_countsFailedTasks() throws Exception {
+        SimulatedDesfireCard card = new SimulatedDesfireCard();
+        DesfireSession session = manager.openSession("reader 1", card);
+        assertTrue(session.submit(desfireEv3 -> desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 2)).get());
+        card.setConnected(false);
+        // the transport is disconnected, DesfireEv3 does not send the command
+        assertFalse(session.submit(desfireEv3 -> desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER)).get());
+        assertNull(session.submit(desfireEv3 -> desfireEv3.getApplicationIdsList()).get());
+
+        SessionMetrics metrics = session.getMetrics();
+        assertEquals(3, metrics.getNumberOfTasks());
+        assertEquals(2, metrics.getNumberOfFailedTasks());
+        assertEquals(1, metrics.getNumberOfTransceives());
+    }
+
+    @Test
+    public void sessions_haveSeparateMetrics() throws Exception {
+        DesfireSession session1 = manager.openSession("reader 1", new SimulatedDesfireCard());
+        DesfireSession session2 = manager.openSession("reader 2", new SimulatedDesfireCard());
+        Future<Boolean> result1 = session1.submit(desfireEv3 -> desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 2));
+        Future<Boolean> result2 = session2.submit(desfireEv3 -> desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 2));
+        assertTrue(result1.get());
+        assertTrue(result2.get());
+        assertFalse(session1.submit(desfireEv3 -> desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 2)).get());
+
+        assertEquals(2, session1.getMetrics().getNumberOfTasks());
+        assertEquals(1, session1.getMetrics().getNumberOfFailedTasks());
+        assertEquals(1, session2.getMetrics().getNumberOfTasks());
+        assertEquals(0, session2.getMetrics().getNumberOfFailedTasks());
+    }
+
+    @Test
+    public void close_rejectsNewTasks() throws InterruptedException {
+        DesfireSession session = manager.openSession("reader 1", new SimulatedDesfireCard());
+        manager.close();
+        assertTrue(session.isClosed());
+        assertThrows(IllegalStateException.class, () -> session.submit(desfireEv3 -> true));
+        assertThrows(IllegalStateException.class, () -> manager.openSession("reader 2", new SimulatedDesfireCard()));
+        assertTrue(manager.awaitTermination(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,132 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the LRU behaviour, the invalidation and the hit counting of the FileSettingsCache and its use
+ * by DesfireEv3 on application selection.
+ */
+public class FileSettingsCacheTest {
+
+    private static final byte[] UID_1 = Utils.hexStringToByteArray("04010203040506");
+    private static final byte[] UID_2 = Utils.hexStringToByteArray("04111213141516");
+    private static final byte[] AID_1 = Utils.hexStringToByteArray("A1A2A3");
+    private static final byte[] AID_2 = Utils.hexStringToByteArray("B1B2B3");
+    private static final byte[] FILE_IDS = new byte[]{(byte) 0x00, (byte) 0x01};
+    private static final byte[] APPLICATION_KEY_DEFAULT = new byte[16];
+
+    @Test
+    public void get_afterPut_returnsTheEntry() {
+        FileSettingsCache cache = new FileSettingsCache();
+        assertNull(cache.get(UID_1, AID_1, 0));
+        cache.put(UID_1, AID_1, 0, FILE_IDS, getFileSettings());
+        FileSettingsCache.Entry entry = cache.get(UID_1, AID_1, 0);
+        assertNotNull(entry);
+        assertArrayEquals(FILE_IDS, entry.getFileIds());
+        assertEquals(FileSettings.STANDARD_FILE_TYPE, entry.getFileSettings()[1].getFileType());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void get_otherCardApplicationOrVersionHint_misses() {
+        FileSettingsCache cache = new FileSettingsCache();
+        cache.put(UID_1, AID_1, 0, FILE_IDS, getFileSettings());
+        assertNull(cache.get(UID_2, AID_1, 0));
+        assertNull(cache.get(UID_1, AID_2, 0));
+        assertNull(cache.get(UID_1, AID_1, 1));
+        assertNull(cache.get(null, AID_1, 0));
+    }
+
+    @Test
+    public void entry_isACopy() {
+        FileSettingsCache cache = new FileSettingsCache();
+        byte[] fileIds = FILE_IDS.clone();
+        cache.put(UID_1, AID_1, 0, fileIds, getFileSettings());
+        fileIds[0] = (byte) 0x1F;
+        FileSettingsCache.Entry entry = cache.get(UID_1, AID_1, 0);
+        entry.getFileIds()[1] = (byte) 0x1F;
+        entry.getFileSettings()[1] = null;
+        assertArrayEquals(FILE_IDS, entry.getFileIds());
+        assertNotNull(entry.getFileSettings()[1]);
+    }
+
+    @Test
+    public void put_beyondCapacity_removesTheLeastRecentlyUsedEntry() {
+        FileSettingsCache cache = new FileSettingsCache(2);
+        cache.put(UID_1, AID_1, 0, FILE_IDS, getFileSettings());
+        cache.put(UID_1, AID_2, 0, FILE_IDS, getFileSettings());
+        // the access makes AID_1 the most recently used entry
+        assertNotNull(cache.get(UID_1, AID_1, 0));
+        cache.put(UID_2, AID_1, 0, FILE_IDS, getFileSettings());
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(UID_1, AID_1, 0));
+        assertNull(cache.get(UID_1, AID_2, 0));
+        assertNotNull(cache.get(UID_2, AID_1, 0));
+    }
+
+    @Test
+    public void invalidate_removesAllVersionHintsOfTheApplication() {
+        FileSettingsCache cache = new FileSettingsCache();
+        cache.put(UID_1, AID_1, 0, FILE_IDS, getFileSettings());
+        cache.put(UID_1, AID_1, 1, FILE_IDS, getFileSettings());
+        cache.put(UID_1, AID_2, 0, FILE_IDS, getFileSettings());
+        cache.invalidate(UID_1, AID_1);
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get(UID_1, AID_2, 0));
+    }
+
+    @Test
+    public void invalidateCard_removesAllApplicationsOfTheCard() {
+        FileSettingsCache cache = new FileSettingsCache();
+        cache.put(UID_1, AID_1, 0, FILE_IDS, getFileSettings());
+        cache.put(UID_1, AID_2, 0, FILE_IDS, getFileSettings());
+        cache.put(UID_2, AID_1, 0, FILE_IDS, getFileSettings());
+        cache.invalidateCard(UID_1);
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get(UID_2, AID_1, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_zeroCapacity_throws() {
+        new FileSettingsCache(0);
+    }
+
+    @Test
+    public void selectApplication_sharedCache_sendsNoFileSettingsCommands() {
+        SimulatedDesfireCard card = new SimulatedDesfireCard();
+        FileSettingsCache cache = new FileSettingsCache();
+        DesfireEv3 desfireEv3 = new DesfireEv3(card);
+        desfireEv3.setFileSettingsCache(cache);
+        assertTrue(desfireEv3.createApplicationAes(AID_1, 3));
+        assertTrue(desfireEv3.selectApplicationByAid(AID_1));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+        assertTrue(desfireEv3.createAStandardFile((byte) 0x01, DesfireEv3.CommunicationSettings.Plain, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 32, false));
+        assertTrue(desfireEv3.selectApplicationByAid(AID_1));
+        assertEquals(1, cache.size());
+
+        // the next tap of the same card
+        DesfireEv3 nextTap = new DesfireEv3(card);
+        nextTap.setFileSettingsCache(cache);
+        long commandsBefore = card.getNumberOfCommands();
+        long hitsBefore = cache.getHits();
+        assertTrue(nextTap.selectApplicationByAid(AID_1));
+        assertEquals(1, card.getNumberOfCommands() - commandsBefore);
+        assertEquals(hitsBefore + 1, cache.getHits());
+        assertEquals(32, nextTap.getApplicationAllFileSettings()[1].getFileSizeInt());
+
+        // creating a file invalidates the entry
+        assertTrue(nextTap.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+        assertTrue(nextTap.createAStandardFile((byte) 0x02, DesfireEv3.CommunicationSettings.Plain, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 64, false));
+        assertEquals(0, cache.size());
+    }
+
+    private static FileSettings[] getFileSettings() {
+        FileSettings[] fileSettings = new FileSettings[32];
+        // Standard file, Plain, access rights 0x1234, file size 32
+        fileSettings[1] = new FileSettings((byte) 0x01, Utils.hexStringToByteArray("00001234200000"));
+        return fileSettings;
+    }
+}
@@ -0,0 +1,131 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the values the lazy getters of FileSettings decode directly from the response with the fields
+ * filled by the complete analysis (materialize) for all file types.
+ */
+public class FileSettingsTest {
+
+    @Test
+    public void standardFile() throws ReflectiveOperationException {
+        FileSettings fileSettings = new FileSettings((byte) 0x01, Utils.hexStringToByteArray("00031234000100"));
+        assertEquals(FileSettings.STANDARD_FILE_TYPE, fileSettings.getFileType());
+        assertEquals(DesfireEv3.CommunicationSettings.Full, fileSettings.getDesfireEv3CommunicationSettings());
+        assertEquals(256, fileSettings.getFileSizeInt());
+        assertEquals(1, fileSettings.getAccessRightsRw());
+        assertEquals(2, fileSettings.getAccessRightsCar());
+        assertEquals(3, fileSettings.getAccessRightsR());
+        assertEquals(4, fileSettings.getAccessRightsW());
+        assertLazyEqualsMaterialized(fileSettings);
+    }
+
+    @Test
+    public void cyclicRecordFile() throws ReflectiveOperationException {
+        FileSettings fileSettings = new FileSettings((byte) 0x05, Utils.hexStringToByteArray("0401E0EE200000050000030000"));
+        assertEquals(FileSettings.CYCLIC_RECORD_FILE_TYPE, fileSettings.getFileType());
+        assertEquals(DesfireEv3.CommunicationSettings.MACed, fileSettings.getDesfireEv3CommunicationSettings());
+        assertEquals(32, fileSettings.getRecordSizeInt());
+        assertEquals(5, fileSettings.getRecordsMaxInt());
+        assertEquals(3, fileSettings.getRecordsExistingInt());
+        assertEquals(0, fileSettings.getFileSizeInt());
+        assertLazyEqualsMaterialized(fileSettings);
+    }
+
+    @Test
+    public void transactionMacFile() throws ReflectiveOperationException {
+        FileSettings fileSettings = new FileSettings((byte) 0x0F, Utils.hexStringToByteArray("050310F01F02"));
+        assertEquals(FileSettings.TRANSACTION_MAC_FILE_TYPE, fileSettings.getFileType());
+        assertNull(fileSettings.getDesfireEv3CommunicationSettings());
+        assertEquals(12, fileSettings.getFileSizeInt());
+        assertLazyEqualsMaterialized(fileSettings);
+    }
+
+    @Test
+    public void sdmEnrichedStandardFile() throws ReflectiveOperationException {
+        // NTAG 424 DNA NDEF file with SDM enabled, see AN12196
+        FileSettings fileSettings = new FileSettings((byte) 0x02, Utils.hexStringToByteArray("0040EEEE000100D1FE001F00004400004400002000006A0000"));
+        assertEquals(DesfireEv3.CommunicationSettings.Plain, fileSettings.getDesfireEv3CommunicationSettings());
+        assertEquals(256, fileSettings.getFileSizeInt());
+        assertTrue(fileSettings.isSdmEnabled());
+        assertLazyEqualsMaterialized(fileSettings);
+    }
+
+    @Test
+    public void shortResponse_isNotDecoded() {
+        FileSettings fileSettings = new FileSettings((byte) 0x01, Utils.hexStringToByteArray("0000"));
+        assertNull(fileSettings.getFileTypeName());
+        assertEquals(0, fileSettings.getFileSizeInt());
+        assertNull(fileSettings.getDesfireEv3CommunicationSettings());
+    }
+
+    @Test
+    public void getCompleteResponse_isACopy() {
+        byte[] response = Utils.hexStringToByteArray("00001234200000");
+        FileSettings fileSettings = new FileSettings((byte) 0x01, response);
+        fileSettings.getCompleteResponse()[4] = (byte) 0xFF;
+        assertEquals(32, fileSettings.getFileSizeInt());
+    }
+
+    @Test
+    public void randomResponses_lazyEqualsMaterialized() throws ReflectiveOperationException {
+        Random random = new Random(42);
+        // response lengths of Standard, Backup, Value, Linear record, Cyclic record and Transaction MAC files
+        int[] responseLengths = {7, 7, 17, 13, 13, 6};
+        byte[] communicationSettings = {(byte) 0x00, (byte) 0x01, (byte) 0x03};
+        for (int i = 0; i < 1000; i++) {
+            int fileType = random.nextInt(responseLengths.length);
+            byte[] response = new byte[responseLengths[fileType]];
+            random.nextBytes(response);
+            response[0] = (byte) fileType;
+            response[1] = communicationSettings[random.nextInt(communicationSettings.length)];
+            assertLazyEqualsMaterialized(new FileSettings((byte) random.nextInt(32), response));
+        }
+    }
+
+    /**
+     * the lazy getters are read before materialize() runs the analysis, then compared with the analyzed fields
+     */
+    private static void assertLazyEqualsMaterialized(FileSettings fileSettings) throws ReflectiveOperationException {
+        String fileTypeName = fileSettings.getFileTypeName();
+        byte communicationSettings = fileSettings.getCommunicationSettings();
+        String communicationSettingsName = fileSettings.getCommunicationSettingsName();
+        DesfireEv3.CommunicationSettings desfireEv3CommunicationSettings = fileSettings.getDesfireEv3CommunicationSettings();
+        int[] accessRights = {fileSettings.getAccessRightsRw(), fileSettings.getAccessRightsCar(),
+                fileSettings.getAccessRightsR(), fileSettings.getAccessRightsW()};
+        int fileSize = fileSettings.getFileSizeInt();
+        int recordSize = fileSettings.getRecordSizeInt();
+        int recordsMax = fileSettings.getRecordsMaxInt();
+        int recordsExisting = fileSettings.getRecordsExistingInt();
+
+        fileSettings.materialize();
+        String message = Utils.bytesToHexNpeUpperCase(fileSettings.getCompleteResponse());
+        assertEquals(message, getField(fileSettings, "fileTypeName"), fileTypeName);
+        assertEquals(message, getField(fileSettings, "communicationSettings"), communicationSettings);
+        assertEquals(message, getField(fileSettings, "communicationSettingsName"), communicationSettingsName);
+        if (fileSettings.getFileType() != (byte) 0x05) {
+            // the analysis of a Transaction MAC file does not fill the enum
+            assertEquals(message, getField(fileSettings, "desfireEv3CommunicationSettings"), desfireEv3CommunicationSettings);
+        }
+        assertEquals(message, getField(fileSettings, "accessRightsRw"), accessRights[0]);
+        assertEquals(message, getField(fileSettings, "accessRightsCar"), accessRights[1]);
+        assertEquals(message, getField(fileSettings, "accessRightsR"), accessRights[2]);
+        assertEquals(message, getField(fileSettings, "accessRightsW"), accessRights[3]);
+        assertEquals(message, getField(fileSettings, "fileSizeInt"), fileSize);
+        assertEquals(message, getField(fileSettings, "recordSizeInt"), recordSize);
+        assertEquals(message, getField(fileSettings, "recordsMaxInt"), recordsMax);
+        assertEquals(message, getField(fileSettings, "recordsExistingInt"), recordsExisting);
+    }
+
+    private static Object getField(FileSettings fileSettings, String name) throws ReflectiveOperationException {
+        Field field = FileSettings.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(fileSettings);
+    }
+}
@@ -0,0 +1,81 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the FSCI decoding from the ATS and the data chunk lengths per communication mode.
+ */
+public class FrameSizeTest {
+
+    private static final byte PLAIN = (byte) 0x00;
+    private static final byte MACED = (byte) 0x01;
+    private static final byte FULL = (byte) 0x03;
+
+    @Test
+    public void getFsciFromAts_desfireEv3() {
+        assertEquals(8, FrameSize.getFsciFromAts(Utils.hexStringToByteArray("067877710280")));
+    }
+
+    @Test
+    public void getFsciFromAts_missingOrShortAts() {
+        assertEquals(FrameSize.FSCI_DESFIRE_EV1, FrameSize.getFsciFromAts(null));
+        assertEquals(FrameSize.FSCI_DESFIRE_EV1, FrameSize.getFsciFromAts(new byte[0]));
+        // TL = 1: there is no format byte T0
+        assertEquals(FrameSize.FSCI_DEFAULT_WITHOUT_T0, FrameSize.getFsciFromAts(new byte[]{(byte) 0x01}));
+    }
+
+    @Test
+    public void getFsc_mapsAllFsciValues() {
+        int[] expected = {16, 24, 32, 40, 48, 64, 96, 128, 256};
+        for (int fsci = 0; fsci < expected.length; fsci++) {
+            assertEquals(expected[fsci], FrameSize.getFsc(fsci));
+        }
+        // RFU values are treated as 256 bytes
+        assertEquals(256, FrameSize.getFsc(12));
+        assertEquals(16, FrameSize.getFsc(-1));
+    }
+
+    @Test
+    public void desfireEv3_withAndroidReader() {
+        FrameSize frameSize = new FrameSize(8, 253);
+        assertEquals(247, frameSize.getMaximumCommandDataLength());
+        assertEquals(251, frameSize.getMaximumResponseDataLength());
+        assertEquals(240, frameSize.getMaximumWriteDataLength(PLAIN));
+        assertEquals(232, frameSize.getMaximumWriteDataLength(MACED));
+        assertEquals(223, frameSize.getMaximumWriteDataLength(FULL));
+        assertEquals(251, frameSize.getMaximumReadDataLength(PLAIN));
+        assertEquals(243, frameSize.getMaximumReadDataLength(MACED));
+        assertEquals(239, frameSize.getMaximumReadDataLength(FULL));
+    }
+
+    @Test
+    public void desfireEv1_frameSizeLimitsCommands() {
+        FrameSize frameSize = FrameSize.fromAts(null, 253);
+        assertEquals(5, frameSize.getFsci());
+        assertEquals(64, frameSize.getFsc());
+        // 64 - 3 bytes frame overhead - 6 bytes APDU wrapping
+        assertEquals(55, frameSize.getMaximumCommandDataLength());
+        assertEquals(48, frameSize.getMaximumWriteDataLength(PLAIN));
+        assertEquals(31, frameSize.getMaximumWriteDataLength(FULL));
+    }
+
+    @Test
+    public void fullPayload_fitsIntoPaddedBlocks() {
+        for (int fsci = 0; fsci <= 8; fsci++) {
+            FrameSize frameSize = new FrameSize(fsci, 253);
+            int payload = frameSize.getMaximumReadDataLength(FULL);
+            // at least one padding byte, padded length plus MAC fits into the response
+            int paddedLength = (payload / 16 + 1) * 16;
+            assertTrue(paddedLength + 8 <= frameSize.getMaximumResponseDataLength());
+        }
+    }
+
+    @Test
+    public void smallReader_neverReturnsAnEmptyChunk() {
+        FrameSize frameSize = new FrameSize(0, 8);
+        assertEquals(1, frameSize.getMaximumWriteDataLength(FULL));
+        assertEquals(1, frameSize.getMaximumReadDataLength(FULL));
+    }
+}
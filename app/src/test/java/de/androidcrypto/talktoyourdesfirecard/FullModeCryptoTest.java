@@ -0,0 +1,88 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the one pass CBC encryption and decryption of the Full mode data (encryptCommandData and
+ * decryptResponseData) with a block by block AES computation and with the SimulatedDesfireCard.
+ */
+public class FullModeCryptoTest {
+
+    private static final byte[] APPLICATION_IDENTIFIER = Utils.hexStringToByteArray("A1A2A3");
+    private static final byte[] APPLICATION_KEY_DEFAULT = new byte[16];
+    private static final byte FILE_NUMBER_FULL = (byte) 0x01;
+
+    private DesfireEv3 desfireEv3;
+
+    @Before
+    public void setUp() {
+        desfireEv3 = new DesfireEv3(new SimulatedDesfireCard());
+        assertTrue(desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 3));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+    }
+
+    @Test
+    public void encryptCommandData_matchesBlockByBlockEncryption() throws GeneralSecurityException {
+        for (int length : new int[]{1, 15, 16, 17, 100, 1024}) {
+            byte[] dataPadded = desfireEv3.paddingWriteData(Utils.generateTestData(length));
+            assertEquals(0, dataPadded.length % 16);
+            byte[] key = desfireEv3.getSesAuthENCKey();
+            byte[] iv = aesEcb(key, desfireEv3.getIvInput());
+            byte[] expected = new byte[dataPadded.length];
+            for (int i = 0; i < dataPadded.length; i += 16) {
+                byte[] block = Arrays.copyOfRange(dataPadded, i, i + 16);
+                for (int j = 0; j < 16; j++) block[j] ^= iv[j];
+                iv = aesEcb(key, block);
+                System.arraycopy(iv, 0, expected, i, 16);
+            }
+            assertArrayEquals(expected, desfireEv3.encryptCommandData(dataPadded));
+        }
+    }
+
+    @Test
+    public void decryptResponseData_matchesBlockByBlockDecryption() throws GeneralSecurityException {
+        byte[] key = desfireEv3.getSesAuthENCKey();
+        byte[] ivInputResponse = new byte[16];
+        ivInputResponse[0] = (byte) 0x5A;
+        ivInputResponse[1] = (byte) 0xA5;
+        System.arraycopy(desfireEv3.getTransactionIdentifier(), 0, ivInputResponse, 2, 4);
+        ivInputResponse[6] = (byte) desfireEv3.getCmdCounter();
+        ivInputResponse[7] = (byte) (desfireEv3.getCmdCounter() >> 8);
+        byte[] ivResponse = aesEcb(key, ivInputResponse);
+        byte[] plaintext = desfireEv3.paddingWriteData(Utils.generateTestData(200));
+        Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(ivResponse));
+        byte[] encrypted = cipher.doFinal(plaintext);
+        assertArrayEquals(plaintext, desfireEv3.decryptResponseData(encrypted));
+    }
+
+    @Test
+    public void fullModeFile_roundTripWithTheSimulator() {
+        assertTrue(desfireEv3.createAStandardFile(FILE_NUMBER_FULL, DesfireEv3.CommunicationSettings.Full, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 512, false));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x01, APPLICATION_KEY_DEFAULT));
+        // the lengths hit no padding block boundary, the boundary and a complete padding block
+        for (int length : new int[]{1, 15, 16, 31, 32, 512}) {
+            byte[] data = Utils.generateTestData(length);
+            assertTrue(desfireEv3.writeToADataFile(FILE_NUMBER_FULL, data));
+            assertArrayEquals(data, desfireEv3.readFromADataFile(FILE_NUMBER_FULL, 0, length));
+        }
+    }
+
+    private static byte[] aesEcb(byte[] key, byte[] block) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+        return cipher.doFinal(block);
+    }
+}
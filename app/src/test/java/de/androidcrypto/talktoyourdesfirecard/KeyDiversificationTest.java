@@ -0,0 +1,99 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the AN10922 key diversification with the AES-128 example of the application note, with a plain
+ * AES-CMAC and on the SimulatedDesfireCard.
+ */
+public class KeyDiversificationTest {
+
+    // AN10922 'Symmetric key diversifications', section 2.2.1 AES-128 key diversification example
+    private static final byte[] MASTER_KEY = Utils.hexStringToByteArray("00112233445566778899AABBCCDDEEFF");
+    private static final byte[] UID = Utils.hexStringToByteArray("04782E21801D80");
+    private static final byte[] APPLICATION_IDENTIFIER = Utils.hexStringToByteArray("3042F5");
+    private static final byte[] SYSTEM_IDENTIFIER = Utils.hexStringToByteArray("4E585020416275"); // "NXP Abu"
+    private static final byte[] DIVERSIFIED_KEY = Utils.hexStringToByteArray("A8DD63A3B89D54B37CA802473FDA9175");
+    private static final byte[] APPLICATION_KEY_DEFAULT = new byte[16];
+
+    @Test
+    public void deriveKey_an10922AesExample() throws GeneralSecurityException {
+        KeyDiversification keyDiversification = new KeyDiversification(MASTER_KEY, KeyDiversification.KeyType.AES, SYSTEM_IDENTIFIER);
+        assertArrayEquals(DIVERSIFIED_KEY, keyDiversification.deriveKey(UID, APPLICATION_IDENTIFIER));
+        byte[] diversificationInput = KeyDiversification.buildDiversificationInput(UID, APPLICATION_IDENTIFIER, SYSTEM_IDENTIFIER);
+        assertArrayEquals(Utils.hexStringToByteArray("04782E21801D803042F54E585020416275"), diversificationInput);
+        assertArrayEquals(DIVERSIFIED_KEY, keyDiversification.deriveKey(diversificationInput));
+    }
+
+    @Test
+    public void deriveKey_equalsAesCmacOfTwoBlocks() throws GeneralSecurityException {
+        // with 16..31 bytes of input the AN10922 padding to 2 blocks equals the padding of a plain CMAC
+        KeyDiversification keyDiversification = new KeyDiversification(MASTER_KEY, KeyDiversification.KeyType.AES, null);
+        DesfireEv3 desfireEv3 = new DesfireEv3(new SimulatedDesfireCard());
+        for (int length = 16; length <= KeyDiversification.MAXIMUM_AES_INPUT_LENGTH; length++) {
+            byte[] diversificationInput = Utils.generateTestData(length);
+            byte[] cmacInput = new byte[length + 1];
+            cmacInput[0] = (byte) 0x01;
+            System.arraycopy(diversificationInput, 0, cmacInput, 1, length);
+            assertArrayEquals("length " + length, desfireEv3.calculateDiverseKey(MASTER_KEY, cmacInput),
+                    keyDiversification.deriveKey(diversificationInput));
+        }
+    }
+
+    @Test
+    public void deriveKeys_parallelEqualsSequential() throws GeneralSecurityException, InterruptedException {
+        for (KeyDiversification.KeyType keyType : KeyDiversification.KeyType.values()) {
+            KeyDiversification keyDiversification = new KeyDiversification(MASTER_KEY, keyType, null);
+            List<byte[]> diversificationInputs = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                byte[] uid = Utils.generateTestData(7);
+                uid[6] = (byte) i;
+                diversificationInputs.add(KeyDiversification.buildDiversificationInput(uid, APPLICATION_IDENTIFIER, null));
+            }
+            byte[][] parallel = keyDiversification.deriveKeys(diversificationInputs, 4);
+            byte[][] sequential = keyDiversification.deriveKeys(diversificationInputs, 1);
+            assertEquals(diversificationInputs.size(), parallel.length);
+            for (int i = 0; i < parallel.length; i++) {
+                assertArrayEquals(keyDiversification.deriveKey(diversificationInputs.get(i)), sequential[i]);
+                assertArrayEquals(sequential[i], parallel[i]);
+            }
+        }
+    }
+
+    @Test
+    public void deriveKey_tdes2Key() throws GeneralSecurityException {
+        KeyDiversification keyDiversification = new KeyDiversification(MASTER_KEY, KeyDiversification.KeyType.TDES_2KEY, null);
+        byte[] key = keyDiversification.deriveKey(UID, APPLICATION_IDENTIFIER);
+        assertEquals(16, key.length);
+        // the two halves are derived with different constants
+        assertFalse(Utils.bytesToHexNpe(key).substring(0, 16).equals(Utils.bytesToHexNpe(key).substring(16)));
+        assertThrows(IllegalArgumentException.class, () -> keyDiversification.deriveKey(new byte[KeyDiversification.MAXIMUM_TDES_INPUT_LENGTH + 1]));
+    }
+
+    @Test
+    public void deriveKey_inputTooLong_throws() throws GeneralSecurityException {
+        KeyDiversification keyDiversification = new KeyDiversification(MASTER_KEY, KeyDiversification.KeyType.AES, null);
+        assertThrows(IllegalArgumentException.class, () -> keyDiversification.deriveKey(new byte[KeyDiversification.MAXIMUM_AES_INPUT_LENGTH + 1]));
+        assertThrows(IllegalArgumentException.class, () -> keyDiversification.deriveKey(new byte[0]));
+    }
+
+    @Test
+    public void deriveApplicationKey_authenticatesOnTheSimulator() throws GeneralSecurityException {
+        SimulatedDesfireCard card = new SimulatedDesfireCard(UID);
+        DesfireEv3 desfireEv3 = new DesfireEv3(card);
+        KeyDiversification keyDiversification = new KeyDiversification(MASTER_KEY, KeyDiversification.KeyType.AES, SYSTEM_IDENTIFIER);
+        assertTrue(desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 3));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        byte[] cardKey = desfireEv3.deriveApplicationKey(keyDiversification);
+        assertArrayEquals(DIVERSIFIED_KEY, cardKey);
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+        assertTrue(desfireEv3.changeApplicationKeyFull((byte) 0x01, (byte) 0x01, cardKey, APPLICATION_KEY_DEFAULT));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x01, cardKey));
+    }
+}
@@ -0,0 +1,128 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Personalizes SimulatedDesfireCards with the PersonalizationPipeline and checks which serial number a card gets
+ * after a failed card.
+ */
+public class PersonalizationPipelineTest {
+
+    private static final byte[] APPLICATION_IDENTIFIER = Utils.hexStringToByteArray("B1B2B3");
+    private static final byte NDEF_FILE_NUMBER = (byte) 0x02;
+    private static final long FIRST_SERIAL_NUMBER = 1000;
+
+    private PersonalizationPipeline pipeline;
+    private boolean isKeyDerivationFailing = false;
+
+    @After
+    public void tearDown() {
+        if (pipeline != null) pipeline.close();
+    }
+
+    @Test
+    public void personalize_cardsGetConsecutiveSerialNumbers() {
+        pipeline = createPipeline();
+        for (int i = 0; i < 3; i++) {
+            DesfireResult<Long> result = pipeline.personalize(new DesfireEv3(new SimulatedDesfireCard()));
+            assertTrue(result.isSuccess());
+            assertEquals(Long.valueOf(FIRST_SERIAL_NUMBER + i), result.getValue());
+        }
+    }
+
+    @Test
+    public void personalize_failureBeforeTheNdefWrite_nextCardGetsTheSerialNumber() {
+        pipeline = createPipeline();
+        SimulatedDesfireCard lostCard = new SimulatedDesfireCard();
+        lostCard.setConnected(false);
+        assertFalse(pipeline.personalize(new DesfireEv3(lostCard)).isSuccess());
+
+        DesfireResult<Long> result = pipeline.personalize(new DesfireEv3(new SimulatedDesfireCard()));
+        assertTrue(result.isSuccess());
+        assertEquals(Long.valueOf(FIRST_SERIAL_NUMBER), result.getValue());
+    }
+
+    @Test
+    public void personalize_failureAfterTheNdefWrite_anotherCardGetsANewSerialNumber() {
+        pipeline = createPipeline();
+        isKeyDerivationFailing = true;
+        SimulatedDesfireCard failedCard = new SimulatedDesfireCard();
+        assertFalse(pipeline.personalize(new DesfireEv3(failedCard)).isSuccess());
+        assertEquals(FIRST_SERIAL_NUMBER, readSerialNumber(failedCard));
+
+        isKeyDerivationFailing = false;
+        SimulatedDesfireCard otherCard = new SimulatedDesfireCard();
+        DesfireResult<Long> result = pipeline.personalize(new DesfireEv3(otherCard));
+        assertTrue(result.isSuccess());
+        assertEquals(Long.valueOf(FIRST_SERIAL_NUMBER + 1), result.getValue());
+        assertEquals(FIRST_SERIAL_NUMBER + 1, readSerialNumber(otherCard));
+    }
+
+    @Test
+    public void personalize_failureAfterTheNdefWrite_sameCardKeepsItsSerialNumber() {
+        pipeline = createPipeline();
+        isKeyDerivationFailing = true;
+        SimulatedDesfireCard failedCard = new SimulatedDesfireCard();
+        assertFalse(pipeline.personalize(new DesfireEv3(failedCard)).isSuccess());
+
+        // the card is tapped again
+        isKeyDerivationFailing = false;
+        failedCard.setConnected(false);
+        failedCard.setConnected(true);
+        DesfireResult<Long> result = pipeline.personalize(new DesfireEv3(failedCard));
+        assertTrue(result.isSuccess());
+        assertEquals(Long.valueOf(FIRST_SERIAL_NUMBER), result.getValue());
+        assertEquals(FIRST_SERIAL_NUMBER, readSerialNumber(failedCard));
+    }
+
+    private PersonalizationPipeline createPipeline() {
+        PersonalizationLayout layout = new PersonalizationLayout.Builder(APPLICATION_IDENTIFIER, 5)
+                .standardFile(NDEF_FILE_NUMBER, DesfireEv3.CommunicationSettings.Plain, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 128)
+                .ndefFile(NDEF_FILE_NUMBER, PersonalizationPipelineTest::buildNdefFileContent)
+                .build();
+        PersonalizationPipeline.KeyProvider keyProvider = new PersonalizationPipeline.KeyProvider() {
+            @Override
+            public byte[] prepare(byte keyNumber, long serialNumber) {
+                return new byte[0];
+            }
+
+            @Override
+            public byte[] deriveKey(byte keyNumber, byte[] preparedInput, byte[] uid) {
+                // an invalid key lets the key change fail
+                return isKeyDerivationFailing ? null : new byte[16];
+            }
+        };
+        return new PersonalizationPipeline(layout, keyProvider, FIRST_SERIAL_NUMBER, 2);
+    }
+
+    /**
+     * NdefRecord is not available in unit tests, the file content is the serial number as text with a
+     * leading length byte
+     */
+    private static byte[] buildNdefFileContent(long serialNumber) {
+        byte[] text = String.valueOf(serialNumber).getBytes(StandardCharsets.US_ASCII);
+        byte[] content = new byte[text.length + 1];
+        content[0] = (byte) text.length;
+        System.arraycopy(text, 0, content, 1, text.length);
+        return content;
+    }
+
+    /**
+     * @return the serial number in the NDEF file of the card
+     */
+    private static long readSerialNumber(SimulatedDesfireCard card) {
+        card.setConnected(false);
+        card.setConnected(true);
+        DesfireEv3 desfireEv3 = new DesfireEv3(card);
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x01, new byte[16]));
+        byte[] fileContent = desfireEv3.readFromADataFile(NDEF_FILE_NUMBER, 0, 128);
+        assertNotNull(fileContent);
+        return Long.parseLong(new String(fileContent, 1, fileContent[0], StandardCharsets.US_ASCII));
+    }
+}
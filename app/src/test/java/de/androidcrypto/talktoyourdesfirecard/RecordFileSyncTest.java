@@ -0,0 +1,262 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Syncs Linear and Cyclic Record files of the SimulatedDesfireCard with RecordFileSync, including a full Cyclic
+ * Record file that overwrites the anchor and a Linear Record file that was cleared and written again.
+ */
+public class RecordFileSyncTest {
+
+    private static final byte[] APPLICATION_IDENTIFIER = Utils.hexStringToByteArray("A1A2A3");
+    private static final byte[] APPLICATION_KEY_DEFAULT = new byte[16];
+    private static final byte FILE_NUMBER_LINEAR = (byte) 0x01;
+    private static final byte FILE_NUMBER_CYCLIC = (byte) 0x02;
+    private static final byte FILE_NUMBER_STANDARD = (byte) 0x03;
+    private static final int RECORD_SIZE = 24;
+    private static final int MAXIMUM_NUMBER_OF_RECORDS = 12;
+    // a Cyclic Record file keeps one record less than its maximum number of records
+    private static final int MAXIMUM_NUMBER_OF_RECORDS_CYCLIC = 6;
+    private static final int NUMBER_OF_RECORDS_CYCLIC = MAXIMUM_NUMBER_OF_RECORDS_CYCLIC - 1;
+
+    private SimulatedDesfireCard card;
+    private DesfireEv3 desfireEv3;
+    private RecordFileSync recordFileSync;
+    private int recordCounter = 0;
+
+    @Before
+    public void setUp() {
+        card = new SimulatedDesfireCard();
+        desfireEv3 = new DesfireEv3(card);
+        assertTrue(desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 5));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+        assertTrue(desfireEv3.createALinearRecordFile(FILE_NUMBER_LINEAR, DesfireEv3.CommunicationSettings.Full, DesfireEv3.ACCESS_RIGHTS_DEFAULT, RECORD_SIZE, MAXIMUM_NUMBER_OF_RECORDS));
+        assertTrue(desfireEv3.createACyclicRecordFile(FILE_NUMBER_CYCLIC, DesfireEv3.CommunicationSettings.Plain, DesfireEv3.ACCESS_RIGHTS_DEFAULT, RECORD_SIZE, MAXIMUM_NUMBER_OF_RECORDS_CYCLIC));
+        assertTrue(desfireEv3.createAStandardFile(FILE_NUMBER_STANDARD, DesfireEv3.CommunicationSettings.Plain, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 32, false));
+        nextTap();
+        recordFileSync = new RecordFileSync();
+    }
+
+    @Test
+    public void sync_linear_readsOnlyTheNewRecords() throws IOException {
+        List<byte[]> records = writeRecords(FILE_NUMBER_LINEAR, 4);
+        RecordFileSync.Result result = recordFileSync.sync(desfireEv3, FILE_NUMBER_LINEAR);
+        assertRecords(records, result.getRecords());
+        assertTrue(result.isFullRead());
+        assertEquals(4, result.getNumberOfRecordsRead());
+
+        // no new records, only the anchor is read
+        result = recordFileSync.sync(nextTap(), FILE_NUMBER_LINEAR);
+        assertTrue(result.getRecords().isEmpty());
+        assertFalse(result.isFullRead());
+        assertEquals(1, result.getNumberOfRecordsRead());
+
+        records = writeRecords(FILE_NUMBER_LINEAR, 3);
+        result = recordFileSync.sync(nextTap(), FILE_NUMBER_LINEAR);
+        assertRecords(records, result.getRecords());
+        assertFalse(result.isFullRead());
+        assertFalse(result.isRecordsLost());
+        assertEquals(7, result.getNumberOfRecordsExisting());
+        assertEquals(4, result.getNumberOfRecordsRead());
+    }
+
+    @Test
+    public void sync_emptyFile_isNoFullReadAfterwards() throws IOException {
+        RecordFileSync.Result result = recordFileSync.sync(desfireEv3, FILE_NUMBER_LINEAR);
+        assertTrue(result.getRecords().isEmpty());
+        assertEquals(0, result.getNumberOfRecordsRead());
+        assertNull(recordFileSync.getState(card.getTagId(), APPLICATION_IDENTIFIER, FILE_NUMBER_LINEAR).getNewestRecordHash());
+
+        List<byte[]> records = writeRecords(FILE_NUMBER_LINEAR, 2);
+        result = recordFileSync.sync(nextTap(), FILE_NUMBER_LINEAR);
+        assertRecords(records, result.getRecords());
+        assertFalse(result.isFullRead());
+    }
+
+    @Test
+    public void sync_clearedLinear_fewerRecords_readsAllRecords() throws IOException {
+        writeRecords(FILE_NUMBER_LINEAR, 5);
+        recordFileSync.sync(desfireEv3, FILE_NUMBER_LINEAR);
+        clearRecordFile(FILE_NUMBER_LINEAR);
+        List<byte[]> records = writeRecords(FILE_NUMBER_LINEAR, 2);
+
+        RecordFileSync.Result result = recordFileSync.sync(nextTap(), FILE_NUMBER_LINEAR);
+        assertRecords(records, result.getRecords());
+        assertTrue(result.isFullRead());
+        assertFalse(result.isRecordsLost());
+    }
+
+    @Test
+    public void sync_clearedLinear_moreRecords_readsAllRecords() throws IOException {
+        writeRecords(FILE_NUMBER_LINEAR, 3);
+        recordFileSync.sync(desfireEv3, FILE_NUMBER_LINEAR);
+        clearRecordFile(FILE_NUMBER_LINEAR);
+        // the number of existing records grew but the record at the expected anchor offset is not the anchor
+        List<byte[]> records = writeRecords(FILE_NUMBER_LINEAR, 8);
+
+        RecordFileSync.Result result = recordFileSync.sync(nextTap(), FILE_NUMBER_LINEAR);
+        assertRecords(records, result.getRecords());
+        assertTrue(result.isFullRead());
+        assertEquals(8, result.getNumberOfRecordsRead());
+
+        // the state after the full read is used by the next sync
+        records = writeRecords(FILE_NUMBER_LINEAR, 1);
+        result = recordFileSync.sync(nextTap(), FILE_NUMBER_LINEAR);
+        assertRecords(records, result.getRecords());
+        assertFalse(result.isFullRead());
+    }
+
+    @Test
+    public void sync_cyclicBecomesFull_findsTheAnchor() throws IOException {
+        writeRecords(FILE_NUMBER_CYCLIC, 3);
+        recordFileSync.sync(desfireEv3, FILE_NUMBER_CYCLIC);
+        List<byte[]> records = writeRecords(FILE_NUMBER_CYCLIC, 4);
+
+        RecordFileSync.Result result = recordFileSync.sync(nextTap(), FILE_NUMBER_CYCLIC);
+        assertEquals(NUMBER_OF_RECORDS_CYCLIC, result.getNumberOfRecordsExisting());
+        assertRecords(records, result.getRecords());
+        assertFalse(result.isFullRead());
+        assertFalse(result.isRecordsLost());
+    }
+
+    @Test
+    public void sync_fullCyclic_searchesTheAnchor() throws IOException {
+        writeRecords(FILE_NUMBER_CYCLIC, NUMBER_OF_RECORDS_CYCLIC + 2);
+        recordFileSync.sync(desfireEv3, FILE_NUMBER_CYCLIC);
+
+        for (int numberOfNewRecords = 0; numberOfNewRecords < NUMBER_OF_RECORDS_CYCLIC; numberOfNewRecords++) {
+            List<byte[]> records = writeRecords(FILE_NUMBER_CYCLIC, numberOfNewRecords);
+            RecordFileSync.Result result = recordFileSync.sync(nextTap(), FILE_NUMBER_CYCLIC);
+            String message = numberOfNewRecords + " new records";
+            assertRecords(records, result.getRecords());
+            assertEquals(message, NUMBER_OF_RECORDS_CYCLIC, result.getNumberOfRecordsExisting());
+            assertFalse(message, result.isFullRead());
+            assertFalse(message, result.isRecordsLost());
+        }
+    }
+
+    @Test
+    public void sync_fullCyclic_anchorOverwritten_recordsLost() throws IOException {
+        writeRecords(FILE_NUMBER_CYCLIC, NUMBER_OF_RECORDS_CYCLIC);
+        recordFileSync.sync(desfireEv3, FILE_NUMBER_CYCLIC);
+        List<byte[]> records = writeRecords(FILE_NUMBER_CYCLIC, NUMBER_OF_RECORDS_CYCLIC + 1);
+
+        RecordFileSync.Result result = recordFileSync.sync(nextTap(), FILE_NUMBER_CYCLIC);
+        // the oldest new record was overwritten, all existing records are returned
+        assertRecords(records.subList(1, records.size()), result.getRecords());
+        assertTrue(result.isFullRead());
+        assertTrue(result.isRecordsLost());
+        assertEquals(NUMBER_OF_RECORDS_CYCLIC, result.getNumberOfRecordsRead());
+    }
+
+    @Test
+    public void sync_otherCard_readsAllRecords() throws IOException {
+        writeRecords(FILE_NUMBER_LINEAR, 3);
+        recordFileSync.sync(desfireEv3, FILE_NUMBER_LINEAR);
+
+        // the same layout and records on a card with another UID
+        SimulatedDesfireCard otherCard = new SimulatedDesfireCard(Utils.hexStringToByteArray("04010203040506"));
+        desfireEv3 = new DesfireEv3(otherCard);
+        assertTrue(desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 5));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+        assertTrue(desfireEv3.createALinearRecordFile(FILE_NUMBER_LINEAR, DesfireEv3.CommunicationSettings.Full, DesfireEv3.ACCESS_RIGHTS_DEFAULT, RECORD_SIZE, MAXIMUM_NUMBER_OF_RECORDS));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x01, APPLICATION_KEY_DEFAULT));
+        List<byte[]> records = writeRecords(FILE_NUMBER_LINEAR, 3);
+
+        RecordFileSync.Result result = recordFileSync.sync(desfireEv3, FILE_NUMBER_LINEAR);
+        assertRecords(records, result.getRecords());
+        assertTrue(result.isFullRead());
+        assertEquals(2, recordFileSync.size());
+    }
+
+    @Test
+    public void states_invalidateAndRestore() throws IOException {
+        writeRecords(FILE_NUMBER_LINEAR, 3);
+        recordFileSync.sync(desfireEv3, FILE_NUMBER_LINEAR);
+        RecordFileSync.State state = recordFileSync.getState(card.getTagId(), APPLICATION_IDENTIFIER, FILE_NUMBER_LINEAR);
+        assertEquals(3, state.getNumberOfRecordsExisting());
+
+        recordFileSync.invalidate(card.getTagId(), APPLICATION_IDENTIFIER, FILE_NUMBER_LINEAR);
+        assertNull(recordFileSync.getState(card.getTagId(), APPLICATION_IDENTIFIER, FILE_NUMBER_LINEAR));
+        assertTrue(recordFileSync.sync(nextTap(), FILE_NUMBER_LINEAR).isFullRead());
+
+        // a restored state is used by the next sync, e.g. after an app start
+        RecordFileSync restored = new RecordFileSync();
+        restored.putState(card.getTagId(), APPLICATION_IDENTIFIER, FILE_NUMBER_LINEAR, state);
+        List<byte[]> records = writeRecords(FILE_NUMBER_LINEAR, 2);
+        RecordFileSync.Result result = restored.sync(nextTap(), FILE_NUMBER_LINEAR);
+        assertRecords(records, result.getRecords());
+        assertFalse(result.isFullRead());
+    }
+
+    @Test
+    public void states_leastRecentlyUsedIsRemoved() throws IOException {
+        RecordFileSync smallSync = new RecordFileSync(1);
+        writeRecords(FILE_NUMBER_LINEAR, 2);
+        writeRecords(FILE_NUMBER_CYCLIC, 2);
+        smallSync.sync(desfireEv3, FILE_NUMBER_LINEAR);
+        smallSync.sync(desfireEv3, FILE_NUMBER_CYCLIC);
+        assertEquals(1, smallSync.size());
+        assertNull(smallSync.getState(card.getTagId(), APPLICATION_IDENTIFIER, FILE_NUMBER_LINEAR));
+        assertTrue(smallSync.sync(nextTap(), FILE_NUMBER_LINEAR).isFullRead());
+        assertThrows(IllegalArgumentException.class, () -> new RecordFileSync(0));
+    }
+
+    @Test
+    public void sync_invalidFile_throws() {
+        assertThrows(IOException.class, () -> recordFileSync.sync(desfireEv3, FILE_NUMBER_STANDARD));
+        assertThrows(IOException.class, () -> recordFileSync.sync(new DesfireEv3(card), FILE_NUMBER_LINEAR));
+        assertEquals(0, recordFileSync.size());
+    }
+
+    /**
+     * a new DesfireEv3 object like on the next tap, with the selected application and an authentication,
+     * the following records are written with this object
+     */
+    private DesfireEv3 nextTap() {
+        desfireEv3 = new DesfireEv3(card);
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x01, APPLICATION_KEY_DEFAULT));
+        return desfireEv3;
+    }
+
+    /**
+     * writes distinct records with a counter in the first bytes, each record is committed
+     */
+    private List<byte[]> writeRecords(byte fileNumber, int numberOfRecords) {
+        List<byte[]> records = new ArrayList<>();
+        for (int i = 0; i < numberOfRecords; i++) {
+            byte[] record = Utils.generateTestData(RECORD_SIZE);
+            recordCounter++;
+            record[0] = (byte) (recordCounter >> 8);
+            record[1] = (byte) recordCounter;
+            assertTrue(desfireEv3.writeToARecordFile(fileNumber, 0, record));
+            assertTrue(desfireEv3.commitTransactionFull(false));
+            records.add(record);
+        }
+        return records;
+    }
+
+    private void clearRecordFile(byte fileNumber) {
+        assertTrue(desfireEv3.clearARecordFile(fileNumber));
+        assertTrue(desfireEv3.commitTransactionFull(false));
+    }
+
+    private static void assertRecords(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue("record " + i, Arrays.equals(expected.get(i), actual.get(i)));
+        }
+    }
+}
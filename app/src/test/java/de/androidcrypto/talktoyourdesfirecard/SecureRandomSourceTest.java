@@ -0,0 +1,88 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the challenge pool of SecureRandomSource: each challenge is returned once, the pool is refilled in the
+ * background, and the warm up thread.
+ */
+public class SecureRandomSourceTest {
+
+    private static final int POOL_SIZE = 4;
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @After
+    public void tearDown() {
+        SecureRandomSource.disableChallengePool();
+    }
+
+    @Test
+    public void getRandomBytes_pool_neverReturnsTheSameChallengeTwice() throws InterruptedException {
+        SecureRandomSource.enableChallengePool(POOL_SIZE);
+        assertTrue(SecureRandomSource.isChallengePoolEnabled());
+        waitForFullPool();
+        // more challenges than the pool holds, so the refill thread is used as well
+        Set<String> challenges = new HashSet<>();
+        for (int i = 0; i < POOL_SIZE * 25; i++) {
+            byte[] challenge = SecureRandomSource.getRandomBytes(SecureRandomSource.CHALLENGE_LENGTH);
+            assertEquals(SecureRandomSource.CHALLENGE_LENGTH, challenge.length);
+            assertTrue("challenge " + i + " was returned before", challenges.add(Utils.bytesToHexNpeUpperCase(challenge)));
+        }
+    }
+
+    @Test
+    public void getRandomBytes_pool_isRefilled() throws InterruptedException {
+        SecureRandomSource.enableChallengePool(POOL_SIZE);
+        waitForFullPool();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            SecureRandomSource.getRandomBytes(8);
+        }
+        waitForFullPool();
+        assertEquals(POOL_SIZE, SecureRandomSource.getNumberOfPreparedChallenges());
+    }
+
+    @Test
+    public void getRandomBytes_longerThanAChallenge_bypassesThePool() throws InterruptedException {
+        SecureRandomSource.enableChallengePool(POOL_SIZE);
+        waitForFullPool();
+        assertEquals(32, SecureRandomSource.getRandomBytes(32).length);
+        assertEquals(POOL_SIZE, SecureRandomSource.getNumberOfPreparedChallenges());
+    }
+
+    @Test
+    public void disableChallengePool_clearsThePool() throws InterruptedException {
+        SecureRandomSource.enableChallengePool(POOL_SIZE);
+        waitForFullPool();
+        SecureRandomSource.disableChallengePool();
+        assertFalse(SecureRandomSource.isChallengePoolEnabled());
+        assertEquals(0, SecureRandomSource.getNumberOfPreparedChallenges());
+        assertEquals(16, SecureRandomSource.getRandomBytes(16).length);
+        assertThrows(IllegalArgumentException.class, () -> SecureRandomSource.enableChallengePool(0));
+        assertThrows(IllegalArgumentException.class, () -> SecureRandomSource.getRandomBytes(-1));
+    }
+
+    @Test
+    public void warmUp_seedsInADaemonThread() throws InterruptedException {
+        Thread thread = SecureRandomSource.warmUp();
+        assertTrue(thread.isDaemon());
+        thread.join(TIMEOUT_MILLIS);
+        assertFalse(thread.isAlive());
+        byte[] value1 = SecureRandomSource.getRandomBytes(16);
+        byte[] value2 = SecureRandomSource.getRandomBytes(16);
+        assertFalse(Utils.bytesToHexNpeUpperCase(value1).equals(Utils.bytesToHexNpeUpperCase(value2)));
+    }
+
+    private static void waitForFullPool() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (SecureRandomSource.getNumberOfPreparedChallenges() < POOL_SIZE) {
+            assertTrue("the pool was not filled in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
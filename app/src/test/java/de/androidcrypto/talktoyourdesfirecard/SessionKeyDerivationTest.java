@@ -0,0 +1,72 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the derivation of SesAuthENCKey and SesAuthMACKey from one session vector with the example values
+ * of AN12343 and AN12196, and the session keys after an authentication on the SimulatedDesfireCard.
+ */
+public class SessionKeyDerivationTest {
+
+    private static final byte[] APPLICATION_IDENTIFIER = Utils.hexStringToByteArray("A1A2A3");
+    private static final byte[] APPLICATION_KEY_DEFAULT = new byte[16];
+
+    @Test
+    public void deriveSessionKeys_an12343Example() throws ReflectiveOperationException {
+        // Mifare DESFire Light Features and Hints AN12343.pdf pages 33 - 35
+        assertSessionKeys("B04D0787C93EE0CC8CACC8E86F16C6FE", "FA659AD0DCA738DD65DC7DC38612AD81",
+                "63DC07286289A7A6C0334CA31C314A04", "774F26743ECE6AF5033B6AE8522946F6");
+    }
+
+    @Test
+    public void deriveSessionKeys_an12196Example() throws ReflectiveOperationException {
+        // NTAG 424 DNA and NTAG 424 DNA TagTamper features and hints AN12196.pdf, AuthenticateEV2First example
+        assertSessionKeys("13C5DB8A5930439FC3DEF9A4C675360F", "B9E2FC789B64BF237CCCAA20EC7E6E48",
+                "1309C877509E5A215007FF0ED19CA564", "4C6626F5E72EA694202139295C7A7FC7");
+    }
+
+    @Test
+    public void deriveSessionKeys_wrongLength_failsWithoutKeys() throws ReflectiveOperationException {
+        DesfireEv3 desfireEv3 = new DesfireEv3(new SimulatedDesfireCard());
+        assertFalse(deriveSessionKeys(desfireEv3, new byte[15], new byte[16], APPLICATION_KEY_DEFAULT));
+        assertNull(desfireEv3.getSesAuthENCKey());
+        assertNull(desfireEv3.getSesAuthMACKey());
+    }
+
+    @Test
+    public void authenticateAesEv2First_sessionKeysWorkWithTheSimulator() {
+        DesfireEv3 desfireEv3 = new DesfireEv3(new SimulatedDesfireCard());
+        assertTrue(desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 3));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+        byte[] sesAuthEncKey = desfireEv3.getSesAuthENCKey();
+        byte[] sesAuthMacKey = desfireEv3.getSesAuthMACKey();
+        assertFalse(Utils.bytesToHexNpe(sesAuthEncKey).equals(Utils.bytesToHexNpe(sesAuthMacKey)));
+        // the card accepts the MAC of a Full mode command and returns a verifiable response MAC
+        assertTrue(desfireEv3.createAStandardFile((byte) 0x01, DesfireEv3.CommunicationSettings.Full, DesfireEv3.ACCESS_RIGHTS_DEFAULT, 32, false));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x01, APPLICATION_KEY_DEFAULT));
+        byte[] data = Utils.generateTestData(32);
+        assertTrue(desfireEv3.writeToADataFile((byte) 0x01, data));
+        assertArrayEquals(data, desfireEv3.readFromADataFile((byte) 0x01, 0, 32));
+        // each authentication gets new random numbers and new session keys
+        assertFalse(Utils.bytesToHexNpe(sesAuthEncKey).equals(Utils.bytesToHexNpe(desfireEv3.getSesAuthENCKey())));
+    }
+
+    private static void assertSessionKeys(String rndA, String rndB, String sesAuthEncKey, String sesAuthMacKey) throws ReflectiveOperationException {
+        DesfireEv3 desfireEv3 = new DesfireEv3(new SimulatedDesfireCard());
+        assertTrue(deriveSessionKeys(desfireEv3, Utils.hexStringToByteArray(rndA), Utils.hexStringToByteArray(rndB), APPLICATION_KEY_DEFAULT));
+        assertArrayEquals(Utils.hexStringToByteArray(sesAuthEncKey), desfireEv3.getSesAuthENCKey());
+        assertArrayEquals(Utils.hexStringToByteArray(sesAuthMacKey), desfireEv3.getSesAuthMACKey());
+    }
+
+    private static boolean deriveSessionKeys(DesfireEv3 desfireEv3, byte[] rndA, byte[] rndB, byte[] key) throws ReflectiveOperationException {
+        Method method = DesfireEv3.class.getDeclaredMethod("deriveSessionKeys", byte[].class, byte[].class, byte[].class);
+        method.setAccessible(true);
+        return (Boolean) method.invoke(desfireEv3, rndA, rndB, key);
+    }
+}
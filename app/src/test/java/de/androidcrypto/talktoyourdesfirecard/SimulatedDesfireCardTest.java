@@ -0,0 +1,170 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs DesfireEv3 against the SimulatedDesfireCard: authentication, the 0x91AF response chaining and
+ * the number of commands needed for a large read with and without a negotiated frame size.
+ */
+public class SimulatedDesfireCardTest {
+
+    private static final byte[] APPLICATION_IDENTIFIER = Utils.hexStringToByteArray("A1A2A3");
+    private static final byte[] APPLICATION_KEY_DEFAULT = new byte[16];
+    private static final byte FILE_NUMBER = (byte) 0x01;
+    private static final int FILE_SIZE = 2048;
+
+    private SimulatedDesfireCard card;
+    private DesfireEv3 desfireEv3;
+
+    @Before
+    public void setUp() {
+        card = new SimulatedDesfireCard();
+        desfireEv3 = new DesfireEv3(card);
+        assertTrue(desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 5));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+        assertTrue(desfireEv3.createAStandardFile(FILE_NUMBER, DesfireEv3.CommunicationSettings.Plain, DesfireEv3.ACCESS_RIGHTS_DEFAULT, FILE_SIZE, false));
+        // the file settings are read on application selection
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x01, APPLICATION_KEY_DEFAULT));
+    }
+
+    @Test
+    public void authenticateAesEv2First_setsSessionValues() {
+        assertEquals(16, desfireEv3.getSesAuthENCKey().length);
+        assertEquals(16, desfireEv3.getSesAuthMACKey().length);
+        assertEquals(4, desfireEv3.getTransactionIdentifier().length);
+        assertEquals(0, desfireEv3.getCmdCounter());
+    }
+
+    @Test
+    public void authenticateAesEv2First_wrongKey_fails() {
+        byte[] wrongKey = Utils.hexStringToByteArray("000102030405060708090A0B0C0D0E0F");
+        assertFalse(desfireEv3.authenticateAesEv2First((byte) 0x01, wrongKey));
+    }
+
+    @Test
+    public void readFromADataFile_chainedResponse_returnsAllData() {
+        byte[] data = Utils.generateTestData(FILE_SIZE);
+        desfireEv3.negotiateFrameSize(card.getAts());
+        assertTrue(desfireEv3.writeToADataFile(FILE_NUMBER, data));
+        // the simulator answers with 251 bytes per frame, a larger read is chained with 0x91AF
+        card.setMaximumResponseFrameLength(16);
+        assertArrayEquals(data, desfireEv3.readFromADataFile(FILE_NUMBER, 0, FILE_SIZE));
+    }
+
+    @Test
+    public void negotiateFrameSize_reducesNumberOfCommands() {
+        byte[] data = Utils.generateTestData(FILE_SIZE);
+        assertTrue(desfireEv3.writeToADataFile(FILE_NUMBER, data));
+
+        long commandsBefore = card.getNumberOfCommands();
+        assertArrayEquals(data, desfireEv3.readFromADataFile(FILE_NUMBER, 0, FILE_SIZE));
+        long commandsWithoutNegotiation = card.getNumberOfCommands() - commandsBefore;
+
+        FrameSize frameSize = desfireEv3.negotiateFrameSize(card.getAts());
+        assertEquals(8, frameSize.getFsci());
+        commandsBefore = card.getNumberOfCommands();
+        assertArrayEquals(data, desfireEv3.readFromADataFile(FILE_NUMBER, 0, FILE_SIZE));
+        long commandsWithNegotiation = card.getNumberOfCommands() - commandsBefore;
+
+        // 2048 bytes in chunks of 40 bytes need 52 ReadData commands, in chunks of 249 bytes only 9
+        assertTrue(commandsWithNegotiation * 4 < commandsWithoutNegotiation);
+    }
+
+    @Test
+    public void negotiateFrameSize_fromTransport_usesTheAtsOfTheCard() {
+        FrameSize frameSize = desfireEv3.negotiateFrameSize();
+        assertEquals(8, frameSize.getFsci());
+        assertEquals(240, desfireEv3.getMaximumWriteLength((byte) 0x00));
+    }
+
+    @Test
+    public void negotiateFrameSize_withoutAts_readsLargerChunksThanWithoutNegotiation() {
+        byte[] data = Utils.generateTestData(FILE_SIZE);
+        assertTrue(desfireEv3.writeToADataFile(FILE_NUMBER, data));
+
+        // like IsoDepTransport the transport does not know the ATS
+        DesfireEv3 desfireWithoutAts = new DesfireEv3(new TransportWithoutAts(card));
+        assertTrue(desfireWithoutAts.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireWithoutAts.authenticateAesEv2First((byte) 0x01, APPLICATION_KEY_DEFAULT));
+        assertEquals(40, desfireWithoutAts.getMaximumReadLength((byte) 0x00));
+        long commandsBefore = card.getNumberOfCommands();
+        assertArrayEquals(data, desfireWithoutAts.readFromADataFile(FILE_NUMBER, 0, FILE_SIZE));
+        long commandsWithoutNegotiation = card.getNumberOfCommands() - commandsBefore;
+
+        FrameSize frameSize = desfireWithoutAts.negotiateFrameSize();
+        assertEquals(FrameSize.FSCI_DESFIRE_EV1, frameSize.getFsci());
+        assertTrue(desfireWithoutAts.getMaximumReadLength((byte) 0x00) > 40);
+        assertEquals(48, desfireWithoutAts.getMaximumWriteLength((byte) 0x00));
+        commandsBefore = card.getNumberOfCommands();
+        assertArrayEquals(data, desfireWithoutAts.readFromADataFile(FILE_NUMBER, 0, FILE_SIZE));
+        long commandsWithNegotiation = card.getNumberOfCommands() - commandsBefore;
+        assertTrue(commandsWithNegotiation < commandsWithoutNegotiation);
+
+        // the larger chunks are written as well
+        byte[] newData = Utils.generateTestData(FILE_SIZE);
+        assertTrue(desfireWithoutAts.writeToADataFile(FILE_NUMBER, newData));
+        assertArrayEquals(newData, desfireWithoutAts.readFromADataFile(FILE_NUMBER, 0, FILE_SIZE));
+    }
+
+    @Test
+    public void transceive_tooLongApdu_throwsIOException() {
+        card.setMaxTransceiveLength(16);
+        assertThrows(IOException.class, () -> card.transceive(new byte[17]));
+    }
+
+    @Test
+    public void setConnected_false_losesTheTag() {
+        card.setConnected(false);
+        assertFalse(card.isConnected());
+        assertThrows(IOException.class, () -> card.transceive(new byte[]{(byte) 0x90, (byte) 0x60, (byte) 0x00, (byte) 0x00, (byte) 0x00}));
+        assertNull(desfireEv3.readFromADataFile(FILE_NUMBER, 0, 16));
+        // back in the field the PICC is not authenticated and the Master Application is selected
+        card.setConnected(true);
+        DesfireEv3 reconnected = new DesfireEv3(card);
+        assertTrue(reconnected.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(reconnected.authenticateAesEv2First((byte) 0x01, APPLICATION_KEY_DEFAULT));
+    }
+
+    /**
+     * forwards all commands to the card but hides the ATS like IsoDep does
+     */
+    private static class TransportWithoutAts implements ApduTransport {
+        private final SimulatedDesfireCard card;
+
+        TransportWithoutAts(SimulatedDesfireCard card) {
+            this.card = card;
+        }
+
+        @Override
+        public byte[] transceive(byte[] apdu) throws IOException {
+            return card.transceive(apdu);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return card.isConnected();
+        }
+
+        @Override
+        public int getMaxTransceiveLength() {
+            return card.getMaxTransceiveLength();
+        }
+
+        @Override
+        public byte[] getTagId() {
+            return card.getTagId();
+        }
+
+        @Override
+        public byte[] getAts() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes Data files with one WriteData command continued in additional frames (setWriteChaining)
+ * and reads the data back from the SimulatedDesfireCard in all communication modes.
+ */
+public class WriteChainingTest {
+
+    private static final byte[] APPLICATION_IDENTIFIER = Utils.hexStringToByteArray("A1A2A3");
+    private static final byte[] APPLICATION_KEY_DEFAULT = new byte[16];
+    private static final byte FILE_NUMBER_PLAIN = (byte) 0x01;
+    private static final byte FILE_NUMBER_MACED = (byte) 0x02;
+    private static final byte FILE_NUMBER_FULL = (byte) 0x03;
+    private static final byte FILE_NUMBER_BACKUP = (byte) 0x04;
+    private static final int FILE_SIZE = 1024;
+
+    private SimulatedDesfireCard card;
+    private DesfireEv3 desfireEv3;
+
+    @Before
+    public void setUp() {
+        card = new SimulatedDesfireCard();
+        desfireEv3 = new DesfireEv3(card);
+        assertTrue(desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 5));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT));
+        assertTrue(desfireEv3.createAStandardFile(FILE_NUMBER_PLAIN, DesfireEv3.CommunicationSettings.Plain, DesfireEv3.ACCESS_RIGHTS_DEFAULT, FILE_SIZE, false));
+        assertTrue(desfireEv3.createAStandardFile(FILE_NUMBER_MACED, DesfireEv3.CommunicationSettings.MACed, DesfireEv3.ACCESS_RIGHTS_DEFAULT, FILE_SIZE, false));
+        assertTrue(desfireEv3.createAStandardFile(FILE_NUMBER_FULL, DesfireEv3.CommunicationSettings.Full, DesfireEv3.ACCESS_RIGHTS_DEFAULT, FILE_SIZE, false));
+        assertTrue(desfireEv3.createABackupFile(FILE_NUMBER_BACKUP, DesfireEv3.CommunicationSettings.Full, DesfireEv3.ACCESS_RIGHTS_DEFAULT, FILE_SIZE));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0x01, APPLICATION_KEY_DEFAULT));
+        desfireEv3.setWriteChaining(true);
+    }
+
+    @Test
+    public void writeChaining_plain() {
+        assertRoundTrip(FILE_NUMBER_PLAIN, 0, FILE_SIZE);
+    }
+
+    @Test
+    public void writeChaining_maced() {
+        assertRoundTrip(FILE_NUMBER_MACED, 0, FILE_SIZE);
+    }
+
+    @Test
+    public void writeChaining_full() {
+        assertRoundTrip(FILE_NUMBER_FULL, 0, FILE_SIZE);
+    }
+
+    @Test
+    public void writeChaining_fullWithOffset() {
+        assertRoundTrip(FILE_NUMBER_FULL, 100, 333);
+    }
+
+    @Test
+    public void writeChaining_fullWithNegotiatedFrameSize() {
+        desfireEv3.negotiateFrameSize(card.getAts());
+        assertRoundTrip(FILE_NUMBER_FULL, 0, FILE_SIZE);
+    }
+
+    @Test
+    public void writeChaining_backupFileAfterCommit() {
+        byte[] data = Utils.generateTestData(FILE_SIZE);
+        assertTrue(desfireEv3.writeToADataFile(FILE_NUMBER_BACKUP, data));
+        assertTrue(desfireEv3.commitTransactionFull(false));
+        assertArrayEquals(data, desfireEv3.readFromADataFile(FILE_NUMBER_BACKUP, 0, FILE_SIZE));
+    }
+
+    @Test
+    public void writeChaining_needsLessCommandsThanChunks() {
+        byte[] data = Utils.generateTestData(FILE_SIZE);
+        long commandsBefore = card.getNumberOfCommands();
+        assertTrue(desfireEv3.writeToADataFile(FILE_NUMBER_FULL, data));
+        long commandsChained = card.getNumberOfCommands() - commandsBefore;
+
+        desfireEv3.setWriteChaining(false);
+        commandsBefore = card.getNumberOfCommands();
+        assertTrue(desfireEv3.writeToADataFile(FILE_NUMBER_FULL, data));
+        long commandsChunked = card.getNumberOfCommands() - commandsBefore;
+
+        // the same frames are sent, but every chunk of the unchained write needs its own command and response
+        assertTrue(commandsChained <= commandsChunked);
+        assertArrayEquals(data, desfireEv3.readFromADataFile(FILE_NUMBER_FULL, 0, FILE_SIZE));
+    }
+
+    @Test
+    public void writeChaining_exceedingFileSize_truncatesData() {
+        byte[] data = Utils.generateTestData(100);
+        assertTrue(desfireEv3.writeToADataFile(FILE_NUMBER_FULL, 1000, data));
+        assertArrayEquals(Arrays.copyOf(data, 24), desfireEv3.readFromADataFile(FILE_NUMBER_FULL, 1000, 24));
+    }
+
+    private void assertRoundTrip(byte fileNumber, int offset, int length) {
+        byte[] data = Utils.generateTestData(length);
+        assertTrue(desfireEv3.writeToADataFile(fileNumber, offset, data));
+        assertArrayEquals(data, desfireEv3.readFromADataFile(fileNumber, offset, length));
+    }
+}
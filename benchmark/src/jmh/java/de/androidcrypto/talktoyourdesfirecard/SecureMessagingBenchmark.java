@@ -0,0 +1,204 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.androidcrypto.talktoyourdesfirecard.nfcjlib.AES;
+
+/**
+ * Benchmarks for the host side cost of the secure messaging in DesfireEv3 (communication mode Full and MACed).
+ * The DesfireEv3 instance is authenticated against a SimulatedDesfireCard, so all session values
+ * (SesAuthENCKey, SesAuthMACKey, TI and CmdCounter) are real ones.
+ * Run with './gradlew :benchmark:jmh', the 'gc' profiler adds the allocation per operation ('gc.alloc.rate.norm').
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SecureMessagingBenchmark {
+
+    private static final byte WRITE_DATA_FILE_SECURE_COMMAND = (byte) 0x8D;
+    private static final byte FILE_NUMBER = (byte) 0x00;
+    private static final byte[] APPLICATION_IDENTIFIER = Utils.hexStringToByteArray("B1B2B3");
+    private static final byte[] APPLICATION_KEY_DEFAULT = new byte[16];
+
+    @Param({"16", "64", "256", "1024", "4096", "8192"})
+    public int payloadSize;
+
+    private DesfireEv3 desfireEv3;
+    private byte[] sesAuthEncKey;
+    private byte[] sesAuthMacKey;
+    private SessionCrypto sessionCrypto;
+    private byte[] payload;
+    private byte[] payloadPadded;
+    private byte[] payloadEncrypted;
+    private byte[] macInput;
+    private byte[] macFull;
+    private byte[] responseMac;
+    private final byte[] iv = new byte[16];
+    private final byte[] cmdHeader = new byte[7];
+    private final byte[] macOut = new byte[16];
+    private final byte[] transactionIdentifier = new byte[4];
+
+    @Setup
+    public void setup() throws Exception {
+        desfireEv3 = new DesfireEv3(new SimulatedDesfireCard());
+        // the trace recording (and the logcat echo) is not part of the secure messaging cost
+        desfireEv3.printToLog = false;
+        if (!desfireEv3.createApplicationAes(APPLICATION_IDENTIFIER, 3)) throw new IllegalStateException("createApplicationAes failed");
+        desfireEv3.selectApplicationByAid(APPLICATION_IDENTIFIER);
+        if (!desfireEv3.authenticateAesEv2First((byte) 0x00, APPLICATION_KEY_DEFAULT)) {
+            throw new IllegalStateException("authenticateAesEv2First failed");
+        }
+        sesAuthEncKey = getSessionField("SesAuthENCKey");
+        sesAuthMacKey = getSessionField("SesAuthMACKey");
+        sessionCrypto = new SessionCrypto(sesAuthEncKey, sesAuthMacKey);
+
+        payload = Utils.generateTestData(payloadSize);
+        payloadPadded = desfireEv3.paddingWriteData(payload);
+        payloadEncrypted = AES.encrypt(iv, sesAuthEncKey, payloadPadded);
+        macInput = desfireEv3.getMacInput(WRITE_DATA_FILE_SECURE_COMMAND, cmdHeader, payloadEncrypted);
+        macFull = desfireEv3.calculateDiverseKey(sesAuthMacKey, macInput);
+        // response MAC input = 0x00 || CmdCounter || TI || response data, see verifyResponseMac
+        byte[] responseMacInput = desfireEv3.getMacInput((byte) 0x00, payloadEncrypted);
+        responseMac = desfireEv3.truncateMAC(desfireEv3.calculateDiverseKey(sesAuthMacKey, responseMacInput));
+        if (!desfireEv3.verifyResponseMac(responseMac, payloadEncrypted)) {
+            throw new IllegalStateException("responseMac does not verify");
+        }
+    }
+
+    /**
+     * the command construction of writeToADataFileRawFull without transmission: padding, IV derivation,
+     * one CBC pass over all blocks, MAC input, CMAC and truncation
+     */
+    @Benchmark
+    public byte[] writeDataFullCommand() {
+        byte[] dataPadded = desfireEv3.paddingWriteData(payload);
+        byte[] encryptedData = desfireEv3.encryptCommandData(dataPadded);
+        cmdHeader[0] = FILE_NUMBER;
+        System.arraycopy(Utils.intTo3ByteArrayInversed(payload.length), 0, cmdHeader, 4, 3);
+        byte[] macTruncated = desfireEv3.truncateMAC(desfireEv3.calculateSessionMac(WRITE_DATA_FILE_SECURE_COMMAND, cmdHeader, encryptedData));
+        byte[] writeDataCommand = new byte[cmdHeader.length + encryptedData.length + macTruncated.length];
+        System.arraycopy(cmdHeader, 0, writeDataCommand, 0, cmdHeader.length);
+        System.arraycopy(encryptedData, 0, writeDataCommand, cmdHeader.length, encryptedData.length);
+        System.arraycopy(macTruncated, 0, writeDataCommand, cmdHeader.length + encryptedData.length, macTruncated.length);
+        return writeDataCommand;
+    }
+
+    /**
+     * the former command construction with block-by-block encryption (one cipher call per 16 bytes block,
+     * list of blocks and concatenation), kept as baseline for writeDataFullCommand
+     */
+    @Benchmark
+    public byte[] writeDataFullCommandPerBlock() {
+        byte[] dataPadded = desfireEv3.paddingWriteData(payload);
+        int numberOfDataBlocks = dataPadded.length / 16;
+        List<byte[]> dataBlockList = Utils.divideArrayToList(dataPadded, 16);
+        byte[] ivInput = desfireEv3.getIvInput();
+        byte[] ivForCmdData = sessionCrypto.encrypt(new byte[16], ivInput);
+        List<byte[]> dataBlockEncryptedList = new ArrayList<>();
+        byte[] ivDataEncryption = ivForCmdData.clone();
+        for (int i = 0; i < numberOfDataBlocks; i++) {
+            byte[] dataBlockEncrypted = sessionCrypto.encrypt(ivDataEncryption, dataBlockList.get(i));
+            dataBlockEncryptedList.add(dataBlockEncrypted);
+            ivDataEncryption = dataBlockEncrypted.clone();
+        }
+        ByteArrayOutputStream baosDataEncrypted = new ByteArrayOutputStream();
+        for (int i = 0; i < numberOfDataBlocks; i++) {
+            byte[] dataBlockEncrypted = dataBlockEncryptedList.get(i);
+            baosDataEncrypted.write(dataBlockEncrypted, 0, dataBlockEncrypted.length);
+        }
+        byte[] encryptedData = baosDataEncrypted.toByteArray();
+        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
+        baosCmdHeader.write(FILE_NUMBER);
+        baosCmdHeader.write(Utils.intTo3ByteArrayInversed(0), 0, 3);
+        baosCmdHeader.write(Utils.intTo3ByteArrayInversed(payload.length), 0, 3);
+        byte[] cmdHeader = baosCmdHeader.toByteArray();
+        byte[] macTruncated = desfireEv3.truncateMAC(desfireEv3.calculateSessionMac(WRITE_DATA_FILE_SECURE_COMMAND, cmdHeader, encryptedData));
+        ByteArrayOutputStream baosWriteDataCommand = new ByteArrayOutputStream();
+        baosWriteDataCommand.write(cmdHeader, 0, cmdHeader.length);
+        baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
+        baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
+        return baosWriteDataCommand.toByteArray();
+    }
+
+    /**
+     * the response decryption of readFromADataFileRawFull: IV derivation and one CBC pass over all blocks
+     */
+    @Benchmark
+    public byte[] readDataFullResponse() {
+        return desfireEv3.decryptResponseData(payloadEncrypted);
+    }
+
+    @Benchmark
+    public boolean verifyResponseMac() {
+        return desfireEv3.verifyResponseMac(responseMac, payloadEncrypted);
+    }
+
+    @Benchmark
+    public byte[] calculateDiverseKey() {
+        return desfireEv3.calculateDiverseKey(sesAuthMacKey, macInput);
+    }
+
+    @Benchmark
+    public byte[] sessionCryptoCmac() {
+        return sessionCrypto.cmac(macInput);
+    }
+
+    /**
+     * the same MAC input as sessionCryptoCmac, but streamed from its parts into a preallocated output
+     */
+    @Benchmark
+    public byte[] sessionCryptoStreamedCmac() {
+        sessionCrypto.cmac(WRITE_DATA_FILE_SECURE_COMMAND, 0, transactionIdentifier, cmdHeader, payloadEncrypted, macOut, 0);
+        return macOut;
+    }
+
+    @Benchmark
+    public byte[] truncateMAC() {
+        return desfireEv3.truncateMAC(macFull);
+    }
+
+    @Benchmark
+    public byte[] paddingWriteData() {
+        return desfireEv3.paddingWriteData(payload);
+    }
+
+    @Benchmark
+    public byte[] aesEncrypt() {
+        return AES.encrypt(iv, sesAuthEncKey, payloadPadded);
+    }
+
+    @Benchmark
+    public byte[] aesDecrypt() {
+        return AES.decrypt(iv, sesAuthEncKey, payloadEncrypted);
+    }
+
+    @Benchmark
+    public byte[] sessionCryptoEncrypt() {
+        return sessionCrypto.encrypt(iv, payloadPadded);
+    }
+
+    @Benchmark
+    public byte[] sessionCryptoDecrypt() {
+        return sessionCrypto.decrypt(iv, payloadEncrypted);
+    }
+
+    private byte[] getSessionField(String name) throws ReflectiveOperationException {
+        Field field = DesfireEv3.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return (byte[]) field.get(desfireEv3);
+    }
+}
@@ -0,0 +1,8 @@
+package android.annotation;
+
+/**
+ * host stub, only the members used by the protocol classes are present
+ */
+public @interface SuppressLint {
+    String[] value();
+}
@@ -0,0 +1,16 @@
+package android.content.res;
+
+import android.os.LocaleList;
+
+import java.util.Locale;
+
+/**
+ * host stub, only the members used by the protocol classes are present
+ */
+public class Configuration {
+    public Locale locale = Locale.getDefault();
+
+    public LocaleList getLocales() {
+        return new LocaleList();
+    }
+}
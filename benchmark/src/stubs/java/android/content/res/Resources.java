@@ -0,0 +1,16 @@
+package android.content.res;
+
+/**
+ * host stub, only the members used by the protocol classes are present
+ */
+public class Resources {
+    private static final Resources SYSTEM = new Resources();
+
+    public static Resources getSystem() {
+        return SYSTEM;
+    }
+
+    public Configuration getConfiguration() {
+        return new Configuration();
+    }
+}
@@ -0,0 +1,10 @@
+package android.graphics;
+
+/**
+ * host stub, only the members used by the protocol classes are present
+ */
+public class Color {
+    public static int rgb(int red, int green, int blue) {
+        return 0xff000000 | (red << 16) | (green << 8) | blue;
+    }
+}
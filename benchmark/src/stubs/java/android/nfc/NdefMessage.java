@@ -0,0 +1,14 @@
+package android.nfc;
+
+/**
+ * host stub, NDEF messages are not used in the benchmarks
+ */
+public final class NdefMessage {
+    public NdefMessage(NdefRecord record, NdefRecord... records) {
+        throw new UnsupportedOperationException("not available on the host");
+    }
+
+    public byte[] toByteArray() {
+        throw new UnsupportedOperationException("not available on the host");
+    }
+}
@@ -0,0 +1,14 @@
+package android.nfc;
+
+/**
+ * host stub, NDEF records are not used in the benchmarks
+ */
+public final class NdefRecord {
+    public static NdefRecord createUri(String uriString) {
+        throw new UnsupportedOperationException("not available on the host");
+    }
+
+    public static NdefRecord createTextRecord(String languageCode, String text) {
+        throw new UnsupportedOperationException("not available on the host");
+    }
+}
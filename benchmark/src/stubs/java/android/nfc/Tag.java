@@ -0,0 +1,10 @@
+package android.nfc;
+
+/**
+ * host stub, only the members used by the protocol classes are present
+ */
+public final class Tag {
+    public byte[] getId() {
+        return new byte[0];
+    }
+}
@@ -0,0 +1,17 @@
+package android.nfc;
+
+import java.io.IOException;
+
+/**
+ * host stub, only the members used by the protocol classes are present
+ */
+public class TagLostException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public TagLostException() {
+    }
+
+    public TagLostException(String message) {
+        super(message);
+    }
+}
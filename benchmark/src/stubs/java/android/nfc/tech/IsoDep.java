@@ -0,0 +1,26 @@
+package android.nfc.tech;
+
+import android.nfc.Tag;
+
+import java.io.IOException;
+
+/**
+ * host stub, on the host the DesfireEv3 class is used with an ApduTransport like the SimulatedDesfireCard
+ */
+public final class IsoDep {
+    public byte[] transceive(byte[] data) throws IOException {
+        throw new IOException("no tag available on the host");
+    }
+
+    public boolean isConnected() {
+        return false;
+    }
+
+    public int getMaxTransceiveLength() {
+        return 253;
+    }
+
+    public Tag getTag() {
+        return null;
+    }
+}
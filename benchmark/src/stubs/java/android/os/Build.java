@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * host stub, only the members used by the protocol classes are present
+ */
+public class Build {
+    public static class VERSION {
+        public static final int SDK_INT = 33;
+    }
+
+    public static class VERSION_CODES {
+        public static final int N = 24;
+        public static final int O = 26;
+    }
+}
@@ -0,0 +1,12 @@
+package android.os;
+
+import java.util.Locale;
+
+/**
+ * host stub, only the members used by the protocol classes are present
+ */
+public class LocaleList {
+    public Locale get(int index) {
+        return Locale.getDefault();
+    }
+}
@@ -0,0 +1,10 @@
+package android.text;
+
+/**
+ * host stub, only the members used by the protocol classes are present
+ */
+public class TextUtils {
+    public static boolean isEmpty(CharSequence str) {
+        return (str == null) || (str.length() == 0);
+    }
+}
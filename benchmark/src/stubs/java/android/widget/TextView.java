@@ -0,0 +1,13 @@
+package android.widget;
+
+/**
+ * host stub, only the members used by the protocol classes are present
+ */
+public class TextView {
+    public void setText(CharSequence text) {
+    }
+
+    public CharSequence getText() {
+        return "";
+    }
+}
@@ -0,0 +1,7 @@
+package androidx.annotation;
+
+/**
+ * host stub
+ */
+public @interface NonNull {
+}
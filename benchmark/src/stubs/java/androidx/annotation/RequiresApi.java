@@ -0,0 +1,10 @@
+package androidx.annotation;
+
+/**
+ * host stub
+ */
+public @interface RequiresApi {
+    int api() default 1;
+
+    int value() default 1;
+}